@@ -0,0 +1,44 @@
+package chess;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks with allocation profiling always on, so every
+ * result reports bytes allocated per operation alongside its time.
+ * <br>
+ * Takes the usual JMH command line options, e.g. a benchmark name pattern,
+ * or {@code -rf json -rff baseline.json} to save results for comparison
+ * against a later run.
+ * @author wcaine
+ */
+public final class BenchmarkMain {
+   /**
+    * Fixed positions the benchmarks run on, chosen by their {@code position}
+    * parameter: the start, busy middlegames with every kind of move, and an
+    * endgame.
+    */
+   static final String[] POSITIONS = {
+      "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+      "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+      "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10",
+      "rnbqkb1r/pp1p1ppp/5n2/2pPp3/8/8/PPP1PPPP/RNBQKBNR w KQkq e6 0 4",
+      "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1"
+   };
+
+   private BenchmarkMain() {
+   }
+
+   public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+      Options options = new OptionsBuilder()
+              .parent(new CommandLineOptions(args))
+              .addProfiler(GCProfiler.class)
+              .build();
+      new Runner(options).run();
+   }
+}
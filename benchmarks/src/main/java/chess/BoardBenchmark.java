@@ -0,0 +1,69 @@
+package chess;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times drawing the boards shown by {@link ChessBoard#display()}, without
+ * printing them, in each {@link BoardRenderer} format: from scratch, after
+ * a move (alternating with the position one move on), and from the cache.
+ * @see BenchmarkMain#POSITIONS
+ * @author wcaine
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BoardBenchmark {
+
+   @Param({"0", "1", "2", "3", "4"})
+   public int position;
+
+   @Param({"UNICODE", "ASCII", "ANSI", "SVG"})
+   public String format;
+
+   private final Position[] positions = {new Position(), new Position()};
+   private BoardRenderer.Format style;
+   private BoardRenderer renderer, cached;
+   private int next;
+
+   @Setup
+   public void setup() throws ReflectiveOperationException {
+      style = (BoardRenderer.Format) BoardRenderer.class.getField(format).get(null);
+      positions[0] = Position.fromFEN(BenchmarkMain.POSITIONS[position]);
+      positions[1].copyFrom(positions[0]);
+      int[] moves = new int[MoveGenerator.MAX_MOVES];
+      MoveGenerator.generate(positions[1], moves);
+      positions[1].makeMove(moves[0]);
+      renderer = new BoardRenderer(style, 0);
+      cached = new BoardRenderer(style, 64);
+   }
+
+   @Benchmark
+   public String fresh() {
+      return new BoardRenderer(style, 0).render(positions[0]);
+   }
+
+   @Benchmark
+   public String move() {
+      next ^= 1;
+      return renderer.render(positions[next]);
+   }
+
+   @Benchmark
+   public String cached() {
+      return cached.render(positions[0]);
+   }
+}
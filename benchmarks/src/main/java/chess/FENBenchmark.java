@@ -0,0 +1,73 @@
+package chess;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Times FEN validation, conversion and square lookups.
+ * @see BenchmarkMain#POSITIONS
+ * @author wcaine
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FENBenchmark {
+
+   @Param({"0", "1", "2", "3", "4"})
+   public int position;
+
+   private String fen;
+   private Position board;
+   private final Position scratch = new Position();
+   private final String[] squares = new String[64];
+
+   @Setup
+   public void setup() {
+      fen = BenchmarkMain.POSITIONS[position];
+      board = Position.fromFEN(fen);
+      for (int sq = 0; sq < 64; sq++) {
+         squares[sq] = Position.squareName(sq);
+      }
+   }
+
+   @Benchmark
+   public boolean validFEN() {
+      return FEN.validFEN(fen);
+   }
+
+   @Benchmark
+   public int parse() {
+      return FEN.parse(fen, scratch);
+   }
+
+   @Benchmark
+   public String[] getFEN6() {
+      return FEN.getFEN6(fen);
+   }
+
+   @Benchmark
+   public String toFEN() {
+      return board.toFEN();
+   }
+
+   @Benchmark
+   public void valueAt(Blackhole blackhole) {
+      for (String square : squares) {
+         blackhole.consume(FEN.valueAt(square, board));
+      }
+   }
+}
@@ -0,0 +1,81 @@
+package chess;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times applying every legal move of a position: as move ints made and
+ * taken back in place, and as expanded algebraic notation entered by a
+ * player and checked by {@link FEN#updateFEN(String, Position)}. One
+ * operation covers all of the position's moves.
+ * @see BenchmarkMain#POSITIONS
+ * @author wcaine
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MoveBenchmark {
+
+   @Param({"0", "1", "2", "3", "4"})
+   public int position;
+
+   private Position start;
+   private final Position board = new Position();
+   private int[] moves;
+   private String[] notation;
+
+   @Setup
+   public void setup() {
+      start = Position.fromFEN(BenchmarkMain.POSITIONS[position]);
+      int[] legal = new int[MoveGenerator.MAX_MOVES];
+      int count = MoveGenerator.generate(start, legal);
+      moves = java.util.Arrays.copyOf(legal, count);
+
+      // [piece]start[x]end[=promotion], as a player enters it
+      notation = new String[count];
+      for (int i = 0; i < count; i++) {
+         int move = moves[i];
+         int type = start.pieceAt(Move.from(move)) % 6;
+         notation[i] = (type == Position.PAWN ? "" : String.valueOf("PNBRQK".charAt(type)))
+                     + Position.squareName(Move.from(move)) + (Move.isCapture(move) ? "x" : "")
+                     + Position.squareName(Move.to(move))
+                     + (Move.isPromotion(move) ? "=" + "PNBRQK".charAt(Move.promotion(move)) : "");
+      }
+      board.copyFrom(start);
+   }
+
+   @Benchmark
+   public long makeUnmake() {
+      long keys = 0;
+      for (int move : moves) {
+         board.makeMove(move);
+         keys ^= board.key();
+         board.unmakeMove(move);
+      }
+      return keys;
+   }
+
+   @Benchmark
+   public long notation() {
+      long keys = 0;
+      for (String move : notation) {
+         board.copyFrom(start);
+         FEN.updateFEN(move, board);
+         keys ^= board.key();
+      }
+      return keys;
+   }
+}
@@ -0,0 +1,233 @@
+package chess;
+
+/**
+ * Precomputed attack tables for every piece type. Knight, king and pawn
+ * attacks are looked up directly by square; rook and bishop (and so queen)
+ * attacks are looked up through
+ * <a href="https://www.chessprogramming.org/Magic_Bitboards">magic bitboards</a>,
+ * which hash the relevant blockers on a square's rays into a shared table.
+ * <br>
+ * The magic numbers were found ahead of time by a seeded search over sparse
+ * random numbers; the tables themselves are filled at class load.
+ * @see Position
+ * @author wcaine
+ */
+public final class Attacks {
+
+   private static final long[] KNIGHT = new long[64];
+   private static final long[] KING = new long[64];
+   private static final long[][] PAWN = new long[2][64]; // squares attacked by a pawn of each color
+
+   private static final long[] ROOK_MASK = new long[64], BISHOP_MASK = new long[64];
+   private static final int[] ROOK_SHIFT = new int[64], BISHOP_SHIFT = new int[64];
+   private static final int[] ROOK_OFFSET = new int[64], BISHOP_OFFSET = new int[64];
+   private static final long[] ROOK_TABLE, BISHOP_TABLE;
+
+   private static final long[][] BETWEEN = new long[64][64]; // squares strictly between two aligned squares
+   private static final long[][] LINE = new long[64][64]; // full line through two aligned squares
+
+   private static final long[] ROOK_MAGIC = {
+      0x1080004008801020L, 0x0840092002C03000L, 0x1900200010400900L, 0x0880100008000480L,
+      0x4200100420080200L, 0x8100020100080400L, 0x0200040110886200L, 0x0200008040220411L,
+      0x0404800084400220L, 0x0000401000402000L, 0x0086001081220440L, 0x0408800800100280L,
+      0x000A001201040820L, 0x8848800200840080L, 0x4001000100040200L, 0x0442000102105084L,
+      0x9080010020804100L, 0x0040404000201009L, 0x0000808010002009L, 0x2200090021D00100L,
+      0x0008008008040080L, 0x0004004002010040L, 0x0011040008015042L, 0x00000A0001768104L,
+      0x0000800080204009L, 0x2010004140002001L, 0x9800200280100080L, 0x1000100080080080L,
+      0x0050500500080100L, 0x0000020080040080L, 0x0C10010400420810L, 0x1040008200005104L,
+      0x01808240088004A0L, 0x0882804004802000L, 0x0880402001001100L, 0x2000210409001000L,
+      0x2000480131001500L, 0x0000800400800200L, 0x000002380C001003L, 0x4600084882000431L,
+      0x0080002000504000L, 0x0300500020004002L, 0x0040408200220011L, 0x0010040008004040L,
+      0x0000080004008080L, 0x0010040002008080L, 0x2012004881020004L, 0x8300842444820011L,
+      0x0088403882010200L, 0x0820400080210100L, 0x0110910040A00300L, 0x0801100280080480L,
+      0x0242009008200600L, 0x1002000489500200L, 0x0040800200010080L, 0x0091800041000080L,
+      0x0000209300488001L, 0x04C1002414824001L, 0x020020000B001041L, 0x7000100004200901L,
+      0x8002002004100802L, 0x30010002084C0007L, 0x0888221800813004L, 0x4000002840840112L
+   };
+   private static final long[] BISHOP_MAGIC = {
+      0x20C0090901061081L, 0x0024040094030104L, 0x8210810200290200L, 0x0011040484620000L,
+      0x0081104002221000L, 0x0009012011001350L, 0x0081010802400380L, 0x0000420210010408L,
+      0x0008105002280050L, 0x0001028484040044L, 0x2A00880810408804L, 0x7020022282000100L,
+      0x0084040420100A50L, 0x000401010840E000L, 0x2020020210420888L, 0x0008084202012010L,
+      0x2010400810018800L, 0x0445122008020840L, 0x0804100808002008L, 0x0008002104110100L,
+      0x0061005820080800L, 0x2001000200820100L, 0x480C210084010800L, 0x3004442500480420L,
+      0x1010102240048100L, 0x00182009084220A3L, 0x8803090A10004205L, 0x0208080040202020L,
+      0x000C044084010040L, 0x00A1010002004106L, 0x6008210020640202L, 0x1600902112860801L,
+      0x00042008C1220200L, 0x010C042002440140L, 0x5022080200040820L, 0x0402004042940100L,
+      0x0860108400008020L, 0x000C080022021000L, 0x0264080652822100L, 0x4005031221010401L,
+      0x0004502410008400L, 0x000500B010A20400L, 0x0415094050080800L, 0x080000201800A104L,
+      0x4022A80304000110L, 0x4012140802028020L, 0x40200104010100A0L, 0x12810806008B0C41L,
+      0x0020441008080000L, 0x2002120084045420L, 0x0704020062080002L, 0x0000001084040001L,
+      0x0322200891240200L, 0xF040200210024800L, 0x0140824832008042L, 0x000210020A004602L,
+      0x0083042805141020L, 0x002C12009A011000L, 0x0041A00044140400L, 0x00004004020A0202L,
+      0x0000140010020210L, 0x2864160811012200L, 0x2060080841082A17L, 0xA010041108003100L
+   };
+
+   private static final int[][] ROOK_DIRECTIONS = {{1, 0}, {-1, 0}, {0, 1}, {0, -1}};
+   private static final int[][] BISHOP_DIRECTIONS = {{1, 1}, {1, -1}, {-1, 1}, {-1, -1}};
+
+   static {
+      int[][] knightSteps = {{1, 2}, {2, 1}, {2, -1}, {1, -2}, {-1, -2}, {-2, -1}, {-2, 1}, {-1, 2}};
+      int[][] kingSteps = {{1, 0}, {1, 1}, {0, 1}, {-1, 1}, {-1, 0}, {-1, -1}, {0, -1}, {1, -1}};
+      for (int sq = 0; sq < 64; sq++) {
+         KNIGHT[sq] = steps(sq, knightSteps);
+         KING[sq] = steps(sq, kingSteps);
+         PAWN[Position.WHITE][sq] = steps(sq, new int[][] {{-1, 1}, {1, 1}});
+         PAWN[Position.BLACK][sq] = steps(sq, new int[][] {{-1, -1}, {1, -1}});
+      }
+
+      // lay out each square's slice of the shared tables one after another
+      int rookSize = 0, bishopSize = 0;
+      for (int sq = 0; sq < 64; sq++) {
+         ROOK_MASK[sq] = relevantMask(sq, ROOK_DIRECTIONS);
+         BISHOP_MASK[sq] = relevantMask(sq, BISHOP_DIRECTIONS);
+         ROOK_SHIFT[sq] = 64 - Long.bitCount(ROOK_MASK[sq]);
+         BISHOP_SHIFT[sq] = 64 - Long.bitCount(BISHOP_MASK[sq]);
+         ROOK_OFFSET[sq] = rookSize;
+         BISHOP_OFFSET[sq] = bishopSize;
+         rookSize += 1 << Long.bitCount(ROOK_MASK[sq]);
+         bishopSize += 1 << Long.bitCount(BISHOP_MASK[sq]);
+      }
+      ROOK_TABLE = new long[rookSize];
+      BISHOP_TABLE = new long[bishopSize];
+
+      for (int sq = 0; sq < 64; sq++) {
+         fill(sq, ROOK_MASK[sq], ROOK_MAGIC[sq], ROOK_SHIFT[sq], ROOK_DIRECTIONS, ROOK_TABLE, ROOK_OFFSET[sq]);
+         fill(sq, BISHOP_MASK[sq], BISHOP_MAGIC[sq], BISHOP_SHIFT[sq], BISHOP_DIRECTIONS, BISHOP_TABLE, BISHOP_OFFSET[sq]);
+      }
+
+      for (int a = 0; a < 64; a++) {
+         for (int b = 0; b < 64; b++) {
+            if (a == b) continue;
+            long bBit = 1L << b;
+            if ((slidingAttacks(a, 0L, ROOK_DIRECTIONS) & bBit) != 0) {
+               BETWEEN[a][b] = slidingAttacks(a, bBit, ROOK_DIRECTIONS) & slidingAttacks(b, 1L << a, ROOK_DIRECTIONS);
+               LINE[a][b] = (slidingAttacks(a, 0L, ROOK_DIRECTIONS) & slidingAttacks(b, 0L, ROOK_DIRECTIONS)) | (1L << a) | bBit;
+            } else if ((slidingAttacks(a, 0L, BISHOP_DIRECTIONS) & bBit) != 0) {
+               BETWEEN[a][b] = slidingAttacks(a, bBit, BISHOP_DIRECTIONS) & slidingAttacks(b, 1L << a, BISHOP_DIRECTIONS);
+               LINE[a][b] = (slidingAttacks(a, 0L, BISHOP_DIRECTIONS) & slidingAttacks(b, 0L, BISHOP_DIRECTIONS)) | (1L << a) | bBit;
+            }
+         }
+      }
+   }
+
+   private Attacks() {
+   }
+
+   /**
+    * @param sq square index
+    * @return squares attacked by a knight on the square
+    */
+   public static long knight(int sq) {
+      return KNIGHT[sq];
+   }
+
+   /**
+    * @param sq square index
+    * @return squares attacked by a king on the square
+    */
+   public static long king(int sq) {
+      return KING[sq];
+   }
+
+   /**
+    * @param color color of the pawn
+    * @param sq square index
+    * @return squares attacked by a pawn of the color on the square
+    */
+   public static long pawn(int color, int sq) {
+      return PAWN[color][sq];
+   }
+
+   /**
+    * @param sq square index
+    * @param occupied all occupied squares
+    * @return squares attacked by a rook on the square, up to and including the first blocker on each ray
+    */
+   public static long rook(int sq, long occupied) {
+      return ROOK_TABLE[ROOK_OFFSET[sq] + (int) (((occupied & ROOK_MASK[sq]) * ROOK_MAGIC[sq]) >>> ROOK_SHIFT[sq])];
+   }
+
+   /**
+    * @param sq square index
+    * @param occupied all occupied squares
+    * @return squares attacked by a bishop on the square, up to and including the first blocker on each ray
+    */
+   public static long bishop(int sq, long occupied) {
+      return BISHOP_TABLE[BISHOP_OFFSET[sq] + (int) (((occupied & BISHOP_MASK[sq]) * BISHOP_MAGIC[sq]) >>> BISHOP_SHIFT[sq])];
+   }
+
+   /**
+    * @param sq square index
+    * @param occupied all occupied squares
+    * @return squares attacked by a queen on the square
+    */
+   public static long queen(int sq, long occupied) {
+      return rook(sq, occupied) | bishop(sq, occupied);
+   }
+
+   /**
+    * @return squares strictly between two squares on a shared rank, file or
+    *         diagonal; empty if they are not aligned
+    */
+   public static long between(int a, int b) {
+      return BETWEEN[a][b];
+   }
+
+   /**
+    * @return every square of the rank, file or diagonal through two squares;
+    *         empty if they are not aligned
+    */
+   public static long line(int a, int b) {
+      return LINE[a][b];
+   }
+
+   private static long steps(int sq, int[][] steps) {
+      long attacks = 0L;
+      int file = sq & 7, rank = sq >>> 3;
+      for (int[] step : steps) {
+         int f = file + step[0], r = rank + step[1];
+         if (f >= 0 && f < 8 && r >= 0 && r < 8) attacks |= 1L << (r * 8 + f);
+      }
+      return attacks;
+   }
+
+   // rays from the square walked one step at a time, stopping after the first blocker
+   private static long slidingAttacks(int sq, long occupied, int[][] directions) {
+      long attacks = 0L;
+      for (int[] direction : directions) {
+         int f = (sq & 7) + direction[0], r = (sq >>> 3) + direction[1];
+         while (f >= 0 && f < 8 && r >= 0 && r < 8) {
+            long bit = 1L << (r * 8 + f);
+            attacks |= bit;
+            if ((occupied & bit) != 0) break;
+            f += direction[0];
+            r += direction[1];
+         }
+      }
+      return attacks;
+   }
+
+   // squares whose occupancy can change the attacks (rays without their edge squares)
+   private static long relevantMask(int sq, int[][] directions) {
+      long mask = 0L;
+      for (int[] direction : directions) {
+         int f = (sq & 7) + direction[0], r = (sq >>> 3) + direction[1];
+         while (f + direction[0] >= 0 && f + direction[0] < 8 && r + direction[1] >= 0 && r + direction[1] < 8) {
+            mask |= 1L << (r * 8 + f);
+            f += direction[0];
+            r += direction[1];
+         }
+      }
+      return mask;
+   }
+
+   private static void fill(int sq, long mask, long magic, int shift, int[][] directions, long[] table, int offset) {
+      // enumerate every subset of the mask (carry-rippler) and store its attacks at the magic index
+      long subset = 0L;
+      do {
+         table[offset + (int) ((subset * magic) >>> shift)] = slidingAttacks(sq, subset, directions);
+         subset = (subset - mask) & mask;
+      } while (subset != 0);
+   }
+}
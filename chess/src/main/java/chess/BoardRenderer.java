@@ -0,0 +1,356 @@
+package chess;
+
+import java.util.Arrays;
+
+/**
+ * Draws boards as text, in any {@link Format}: Unicode figurines
+ * ({@link #UNICODE}, as {@link ChessBoard#display} shows), {@link #ASCII},
+ * {@link #ANSI} colors for terminals, or {@link #SVG} images.
+ * <p>
+ * A format gives the text around the squares once, and a glyph of one fixed
+ * width for each piece (or none) on a light or dark square. The renderer
+ * lays the whole board out in a reusable buffer once; after that, each
+ * drawing only rewrites the squares whose piece has changed since the last,
+ * so following a game costs a few glyph copies a move. Finished drawings
+ * are cached by the position's {@link Zobrist} key, in a table of fixed
+ * size that renderers {@linkplain #BoardRenderer(BoardRenderer) made from
+ * another} share, so a position many games reach is drawn once.
+ * <br>
+ * The color to move is drawn at the bottom unless a color is
+ * {@linkplain #setBottom set}. A renderer is used by one thread at a time;
+ * its cache may be shared between threads.
+ * @see ChessBoard#display
+ * @author wcaine
+ */
+public final class BoardRenderer {
+
+   /**
+    * Text around the squares and the glyphs on them. Rows are numbered from
+    * 0 at the top and columns from 0 at the left, whichever color is at the
+    * bottom.
+    */
+   public interface Format {
+      /**
+       * @return text before the first row
+       */
+      String header();
+
+      /**
+       * @param row row number
+       * @return text before the row's first square
+       */
+      default String rowStart(int row) {
+         return "";
+      }
+
+      /**
+       * @param row row number
+       * @param column column number
+       * @param dark if the square is dark
+       * @return text before the square's glyph
+       */
+      default String squareStart(int row, int column, boolean dark) {
+         return "";
+      }
+
+      /**
+       * @param piece piece code, or {@link Position#NONE} for an empty square
+       * @param dark if the square is dark
+       * @return the glyph, of the same length for every piece and square
+       */
+      String glyph(int piece, boolean dark);
+
+      /**
+       * @param row row number
+       * @param column column number
+       * @return text after the square's glyph
+       */
+      default String squareEnd(int row, int column) {
+         return "";
+      }
+
+      /**
+       * @param row row number
+       * @return text after the row's last square
+       */
+      default String rowEnd(int row) {
+         return "\n";
+      }
+
+      /**
+       * @return text after the last row
+       */
+      String footer();
+   }
+
+   // figurines and letters by piece code, as in Position#PIECE_CHARS
+   private static final String FIGURINES = "♙♘♗♖♕♔♟♞♝♜♛♚";
+   private static final String FRAME = "+-------------------+\n";
+
+   /**
+    * Unicode figurines in a frame of ASCII, with a square for each empty
+    * square: black for dark, white for light.
+    */
+   public static final Format UNICODE = new Format() {
+      @Override
+      public String header() {
+         return "\n" + FRAME;
+      }
+
+      @Override
+      public String rowStart(int row) {
+         return "|  ";
+      }
+
+      @Override
+      public String squareStart(int row, int column, boolean dark) {
+         return column == 0 ? "" : " ";
+      }
+
+      @Override
+      public String glyph(int piece, boolean dark) {
+         return piece != Position.NONE ? String.valueOf(FIGURINES.charAt(piece)) : dark ? "■" : "□";
+      }
+
+      @Override
+      public String rowEnd(int row) {
+         return "  |\n";
+      }
+
+      @Override
+      public String footer() {
+         return FRAME;
+      }
+   };
+
+   /**
+    * FEN letters in the frame of {@link #UNICODE}, with '.' for an empty
+    * square, for output that must stay ASCII.
+    */
+   public static final Format ASCII = new Format() {
+      @Override
+      public String header() {
+         return "\n" + FRAME;
+      }
+
+      @Override
+      public String rowStart(int row) {
+         return "|  ";
+      }
+
+      @Override
+      public String squareStart(int row, int column, boolean dark) {
+         return column == 0 ? "" : " ";
+      }
+
+      @Override
+      public String glyph(int piece, boolean dark) {
+         return piece != Position.NONE ? String.valueOf(Position.PIECE_CHARS.charAt(piece)) : ".";
+      }
+
+      @Override
+      public String rowEnd(int row) {
+         return "  |\n";
+      }
+
+      @Override
+      public String footer() {
+         return FRAME;
+      }
+   };
+
+   /**
+    * Solid figurines in white or black on squares colored by ANSI escape
+    * sequences (256 colors), for terminals.
+    */
+   public static final Format ANSI = new Format() {
+      @Override
+      public String header() {
+         return "";
+      }
+
+      @Override
+      public String squareStart(int row, int column, boolean dark) {
+         return dark ? "\033[48;5;137m" : "\033[48;5;180m";
+      }
+
+      @Override
+      public String glyph(int piece, boolean dark) {
+         if (piece == Position.NONE) return "\033[38;5;231m   ";
+         // every glyph is as long, so the piece's color code has three digits either way
+         return (piece < 6 ? "\033[38;5;231m " : "\033[38;5;232m ") + FIGURINES.charAt(6 + piece % 6) + " ";
+      }
+
+      @Override
+      public String rowEnd(int row) {
+         return "\033[0m\n";
+      }
+
+      @Override
+      public String footer() {
+         return "";
+      }
+   };
+
+   private static final int SVG_SQUARE = 45; // pixels
+
+   /**
+    * An SVG image: a square of {@value #SVG_SQUARE} pixels for each square
+    * and a figurine on it, drawn in text.
+    */
+   public static final Format SVG = new Format() {
+      @Override
+      public String header() {
+         int size = SVG_SQUARE * 8;
+         return "<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"" + size + "\" height=\"" + size
+              + "\" viewBox=\"0 0 " + size + " " + size + "\">\n"
+              + "<style>text{font:" + SVG_SQUARE * 4 / 5 + "px serif;text-anchor:middle}</style>\n";
+      }
+
+      @Override
+      public String squareStart(int row, int column, boolean dark) {
+         int x = column * SVG_SQUARE, y = row * SVG_SQUARE;
+         return "<rect x=\"" + x + "\" y=\"" + y + "\" width=\"" + SVG_SQUARE + "\" height=\"" + SVG_SQUARE
+              + "\" fill=\"" + (dark ? "#b58863" : "#f0d9b5") + "\"/><text x=\"" + (x + SVG_SQUARE / 2)
+              + "\" y=\"" + (y + SVG_SQUARE * 4 / 5) + "\">";
+      }
+
+      @Override
+      public String glyph(int piece, boolean dark) {
+         return piece != Position.NONE ? String.valueOf(FIGURINES.charAt(piece)) : " ";
+      }
+
+      @Override
+      public String squareEnd(int row, int column) {
+         return "</text>\n";
+      }
+
+      @Override
+      public String rowEnd(int row) {
+         return "";
+      }
+
+      @Override
+      public String footer() {
+         return "</svg>\n";
+      }
+   };
+
+   private static final long BLACK_BOTTOM = 0x9E3779B97F4A7C15L; // told apart in the cache from white at the bottom
+
+   private final Format format;
+   private final char[][] glyphs = new char[26][]; // by (piece + 1) * 2, plus 1 on a dark square
+   private final int width; // of every glyph
+   private final char[] text; // the board last drawn
+   private final int[] offsets = new int[64]; // of each square's glyph in the text, by row * 8 + column
+   private final byte[] drawn = new byte[64]; // piece drawn on each, by row * 8 + column
+   private int bottom = Position.NONE; // color drawn at the bottom, NONE for the color to move
+
+   // finished drawings by key; entries are replaced whole, so threads sharing them need no lock
+   private final Drawing[] cache;
+
+
+   /**
+    * @param format format to draw in
+    * @param cacheEntries drawings to cache, rounded down to a power of two; 0 for none
+    * @throws IllegalArgumentException if the format's glyphs differ in length
+    */
+   public BoardRenderer(Format format, int cacheEntries) {
+      this(format, cacheEntries > 0 ? new Drawing[Integer.highestOneBit(cacheEntries)] : null);
+   }
+
+   /**
+    * Makes a renderer for another game or thread, in the same format and
+    * sharing the same cache.
+    *
+    * @param other renderer to share with
+    */
+   public BoardRenderer(BoardRenderer other) {
+      this(other.format, other.cache);
+   }
+
+   private BoardRenderer(Format format, Drawing[] cache) {
+      this.format = format;
+      this.cache = cache;
+      for (int piece = Position.NONE; piece < 12; piece++) {
+         glyphs[(piece + 1) * 2] = format.glyph(piece, false).toCharArray();
+         glyphs[(piece + 1) * 2 + 1] = format.glyph(piece, true).toCharArray();
+      }
+      width = glyphs[0].length;
+      for (char[] glyph : glyphs) {
+         if (glyph.length != width) throw new IllegalArgumentException("Board format glyphs must all be as long");
+      }
+
+      // the board laid out empty, recording where each glyph goes
+      StringBuilder layout = new StringBuilder(format.header());
+      for (int row = 0; row < 8; row++) {
+         layout.append(format.rowStart(row));
+         for (int column = 0; column < 8; column++) {
+            boolean dark = isDark(row, column);
+            layout.append(format.squareStart(row, column, dark));
+            offsets[row * 8 + column] = layout.length();
+            layout.append(glyphs[dark ? 1 : 0]);
+            layout.append(format.squareEnd(row, column));
+         }
+         layout.append(format.rowEnd(row));
+      }
+      layout.append(format.footer());
+      text = new char[layout.length()];
+      layout.getChars(0, text.length, text, 0);
+      Arrays.fill(drawn, (byte) Position.NONE);
+   }
+
+   /**
+    * Draws one color at the bottom from now on, rather than the color to move.
+    *
+    * @param color {@link Position#WHITE}, {@link Position#BLACK}, or
+    *              {@link Position#NONE} for the color to move
+    */
+   public void setBottom(int color) {
+      this.bottom = color;
+   }
+
+   /**
+    * Draws a position.
+    *
+    * @param position position to draw
+    *
+    * @return the board drawn
+    */
+   public String render(Position position) {
+      int white = (bottom == Position.NONE ? position.sideToMove() : bottom) == Position.WHITE ? 1 : 0;
+      long key = position.key() ^ (white == 1 ? 0 : BLACK_BOTTOM);
+      Drawing cached = cache != null ? cache[(int) key & (cache.length - 1)] : null;
+      if (cached != null && cached.key == key) return cached.text;
+
+      // rows run from rank 8 down with white at the bottom, from rank 1 up with black; columns likewise
+      for (int slot = 0; slot < 64; slot++) {
+         int sq = white == 1 ? (7 - (slot >>> 3)) * 8 + (slot & 7) : (slot >>> 3) * 8 + 7 - (slot & 7);
+         int piece = position.board[sq];
+         if (piece == drawn[slot]) continue;
+         drawn[slot] = (byte) piece;
+         System.arraycopy(glyphs[(piece + 1) * 2 + (isDark(slot >>> 3, slot & 7) ? 1 : 0)], 0, text, offsets[slot], width);
+      }
+      String board = new String(text);
+      if (cache != null) cache[(int) key & (cache.length - 1)] = new Drawing(key, board);
+      return board;
+   }
+
+   // a1 is dark, and turning the board around keeps every square's color
+   private static boolean isDark(int row, int column) {
+      return ((row + column) & 1) == 1;
+   }
+
+   /**
+    * A finished drawing and the key of its position.
+    */
+   private static final class Drawing {
+      final long key;
+      final String text;
+
+      Drawing(long key, String text) {
+         this.key = key;
+         this.text = text;
+      }
+   }
+}
@@ -0,0 +1,303 @@
+package chess;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Builds an {@link OpeningBook} from a PGN file of any size.
+ * <p>
+ * Every valid game adds, for each of its first plies, its position's key and
+ * move with a weight from the game's result: 2 for the winner's moves, 1
+ * for either side's in a draw or an unfinished game, none for the loser's.
+ * Entries are gathered in fixed arrays, sorted and written out as a
+ * temporary run whenever the arrays fill, and the runs are merged into the
+ * book at the end, adding up the weights of a position's repeated moves
+ * (scaled down to 16 bits where they overflow) and ordering each
+ * position's moves by weight. Memory use is thus fixed however many games
+ * there are.
+ * <br>
+ * Run from the command line with
+ * {@code ChessPlayer book <input PGN> <output book> [plies]}.
+ * @author wcaine
+ */
+public final class BookBuilder {
+
+   /**
+    * Plies of each game added to the book by default.
+    */
+   public static final int DEFAULT_PLIES = 24;
+
+   private static final int RUN_ENTRIES = 1 << 22; // entries gathered before a run is written (64 MB)
+   private static final int MAX_WEIGHT = 0xFFFF;
+
+   private final long[] keys = new long[RUN_ENTRIES];
+   private final long[] data = new long[RUN_ENTRIES]; // book move << 32 | weight
+   private int count;
+   private final List<Path> runs = new ArrayList<>();
+   private final Path directory; // where runs are written
+
+
+   private BookBuilder(Path directory) {
+      this.directory = directory;
+   }
+
+   /**
+    * Builds a book and reports its size.
+    *
+    * @param args input PGN file, output book file, then optional plies per
+    *             game (default {@value #DEFAULT_PLIES})
+    */
+   public static void main(String[] args) {
+      if (args.length < 2) {
+         System.out.println("Usage: book <input PGN> <output book> [plies]");
+         return;
+      }
+      try {
+         int plies = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_PLIES;
+         long start = System.nanoTime();
+         long[] counts = build(Path.of(args[0]), Path.of(args[1]), plies);
+         System.out.printf("%d games (%d skipped as invalid), %d book entries in %.3f s%n",
+                           counts[0], counts[1], counts[2], (System.nanoTime() - start) / 1e9);
+      } catch (NumberFormatException e) {
+         System.out.println("Plies must be a number");
+      } catch (IOException e) {
+         System.out.println("Could not build the book: " + e.getMessage());
+      }
+   }
+
+   /**
+    * Builds a book from the first plies of every valid game of a PGN file.
+    *
+    * @param input PGN file
+    * @param output book file
+    * @param plies plies of each game to add
+    *
+    * @return counts of games, invalid games skipped, and book entries written
+    * @throws IOException if a file cannot be read or written
+    */
+   public static long[] build(Path input, Path output, int plies) throws IOException {
+      Path directory = output.toAbsolutePath().getParent();
+      BookBuilder builder = new BookBuilder(directory);
+      long games = 0, invalid = 0;
+      try (PGN.Reader in = new PGN.Reader(new InputStreamReader(Files.newInputStream(input), StandardCharsets.UTF_8))) {
+         PGN.Game game = new PGN.Game();
+         Position position = new Position();
+         int[] moves = new int[MoveGenerator.MAX_MOVES];
+         while (in.next(game)) {
+            games++;
+            if (PGN.replay(game, position, moves) != PGN.VALID) {
+               invalid++;
+               continue;
+            }
+            builder.add(game, position, plies);
+         }
+         if (builder.count > 0) builder.writeRun();
+         return new long[] {games, invalid, builder.merge(output)};
+      } finally {
+         for (Path run : builder.runs) {
+            Files.deleteIfExists(run);
+         }
+      }
+   }
+
+   private void add(PGN.Game game, Position position, int plies) throws IOException {
+      String fen = game.tag("FEN");
+      FEN.parse(fen != null ? fen : PGN.STANDARD_FEN, position);
+      String result = game.result();
+      for (int ply = 0; ply < Math.min(plies, game.moveCount()); ply++) {
+         int move = game.move(ply);
+         boolean white = position.sideToMove() == Position.WHITE;
+         int weight = switch (result) {
+            case "1-0" -> white ? 2 : 0;
+            case "0-1" -> white ? 0 : 2;
+            default -> 1;
+         };
+         if (weight > 0) {
+            if (count == RUN_ENTRIES) writeRun();
+            keys[count] = position.key();
+            data[count++] = (long) OpeningBook.encode(move) << 32 | weight;
+         }
+         position.makeMove(move);
+         if (position.halfmove() == 0) position.clearHistory();
+      }
+   }
+
+   // sorts the entries gathered, adds up repeats and writes them as a run
+   private void writeRun() throws IOException {
+      sort(0, count - 1);
+      Path run = Files.createTempFile(directory, "book", ".run");
+      runs.add(run);
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), 1 << 16))) {
+         for (int i = 0; i < count; ) {
+            long key = keys[i];
+            long move = data[i] >>> 32, weight = 0;
+            for (; i < count && keys[i] == key && data[i] >>> 32 == move; i++) {
+               weight += data[i] & 0xFFFFFFFFL;
+            }
+            out.writeLong(key);
+            out.writeInt((int) move);
+            out.writeInt((int) Math.min(weight, Integer.MAX_VALUE));
+         }
+      }
+      count = 0;
+   }
+
+   // merges the runs into the book; the number of entries written
+   private long merge(Path output) throws IOException {
+      PriorityQueue<Run> heads = new PriorityQueue<>();
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(output), 1 << 16))) {
+         for (Path path : runs) {
+            Run run = new Run(path);
+            if (run.next()) {
+               heads.add(run);
+            } else {
+               run.close();
+            }
+         }
+
+         long written = 0;
+         int[] moves = new int[MoveGenerator.MAX_MOVES];
+         long[] weights = new long[MoveGenerator.MAX_MOVES];
+         while (!heads.isEmpty()) {
+            // gather one position's moves from every run, adding up repeats
+            long key = heads.peek().key;
+            int moveCount = 0;
+            while (!heads.isEmpty() && heads.peek().key == key) {
+               Run run = heads.poll();
+               if (moveCount > 0 && moves[moveCount - 1] == run.move) {
+                  weights[moveCount - 1] += run.weight;
+               } else if (moveCount < moves.length) {
+                  moves[moveCount] = run.move;
+                  weights[moveCount++] = run.weight;
+               }
+               if (run.next()) {
+                  heads.add(run);
+               } else {
+                  run.close();
+               }
+            }
+            written += writePosition(out, key, moves, weights, moveCount);
+         }
+         return written;
+      } finally {
+         for (Run run : heads) {
+            run.close();
+         }
+      }
+   }
+
+   // one position's entries, heaviest first, scaled to 16 bits; the number written
+   private static int writePosition(DataOutputStream out, long key, int[] moves, long[] weights, int count) throws IOException {
+      long max = 0;
+      for (int i = 0; i < count; i++) {
+         max = Math.max(max, weights[i]);
+      }
+      // insertion sort by weight, descending: positions have few book moves
+      for (int i = 1; i < count; i++) {
+         int move = moves[i];
+         long weight = weights[i];
+         int j = i - 1;
+         for (; j >= 0 && weights[j] < weight; j--) {
+            moves[j + 1] = moves[j];
+            weights[j + 1] = weights[j];
+         }
+         moves[j + 1] = move;
+         weights[j + 1] = weight;
+      }
+      for (int i = 0; i < count; i++) {
+         long weight = max > MAX_WEIGHT ? Math.max(1, weights[i] * MAX_WEIGHT / max) : weights[i];
+         out.writeLong(key);
+         out.writeShort(moves[i]);
+         out.writeShort((int) weight);
+         out.writeInt(0); // learn
+      }
+      return count;
+   }
+
+   // quicksort of the entries by key (unsigned) and move, with insertion sort for short ranges
+   private void sort(int low, int high) {
+      while (high - low > 16) {
+         int middle = (low + high) >>> 1;
+         long pivotKey = keys[middle], pivotData = data[middle];
+         int i = low, j = high;
+         while (i <= j) {
+            while (compare(keys[i], data[i], pivotKey, pivotData) < 0) i++;
+            while (compare(keys[j], data[j], pivotKey, pivotData) > 0) j--;
+            if (i <= j) swap(i++, j--);
+         }
+         // recurse into the smaller side, loop on the larger
+         if (j - low < high - i) {
+            sort(low, j);
+            low = i;
+         } else {
+            sort(i, high);
+            high = j;
+         }
+      }
+      for (int i = low + 1; i <= high; i++) {
+         for (int j = i; j > low && compare(keys[j], data[j], keys[j - 1], data[j - 1]) < 0; j--) {
+            swap(j, j - 1);
+         }
+      }
+   }
+
+   private static int compare(long key, long data, long otherKey, long otherData) {
+      int byKey = Long.compareUnsigned(key, otherKey);
+      return byKey != 0 ? byKey : Long.compare(data >>> 32, otherData >>> 32);
+   }
+
+   private void swap(int i, int j) {
+      long key = keys[i], entry = data[i];
+      keys[i] = keys[j];
+      data[i] = data[j];
+      keys[j] = key;
+      data[j] = entry;
+   }
+
+   /**
+    * A run being merged, at its current entry.
+    */
+   private static final class Run implements Comparable<Run> {
+      private final DataInputStream in;
+      long key;
+      int move;
+      long weight;
+
+      Run(Path path) throws IOException {
+         in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16));
+      }
+
+      // moves to the next entry; false at the end of the run
+      boolean next() throws IOException {
+         try {
+            key = in.readLong();
+            move = in.readInt();
+            weight = in.readInt();
+            return true;
+         } catch (EOFException e) {
+            return false;
+         }
+      }
+
+      void close() throws IOException {
+         in.close();
+      }
+
+      @Override
+      public int compareTo(Run other) {
+         int byKey = Long.compareUnsigned(key, other.key);
+         return byKey != 0 ? byKey : Integer.compare(move, other.move);
+      }
+   }
+}
@@ -0,0 +1,173 @@
+package chess;
+
+import java.io.PrintWriter;
+
+/**
+ *
+ * @author wcaine
+ */
+public class ChessBoard {
+   private static final int HISTORY_KEPT = 256; // moves kept when trimming the undo stack
+   private final Position position; // bitboard position, converts to and from a FEN6
+   private boolean gameState; // if the game is not ended
+   private int result; // see GameResult
+   private BoardRenderer renderer; // made on first display, then kept to redraw only what moves
+   
+   
+   /**
+    * Assigns standard starting position to {@link #position this.position}.
+    * @see Position#fromFEN(String stdFEN)
+    * 
+    * @see GameLoop
+    */
+   ChessBoard() {
+      // if no FEN is entered, set the board with the standard chess starting position
+      this.position = Position.fromFEN("rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1");
+      System.out.println("Chessboard constructed!");
+      
+      adjudicate();
+      System.out.println("Standard game initiated.");
+   }
+   
+   /**
+    * Assigns given position to {@link #position this.position} after validation by
+    * {@link FEN#validFEN(CharSequence, Position) FEN.validFEN}, which parses
+    * it in the same pass. If invalid, assigns false to 
+    * {@link #gameState this.gameState} (default true) for user re-prompt via {@link GameLoop}.
+    */
+   ChessBoard(String inputFEN) {
+      this.position = new Position();
+      if (FEN.validFEN(inputFEN, this.position)) {
+         System.out.println("Valid FEN entered! Constructing board!");
+         adjudicate();
+         System.out.println("Chessboard constructed!");
+      } else {
+        // set gameState to false for the caller to re-prompt if FEN is invalid
+        this.position.clear();
+        this.gameState = false;
+      }
+   }
+
+   /**
+    * Wraps a position that has already been validated, without printing
+    * anything; for a {@link GameLoop}, which reports on its own output.
+    * 
+    * @param position valid position, owned by this board from now on
+    */
+   ChessBoard(Position position) {
+      this.position = position;
+      adjudicate();
+   }
+
+   /**
+    * @return the boardState, encoded as a FEN6
+    * @see Position#toFEN6()
+    */
+   public String[] getBoardState() {
+      return position.toFEN6();
+   }
+   
+   /**
+    * @return the position backing this board
+    */
+   public Position getPosition() {
+      return position;
+   }
+
+   /**
+    * @return the gameState
+    */
+   public boolean isGameState() {
+      return gameState;
+   }
+   
+   /**
+    * @return how the game ended, or {@link GameResult#ONGOING}
+    * @see GameResult#describe(int result, Position position)
+    */
+   public int getResult() {
+      return result;
+   }
+   
+   
+   /**
+    * Output a figurine chess board to the standard output based on {@link #position this.position}. 
+    * Whichever color to move is placed on bottom (white rank 1, black rank 8).
+    */
+   public void display() {
+      PrintWriter out = new PrintWriter(System.out);
+      display(out);
+      out.flush();
+   }
+   
+   /**
+    * Writes the figurine chess board of {@link #display()} to a writer, in a
+    * single write of the whole board.
+    * @see BoardRenderer#UNICODE
+    * 
+    * @param out writer to display the board on
+    */
+   public void display(PrintWriter out) {
+      if (renderer == null) renderer = new BoardRenderer(BoardRenderer.UNICODE, 0);
+      out.println();
+      out.println("Here's your board!");
+      
+      out.println(renderer.render(position));
+   }
+
+   /**
+    * Counts the leaf nodes of the legal move tree from the current position.
+    * @see Perft#perft(Position position, int depth)
+    * 
+    * @param depth number of plies to search
+    * @return number of leaf nodes at the depth
+    */
+   public long perft(int depth) {
+      return Perft.perft(position, depth);
+   }
+
+   void doMove(String inputData) {
+      FEN.updateFEN(inputData, position);
+      trimHistory();
+      adjudicate();
+   }
+   
+   /**
+    * Makes a move chosen by the computer player.
+    * @see Search#think(Position position, long millis, int maxDepth)
+    * 
+    * @param move legal move in this position, see {@link Move}
+    */
+   void doMove(int move) {
+      long start = Metrics.start();
+      position.makeMove(move);
+      trimHistory();
+      adjudicate();
+      Metrics.MOVE.stop(start);
+   }
+   
+   /**
+    * Ends the game on time: the color to move has run out.
+    * @see GameResult#onTime(Position position)
+    */
+   void timeForfeit() {
+      result = GameResult.onTime(position);
+      gameState = false;
+   }
+   
+   private void adjudicate() {
+      // the game ends as soon as a move decides it
+      result = GameResult.of(position);
+      gameState = result == GameResult.ONGOING;
+   }
+   
+   private void trimHistory() {
+      // moves are never taken back in a game, and no position before a capture
+      // or pawn move can repeat, so the undo stack only needs to reach back that far
+      if (position.halfmove() == 0) position.clearHistory();
+      
+      // otherwise keep the stack from filling in games of any length, leaving
+      // room for the computer's search and every position a repetition could reach
+      if (position.historyLength() > Position.MAX_HISTORY - Search.MAX_PLY) position.trimHistory(HISTORY_KEPT);
+   }
+}
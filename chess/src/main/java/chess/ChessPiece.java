@@ -1,3 +1,5 @@
+package chess;
+
 /**
  *
  * @author wcaine
@@ -0,0 +1,262 @@
+package chess;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Scanner;
+
+/**
+ *
+ * @author wcaine
+ */
+public class ChessPlayer {
+
+   private static final Scanner stdin = new Scanner(System.in); // for FEN#updateFEN prompts
+   
+   // search settings, fixed at startup by command line options
+   private static int hashMegabytes = 64;
+   private static int threads = 1;
+   private static Path pgnFile; // where games played are saved, if anywhere
+   private static Path bookFile; // opening book the computer plays from, if any
+   private static Path tablebaseDirectory; // endgame tablebases the computer plays from, if any
+   private static Path weightsFile; // evaluation weights replacing the built-in ones, if any
+   private static long metricsSeconds = -1; // time between metrics reports, or -1 if not logged
+   private static Path metricsFile; // where metrics are written for Prometheus, if anywhere
+   
+
+   /**
+    * Starts an interactive game, or another mode if one is named as the first
+    * argument:
+    * <ul>
+    *    <li>{@code perft [depth] [FEN]}: move generator node counts and speed, see {@link Perft#main}</li>
+    *    <li>{@code smpbench [depth] [max threads]}: search speed by thread count, see {@link SearchBenchmark#main}</li>
+    *    <li>{@code validate <input> [valid output] [error output]}: checks a file of FENs, see {@link FENBatch#main}</li>
+    *    <li>{@code uci}: speaks the Universal Chess Interface on standard input and output, see {@link UCI}</li>
+    *    <li>{@code serve [port] [address] [journal]}: hosts games for clients over TCP, saving them in a journal if one is given, see {@link GameServer#main}</li>
+    *    <li>{@code load [host:port] [sessions] [games] [idle sessions]}: plays games against a server, see {@link LoadClient#main}</li>
+    *    <li>{@code pgn <input> [valid output] [error output]}: replays a file of games, see {@link PGNBatch#main}</li>
+    *    <li>{@code replay <moves> [output] [FEN]}: plays a file of moves, see {@link #replay}</li>
+    *    <li>{@code book <input PGN> <output book> [plies]}: builds an opening book, see {@link BookBuilder#main}</li>
+    *    <li>{@code tablebase <directory> <tables or piece count>...}: generates endgame tablebases, see {@link TablebaseGenerator#main}</li>
+    *    <li>{@code match <openings> <output PGN> <engine A> <engine B> [games] [time control] [concurrency] [elo0 elo1]}: plays two UCI engines against each other, see {@link Match#main}</li>
+    *    <li>{@code index <output index> <input PGN>...}: indexes the positions of games, see {@link PositionIndexBuilder#main}</li>
+    *    <li>{@code find <index> <FEN or material>}: finds the games that reached a position or material balance, see {@link PositionIndex#main}</li>
+    *    <li>{@code weights <output>}: writes the evaluation weights in use, to be edited and loaded with {@code --eval}, see {@link Evaluation#write}</li>
+    * </ul>
+    * Options may come before the mode:
+    * <ul>
+    *    <li>{@code --hash <MB>}: size of the search's transposition table (default 64)</li>
+    *    <li>{@code --threads <N>}: number of search threads (default 1)</li>
+    *    <li>{@code --pgn <file>}: file to append every game played to, as PGN</li>
+    *    <li>{@code --book <file>}: opening book for the computer to play from, see {@link OpeningBook}</li>
+    *    <li>{@code --tb <directory>}: endgame tablebases for the computer to play from, see {@link Tablebases}</li>
+    *    <li>{@code --eval <file>}: evaluation weights to use instead of the built-in ones, see {@link Evaluation#load}</li>
+    *    <li>{@code --metrics <seconds>}: records {@link Metrics} and logs them to standard error every so many seconds, or only at exit if 0</li>
+    *    <li>{@code --metrics-file <file>}: records {@link Metrics} and writes them to a file for Prometheus, as often as they are logged (default every 10 seconds)</li>
+    * </ul>
+    * @param args the command line arguments
+    */
+   public static void main(String[] args) {
+      // read options, each followed by its value
+      int i = 0;
+      for (; i + 1 < args.length && args[i].startsWith("--"); i += 2) {
+         try {
+            switch (args[i]) {
+               case "--hash" -> hashMegabytes = Integer.parseInt(args[i + 1]);
+               case "--threads" -> threads = Integer.parseInt(args[i + 1]);
+               case "--pgn" -> pgnFile = Path.of(args[i + 1]);
+               case "--book" -> bookFile = Path.of(args[i + 1]);
+               case "--tb" -> tablebaseDirectory = Path.of(args[i + 1]);
+               case "--eval" -> weightsFile = Path.of(args[i + 1]);
+               case "--metrics" -> metricsSeconds = Math.max(Long.parseLong(args[i + 1]), 0);
+               case "--metrics-file" -> metricsFile = Path.of(args[i + 1]);
+               default -> {
+                  System.out.println("Unrecognized option " + args[i] + ". Terminating session.");
+                  return;
+               }
+            }
+         } catch (NumberFormatException e) {
+            System.out.println("Option " + args[i] + " needs a number. Terminating session.");
+            return;
+         }
+      }
+      // metrics are switched on before any thread that records them starts
+      if (metricsSeconds >= 0 || metricsFile != null) {
+         Metrics.enable();
+         Metrics.startReporting(metricsSeconds >= 0 ? metricsSeconds : 10, metricsSeconds >= 0 ? System.err : null, metricsFile);
+      }
+      // weights are loaded before any position is set up, as positions keep a score by them
+      if (weightsFile != null) {
+         try {
+            Evaluation.load(weightsFile);
+         } catch (IOException e) {
+            System.out.println("Could not load the evaluation weights " + weightsFile + ": " + e.getMessage() + ". Terminating session.");
+            return;
+         }
+      }
+      OpeningBook book = null;
+      if (bookFile != null) {
+         try {
+            book = OpeningBook.open(bookFile);
+         } catch (IOException e) {
+            System.out.println("Could not open the book " + bookFile + ": " + e.getMessage() + ". Terminating session.");
+            return;
+         }
+      }
+      Tablebases tablebases = null;
+      if (tablebaseDirectory != null) {
+         try {
+            tablebases = Tablebases.open(tablebaseDirectory);
+         } catch (IOException e) {
+            System.out.println("Could not open the tablebases in " + tablebaseDirectory + ": " + e.getMessage() + ". Terminating session.");
+            return;
+         }
+      }
+      String mode = i < args.length ? args[i] : "";
+      String[] modeArgs = i < args.length ? Arrays.copyOfRange(args, i + 1, args.length) : new String[0];
+      switch (mode) {
+         case "perft" -> Perft.main(modeArgs);
+         case "smpbench" -> SearchBenchmark.main(modeArgs);
+         case "validate" -> FENBatch.main(modeArgs);
+         case "pgn" -> PGNBatch.main(modeArgs);
+         case "serve" -> GameServer.main(modeArgs);
+         case "load" -> LoadClient.main(modeArgs);
+         case "book" -> BookBuilder.main(modeArgs);
+         case "tablebase" -> TablebaseGenerator.main(modeArgs);
+         case "uci" -> {
+            UCI uci = new UCI(new BufferedReader(new InputStreamReader(System.in)),
+                              new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out))), engine(tablebases));
+            uci.setBook(book);
+            uci.setTablebases(tablebases);
+            uci.run();
+         }
+         case "replay" -> replay(modeArgs, engine(tablebases));
+         case "index" -> PositionIndexBuilder.main(modeArgs);
+         case "find" -> PositionIndex.main(modeArgs);
+         case "weights" -> writeWeights(modeArgs);
+         case "match" -> Match.main(modeArgs, tablebases);
+         default -> {
+            GameLoop loop = new GameLoop(new BufferedReader(new InputStreamReader(System.in)),
+                                         new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out))), true,
+                                         engine(tablebases));
+            loop.setPGNFile(pgnFile);
+            loop.setBook(book);
+            loop.setTablebases(tablebases);
+            loop.run();
+         }
+      }
+   }
+   
+   /**
+    * Builds the search the computer player uses, with the table and threads
+    * of the command line options; only modes that search in this process
+    * need one, so the others never allocate its table.
+    *
+    * @param tablebases endgame tablebases to play from, or null for none
+    *
+    * @return the search
+    */
+   private static SearchPool engine(Tablebases tablebases) {
+      SearchPool engine = new SearchPool(new TranspositionTable(hashMegabytes), threads);
+      engine.setTablebases(tablebases);
+      return engine;
+   }
+   
+   /**
+    * Plays a file of moves, one per line in any {@link Notation} (SAN, long or UCI), on
+    * a {@link GameLoop} without prompts, then reports moves per second.
+    * Invalid moves are reported and skipped, as they would be if typed.
+    * 
+    * @param args file of moves, then optional file to write the game's
+    *             output to (none if "-" or left out), then optional FEN to
+    *             start from instead of the standard position
+    * @param engine search used by the computer opponent
+    */
+   private static void replay(String[] args, SearchPool engine) {
+      if (args.length < 1) {
+         System.out.println("Usage: replay <moves> [output] [FEN]");
+         return;
+      }
+      String fen = args.length > 2 ? String.join(" ", Arrays.copyOfRange(args, 2, args.length))
+                                   : "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+      Position position = new Position();
+      int result = FEN.parse(fen, position);
+      if (result != FEN.VALID) {
+         FEN.errorMessage(FEN.errorReason(result));
+         return;
+      }
+      
+      try (BufferedReader in = Files.newBufferedReader(Path.of(args[0]));
+           PrintWriter out = args.length > 1 && !args[1].equals("-")
+                           ? new PrintWriter(Files.newBufferedWriter(Path.of(args[1])))
+                           : new PrintWriter(Writer.nullWriter())) {
+         GameLoop loop = new GameLoop(in, out, false, engine);
+         loop.setPGNFile(pgnFile);
+         long start = System.nanoTime();
+         loop.replay(new ChessBoard(position));
+         long nanos = System.nanoTime() - start;
+         System.out.printf("%d moves in %.3f s, %d moves/s%n",
+                           loop.moves(), nanos / 1e9, loop.moves() * 1_000_000_000L / Math.max(nanos, 1));
+         System.out.println(position.toFEN());
+      } catch (IOException e) {
+         System.out.println("Could not replay " + args[0] + ": " + e.getMessage());
+      }
+   }
+   
+   /**
+    * Writes the evaluation weights in use to a file.
+    *
+    * @param args output file
+    */
+   private static void writeWeights(String[] args) {
+      if (args.length < 1) {
+         System.out.println("Usage: weights <output>");
+         return;
+      }
+      try {
+         Evaluation.write(Path.of(args[0]));
+         System.out.println("Evaluation weights written to " + args[0]);
+      } catch (IOException e) {
+         System.out.println("Could not write the evaluation weights: " + e.getMessage());
+      }
+   }
+   
+   /**
+    * Prompts the player to input a move in 
+    * <a href="https://en.wikipedia.org/wiki/Algebraic_notation_(chess)#Long_algebraic_notation">expanded algebraic notation</a>.
+    * Trims and reads to open {@link #helpMenu() help menu} if necessary.
+    * @see #stdin
+    * 
+    * @param colorToMove from a FEN6, {@linkplain FEN#getFEN6 FEN6}[1]; <b>must be 'w' or 'b'</b>
+    * 
+    * @return move (user input, unvalidated)
+    * @see FEN#updateFEN(String move, Position position)
+    */
+   public static String movePrompt(String colorToMove) {
+      // moves may be in standard, expanded or coordinate algebraic notation
+      while (true) {
+         if (colorToMove.equals("w")) {
+            System.out.println("White to move.");
+         } else {
+            System.out.println("Black to move.");
+         }
+         System.out.print("Please enter your move: ");
+         String inputData = stdin.nextLine();
+         inputData = inputData.trim();
+         
+         // bring up the help menu and prompt again on input "help"
+         if (!(inputData.equals("help") || inputData.equals("Help"))) return inputData;
+         PrintWriter out = new PrintWriter(System.out);
+         GameLoop.helpMenu(out);
+         out.flush();
+      }
+   }
+
+}
@@ -0,0 +1,353 @@
+package chess;
+
+/**
+ * A chess clock for one game, keeping both players' time in nanoseconds of
+ * {@link System#nanoTime()}. It has no thread of its own: time is only
+ * worked out when the clock is read or {@linkplain #punch punched} at the
+ * end of a move, which is also where a fallen flag is found. Games that
+ * must learn of flag-fall while a player is still thinking register with a
+ * {@link ClockTimer}, one of which serves any number of clocks.
+ * <p>
+ * Time controls combine:
+ * <ul>
+ *    <li>a base time, for the whole game or for each period</li>
+ *    <li>moves per period: after that many moves, the base time is added again</li>
+ *    <li>an increment, added after every move</li>
+ *    <li>a (simple) delay: each move's time only starts to count after it</li>
+ * </ul>
+ * and are written {@code [moves/]minutes[+increment][d delay]}, increment
+ * and delay in seconds: {@code 5+3}, {@code 40/90+30}, {@code 5d2}.
+ * <br>
+ * Every method is synchronized, as the timer thread reads clocks that
+ * game threads punch; the lock is uncontended almost always.
+ * @see GameLoop
+ * @author wcaine
+ */
+public final class Clock {
+
+   private static final long SECOND = 1_000_000_000L;
+
+   private final long base, increment, delay; // nanoseconds
+   private final int movesPerPeriod; // 0 for a single period
+
+   private final long[] remaining = new long[2]; // by color, as of the last punch
+   private final int[] movesMade = new int[2];
+   private int running = Position.NONE; // color whose time is running
+   private long started; // when the running color's move began
+   private int flagged = Position.NONE; // color whose flag has fallen
+
+   // registration with a shared timer
+   private ClockTimer timer;
+   private Runnable onFlag;
+   private ClockTimer.Deadline pending; // the one entry in the timer's queue, if any
+
+
+   /**
+    * @param baseNanos time for the game, or for each period
+    * @param incrementNanos time added after every move
+    * @param delayNanos time each move may take before the clock counts down
+    * @param movesPerPeriod moves after which the base time is added again, or 0
+    */
+   public Clock(long baseNanos, long incrementNanos, long delayNanos, int movesPerPeriod) {
+      if (baseNanos <= 0 || incrementNanos < 0 || delayNanos < 0 || movesPerPeriod < 0) {
+         throw new IllegalArgumentException("Time control needs a positive time and no negative parts");
+      }
+      this.base = baseNanos;
+      this.increment = incrementNanos;
+      this.delay = delayNanos;
+      this.movesPerPeriod = movesPerPeriod;
+      remaining[Position.WHITE] = remaining[Position.BLACK] = baseNanos;
+   }
+
+   /**
+    * Builds a clock from a time control such as {@code 5+3}, {@code 40/90+30}
+    * or {@code 5d2}: optional moves per period and "/", minutes, then
+    * optionally "+" and increment seconds and "d" and delay seconds.
+    *
+    * @param control time control
+    *
+    * @return a clock with both players' time set, not yet started
+    * @throws IllegalArgumentException if the time control is malformed
+    */
+   public static Clock parse(String control) {
+      String text = control.trim();
+      try {
+         int moves = 0;
+         int slash = text.indexOf('/');
+         if (slash >= 0) {
+            moves = Integer.parseInt(text.substring(0, slash));
+            text = text.substring(slash + 1);
+         }
+         long delay = 0;
+         int d = text.indexOf('d');
+         if (d >= 0) {
+            delay = seconds(text.substring(d + 1));
+            text = text.substring(0, d);
+         }
+         long increment = 0;
+         int plus = text.indexOf('+');
+         if (plus >= 0) {
+            increment = seconds(text.substring(plus + 1));
+            text = text.substring(0, plus);
+         }
+         return new Clock(seconds(text) * 60, increment, delay, moves);
+      } catch (NumberFormatException e) {
+         throw new IllegalArgumentException("Time control must look like 5+3, 40/90+30 or 5d2: " + control);
+      }
+   }
+
+   private static long seconds(String number) {
+      return Math.round(Double.parseDouble(number) * SECOND);
+   }
+
+   /**
+    * Starts the clock of the color to move, at the start of a game.
+    *
+    * @param color color whose time starts running
+    * @param now current {@link System#nanoTime()}
+    */
+   public synchronized void start(int color, long now) {
+      if (flagged != Position.NONE) return;
+      running = color;
+      started = now;
+      reschedule();
+   }
+
+   /**
+    * Ends the running color's move: charges its time, less any delay, and
+    * adds its increment and, at the end of a period, the next period's time;
+    * then starts the other color's time. If the time ran out before the move,
+    * the flag falls instead and the clock stops.
+    *
+    * @param now current {@link System#nanoTime()}
+    *
+    * @return if the move was made in time
+    */
+   public synchronized boolean punch(long now) {
+      if (flagged != Position.NONE) return false;
+      if (running == Position.NONE) return true;
+      int color = running;
+      remaining[color] -= Math.max(0, now - started - delay);
+      if (remaining[color] <= 0) {
+         flag(color);
+         return false;
+      }
+
+      remaining[color] += increment;
+      if (movesPerPeriod > 0 && ++movesMade[color] % movesPerPeriod == 0) remaining[color] += base;
+      running = 1 - color;
+      started = now;
+      reschedule();
+      return true;
+   }
+
+   /**
+    * Stops the clock, as at the end of a game, charging the running color
+    * its time so far.
+    *
+    * @param now current {@link System#nanoTime()}
+    */
+   public synchronized void stop(long now) {
+      if (running == Position.NONE) return;
+      remaining[running] -= Math.max(0, now - started - delay);
+      if (remaining[running] <= 0) {
+         flag(running);
+         return;
+      }
+      running = Position.NONE;
+      cancel();
+   }
+
+   /**
+    * @param color color to read the time of
+    * @param now current {@link System#nanoTime()}
+    * @return its time left, in nanoseconds; 0 once its flag has fallen
+    */
+   public synchronized long remaining(int color, long now) {
+      long left = remaining[color];
+      if (color == running) left -= Math.max(0, now - started - delay);
+      return Math.max(left, 0);
+   }
+
+   /**
+    * Finds a fallen flag without waiting for a move.
+    *
+    * @param now current {@link System#nanoTime()}
+    * @return the color whose flag has fallen, or {@link Position#NONE}
+    */
+   public synchronized int flagged(long now) {
+      if (flagged == Position.NONE && running != Position.NONE && remaining(running, now) == 0) flag(running);
+      return flagged;
+   }
+
+   /**
+    * @return the color whose time is running, or {@link Position#NONE}
+    */
+   public synchronized int running() {
+      return running;
+   }
+
+   /**
+    * Suggests how long the computer should think on its move: an even share
+    * of its time over the moves left in the period (or 30 moves), plus most
+    * of its increment and delay, never more than its time left.
+    *
+    * @param color computer's color
+    * @param now current {@link System#nanoTime()}
+    *
+    * @return milliseconds to think, at least 1
+    */
+   public synchronized long budgetMillis(int color, long now) {
+      long left = remaining(color, now);
+      int movesToGo = movesPerPeriod > 0 ? movesPerPeriod - movesMade[color] % movesPerPeriod : 30;
+      long share = left / movesToGo + (increment + delay) * 3 / 4;
+      return Math.max(1, Math.min(share, left - left / 10) / 1_000_000);
+   }
+
+   /**
+    * @return time for the game, or for each period, in nanoseconds
+    */
+   public long base() {
+      return base;
+   }
+
+   /**
+    * @return time added after every move, in nanoseconds
+    */
+   public long increment() {
+      return increment;
+   }
+
+   /**
+    * @return time each move may take before the clock counts down, in nanoseconds
+    */
+   public long delay() {
+      return delay;
+   }
+
+   /**
+    * @return moves after which the base time is added again, or 0
+    */
+   public int movesPerPeriod() {
+      return movesPerPeriod;
+   }
+
+   /**
+    * Sets both players' time left and moves made, as when a saved game is
+    * resumed; the clock must not have been started.
+    *
+    * @param whiteNanos white's time left
+    * @param blackNanos black's time left
+    * @param whiteMoves moves white has made
+    * @param blackMoves moves black has made
+    */
+   public synchronized void resume(long whiteNanos, long blackNanos, int whiteMoves, int blackMoves) {
+      remaining[Position.WHITE] = Math.max(whiteNanos, 1);
+      remaining[Position.BLACK] = Math.max(blackNanos, 1);
+      movesMade[Position.WHITE] = whiteMoves;
+      movesMade[Position.BLACK] = blackMoves;
+   }
+
+   /**
+    * @param color color to count for
+    * @return moves it has left in the current period, or 0 with a single period
+    */
+   public synchronized int movesToGo(int color) {
+      return movesPerPeriod > 0 ? movesPerPeriod - movesMade[color] % movesPerPeriod : 0;
+   }
+
+   /**
+    * @return the time control as a PGN TimeControl tag: "40/5400+30" or "300+3";
+    *         a delay has no PGN form and is left out
+    */
+   public String timeControl() {
+      StringBuilder out = new StringBuilder();
+      if (movesPerPeriod > 0) out.append(movesPerPeriod).append('/');
+      out.append(seconds(base));
+      if (increment > 0) out.append('+').append(seconds(increment));
+      return out.toString();
+   }
+
+   // whole seconds as such, fractions without trailing zeros
+   private static String seconds(long nanos) {
+      return java.math.BigDecimal.valueOf(nanos, 9).stripTrailingZeros().toPlainString();
+   }
+
+   /**
+    * @param nanos time
+    * @return the time as [h:]mm:ss.s, e.g. "4:59.8"
+    */
+   public static String format(long nanos) {
+      long tenths = Math.max(nanos, 0) / (SECOND / 10);
+      long seconds = tenths / 10, minutes = seconds / 60, hours = minutes / 60;
+      StringBuilder out = new StringBuilder(12);
+      if (hours > 0) out.append(hours).append(':').append(minutes % 60 < 10 ? "0" : "");
+      out.append(minutes % 60).append(':').append(seconds % 60 < 10 ? "0" : "").append(seconds % 60);
+      return out.append('.').append(tenths % 10).toString();
+   }
+
+   /**
+    * @param now current {@link System#nanoTime()}
+    * @return both players' time left, e.g. "White 4:59.8 | Black 5:00.0"
+    */
+   public String display(long now) {
+      return "White " + format(remaining(Position.WHITE, now)) + " | Black " + format(remaining(Position.BLACK, now));
+   }
+
+   // Shared timer
+   /**
+    * Registers with a shared timer, which runs the callback (on its thread)
+    * as soon as a flag falls while a player is thinking.
+    */
+   synchronized void watch(ClockTimer timer, Runnable onFlag) {
+      this.timer = timer;
+      this.onFlag = onFlag;
+      reschedule();
+   }
+
+   /**
+    * Called by the timer when a deadline it was given passes.
+    *
+    * @param due entry taken from the timer's queue
+    * @param now current {@link System#nanoTime()}
+    */
+   void timeUp(ClockTimer.Deadline due, long now) {
+      Runnable callback;
+      synchronized (this) {
+         if (due != pending) return; // replaced by a nearer deadline
+         pending = null;
+         if (running == Position.NONE) return;
+         if (remaining(running, now) > 0) {
+            // woken early; wait again for the same deadline
+            reschedule();
+            return;
+         }
+         callback = flag(running);
+      }
+      if (callback != null) callback.run();
+   }
+
+   // drops the flag of a color and stops the clock; the callback to run, if any
+   private Runnable flag(int color) {
+      remaining[color] = 0;
+      flagged = color;
+      running = Position.NONE;
+      cancel();
+      return onFlag;
+   }
+
+   // queues the running color's deadline, unless the entry queued already falls due no later
+   private void reschedule() {
+      if (timer == null || running == Position.NONE) return;
+      long deadline = started + delay + remaining[running];
+      if (pending != null && pending.nanoTime - deadline <= 0) return; // woken early, it queues again
+      cancel();
+      pending = timer.schedule(this, deadline);
+   }
+
+   private void cancel() {
+      if (pending == null) return;
+      timer.cancel(pending);
+      pending = null;
+   }
+}
@@ -0,0 +1,108 @@
+package chess;
+
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One thread watching the flags of any number of {@link Clock clocks}, so a
+ * server can host thousands of timed games without a thread per clock.
+ * <p>
+ * Each running clock has one deadline (the instant its running color's time
+ * runs out, at the latest) in a {@link DelayQueue}, which the thread waits
+ * on until the earliest deadline passes. A clock punched before its
+ * deadline keeps the entry if its next deadline is later, and is woken
+ * early and queued again then; only a nearer deadline replaces the entry.
+ * A clock that stops or flags takes its entry out, so a finished game is
+ * not kept reachable by the queue until its old deadline.
+ * <br>
+ * Flag callbacks run on the timer's thread and must be quick.
+ * @see Clock#punch(long now)
+ * @author wcaine
+ */
+public final class ClockTimer {
+
+   private final DelayQueue<Deadline> queue = new DelayQueue<>();
+   private final Thread thread;
+
+
+   /**
+    * Starts the timer's thread, a daemon.
+    */
+   public ClockTimer() {
+      thread = new Thread(this::run, "clock-timer");
+      thread.setDaemon(true);
+      thread.start();
+   }
+
+   /**
+    * Watches a clock from now on; when its running color's time runs out, its
+    * flag falls and the callback runs, without waiting for the move.
+    *
+    * @param clock clock to watch
+    * @param onFlag run once, on the timer's thread, when a flag falls
+    */
+   public void watch(Clock clock, Runnable onFlag) {
+      clock.watch(this, onFlag);
+   }
+
+   /**
+    * @return deadlines waiting, at most one per running clock
+    */
+   public int pending() {
+      return queue.size();
+   }
+
+   /**
+    * Stops the timer's thread; watched flags then only fall when punched.
+    */
+   public void shutdown() {
+      thread.interrupt();
+   }
+
+   Deadline schedule(Clock clock, long deadline) {
+      Deadline entry = new Deadline(clock, deadline);
+      queue.add(entry);
+      return entry;
+   }
+
+   void cancel(Deadline entry) {
+      queue.remove(entry);
+   }
+
+   private void run() {
+      try {
+         while (true) {
+            Deadline due = queue.take();
+            due.clock.timeUp(due, System.nanoTime());
+         }
+      } catch (InterruptedException e) {
+         // shut down
+      }
+   }
+
+   /**
+    * When a clock's flag falls, unless it has been punched since.
+    */
+   static final class Deadline implements Delayed {
+      final Clock clock;
+      final long nanoTime;
+
+      Deadline(Clock clock, long nanoTime) {
+         this.clock = clock;
+         this.nanoTime = nanoTime;
+      }
+
+      @Override
+      public long getDelay(TimeUnit unit) {
+         return unit.convert(nanoTime - System.nanoTime(), TimeUnit.NANOSECONDS);
+      }
+
+      @Override
+      public int compareTo(Delayed other) {
+         // nanoTime values are only comparable by their difference
+         long difference = nanoTime - ((Deadline) other).nanoTime;
+         return difference < 0 ? -1 : difference > 0 ? 1 : 0;
+      }
+   }
+}
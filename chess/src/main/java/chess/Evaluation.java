@@ -0,0 +1,438 @@
+package chess;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Scores positions for the {@link Search}, in centipawns from the point of
+ * view of the color to move (positive is good for the side to move).
+ * <p>
+ * A score is the sum of material, piece-square tables, mobility, pawn
+ * structure and the bishop pair, each with a middlegame and an endgame
+ * weight; the two sums are blended by the material left on the board
+ * (<a href="https://www.chessprogramming.org/Tapered_Eval">tapered
+ * evaluation</a>), so a king that should hide early is drawn to the center
+ * late.
+ * <br>
+ * Middlegame and endgame weights travel together, packed into one int as
+ * {@code eg << 16 + mg}, so one addition updates both. Material and
+ * piece-square weights are combined per piece code and square in
+ * {@link #PSQ}, which {@link Position} adds to and subtracts from as pieces
+ * are put and removed, so that part of the score is never recomputed.
+ * Pawn structure depends on the pawns alone and is cached by
+ * {@link Position#pawnKey pawn key}, each instance keeping its own cache,
+ * so a search thread evaluates with its own instance.
+ * <p>
+ * Every weight can be replaced from a text file with {@link #load}, and the
+ * current weights written out with {@link #write}, so they can be retuned
+ * without a rebuild. Piece-square tables are laid out as a board is
+ * printed, rank 8 first, from white's point of view.
+ * @author wcaine
+ */
+public final class Evaluation {
+   /**
+    * Piece values by type, in centipawns, for ordering captures; the king is
+    * never traded so has none.
+    */
+   static final int[] VALUE = {100, 320, 330, 500, 900, 0};
+
+   /**
+    * Material and piece-square weights by {@code piece << 6 | square}, packed,
+    * positive for white and negative for black.
+    */
+   static final int[] PSQ = new int[12 * 64];
+
+   // tunable weights, see #load; piece-square tables rank 8 first
+   private static final int[] MATERIAL_MG = {82, 337, 365, 477, 1025, 0};
+   private static final int[] MATERIAL_EG = {94, 281, 297, 512, 936, 0};
+   private static final int[][] PST_MG = {
+      { // pawn
+           0,   0,   0,   0,   0,   0,   0,   0,
+          50,  50,  50,  50,  50,  50,  50,  50,
+          10,  10,  20,  30,  30,  20,  10,  10,
+           5,   5,  10,  25,  25,  10,   5,   5,
+           0,   0,   0,  20,  20,   0,   0,   0,
+           5,  -5, -10,   0,   0, -10,  -5,   5,
+           5,  10,  10, -20, -20,  10,  10,   5,
+           0,   0,   0,   0,   0,   0,   0,   0},
+      { // knight
+         -50, -40, -30, -30, -30, -30, -40, -50,
+         -40, -20,   0,   0,   0,   0, -20, -40,
+         -30,   0,  10,  15,  15,  10,   0, -30,
+         -30,   5,  15,  20,  20,  15,   5, -30,
+         -30,   0,  15,  20,  20,  15,   0, -30,
+         -30,   5,  10,  15,  15,  10,   5, -30,
+         -40, -20,   0,   5,   5,   0, -20, -40,
+         -50, -40, -30, -30, -30, -30, -40, -50},
+      { // bishop
+         -20, -10, -10, -10, -10, -10, -10, -20,
+         -10,   0,   0,   0,   0,   0,   0, -10,
+         -10,   0,   5,  10,  10,   5,   0, -10,
+         -10,   5,   5,  10,  10,   5,   5, -10,
+         -10,   0,  10,  10,  10,  10,   0, -10,
+         -10,  10,  10,  10,  10,  10,  10, -10,
+         -10,   5,   0,   0,   0,   0,   5, -10,
+         -20, -10, -10, -10, -10, -10, -10, -20},
+      { // rook
+           0,   0,   0,   0,   0,   0,   0,   0,
+           5,  10,  10,  10,  10,  10,  10,   5,
+          -5,   0,   0,   0,   0,   0,   0,  -5,
+          -5,   0,   0,   0,   0,   0,   0,  -5,
+          -5,   0,   0,   0,   0,   0,   0,  -5,
+          -5,   0,   0,   0,   0,   0,   0,  -5,
+          -5,   0,   0,   0,   0,   0,   0,  -5,
+           0,   0,   0,   5,   5,   0,   0,   0},
+      { // queen
+         -20, -10, -10,  -5,  -5, -10, -10, -20,
+         -10,   0,   0,   0,   0,   0,   0, -10,
+         -10,   0,   5,   5,   5,   5,   0, -10,
+          -5,   0,   5,   5,   5,   5,   0,  -5,
+           0,   0,   5,   5,   5,   5,   0,  -5,
+         -10,   5,   5,   5,   5,   5,   0, -10,
+         -10,   0,   5,   0,   0,   0,   0, -10,
+         -20, -10, -10,  -5,  -5, -10, -10, -20},
+      { // king
+         -30, -40, -40, -50, -50, -40, -40, -30,
+         -30, -40, -40, -50, -50, -40, -40, -30,
+         -30, -40, -40, -50, -50, -40, -40, -30,
+         -30, -40, -40, -50, -50, -40, -40, -30,
+         -20, -30, -30, -40, -40, -30, -30, -20,
+         -10, -20, -20, -20, -20, -20, -20, -10,
+          20,  20,   0,   0,   0,   0,  20,  20,
+          20,  30,  10,   0,   0,  10,  30,  20}
+   };
+   private static final int[][] PST_EG = {
+      { // pawn
+           0,   0,   0,   0,   0,   0,   0,   0,
+          30,  30,  30,  30,  30,  30,  30,  30,
+          20,  20,  20,  20,  20,  20,  20,  20,
+          10,  10,  10,  10,  10,  10,  10,  10,
+           5,   5,   5,   5,   5,   5,   5,   5,
+           0,   0,   0,   0,   0,   0,   0,   0,
+           0,   0,   0,   0,   0,   0,   0,   0,
+           0,   0,   0,   0,   0,   0,   0,   0},
+      PST_MG[Position.KNIGHT].clone(),
+      PST_MG[Position.BISHOP].clone(),
+      new int[64], // rook
+      PST_MG[Position.QUEEN].clone(),
+      { // king
+         -50, -40, -30, -20, -20, -30, -40, -50,
+         -30, -20, -10,   0,   0, -10, -20, -30,
+         -30, -10,  20,  30,  30,  20, -10, -30,
+         -30, -10,  30,  40,  40,  30, -10, -30,
+         -30, -10,  30,  40,  40,  30, -10, -30,
+         -30, -10,  20,  30,  30,  20, -10, -30,
+         -30, -30,   0,   0,   0,   0, -30, -30,
+         -50, -30, -30, -30, -30, -30, -30, -50}
+   };
+   // per square a piece can move to that is neither its own nor guarded by an enemy pawn
+   private static final int[] MOBILITY_MG = {0, 4, 5, 2, 1, 0};
+   private static final int[] MOBILITY_EG = {0, 4, 5, 4, 2, 0};
+   // by rank from the pawn's own side, 0 (first rank) to 7
+   private static final int[] PASSED_MG = {0, 5, 10, 15, 25, 40, 60, 0};
+   private static final int[] PASSED_EG = {0, 10, 15, 25, 45, 70, 110, 0};
+   // middlegame, endgame
+   private static final int[] DOUBLED = {-10, -20};
+   private static final int[] ISOLATED = {-10, -15};
+   private static final int[] BISHOP_PAIR = {30, 50};
+
+   // every weight by the name it has in a file, in the order they are written
+   private static final String[] NAMES;
+   private static final int[][] WEIGHTS;
+   static {
+      String[] types = {"pawn", "knight", "bishop", "rook", "queen", "king"};
+      NAMES = new String[21];
+      WEIGHTS = new int[21][];
+      int i = 0;
+      NAMES[i] = "material.mg";
+      WEIGHTS[i++] = MATERIAL_MG;
+      NAMES[i] = "material.eg";
+      WEIGHTS[i++] = MATERIAL_EG;
+      for (int type = Position.PAWN; type <= Position.KING; type++) {
+         NAMES[i] = "pst." + types[type] + ".mg";
+         WEIGHTS[i++] = PST_MG[type];
+         NAMES[i] = "pst." + types[type] + ".eg";
+         WEIGHTS[i++] = PST_EG[type];
+      }
+      NAMES[i] = "mobility.mg";
+      WEIGHTS[i++] = MOBILITY_MG;
+      NAMES[i] = "mobility.eg";
+      WEIGHTS[i++] = MOBILITY_EG;
+      NAMES[i] = "passed.mg";
+      WEIGHTS[i++] = PASSED_MG;
+      NAMES[i] = "passed.eg";
+      WEIGHTS[i++] = PASSED_EG;
+      NAMES[i] = "doubled";
+      WEIGHTS[i++] = DOUBLED;
+      NAMES[i] = "isolated";
+      WEIGHTS[i++] = ISOLATED;
+      NAMES[i] = "bishop_pair";
+      WEIGHTS[i++] = BISHOP_PAIR;
+   }
+
+   // packed forms of the weights besides PSQ, rebuilt with it
+   private static final int[] MOBILITY = new int[6];
+   private static final int[] PASSED = new int[8];
+   private static int doubled, isolated, bishopPair;
+
+   static {
+      build();
+   }
+
+   // material left at the start, by the phase weights of knight 1, bishop 1, rook 2, queen 4
+   private static final int MAX_PHASE = 24;
+
+   private static final long FILE_A = 0x0101010101010101L, FILE_H = FILE_A << 7;
+   private static final int PAWN_ENTRIES = 1 << 14; // pawn cache slots, a power of two
+
+   private final long[] pawnKeys = new long[PAWN_ENTRIES];
+   private final int[] pawnScores = new int[PAWN_ENTRIES]; // packed, white minus black
+
+
+   /**
+    * Creates an evaluation with an empty pawn cache; one per search thread.
+    */
+   public Evaluation() {
+   }
+
+   /**
+    * @param position position to score
+    * @return score for the color to move
+    */
+   public int evaluate(Position position) {
+      long[] pieces = position.pieces;
+      int score = position.psq + pawns(position)
+                + mobility(position, Position.WHITE) - mobility(position, Position.BLACK);
+      if (Long.bitCount(pieces[Position.BISHOP]) >= 2) score += bishopPair;
+      if (Long.bitCount(pieces[6 + Position.BISHOP]) >= 2) score -= bishopPair;
+
+      int phase = Long.bitCount(pieces[Position.KNIGHT] | pieces[6 + Position.KNIGHT]
+                              | pieces[Position.BISHOP] | pieces[6 + Position.BISHOP])
+                + Long.bitCount(pieces[Position.ROOK] | pieces[6 + Position.ROOK]) * 2
+                + Long.bitCount(pieces[Position.QUEEN] | pieces[6 + Position.QUEEN]) * 4;
+      phase = Math.min(phase, MAX_PHASE); // early promotions
+      int tapered = (mg(score) * phase + eg(score) * (MAX_PHASE - phase)) / MAX_PHASE;
+      return position.sideToMove == Position.WHITE ? tapered : -tapered;
+   }
+
+   // packed mobility of a color's knights, bishops, rooks and queens
+   private static int mobility(Position position, int color) {
+      long[] pieces = position.pieces;
+      int offset = color * 6;
+      long enemyPawns = pieces[(color ^ 1) * 6 + Position.PAWN];
+      long guarded = color == Position.WHITE ? (enemyPawns >>> 9 & ~FILE_H) | (enemyPawns >>> 7 & ~FILE_A)
+                                             : (enemyPawns << 7 & ~FILE_H) | (enemyPawns << 9 & ~FILE_A);
+      long area = ~position.colors[color] & ~guarded;
+      long occupied = position.occupied;
+
+      int squares = 0;
+      for (long knights = pieces[offset + Position.KNIGHT]; knights != 0; knights &= knights - 1) {
+         squares += Long.bitCount(Attacks.knight(Long.numberOfTrailingZeros(knights)) & area);
+      }
+      int score = squares * MOBILITY[Position.KNIGHT];
+      squares = 0;
+      for (long bishops = pieces[offset + Position.BISHOP]; bishops != 0; bishops &= bishops - 1) {
+         squares += Long.bitCount(Attacks.bishop(Long.numberOfTrailingZeros(bishops), occupied) & area);
+      }
+      score += squares * MOBILITY[Position.BISHOP];
+      squares = 0;
+      for (long rooks = pieces[offset + Position.ROOK]; rooks != 0; rooks &= rooks - 1) {
+         squares += Long.bitCount(Attacks.rook(Long.numberOfTrailingZeros(rooks), occupied) & area);
+      }
+      score += squares * MOBILITY[Position.ROOK];
+      squares = 0;
+      for (long queens = pieces[offset + Position.QUEEN]; queens != 0; queens &= queens - 1) {
+         squares += Long.bitCount(Attacks.queen(Long.numberOfTrailingZeros(queens), occupied) & area);
+      }
+      return score + squares * MOBILITY[Position.QUEEN];
+   }
+
+   // packed pawn structure score, from the cache where the pawns were seen before
+   private int pawns(Position position) {
+      long key = position.pawnKey;
+      int slot = (int) key & (PAWN_ENTRIES - 1);
+      if (pawnKeys[slot] == key) return pawnScores[slot]; // no pawns: key 0, score 0, as the cache starts
+      int score = pawnStructure(position.pieces[Position.PAWN], position.pieces[6 + Position.PAWN]);
+      pawnKeys[slot] = key;
+      pawnScores[slot] = score;
+      return score;
+   }
+
+   private static int pawnStructure(long white, long black) {
+      int score = 0;
+
+      // a pawn with another of its color behind it is doubled
+      score += (Long.bitCount(white & north(white << 8)) - Long.bitCount(black & south(black >>> 8))) * doubled;
+      score += (Long.bitCount(white & ~adjacentFiles(white)) - Long.bitCount(black & ~adjacentFiles(black))) * isolated;
+
+      // a pawn no enemy pawn can stop or capture is passed
+      long blocked = south(black >>> 8);
+      blocked |= (blocked << 1 & ~FILE_A) | (blocked >>> 1 & ~FILE_H);
+      for (long passed = white & ~blocked; passed != 0; passed &= passed - 1) {
+         score += PASSED[Long.numberOfTrailingZeros(passed) >>> 3];
+      }
+      blocked = north(white << 8);
+      blocked |= (blocked << 1 & ~FILE_A) | (blocked >>> 1 & ~FILE_H);
+      for (long passed = black & ~blocked; passed != 0; passed &= passed - 1) {
+         score -= PASSED[7 - (Long.numberOfTrailingZeros(passed) >>> 3)];
+      }
+      return score;
+   }
+
+   // squares on or in front of any of the squares, toward rank 8
+   private static long north(long squares) {
+      squares |= squares << 8;
+      squares |= squares << 16;
+      return squares | squares << 32;
+   }
+
+   // squares on or in front of any of the squares, toward rank 1
+   private static long south(long squares) {
+      squares |= squares >>> 8;
+      squares |= squares >>> 16;
+      return squares | squares >>> 32;
+   }
+
+   // every square on the files beside those of the squares
+   private static long adjacentFiles(long squares) {
+      long files = north(south(squares));
+      return (files << 1 & ~FILE_A) | (files >>> 1 & ~FILE_H);
+   }
+
+   /**
+    * Packs a middlegame and an endgame weight into one int, so both are added
+    * and scaled together.
+    *
+    * @param mg middlegame weight
+    * @param eg endgame weight
+    *
+    * @return the packed weights
+    */
+   static int score(int mg, int eg) {
+      return (eg << 16) + mg;
+   }
+
+   /**
+    * @param score packed weights, see {@link #score(int, int)}
+    * @return the middlegame weight
+    */
+   static int mg(int score) {
+      return (short) score;
+   }
+
+   /**
+    * @param score packed weights, see {@link #score(int, int)}
+    * @return the endgame weight
+    */
+   static int eg(int score) {
+      return (short) ((score + 0x8000) >> 16);
+   }
+
+   // fills PSQ and the other packed weights from the tunable ones
+   private static void build() {
+      for (int piece = 0; piece < 12; piece++) {
+         int type = piece % 6;
+         for (int sq = 0; sq < 64; sq++) {
+            // tables are printed rank 8 first, so a white square is found flipped
+            int printed = piece < 6 ? sq ^ 56 : sq;
+            int score = score(MATERIAL_MG[type] + PST_MG[type][printed], MATERIAL_EG[type] + PST_EG[type][printed]);
+            PSQ[piece << 6 | sq] = piece < 6 ? score : -score;
+         }
+      }
+      for (int type = Position.PAWN; type <= Position.KING; type++) {
+         MOBILITY[type] = score(MOBILITY_MG[type], MOBILITY_EG[type]);
+      }
+      for (int rank = 0; rank < 8; rank++) {
+         PASSED[rank] = score(PASSED_MG[rank], PASSED_EG[rank]);
+      }
+      doubled = score(DOUBLED[0], DOUBLED[1]);
+      isolated = score(ISOLATED[0], ISOLATED[1]);
+      bishopPair = score(BISHOP_PAIR[0], BISHOP_PAIR[1]);
+   }
+
+   /**
+    * Replaces weights with those of a file, as written by {@link #write}:
+    * each weight's name followed by its values, with anything after a '#'
+    * on a line ignored. Weights the file leaves out keep their values; a
+    * file with any error changes none.
+    * <br>
+    * {@link smallText() NOTE:} Not thread-safe, and positions and
+    * evaluations made before keep the old weights; load before play starts.
+    *
+    * @param file weights file
+    *
+    * @throws IOException if the file cannot be read, or names an unknown
+    *                     weight, gives one the wrong number of values or
+    *                     has a value that is not a whole number
+    */
+   public static void load(Path file) throws IOException {
+      int[][] loaded = new int[WEIGHTS.length][];
+      int weight = -1, filled = 0;
+      for (String line : Files.readAllLines(file)) {
+         int comment = line.indexOf('#');
+         for (String token : (comment < 0 ? line : line.substring(0, comment)).trim().split("\\s+")) {
+            if (token.isEmpty()) continue;
+            if (Character.isLetter(token.charAt(0))) {
+               if (weight >= 0 && filled != loaded[weight].length) throw wrongCount(file, weight, filled);
+               weight = indexOf(token);
+               if (weight < 0) throw new IOException(file + ": unknown weight " + token);
+               loaded[weight] = new int[WEIGHTS[weight].length];
+               filled = 0;
+            } else {
+               if (weight < 0 || filled == loaded[weight].length) {
+                  throw new IOException(file + ": value " + token + " belongs to no weight");
+               }
+               try {
+                  loaded[weight][filled++] = Integer.parseInt(token);
+               } catch (NumberFormatException e) {
+                  throw new IOException(file + ": " + token + " is not a whole number");
+               }
+            }
+         }
+      }
+      if (weight >= 0 && filled != loaded[weight].length) throw wrongCount(file, weight, filled);
+
+      for (int i = 0; i < WEIGHTS.length; i++) {
+         if (loaded[i] != null) System.arraycopy(loaded[i], 0, WEIGHTS[i], 0, WEIGHTS[i].length);
+      }
+      build();
+   }
+
+   private static IOException wrongCount(Path file, int weight, int filled) {
+      return new IOException(file + ": " + NAMES[weight] + " has " + filled + " values, not " + WEIGHTS[weight].length);
+   }
+
+   private static int indexOf(String name) {
+      for (int i = 0; i < NAMES.length; i++) {
+         if (NAMES[i].equals(name)) return i;
+      }
+      return -1;
+   }
+
+   /**
+    * Writes every weight to a file that {@link #load} reads back, with
+    * piece-square tables eight values to a line.
+    *
+    * @param file file to write
+    *
+    * @throws IOException if the file cannot be written
+    */
+   public static void write(Path file) throws IOException {
+      try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file))) {
+         out.println("# evaluation weights in centipawns; middlegame (mg) and endgame (eg) are blended by material left");
+         out.println("# piece-square tables are from white's point of view, rank 8 first");
+         for (int i = 0; i < NAMES.length; i++) {
+            out.print(NAMES[i]);
+            int[] values = WEIGHTS[i];
+            for (int j = 0; j < values.length; j++) {
+               out.print(values.length == 64 && j % 8 == 0 ? "\n  " : " ");
+               out.printf(values.length == 64 ? "%4d" : "%d", values[j]);
+            }
+            out.println();
+         }
+         if (out.checkError()) throw new IOException("Could not write " + file);
+      }
+   }
+}
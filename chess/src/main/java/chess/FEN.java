@@ -0,0 +1,663 @@
+package chess;
+
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+
+/**
+ * Contains methods for FEN manipulation, validation and searching. See
+ * <a href="https://en.wikipedia.org/wiki/Forsyth–Edwards_Notation">Wikipedia
+ * article on Forsyth-Edwards Notation</a> for details on FEN notation.
+ * @see PositionIndex
+ * @author wcaine
+ */
+public class FEN {
+
+   /**
+    * Turns standard FEN into FEN6-style array, also converting to 
+    * {@linkplain #easyFEN(java.lang.String) ezFEN}. 
+    * <br>
+    * {@link smallText() NOTE:} Inputs should already be passed through 
+    * {@link #validFEN } for validation {@link smallText() (and be valid)} 
+    * before conversion to FEN6.
+    * <p>
+    * FEN6 array strings, by index: 
+    * <ol start="0">
+    *    <li>position</li>
+    *    <li>color to move</li>
+    *    <li>castling ability</li>
+    *    <li>en passant square</li>
+    *    <li>halfmove clock</li>
+    *    <li>(full) move number</li>
+    * </ol>
+    * See {@linkplain #parse} for the format of each string.
+    * @see #easyFEN(String standardPosition)
+    * 
+    * @param stdFEN FEN in standard notation, from user input in 
+    *               {@link ChessPlayer#main } after validation
+    * @see ChessBoard#ChessBoard(String inputFEN) 
+    * 
+    * @return FEN6
+    */ 
+   public static String[] getFEN6(String stdFEN) {
+      // break the FEN into individual parts, delimited by spaces; called FEN6 for the 6 parts:
+      // position, color to move, castling ability, en passant square, halfmove clock, (full) move number
+      String[] FEN6 = new String[6];
+      int start = 0;
+      for (int i = 0; i < FEN6.length; i++) {
+         int stop = moduleEnd(stdFEN, start);
+         FEN6[i] = stdFEN.substring(start, stop);
+         start = Math.min(stop + 1, stdFEN.length());
+      }
+      
+      FEN6[0] = easyFEN(FEN6[0]); // convert to ezFEN
+      
+      return FEN6;
+   }
+
+   /**
+    * Turns digits in passed FEN position string into series of '_' of length corresponding to 
+    * digit value. Ex: {@link smallText() ".../2pRN3/..."} -> 
+    * {@link smallText() ".../__pRN___/..."}. 
+    * <br>
+    * {@link smallText() NOTE:} FEN should already be passed through 
+    * {@link #validFEN } for validation {@link smallText() (and be valid)}
+    * before conversion to ezFEN.
+    * 
+    * @param standardPosition FEN6 position string; {@linkplain #getFEN6 FEN6}[0]
+    * 
+    * @return ezFEN
+    */
+   private static String easyFEN(String standardPosition) {
+      StringBuilder ezFEN = new StringBuilder(71);
+      for (int i = 0; i < standardPosition.length(); i++) {
+         char c = standardPosition.charAt(i);
+         if (c >= '1' && c <= '8') {
+            // if the character is a digit, replace with number of _
+            for (int j = 0; j < c - '0'; j++) {
+               ezFEN.append('_');
+            }
+         } else {
+            ezFEN.append(c);
+         }
+      }
+      
+      return ezFEN.toString();
+   }
+   
+   /**
+    * Looks up the piece on a square of a {@link Position} in constant time.
+    * 
+    * @param location square in algebraic notation, e.g. "e4"
+    * @param position position to search
+    * 
+    * @return FEN character of the piece on the square, or '_' if empty (as in an ezFEN)
+    */
+   static char valueAt(String location, Position position) {
+      return valueAt(location.charAt(0), location.charAt(1), position);
+   }
+   
+   private static char valueAt(char file, char rank, Position position) {
+      // turn file letter and rank digit into a square index (a1 = 0, h8 = 63)
+      return position.charAt(Position.square(file, rank));
+   }
+   
+   // perform moves
+   /**
+    * Updates the passed FEN6 with the move passed. Validates move notation 
+    * before processing via {@link #validMoveNotation}, then checks that the
+    * move is legal by matching it against the moves of the
+    * {@link MoveGenerator}; on failure, re-prompts the player for a new move.
+    * 
+    * @param FEN6 see {@link #getFEN6}
+    * @param move in extended algebraic notation, from user input {@link GameLoop }
+    * @see ChessBoard#doMove(String userInput)
+    */
+   public static void updateFEN(String move, String[] FEN6) {
+      Position position = new Position(FEN6);
+      updateFEN(move, position);
+      
+      // write the new position back into the FEN6
+      String[] updated = position.toFEN6();
+      System.arraycopy(updated, 0, FEN6, 0, FEN6.length);
+   }
+   
+   /**
+    * Makes the move passed on a {@link Position} in place, validating it as in
+    * {@link #updateFEN(String move, String[] FEN6)} without going through FEN6
+    * strings.
+    * 
+    * @param move in extended algebraic notation, from user input {@link GameLoop }
+    * @param position position to make the move on
+    * @see ChessBoard#doMove(String userInput)
+    */
+   public static void updateFEN(String move, Position position) {
+      String colorToMove = position.sideToMove() == Position.WHITE ? "w" : "b";
+      PrintWriter out = new PrintWriter(System.out, true);
+      
+      // re-prompt until the move entered is legal
+      int legalMove;
+      while ((legalMove = readMove(move, position, out)) == Move.NONE) {
+         move = ChessPlayer.movePrompt(colorToMove);
+      }
+      
+      position.makeMove(legalMove);
+   }
+   
+   /**
+    * Finds the legal move a player's input names, without making it.
+    * The move is read by {@link Notation#parse}, in standard, long or
+    * coordinate algebraic notation.
+    * 
+    * @param move as entered by a player
+    * @param position position the move is to be made on
+    * @param out writer to report the problem on if there is no such move
+    * 
+    * @return the move, or {@link Move#NONE} if the input is not a legal move
+    * @see GameLoop
+    */
+   public static int readMove(String move, Position position, PrintWriter out) {
+      int result = Notation.parse(move, position);
+      if (!Notation.isMove(result)) {
+         errorMessage(Notation.errorReason(result), out);
+         return Move.NONE;
+      }
+      return result;
+   }
+   
+   // Validation of FEN
+   /**
+    * Generates an error message output to the user in the form "Invalid FEN: {message}".
+    * @param message to be displayed as {message}
+    */
+   public static void errorMessage(String message) {
+      System.out.println("Invalid FEN: " + message);
+   }
+   
+   /**
+    * Generates an error message as in {@link #errorMessage(String)}, on the writer given.
+    * @param message to be displayed as {message}
+    * @param out writer to display it on
+    */
+   public static void errorMessage(String message, PrintWriter out) {
+      out.println("Invalid FEN: " + message);
+   }
+   
+   /**
+    * Checks if FEN formatting is valid using {@link #parse}, generating an
+    * {@link #errorMessage error message} if not.
+    * <br>
+    * {@link smallText() NOTE:} Passed FEN should be a full string, not a 
+    * {@link #getFEN6 FEN6} or {@link #easyFEN ezFEN}.
+    * <p>
+    * Accounts for logical errors of king beginning in 
+    * check with the wrong color to move and en passant square identified with 
+    * the wrong color to move.
+    * 
+    * @param testFEN user-inputted FEN (String), from {@link ChessPlayer#main } via {@link ChessBoard#ChessBoard(String inputFEN) }
+    * 
+    * @return true if valid, false if invalid
+    */
+   public static boolean validFEN(String testFEN) {
+      return validFEN(testFEN, SCRATCH.get());
+   }
+   
+   /**
+    * Checks if FEN formatting is valid as in {@link #validFEN(String)}, 
+    * filling the passed position from it.
+    * 
+    * @param testFEN FEN in standard notation
+    * @param position position to fill; only meaningful if the FEN is valid
+    * 
+    * @return true if valid, false if invalid
+    */
+   public static boolean validFEN(CharSequence testFEN, Position position) {
+      int result = parse(testFEN, position);
+      if (result != VALID) {
+         errorMessage(errorReason(result));
+         return false;
+      }
+      
+      return true;
+   }
+   
+   // reused by validFEN(String) so validation allocates nothing
+   private static final ThreadLocal<Position> SCRATCH = ThreadLocal.withInitial(Position::new);
+   
+   /**
+    * Result of {@link #parse} for a valid FEN; any other result is an error
+    * whose message is given by {@link #errorReason}.
+    */
+   public static final int VALID = 0;
+   
+   // error kinds, in the low byte of a parse result, with a detail above them
+   // (module number, rank number counted from rank 8, or piece character)
+   private static final int MODULE_COUNT = 1, BAD_MODULE = 2, FILE_COUNT = 3, TOO_MANY_PIECES = 4, BAD_EN_PASSANT = 5,
+                            MISSING_KING = 6, WRONG_SIDE_IN_CHECK = 7;
+   static final int ERROR_KINDS = 8; // one past the last, for tables by kind
+   
+   // piece code of each FEN character, or NONE; a table is cheaper than searching PIECE_CHARS per square
+   private static final byte[] PIECE_CODES = new byte[128];
+   static {
+      java.util.Arrays.fill(PIECE_CODES, (byte) Position.NONE);
+      for (int piece = 0; piece < Position.PIECE_CHARS.length(); piece++) {
+         PIECE_CODES[Position.PIECE_CHARS.charAt(piece)] = (byte) piece;
+      }
+   }
+   
+   // most pieces of each kind allowed, by piece code (those of a complete board)
+   private static final int[] MAX_PIECES = {8, 2, 2, 2, 1, 1, 8, 2, 2, 2, 1, 1};
+   
+   /**
+    * Validates a FEN in standard notation and fills a position from it in a
+    * single hand-rolled pass, without regular expressions or allocation.
+    * <p>
+    * Checks are reported in the same order, and with the same messages, as
+    * always: the number of modules (parts delimited by spaces), then the
+    * format of each module in turn, then the number of files on each rank
+    * and pieces of each kind, then the en passant square. Last, each side
+    * must have a king and the color not to move must not be in check, found
+    * from the position's attack maps without generating moves.
+    * <p>
+    * Allowable characters and orientations in each module:
+    * <ol start="0">
+    *    <li>position: 8 ranks of 1 to 8 of {@code KQRBNPkqrbnp1-8}, delimited by '/'</li>
+    *    <li>color to move: {@code w} or {@code b}</li>
+    *    <li>castling ability: {@code -}, or {@code KQkq} with any left out;
+    *        a right whose king or rook is not on its home square is dropped</li>
+    *    <li>en passant square: {@code -}, or a square</li>
+    *    <li>halfmove clock: 1 or 2 digits</li>
+    *    <li>(full) move number: digits</li>
+    * </ol>
+    * 
+    * @param fen FEN in standard notation; trailing spaces are ignored
+    * @param position position to fill, reused between calls; only meaningful if the FEN is valid
+    * 
+    * @return {@link #VALID}, or an error for {@link #errorReason}
+    * @see Metrics
+    */
+   public static int parse(CharSequence fen, Position position) {
+      long start = Metrics.start();
+      int result = parseModules(fen, position);
+      Metrics.FEN_PARSE.stop(start);
+      if (result != VALID) Metrics.fenError(result);
+      return result;
+   }
+   
+   private static int parseModules(CharSequence fen, Position position) {
+      position.clear();
+      
+      // trailing spaces do not start modules
+      int end = fen.length();
+      while (end > 0 && fen.charAt(end - 1) == ' ') end--;
+      
+      // ensure the FEN has 6 modules
+      int modules = 1;
+      for (int i = 0; i < end; i++) {
+         if (fen.charAt(i) == ' ') modules++;
+      }
+      if (modules != 6) return MODULE_COUNT;
+      
+      // position; a wrong count of files or pieces only counts once every module is well formed
+      int stop = moduleEnd(fen, 0);
+      int countResult = parsePosition(fen, 0, stop, position);
+      if ((countResult & 0xFF) == BAD_MODULE) return countResult;
+      
+      // color to move
+      int start = stop + 1;
+      stop = moduleEnd(fen, start);
+      char color = stop - start == 1 ? fen.charAt(start) : ' ';
+      if (color != 'w' && color != 'b') return BAD_MODULE | 2 << 8;
+      position.sideToMove = color == 'w' ? Position.WHITE : Position.BLACK;
+      
+      // castling ability, '-' or the letters K, Q, k, q in that order
+      start = stop + 1;
+      stop = moduleEnd(fen, start);
+      if (!(stop - start == 1 && fen.charAt(start) == '-')) {
+         int last = -1;
+         for (int i = start; i < stop; i++) {
+            int right = "KQkq".indexOf(fen.charAt(i));
+            if (right <= last) return BAD_MODULE | 3 << 8;
+            last = right;
+            position.castling |= 1 << right;
+         }
+      }
+      
+      // en passant square
+      start = stop + 1;
+      stop = moduleEnd(fen, start);
+      if (!(stop - start == 1 && fen.charAt(start) == '-')) {
+         if (stop - start != 2) return BAD_MODULE | 4 << 8;
+         char file = fen.charAt(start), rank = fen.charAt(start + 1);
+         if (file < 'a' || file > 'h' || rank < '1' || rank > '8') return BAD_MODULE | 4 << 8;
+         position.epSquare = Position.square(file, rank);
+      }
+      
+      // halfmove clock, 1 or 2 digits
+      start = stop + 1;
+      stop = moduleEnd(fen, start);
+      if (stop - start < 1 || stop - start > 2 || !digits(fen, start, stop)) return BAD_MODULE | 5 << 8;
+      position.halfmove = number(fen, start, stop);
+      
+      // (full) move number, any number of digits
+      start = stop + 1;
+      stop = end;
+      if (stop - start < 1 || !digits(fen, start, stop)) return BAD_MODULE | 6 << 8;
+      position.fullmove = number(fen, start, stop);
+      
+      if (countResult != VALID) return countResult;
+      return check(position);
+   }
+   
+   /**
+    * Finishes setting up a position whose pieces were put and whose state was
+    * set field by field, as {@link #parse} does: drops castling rights whose
+    * king or rook has left its home square, checks the en passant square,
+    * both kings and the color not to move, then hashes the state.
+    * 
+    * @param position position filled in but for its attack maps and state key
+    * 
+    * @return {@link #VALID}, or an error for {@link #errorReason}
+    */
+   static int check(Position position) {
+      position.castling &= castlingRights(position);
+      
+      // test if the en passant square contains a pawn in front
+      if (position.epSquare != Position.NONE && !epValid(position)) return BAD_EN_PASSANT;
+      
+      // each side needs its king, and the king of the color not to move cannot be in check
+      if (position.pieces[Position.KING] == 0 || position.pieces[6 + Position.KING] == 0) return MISSING_KING;
+      position.updateAttacks();
+      if ((position.attacks[position.sideToMove] & position.pieces[(position.sideToMove ^ 1) * 6 + Position.KING]) != 0) {
+         return WRONG_SIDE_IN_CHECK;
+      }
+      
+      // pieces were hashed as they were put on the board
+      position.key ^= position.stateKey();
+      return VALID;
+   }
+   
+   /**
+    * @param result result of {@link #parse}, other than {@link #VALID}
+    * @return message describing the error, for {@link #errorMessage}
+    */
+   public static String errorReason(int result) {
+      int detail = result >>> 8;
+      return switch (result & 0xFF) {
+         case MODULE_COUNT -> "FEN does not have the correct number of modules";
+         case BAD_MODULE -> "Bad module #" + detail;
+         case FILE_COUNT -> "Incorrect number of files on rank " + detail;
+         case TOO_MANY_PIECES -> "Too many pieces of type " + (char) detail;
+         case BAD_EN_PASSANT -> "The en passant square is invalid for this situation";
+         case MISSING_KING -> "Each side must have a king";
+         case WRONG_SIDE_IN_CHECK -> "The king of the color not to move is in check";
+         default -> "Unknown error";
+      };
+   }
+   
+   /**
+    * @param kind error kind, the low byte of a result of {@link #parse}
+    * @return short name of the kind, to count errors by in {@link Metrics}
+    */
+   static String errorKind(int kind) {
+      return switch (kind) {
+         case MODULE_COUNT -> "module_count";
+         case BAD_MODULE -> "bad_module";
+         case FILE_COUNT -> "file_count";
+         case TOO_MANY_PIECES -> "too_many_pieces";
+         case BAD_EN_PASSANT -> "bad_en_passant";
+         case MISSING_KING -> "missing_king";
+         case WRONG_SIDE_IN_CHECK -> "wrong_side_in_check";
+         default -> "unknown";
+      };
+   }
+   
+   // the rights the pieces still allow, with king and rook on their home squares
+   private static int castlingRights(Position position) {
+      int rights = 0;
+      long whiteRooks = position.pieces[Position.ROOK], blackRooks = position.pieces[6 + Position.ROOK];
+      if ((position.pieces[Position.KING] & 1L << 4) != 0) {
+         if ((whiteRooks & 1L << 7) != 0) rights |= Position.WHITE_KINGSIDE;
+         if ((whiteRooks & 1L) != 0) rights |= Position.WHITE_QUEENSIDE;
+      }
+      if ((position.pieces[6 + Position.KING] & 1L << 60) != 0) {
+         if ((blackRooks & 1L << 63) != 0) rights |= Position.BLACK_KINGSIDE;
+         if ((blackRooks & 1L << 56) != 0) rights |= Position.BLACK_QUEENSIDE;
+      }
+      return rights;
+   }
+   
+   private static int moduleEnd(CharSequence fen, int start) {
+      int i = start;
+      while (i < fen.length() && fen.charAt(i) != ' ') i++;
+      return i;
+   }
+   
+   private static boolean digits(CharSequence fen, int start, int stop) {
+      for (int i = start; i < stop; i++) {
+         char c = fen.charAt(i);
+         if (c < '0' || c > '9') return false;
+      }
+      return true;
+   }
+   
+   private static int number(CharSequence fen, int start, int stop) {
+      // saturate rather than overflow on absurdly long move numbers
+      long value = 0;
+      for (int i = start; i < stop; i++) {
+         value = Math.min(value * 10 + (fen.charAt(i) - '0'), Integer.MAX_VALUE);
+      }
+      return (int) value;
+   }
+   
+   private static int parsePosition(CharSequence fen, int start, int stop, Position position) {
+      // ranks run from rank 8 to rank 1, each from file a to h
+      int rankCount = 1; // for error display
+      int rankLength = 0, fileCount = 0;
+      long pieceCounts = 0L; // 4 bits per piece code
+      int countResult = VALID;
+      
+      for (int i = start; i < stop; i++) {
+         char c = fen.charAt(i);
+         
+         // '/' marks rank end; each rank must hold 8 files
+         if (c == '/') {
+            if (rankLength == 0 || rankCount == 8) return BAD_MODULE | 1 << 8;
+            if (fileCount != 8 && countResult == VALID) countResult = FILE_COUNT | rankCount << 8;
+            rankCount++;
+            rankLength = fileCount = 0;
+            continue;
+         }
+         if (++rankLength > 8) return BAD_MODULE | 1 << 8;
+         
+         // digits represent empty squares
+         if (c >= '1' && c <= '8') {
+            fileCount += c - '0';
+            continue;
+         }
+         
+         int piece = c < 128 ? PIECE_CODES[c] : Position.NONE;
+         if (piece < 0) return BAD_MODULE | 1 << 8;
+         if (fileCount < 8) position.put(piece, (8 - rankCount) * 8 + fileCount);
+         fileCount++;
+         
+         pieceCounts += 1L << (piece * 4);
+         if (((pieceCounts >>> (piece * 4)) & 0xF) > MAX_PIECES[piece] && countResult == VALID) {
+            countResult = TOO_MANY_PIECES | c << 8;
+         }
+      }
+      
+      if (rankLength == 0 || rankCount != 8) return BAD_MODULE | 1 << 8;
+      // the last rank has no closing '/'
+      if (fileCount != 8 && countResult == VALID) countResult = FILE_COUNT | rankCount << 8;
+      return countResult;
+   }
+   
+   private static boolean epValid(Position position) {
+      // if the en passant square is on the 6th rank, and it is white to move, check the 5th rank for 'p'
+      // if on the 3rd, and it is black to move, check the 4th for 'P'
+      int epSquare = position.epSquare;
+      if (epSquare >>> 3 == 5 && position.sideToMove == Position.WHITE) {
+         return position.pieceAt(epSquare - 8) == Position.BLACK * 6 + Position.PAWN;
+      }
+      if (epSquare >>> 3 == 2 && position.sideToMove == Position.BLACK) {
+         return position.pieceAt(epSquare + 8) == Position.PAWN;
+      }
+      return false;
+   }
+   
+   // Serialization of FEN
+   /**
+    * Writes a position in standard notation to the end of a builder, without
+    * allocating.
+    * 
+    * @param position position to write
+    * @param out builder to append to
+    * 
+    * @return the builder
+    */
+   public static StringBuilder write(Position position, StringBuilder out) {
+      for (int rank = 7; rank >= 0; rank--) {
+         int empty = 0;
+         for (int file = 0; file < 8; file++) {
+            int piece = position.pieceAt(rank * 8 + file);
+            if (piece == Position.NONE) {
+               empty++;
+               continue;
+            }
+            if (empty > 0) out.append((char) ('0' + empty));
+            empty = 0;
+            out.append(Position.PIECE_CHARS.charAt(piece));
+         }
+         if (empty > 0) out.append((char) ('0' + empty));
+         if (rank > 0) out.append('/');
+      }
+      
+      out.append(' ').append(position.sideToMove() == Position.WHITE ? 'w' : 'b').append(' ');
+      int castling = position.castling();
+      if (castling == 0) out.append('-');
+      for (int right = 0; right < 4; right++) {
+         if ((castling & (1 << right)) != 0) out.append("KQkq".charAt(right));
+      }
+      out.append(' ');
+      int epSquare = position.epSquare();
+      if (epSquare == Position.NONE) {
+         out.append('-');
+      } else {
+         out.append((char) ('a' + (epSquare & 7))).append((char) ('1' + (epSquare >>> 3)));
+      }
+      return out.append(' ').append(position.halfmove()).append(' ').append(position.fullmove());
+   }
+   
+   /**
+    * Writes a position in standard notation as ASCII bytes at a buffer's
+    * position, without allocating.
+    * 
+    * @param position position to write
+    * @param out buffer with at least 92 bytes remaining
+    * 
+    * @return the buffer
+    */
+   public static ByteBuffer write(Position position, ByteBuffer out) {
+      for (int rank = 7; rank >= 0; rank--) {
+         int empty = 0;
+         for (int file = 0; file < 8; file++) {
+            int piece = position.pieceAt(rank * 8 + file);
+            if (piece == Position.NONE) {
+               empty++;
+               continue;
+            }
+            if (empty > 0) out.put((byte) ('0' + empty));
+            empty = 0;
+            out.put((byte) Position.PIECE_CHARS.charAt(piece));
+         }
+         if (empty > 0) out.put((byte) ('0' + empty));
+         if (rank > 0) out.put((byte) '/');
+      }
+      
+      out.put((byte) ' ').put((byte) (position.sideToMove() == Position.WHITE ? 'w' : 'b')).put((byte) ' ');
+      int castling = position.castling();
+      if (castling == 0) out.put((byte) '-');
+      for (int right = 0; right < 4; right++) {
+         if ((castling & (1 << right)) != 0) out.put((byte) "KQkq".charAt(right));
+      }
+      out.put((byte) ' ');
+      int epSquare = position.epSquare();
+      if (epSquare == Position.NONE) {
+         out.put((byte) '-');
+      } else {
+         out.put((byte) ('a' + (epSquare & 7))).put((byte) ('1' + (epSquare >>> 3)));
+      }
+      out.put((byte) ' ');
+      putNumber(position.halfmove(), out);
+      out.put((byte) ' ');
+      putNumber(position.fullmove(), out);
+      return out;
+   }
+   
+   private static void putNumber(int number, ByteBuffer out) {
+      int divisor = 1;
+      while (divisor <= number / 10) divisor *= 10;
+      for (; divisor > 0; divisor /= 10) {
+         out.put((byte) ('0' + number / divisor % 10));
+      }
+   }
+   
+   /**
+    * Reusable read-only view of ASCII bytes, in an array or a (possibly
+    * memory-mapped) buffer, as characters, so FENs can be {@linkplain #parse
+    * parsed} straight from raw input without decoding them into Strings.
+    */
+   public static final class Bytes implements CharSequence {
+      private byte[] array;
+      private ByteBuffer buffer;
+      private int offset, length;
+      
+      /**
+       * Views part of an array.
+       * @return this view
+       */
+      public Bytes wrap(byte[] array, int offset, int length) {
+         this.array = array;
+         this.buffer = null;
+         this.offset = offset;
+         this.length = length;
+         return this;
+      }
+      
+      /**
+       * Views part of a buffer, by absolute index; the buffer's position is unchanged.
+       * @return this view
+       */
+      public Bytes wrap(ByteBuffer buffer, int offset, int length) {
+         this.array = null;
+         this.buffer = buffer;
+         this.offset = offset;
+         this.length = length;
+         return this;
+      }
+      
+      @Override
+      public int length() {
+         return length;
+      }
+      
+      @Override
+      public char charAt(int index) {
+         return (char) ((array != null ? array[offset + index] : buffer.get(offset + index)) & 0xFF);
+      }
+      
+      @Override
+      public CharSequence subSequence(int start, int end) {
+         return toString().substring(start, end);
+      }
+      
+      @Override
+      public String toString() {
+         char[] chars = new char[length];
+         for (int i = 0; i < length; i++) {
+            chars[i] = charAt(i);
+         }
+         return new String(chars);
+      }
+   }
+}
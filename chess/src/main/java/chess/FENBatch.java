@@ -0,0 +1,253 @@
+package chess;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Validates and normalizes a file of positions, one FEN (or EPD record) per
+ * line, far faster than entering them at the {@link ChessPlayer} prompt.
+ * <p>
+ * The file is memory-mapped in chunks that end on line boundaries, and the
+ * chunks are validated in parallel on a {@link ForkJoinPool} with
+ * {@link FEN#parse}, straight from the mapped bytes. Chunks are handled a
+ * batch at a time and their results written in file order, so memory use
+ * stays bounded however large the file:
+ * <ul>
+ *    <li>valid positions go to the valid file, rewritten as normalized FENs</li>
+ *    <li>invalid lines go to the error file as {@code line number<TAB>reason<TAB>line}</li>
+ * </ul>
+ * EPD records (4 fields, optionally followed by {@code ;}-terminated
+ * operations) are read as FENs with halfmove clock 0 and move number 1.
+ * Blank lines are skipped but still counted for line numbers.
+ * <br>
+ * Run from the command line with
+ * {@code ChessPlayer validate <input> [valid output] [error output]}.
+ * @author wcaine
+ */
+public final class FENBatch {
+
+   private static final int CHUNK_BYTES = 8 << 20;
+   private static final int MAX_FEN_BYTES = 92; // longest normalized FEN, without its newline
+
+   private FENBatch() {
+   }
+
+   /**
+    * Runs the validation and reports lines per second.
+    *
+    * @param args input file, then optional valid and error output files
+    *             (default to the input's name with ".valid" and ".errors" added)
+    */
+   public static void main(String[] args) {
+      if (args.length < 1) {
+         System.out.println("Usage: validate <input> [valid output] [error output]");
+         return;
+      }
+      Path input = Path.of(args[0]);
+      Path validOutput = Path.of(args.length > 1 ? args[1] : args[0] + ".valid");
+      Path errorOutput = Path.of(args.length > 2 ? args[2] : args[0] + ".errors");
+
+      try {
+         long start = System.nanoTime();
+         long[] counts = validate(input, validOutput, errorOutput);
+         long nanos = System.nanoTime() - start;
+         System.out.printf("%d lines (%d valid, %d invalid) in %.3f s, %d lines/s%n",
+                           counts[0], counts[1], counts[2], nanos / 1e9, counts[0] * 1_000_000_000L / Math.max(nanos, 1));
+      } catch (IOException e) {
+         System.out.println("Could not validate " + input + ": " + e.getMessage());
+      }
+   }
+
+   /**
+    * Validates every line of a file, writing normalized FENs and errors.
+    *
+    * @param input file of FENs or EPD records, one per line
+    * @param validOutput file to write valid positions to, as FENs
+    * @param errorOutput file to write invalid lines and their reasons to
+    *
+    * @return counts of lines, valid lines and invalid lines
+    * @throws IOException if a file cannot be read or written
+    */
+   public static long[] validate(Path input, Path validOutput, Path errorOutput) throws IOException {
+      ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+      long lines = 0, valid = 0, invalid = 0;
+      try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+           FileChannel validOut = FileChannel.open(validOutput, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                   StandardOpenOption.TRUNCATE_EXISTING);
+           BufferedWriter errorOut = Files.newBufferedWriter(errorOutput)) {
+         long[] bounds = chunkBounds(in);
+         int chunkCount = bounds.length - 1;
+         int batchSize = pool.getParallelism() * 4;
+         FEN.Bytes line = new FEN.Bytes();
+
+         for (int first = 0; first < chunkCount; first += batchSize) {
+            Chunk[] batch = new Chunk[Math.min(batchSize, chunkCount - first)];
+            for (int i = 0; i < batch.length; i++) {
+               batch[i] = new Chunk(in.map(FileChannel.MapMode.READ_ONLY, bounds[first + i],
+                                           bounds[first + i + 1] - bounds[first + i]));
+            }
+            pool.invoke(new Validate(batch, 0, batch.length));
+
+            // write in file order, numbering lines from where the last chunk ended
+            for (Chunk chunk : batch) {
+               chunk.valid.flip();
+               while (chunk.valid.hasRemaining()) validOut.write(chunk.valid);
+               for (int e = 0; e < chunk.errorCount; e++) {
+                  int[] error = chunk.errors;
+                  line.wrap(chunk.data, error[e * 4 + 2], error[e * 4 + 3]);
+                  errorOut.append(Long.toString(lines + error[e * 4])).append('\t')
+                          .append(FEN.errorReason(error[e * 4 + 1])).append('\t')
+                          .append(line).append('\n');
+               }
+               lines += chunk.lines;
+               valid += chunk.validCount;
+               invalid += chunk.errorCount;
+            }
+         }
+      } finally {
+         pool.shutdown();
+      }
+      return new long[] {lines, valid, invalid};
+   }
+
+   // offsets splitting the file into chunks of about CHUNK_BYTES, each just after a newline
+   private static long[] chunkBounds(FileChannel in) throws IOException {
+      long size = in.size();
+      long[] bounds = new long[(int) (size / CHUNK_BYTES) + 2];
+      int count = 1; // bounds[0] = 0
+      ByteBuffer probe = ByteBuffer.allocate(256);
+      long offset = CHUNK_BYTES;
+      while (offset < size) {
+         // find the end of the line this offset falls in
+         long newline = -1;
+         for (long at = offset - 1; newline < 0 && at < size; at += probe.capacity()) {
+            probe.clear();
+            int read = in.read(probe, at);
+            for (int i = 0; i < read; i++) {
+               if (probe.get(i) == '\n') {
+                  newline = at + i;
+                  break;
+               }
+            }
+         }
+         if (newline < 0 || newline + 1 >= size) break;
+         bounds[count++] = newline + 1;
+         offset = newline + 1 + CHUNK_BYTES;
+      }
+      bounds[count++] = size;
+      return java.util.Arrays.copyOf(bounds, count);
+   }
+
+   /**
+    * Lines of one mapped chunk and the results of validating them.
+    */
+   private static final class Chunk {
+      final MappedByteBuffer data;
+      int lines;
+      ByteBuffer valid;
+      int validCount;
+      int[] errors = new int[64]; // line number in chunk, error, offset, length; per error
+      int errorCount;
+      private final byte[] epd = new byte[128];
+      private final FEN.Bytes epdLine = new FEN.Bytes();
+
+      Chunk(MappedByteBuffer data) {
+         this.data = data;
+      }
+
+      void validate() {
+         valid = ByteBuffer.allocate(Math.max(data.limit() / 2, 1024));
+         Position position = new Position();
+         FEN.Bytes line = new FEN.Bytes();
+
+         int limit = data.limit();
+         for (int start = 0; start < limit; ) {
+            int end = start;
+            while (end < limit && data.get(end) != '\n') end++;
+            int next = end + 1;
+            lines++;
+
+            // ignore Windows line endings and blank lines
+            if (end > start && data.get(end - 1) == '\r') end--;
+            if (end > start) {
+               line.wrap(data, start, end - start);
+               int result = FEN.parse(asFEN(line), position);
+               if (result == FEN.VALID) {
+                  if (valid.remaining() < MAX_FEN_BYTES + 1) valid = grow(valid);
+                  FEN.write(position, valid).put((byte) '\n');
+                  validCount++;
+               } else {
+                  if ((errorCount + 1) * 4 > errors.length) errors = java.util.Arrays.copyOf(errors, errors.length * 2);
+                  errors[errorCount * 4] = lines;
+                  errors[errorCount * 4 + 1] = result;
+                  errors[errorCount * 4 + 2] = start;
+                  errors[errorCount * 4 + 3] = end - start;
+                  errorCount++;
+               }
+            }
+            start = next;
+         }
+      }
+
+      // an EPD record's first 4 fields, with "0 1" as the missing move counters; a FEN as is
+      private CharSequence asFEN(FEN.Bytes line) {
+         int fields = 1, fourFields = line.length();
+         boolean operations = false;
+         for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == ';') operations = true;
+            if (c == ' ' && ++fields == 5 && fourFields == line.length()) fourFields = i;
+         }
+         if (!(fields == 4 || operations) || fourFields + 4 > epd.length) return line;
+
+         for (int i = 0; i < fourFields; i++) {
+            epd[i] = (byte) line.charAt(i);
+         }
+         epd[fourFields] = ' ';
+         epd[fourFields + 1] = '0';
+         epd[fourFields + 2] = ' ';
+         epd[fourFields + 3] = '1';
+         return epdLine.wrap(epd, 0, fourFields + 4);
+      }
+
+      private static ByteBuffer grow(ByteBuffer buffer) {
+         ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+         buffer.flip();
+         return larger.put(buffer);
+      }
+   }
+
+   /**
+    * Validates a range of chunks, splitting it in half until single chunks remain.
+    */
+   private static final class Validate extends RecursiveAction {
+      private static final long serialVersionUID = 1L;
+
+      private final Chunk[] chunks;
+      private final int from, to;
+
+      Validate(Chunk[] chunks, int from, int to) {
+         this.chunks = chunks;
+         this.from = from;
+         this.to = to;
+      }
+
+      @Override
+      protected void compute() {
+         if (to - from == 1) {
+            chunks[from].validate();
+            return;
+         }
+         int middle = (from + to) >>> 1;
+         invokeAll(new Validate(chunks, from, middle), new Validate(chunks, middle, to));
+      }
+   }
+}
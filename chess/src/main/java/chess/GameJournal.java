@@ -0,0 +1,324 @@
+package chess;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * An append-only file of the games in progress on a {@link GameServer}, so
+ * they survive the server stopping, or crashing, and are resumed when it
+ * starts again.
+ * <p>
+ * Each game is numbered when it {@linkplain #begin begins}. Records are
+ * appended as it goes: the whole game as a {@link GameSnapshot} when it
+ * begins or its clock is set, each move with the mover's time left, both
+ * players' time left when the game is left unfinished, and its end. Each
+ * record is its length as a variable-length integer, a CRC-32C of its body,
+ * then the body: a type byte, the game's number and the rest. Records are
+ * written straight to the file with no buffer in between, so a crash of the
+ * process loses none; {@link #close} forces them to the disk.
+ * <br>
+ * {@link #open} reads the journal through one direct buffer, decoding each
+ * snapshot in place, and keeps every game not yet ended to be
+ * {@linkplain #claim claimed}. The first record that is cut short or fails
+ * its check ends the journal, as a write torn by a crash would. Unless it
+ * held nothing but those games' snapshots, the journal is then rewritten as
+ * one snapshot per game left, to a new file that replaces the old in one
+ * move, so ended games and the moves of the others are not read again at
+ * the next start.
+ * @see GameSession
+ * @author wcaine
+ */
+public final class GameJournal implements Closeable {
+
+   static final int MAGIC = 0x43484a4e; // "CHJN"
+   static final int VERSION = 1;
+   private static final int HEADER_BYTES = 16; // magic, version and the next game's number
+
+   // record types
+   private static final byte GAME = 1, MOVE = 2, TIMES = 3, END = 4;
+
+   private static final int RECORD_HEAD = 9; // room before a body for its length and check
+   private static final int MAX_RECORD_BYTES = 1 << 24;
+   private static final int READ_BUFFER_BYTES = 1 << 20;
+
+   private final FileChannel channel;
+   private final Map<Long, GameSnapshot> open; // games left unfinished and not claimed
+   private long nextId;
+   private ByteBuffer record = ByteBuffer.allocateDirect(4096); // record being written
+   private final CRC32C check = new CRC32C();
+
+
+   private GameJournal(FileChannel channel, Map<Long, GameSnapshot> open, long nextId) {
+      this.channel = channel;
+      this.open = open;
+      this.nextId = nextId;
+   }
+
+   /**
+    * Opens a journal, creating it if missing, and reloads the games in it
+    * that had not ended.
+    *
+    * @param file journal file
+    *
+    * @return the journal, ready to append to
+    * @throws IOException if the file cannot be read or written, or is not a journal
+    */
+   public static GameJournal open(Path file) throws IOException {
+      Map<Long, GameSnapshot> open = new HashMap<>();
+      long[] read = {1, 0, 0}; // next game's number, records and bytes read
+      boolean checkpointed = false;
+      if (Files.exists(file)) {
+         try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            read(in, open, read);
+            checkpointed = read[1] == open.size() && read[2] == in.size();
+         }
+      }
+      long nextId = read[0];
+
+      // checkpoint: one snapshot per game left, swapped in for the old journal at once;
+      // a journal holding nothing else is kept as it is
+      if (!checkpointed) checkpoint(file, open, nextId);
+      FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE);
+      channel.position(channel.size());
+      return new GameJournal(channel, open, nextId);
+   }
+
+   private static void checkpoint(Path file, Map<Long, GameSnapshot> open, long nextId) throws IOException {
+      Path temporary = Files.createTempFile(file.toAbsolutePath().getParent(), "journal", ".tmp");
+      try {
+         GameJournal rewritten = new GameJournal(FileChannel.open(temporary, StandardOpenOption.WRITE), open, nextId);
+         try (rewritten) {
+            rewritten.writeHeader();
+            for (Map.Entry<Long, GameSnapshot> game : open.entrySet()) {
+               rewritten.writeGame(game.getKey(), game.getValue());
+            }
+         }
+         Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+         Files.deleteIfExists(temporary);
+      }
+   }
+
+   // reads every whole record into the games left open, counting the next game's number, records and bytes
+   private static void read(FileChannel in, Map<Long, GameSnapshot> open, long[] read) throws IOException {
+      ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BUFFER_BYTES).flip();
+      if (!fill(in, buffer, HEADER_BYTES) || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+         throw new IOException("Not a game journal");
+      }
+      long nextId = buffer.getLong(), records = 0, bytes = HEADER_BYTES;
+      CRC32C check = new CRC32C();
+      while (true) {
+         fill(in, buffer, 5); // the length may take fewer bytes than are left
+         if (!buffer.hasRemaining()) break;
+         int mark = buffer.position();
+         long length = varLong(buffer);
+         if (length < 2 || length > MAX_RECORD_BYTES) break;
+         int head = buffer.position() - mark + 4, size = head + (int) length;
+         buffer.position(mark);
+         if (size > buffer.capacity()) buffer = ByteBuffer.allocateDirect(size).put(buffer).flip();
+         if (!fill(in, buffer, size)) break;
+         buffer.position(buffer.position() + head - 4); // the record may have moved to the start
+         int expected = buffer.getInt();
+         ByteBuffer body = buffer.slice(buffer.position(), (int) length);
+         check.reset();
+         check.update(body.duplicate());
+         if ((int) check.getValue() != expected) break;
+         buffer.position(buffer.position() + (int) length);
+         records++;
+         bytes += size;
+
+         try {
+            int type = body.get();
+            long id = GameSnapshot.getVarLong(body);
+            nextId = Math.max(nextId, id + 1);
+            switch (type) {
+               case GAME -> open.put(id, GameSnapshot.read(body));
+               case MOVE -> {
+                  int move = body.getShort() & 0xFFFF;
+                  GameSnapshot game = open.get(id);
+                  if (game != null) game.addMove(move, GameSnapshot.getVarLong(body));
+               }
+               case TIMES -> {
+                  GameSnapshot game = open.get(id);
+                  if (game != null) game.setTimes(GameSnapshot.getVarLong(body), GameSnapshot.getVarLong(body));
+               }
+               case END -> open.remove(id);
+               default -> throw new IllegalArgumentException("Unknown record");
+            }
+         } catch (IllegalArgumentException | BufferUnderflowException e) {
+            // a record that passed its check but does not decode is dropped alone
+         }
+      }
+      read[0] = nextId;
+      read[1] = records;
+      read[2] = bytes;
+   }
+
+   // reads until at least some bytes are buffered; false if the file ends first
+   private static boolean fill(FileChannel in, ByteBuffer buffer, long bytes) throws IOException {
+      if (buffer.remaining() >= bytes) return true;
+      buffer.compact();
+      while (buffer.position() < bytes && in.read(buffer) >= 0) {
+         // reading
+      }
+      buffer.flip();
+      return buffer.remaining() >= bytes;
+   }
+
+   // a variable-length integer, or -1 if it is not whole in the buffer
+   private static long varLong(ByteBuffer buffer) {
+      long value = 0;
+      for (int shift = 0; shift < 35 && buffer.hasRemaining(); shift += 7) {
+         int b = buffer.get();
+         value |= (long) (b & 0x7F) << shift;
+         if (b >= 0) return value;
+      }
+      return -1;
+   }
+
+   /**
+    * Numbers a new game and saves it.
+    *
+    * @param game the game, as it starts
+    *
+    * @return its number
+    * @throws IOException if the record cannot be written
+    */
+   public synchronized long begin(GameSnapshot game) throws IOException {
+      long id = nextId++;
+      writeGame(id, game);
+      return id;
+   }
+
+   /**
+    * Saves a game whole again, as when its clock is set.
+    *
+    * @param id its number
+    * @param game the game
+    * @throws IOException if the record cannot be written
+    */
+   public synchronized void save(long id, GameSnapshot game) throws IOException {
+      writeGame(id, game);
+   }
+
+   /**
+    * Saves a move of a game.
+    *
+    * @param id its number
+    * @param move move played
+    * @param millisLeft the mover's time left after it, in milliseconds, or 0 if untimed
+    * @throws IOException if the record cannot be written
+    */
+   public synchronized void move(long id, int move, long millisLeft) throws IOException {
+      ByteBuffer body = body(id, MOVE, 12);
+      body.putShort((short) move);
+      GameSnapshot.putVarLong(body, Math.max(millisLeft, 0));
+      write();
+   }
+
+   /**
+    * Saves that a game has ended, so it is not resumed.
+    *
+    * @param id its number
+    * @throws IOException if the record cannot be written
+    */
+   public synchronized void end(long id) throws IOException {
+      body(id, END, 0);
+      write();
+   }
+
+   /**
+    * Leaves a game unfinished, to be claimed again, saving both players' time
+    * left.
+    *
+    * @param id its number
+    * @param game the game, with its times up to date
+    * @throws IOException if the record cannot be written
+    */
+   public synchronized void release(long id, GameSnapshot game) throws IOException {
+      open.put(id, game);
+      if (game.isTimed()) {
+         ByteBuffer body = body(id, TIMES, 20);
+         GameSnapshot.putVarLong(body, game.millisLeft(Position.WHITE));
+         GameSnapshot.putVarLong(body, game.millisLeft(Position.BLACK));
+         write();
+      }
+   }
+
+   /**
+    * Takes an unfinished game to be played on; no one else can claim it
+    * until it is {@linkplain #release released}.
+    *
+    * @param id its number
+    *
+    * @return the game, or null if no unfinished game has the number or it
+    *         is claimed already
+    */
+   public synchronized GameSnapshot claim(long id) {
+      return open.remove(id);
+   }
+
+   /**
+    * @return unfinished games not claimed
+    */
+   public synchronized int openGames() {
+      return open.size();
+   }
+
+   /**
+    * Forces every record to the disk and closes the file.
+    */
+   @Override
+   public synchronized void close() throws IOException {
+      if (!channel.isOpen()) return;
+      channel.force(true);
+      channel.close();
+   }
+
+   private void writeHeader() throws IOException {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION).putLong(nextId).flip();
+      while (header.hasRemaining()) {
+         channel.write(header);
+      }
+   }
+
+   private void writeGame(long id, GameSnapshot game) throws IOException {
+      game.write(body(id, GAME, game.maxBytes()));
+      write();
+   }
+
+   // the buffer, cleared for a body of at most some bytes after the type and number
+   private ByteBuffer body(long id, byte type, int bytes) throws IOException {
+      int capacity = RECORD_HEAD + 11 + bytes;
+      if (capacity - RECORD_HEAD > MAX_RECORD_BYTES) throw new IOException("Game too long to save");
+      if (record.capacity() < capacity) record = ByteBuffer.allocateDirect(Math.max(capacity, record.capacity() * 2));
+      record.clear().position(RECORD_HEAD);
+      record.put(type);
+      GameSnapshot.putVarLong(record, id);
+      return record;
+   }
+
+   // puts the length and check before the body and writes the record
+   private void write() throws IOException {
+      int length = record.position() - RECORD_HEAD;
+      check.reset();
+      check.update(record.slice(RECORD_HEAD, length));
+      int start = RECORD_HEAD - 4 - GameSnapshot.varLongBytes(length);
+      record.position(start);
+      GameSnapshot.putVarLong(record, length);
+      record.putInt((int) check.getValue()).position(start).limit(RECORD_HEAD + length);
+      while (record.hasRemaining()) {
+         channel.write(record);
+      }
+   }
+}
@@ -0,0 +1,464 @@
+package chess;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Runs games between players, and optionally the computer, as one
+ * iterative loop over a reader of player input and a writer of everything
+ * shown to them; no part of a session recurses, so sessions of any length
+ * and any amount of invalid input run in constant stack.
+ * <br>
+ * Output goes through the single buffered writer passed in. An interactive
+ * loop flushes it only before waiting for input; a scripted one (see
+ * {@link #replay}) never waits, so it runs at full speed and flushes at the
+ * end, which suits automated replay and soak testing.
+ * <p>
+ * The end of input is treated as "stop": the game in progress is ended and
+ * its FEN shown, along with the whole game as a {@link GameSnapshot}, which
+ * can be entered instead of a FEN to resume it with its moves and clocks.
+ * <br>
+ * Every game is recorded and shown as {@link PGN} when it ends, and
+ * appended to a file if one is {@linkplain #setPGNFile set}. Games may be
+ * timed by a {@link Clock}; a fallen flag is found when the move is entered.
+ * @see ChessPlayer#main
+ * @author wcaine
+ */
+public class GameLoop {
+
+   private static final String START_FEN = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+
+   private final BufferedReader in;
+   private final PrintWriter out;
+   private final boolean interactive; // flush before each read
+   private final SearchPool engine;
+
+   // computer opponent: the color it plays (Position.NONE for two players) and its time per move
+   private int computerColor = Position.NONE;
+   private long computerMillis;
+
+   private Clock clock; // null for an untimed game
+   private OpeningBook book; // moves the computer plays without searching, if any
+   private Tablebases tablebases; // endgame results shown to the players, if any
+
+   private long moves; // moves played, by players and computer alike
+
+   private final PGN.Game record = new PGN.Game(); // the game in progress
+   private GameSnapshot snapshot; // the same, to be saved and resumed
+   private GameSnapshot resumed; // a saved game entered instead of a FEN, until it is played
+   private Path pgnFile; // where finished games are appended, if anywhere
+
+
+   /**
+    * @param in source of player input, read a line at a time
+    * @param out destination of everything shown to the players
+    * @param interactive if a person is waiting on the output, so it is
+    *                    flushed before every read
+    * @param engine search used by the computer opponent
+    */
+   public GameLoop(BufferedReader in, PrintWriter out, boolean interactive, SearchPool engine) {
+      this.in = in;
+      this.out = out;
+      this.interactive = interactive;
+      this.engine = engine;
+   }
+
+   /**
+    * Runs sessions of setting up a game and playing it until the players
+    * stop or decline to play again, or input ends.
+    */
+   public void run() {
+      try {
+         while (true) {
+            ChessBoard board = newGame();
+            if (board == null) return;
+
+            if (resumed != null) {
+               clock = resumed.clock();
+            } else {
+               clockPrompt();
+            }
+            computerPrompt();
+
+            // inititate game upon user acceptance of rules
+            out.println();
+            out.println("""
+                        Know all moves must be expressed in algebraic notation.
+                        If unsure about how to express a move, input "help" at any time.
+                        In case of exit, enter "stop" at any time to pause the game and
+                        receive the FEN to pick up the game at another time.""");
+            out.println("Enter \"Y\" to begin game.");
+            out.print("   ");
+            String inputData = readLine();
+            if (inputData == null) return;
+            switch (inputData) {
+               case "Y", "y" -> { }
+               default -> {
+                  out.println("Unrecognized input. Terminating session.");
+                  return;
+               }
+            }
+
+            if (!play(board)) return;
+         }
+      } finally {
+         out.flush();
+      }
+   }
+
+   /**
+    * Plays the moves read from input on a board, with no setup prompts, as
+    * fast as they can be read; then ends the game as if "stop" were entered.
+    *
+    * @param board board to play on
+    */
+   public void replay(ChessBoard board) {
+      try {
+         play(board);
+      } finally {
+         out.flush();
+      }
+   }
+
+   /**
+    * Has the computer play from an opening book while it has the position.
+    *
+    * @param book opening book; null to always search
+    */
+   public void setBook(OpeningBook book) {
+      this.book = book;
+   }
+
+   /**
+    * Shows the result with best play whenever the position is in the
+    * endgame tablebases. The computer's search should be given the same
+    * tablebases to play such endgames perfectly.
+    *
+    * @param tablebases endgame tablebases; null for none
+    */
+   public void setTablebases(Tablebases tablebases) {
+      this.tablebases = tablebases;
+   }
+
+   /**
+    * Appends every game to a file of PGN as it ends.
+    *
+    * @param file PGN file, created if missing; null to save nothing
+    */
+   public void setPGNFile(Path file) {
+      this.pgnFile = file;
+   }
+
+   /**
+    * @return moves played so far, by players and the computer
+    */
+   public long moves() {
+      return moves;
+   }
+
+   private ChessBoard newGame() {
+      // re-prompt until a valid FEN (or nothing, for the standard position) is entered
+      Position position = new Position();
+      while (true) {
+         out.print("Enter starting position using FEN notation, or a saved game, or click enter for standard position: ");
+         String inputFEN = readLine();
+         if (inputFEN == null) return null;
+
+         // a FEN always has a '/', a saved game never
+         if (!inputFEN.isBlank() && inputFEN.indexOf('/') < 0) {
+            try {
+               GameSnapshot saved = GameSnapshot.decode(inputFEN);
+               ChessBoard board = saved.replay(position, null);
+               resumed = saved;
+               out.println("Valid saved game entered! Resuming after " + saved.moveCount() + " moves.");
+               return board;
+            } catch (IllegalArgumentException e) {
+               out.println("Invalid saved game: " + e.getMessage());
+               out.println();
+               continue;
+            }
+         }
+
+         if (inputFEN.isBlank()) {
+            FEN.parse(START_FEN, position);
+            out.println("Chessboard constructed!");
+            out.println("Standard game initiated.");
+            return new ChessBoard(position);
+         }
+
+         int result = FEN.parse(inputFEN, position);
+         if (result == FEN.VALID) {
+            out.println("Valid FEN entered! Constructing board!");
+            out.println("Chessboard constructed!");
+            return new ChessBoard(position);
+         }
+         FEN.errorMessage(FEN.errorReason(result), out);
+         out.println();
+      }
+   }
+
+   private void computerPrompt() {
+      // choose the color played by the computer, if any, and its time per move
+      out.print("Enter \"w\" or \"b\" for the computer to play that color, or click enter for two players: ");
+      String inputData = readLine();
+      computerColor = switch (inputData == null ? "" : inputData) {
+         case "W", "w" -> Position.WHITE;
+         case "B", "b" -> Position.BLACK;
+         default -> Position.NONE;
+      };
+      if (computerColor == Position.NONE || clock != null) return;
+
+      out.print("Enter seconds per computer move (default 5): ");
+      inputData = readLine();
+      try {
+         computerMillis = (long) (Double.parseDouble(inputData) * 1000);
+      } catch (NumberFormatException | NullPointerException e) {
+         computerMillis = 5000;
+      }
+      if (computerMillis <= 0) computerMillis = 5000;
+   }
+
+   private void clockPrompt() {
+      // choose a time control, if any
+      clock = null;
+      while (true) {
+         out.print("Enter a time control such as 5+3 (minutes + increment), 40/90+30 (moves per period) "
+                 + "or 5d2 (delay), or click enter for an untimed game: ");
+         String inputData = readLine();
+         if (inputData == null || inputData.isEmpty()) return;
+         try {
+            clock = Clock.parse(inputData);
+            return;
+         } catch (IllegalArgumentException e) {
+            out.println(e.getMessage());
+         }
+      }
+   }
+
+   /**
+    * Displays the board, prompts a move to be made (or has the computer choose
+    * one on its turn) and makes it, while the gameState = true.
+    *
+    * @return if a new game should be started
+    */
+   private boolean play(ChessBoard board) {
+      Position position = board.getPosition();
+      if (resumed != null) {
+         // the record starts where the saved game did, its moves played already
+         startRecord(resumed.startPosition(new Position()));
+         for (int ply = 0; ply < resumed.moveCount(); ply++) {
+            record.addMove(resumed.move(ply));
+         }
+         snapshot = resumed;
+         resumed = null;
+      } else {
+         startRecord(position);
+         snapshot = new GameSnapshot(position);
+         if (clock != null) snapshot.setClock(clock, System.nanoTime());
+      }
+      if (clock != null) {
+         record.tag("TimeControl", clock.timeControl());
+         clock.start(position.sideToMove(), System.nanoTime());
+      }
+      while (true) {
+         // display board and generate move prompt by color to move
+         board.display(out);
+         if (clock != null && board.isGameState()) out.println(clock.display(System.nanoTime()));
+         if (!board.isGameState()) {
+            out.println(GameResult.describe(board.getResult(), position));
+            return endGame(board, false);
+         }
+         if (position.isInCheck()) out.println("Check!");
+         if (tablebases != null) {
+            int verdict = GameResult.adjudicate(position, tablebases);
+            if (verdict != GameResult.ONGOING) out.println(GameResult.describe(verdict, position));
+         }
+
+         if (position.sideToMove() == computerColor) {
+            // a book move is played at once; otherwise search
+            int move = book != null ? book.choose(position) : Move.NONE;
+            boolean fromBook = move != Move.NONE;
+            if (!fromBook) {
+               long millis = clock != null ? clock.budgetMillis(computerColor, System.nanoTime()) : computerMillis;
+               engine.prepare();
+               move = engine.think(position, millis, Search.MAX_PLY);
+            }
+
+            // with no legal move left there is nothing to play
+            if (move == Move.NONE) return endGame(board, board.isGameState());
+
+            if (!punchClock(board)) continue;
+            if (fromBook) {
+               out.println("Computer plays " + Notation.toSAN(move, position) + " (book).");
+            } else {
+               out.println("Computer plays " + Notation.toSAN(move, position) + ".");
+               out.println(engine.report());
+            }
+            played(board, move);
+            continue;
+         }
+
+         // re-prompt until a legal move is entered, or the game is stopped
+         int move = Move.NONE;
+         while (move == Move.NONE) {
+            String inputData = movePrompt(position.sideToMove());
+
+            // end the game if the gameState is false or the user inputs "stop"
+            if (!board.isGameState() || inputData == null || inputData.equals("stop") || inputData.equals("Stop")) {
+               return endGame(board, board.isGameState());
+            }
+
+            move = FEN.readMove(inputData, position, out);
+         }
+         if (!punchClock(board)) continue;
+         played(board, move);
+      }
+   }
+
+   // records a move, with the mover's time left after it, and makes it
+   private void played(ChessBoard board, int move) {
+      int mover = board.getPosition().sideToMove();
+      snapshot.addMove(move, clock != null ? clock.remaining(mover, System.nanoTime()) / 1_000_000 : 0);
+      record.addMove(move);
+      board.doMove(move);
+      moves++;
+   }
+
+   // ends the mover's time; if it had run out, the game ends on time instead of with the move
+   private boolean punchClock(ChessBoard board) {
+      if (clock == null || clock.punch(System.nanoTime())) return true;
+      board.timeForfeit();
+      return false;
+   }
+
+   private boolean endGame(ChessBoard board, boolean gameNotOver) {
+      // print the FEN (and the time left) and, if the game is still going on,
+      // instruct to save for reentry; if the game is over, prompt to play again
+      out.println("Your FEN is:");
+      out.println(board.getPosition().toFEN());
+      if (clock != null) {
+         clock.stop(System.nanoTime());
+         out.println("Time left: " + clock.display(System.nanoTime()));
+         snapshot.setClock(clock, System.nanoTime());
+      }
+      saveRecord(board);
+      if (gameNotOver) {
+         out.println("Your saved game, with its moves and clocks, is:");
+         out.println(snapshot.encode());
+         out.println("   But the game's not over! Save the FEN or the saved game and "
+                 + "input it when you come back to keep playing!");
+         return false;
+      }
+
+      out.println("That was a great game! Play again? Y/N");
+      out.print("   ");
+      String inputData = readLine();
+
+      // begin a new game on Y, terminate on N or other character
+      switch (inputData == null ? "" : inputData) {
+         case "Y", "y" -> {
+            return true;
+         }
+         case "N", "n" -> out.println("Okay, terminating session.");
+         default -> out.println("Unrecognized input. Terminating session.");
+      }
+      return false;
+   }
+
+   private void startRecord(Position position) {
+      record.clear();
+      record.tag("Event", "Casual game");
+      record.tag("Site", "?");
+      record.tag("Date", LocalDate.now().format(DateTimeFormatter.ofPattern("yyyy.MM.dd")));
+      record.tag("Round", "-");
+      record.tag("White", computerColor == Position.WHITE ? "Computer" : "Player");
+      record.tag("Black", computerColor == Position.BLACK ? "Computer" : "Player");
+      String fen = position.toFEN();
+      if (!fen.equals(PGN.STANDARD_FEN)) {
+         record.tag("SetUp", "1");
+         record.tag("FEN", fen);
+      }
+   }
+
+   private void saveRecord(ChessBoard board) {
+      // show the game as PGN, and save it if a file is set
+      record.tag("Result", PGN.result(board.getResult(), board.getPosition()));
+      String pgn = PGN.write(record, new StringBuilder(256 + record.moveCount() * 8)).toString();
+      out.println("Your PGN is:");
+      out.print(pgn);
+      if (pgnFile == null) return;
+      try {
+         Files.writeString(pgnFile, pgn, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+      } catch (IOException e) {
+         out.println("Could not save the game to " + pgnFile + ": " + e.getMessage());
+      }
+   }
+
+   /**
+    * Prompts the player to input a move in any {@link Notation}: standard,
+    * expanded or coordinate algebraic notation,
+    * showing the {@link #helpMenu() help menu} as often as it is asked for.
+    *
+    * @return move (user input, trimmed and unvalidated), or null at the end of input
+    */
+   private String movePrompt(int colorToMove) {
+      while (true) {
+         out.println(colorToMove == Position.WHITE ? "White to move." : "Black to move.");
+         out.print("Please enter your move: ");
+         String inputData = readLine();
+
+         if (inputData == null || !(inputData.equals("help") || inputData.equals("Help"))) return inputData;
+         helpMenu(out);
+      }
+   }
+
+   // a trimmed line of input, or null at its end
+   private String readLine() {
+      if (interactive) out.flush();
+      try {
+         String line = in.readLine();
+         return line == null ? null : line.trim();
+      } catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+   }
+
+   /**
+    * Writes the help menu on algebraic notation.
+    *
+    * @param out writer to show it on
+    */
+   static void helpMenu(PrintWriter out) {
+      out.println("""
+
+                  -------------------------------------------------------
+                  Moves may be written in standard algebraic notation,
+                  as in "e4", "Nf3", "exd5" or "Nbd7": the piece letter
+                  (K, Q, R, B, N; none for pawns), "x" for a capture,
+                  and the end square. If two pieces of a kind can reach
+                  the end square, add the start file or rank of the one
+                  that moves.
+                  Expanded algebraic notation, with start and end
+                  square ("Ng1f3", "e4xd5", "e2-e4"), and coordinates
+                  alone ("g1f3", "e7e8q") are accepted as well.
+                  Marks for check ("+") and checkmate ("#") are optional.
+                  See https://en.wikipedia.org/wiki/Chess_notation for
+                  examples.
+
+                  Special moves:
+                  For castling, simply write "O-O" or "0-0" for kingside
+                  and "O-O-O" or "0-0-0".
+                  In the case of pawn promotion, add "=X" on the end of
+                  the notation, where X is the promoted piece letter.
+                  En passant should be recorded as a standard capture.
+                  -------------------------------------------------------
+                  """);
+   }
+}
@@ -0,0 +1,162 @@
+package chess;
+
+/**
+ * Decides whether a game has ended after a move, and how: checkmate,
+ * stalemate, the fifty-move rule, threefold repetition or insufficient
+ * material; or, in timed games, on time; or, where endgame tablebases are
+ * at hand, by {@linkplain #adjudicate adjudication}.
+ * <br>
+ * Every test is constant or near-constant time, so it can run after each
+ * move of automated play: mate and stalemate usually settle on the king's
+ * escape squares from the {@linkplain Position#attacks attack maps} and only
+ * generate moves when the king has none; repetitions compare
+ * {@linkplain Position#key() Zobrist keys} back to the last capture or pawn
+ * move, at most 100 plies; material is counted from bitboards.
+ * @see ChessBoard#getResult()
+ * @author wcaine
+ */
+public final class GameResult {
+   /**
+    * Results: the game goes on, or has ended by one of the rules.
+    */
+   public static final int ONGOING = 0, CHECKMATE = 1, STALEMATE = 2, FIFTY_MOVES = 3, THREEFOLD_REPETITION = 4,
+                           INSUFFICIENT_MATERIAL = 5, TIME_FORFEIT = 6, TIMEOUT_DRAW = 7;
+   /**
+    * Adjudications by the endgame tablebases: the color to move wins, loses
+    * or draws with best play.
+    */
+   public static final int TABLEBASE_WIN = 8, TABLEBASE_LOSS = 9, TABLEBASE_DRAW = 10;
+
+   private static final long LIGHT_SQUARES = 0x55AA55AA55AA55AAL;
+
+   private static final ThreadLocal<int[]> MOVES = ThreadLocal.withInitial(() -> new int[MoveGenerator.MAX_MOVES]);
+
+   private GameResult() {
+   }
+
+   /**
+    * Decides the result of a position, reached by the moves it can unmake.
+    *
+    * @param position position to judge
+    *
+    * @return {@link #ONGOING}, or the rule that ended the game
+    */
+   public static int of(Position position) {
+      return of(position, MOVES.get());
+   }
+
+   /**
+    * Decides the result as in {@link #of(Position)}, generating moves (if
+    * needed at all) into an array of the caller's.
+    *
+    * @param position position to judge
+    * @param moves array of at least {@link MoveGenerator#MAX_MOVES} elements
+    *
+    * @return {@link #ONGOING}, or the rule that ended the game
+    */
+   public static int of(Position position, int[] moves) {
+      // a move that mates ends the game even on the last move allowed by the fifty-move rule
+      if (!hasLegalMove(position, moves)) return position.isInCheck() ? CHECKMATE : STALEMATE;
+      if (position.halfmove >= 100) return FIFTY_MOVES;
+      if (position.halfmove >= 8 && position.repetitions() >= 2) return THREEFOLD_REPETITION;
+      if (insufficientMaterial(position)) return INSUFFICIENT_MATERIAL;
+      return ONGOING;
+   }
+
+   /**
+    * Tells if the color to move has a legal move, usually without generating any.
+    *
+    * @param position position to search
+    * @param moves array of at least {@link MoveGenerator#MAX_MOVES} elements
+    *
+    * @return if there is a legal move
+    */
+   static boolean hasLegalMove(Position position, int[] moves) {
+      // the king can usually step somewhere, which needs no move generation
+      if (MoveGenerator.kingTargets(position) != 0) return true;
+      if (Long.bitCount(position.checkers) > 1) return false;
+      return MoveGenerator.generate(position, moves) > 0;
+   }
+
+   /**
+    * Decides the result when the color to move runs out of time: a loss,
+    * unless the other color has only its king left and so cannot mate.
+    *
+    * @param position position when the flag fell
+    *
+    * @return {@link #TIME_FORFEIT} or {@link #TIMEOUT_DRAW}
+    */
+   public static int onTime(Position position) {
+      int opponent = 1 - position.sideToMove();
+      return position.occupancy(opponent) == position.bitboard(opponent, Position.KING) ? TIMEOUT_DRAW : TIME_FORFEIT;
+   }
+
+   /**
+    * Adjudicates a game whose position is in the endgame tablebases, for
+    * play that need not go on to mate.
+    *
+    * @param position position to judge
+    * @param tablebases endgame tablebases
+    *
+    * @return {@link #TABLEBASE_WIN}, {@link #TABLEBASE_LOSS} or
+    *         {@link #TABLEBASE_DRAW}, or {@link #ONGOING} if no table covers
+    *         the position
+    */
+   public static int adjudicate(Position position, Tablebases tablebases) {
+      return switch (tablebases.wdl(position)) {
+         case Tablebases.WIN -> TABLEBASE_WIN;
+         case Tablebases.LOSS -> TABLEBASE_LOSS;
+         case Tablebases.DRAW -> TABLEBASE_DRAW;
+         default -> ONGOING;
+      };
+   }
+
+   /**
+    * Tells if neither side can possibly mate: kings alone, or with a single
+    * knight or bishop, or with bishops that all stand on squares of one color.
+    *
+    * @param position position to judge
+    *
+    * @return if no sequence of moves can end in mate
+    */
+   public static boolean insufficientMaterial(Position position) {
+      long[] pieces = position.pieces;
+      for (int color = Position.WHITE; color <= Position.BLACK; color++) {
+         int offset = color * 6;
+         if ((pieces[offset + Position.PAWN] | pieces[offset + Position.ROOK] | pieces[offset + Position.QUEEN]) != 0) {
+            return false;
+         }
+      }
+
+      long knights = pieces[Position.KNIGHT] | pieces[6 + Position.KNIGHT];
+      long bishops = pieces[Position.BISHOP] | pieces[6 + Position.BISHOP];
+      if (Long.bitCount(knights | bishops) <= 1) return true;
+      return knights == 0 && ((bishops & LIGHT_SQUARES) == 0 || (bishops & ~LIGHT_SQUARES) == 0);
+   }
+
+   /**
+    * Describes a result for the players.
+    *
+    * @param result result of {@link #of}
+    * @param position position the result was decided on
+    *
+    * @return description, e.g. "Checkmate! White wins."
+    */
+   public static String describe(int result, Position position) {
+      return switch (result) {
+         case CHECKMATE -> "Checkmate! " + (position.sideToMove() == Position.WHITE ? "Black" : "White") + " wins.";
+         case STALEMATE -> "Stalemate! The game is drawn.";
+         case FIFTY_MOVES -> "Fifty moves without a capture or pawn move. The game is drawn.";
+         case THREEFOLD_REPETITION -> "The same position occurred three times. The game is drawn.";
+         case INSUFFICIENT_MATERIAL -> "Neither side has enough material to mate. The game is drawn.";
+         case TIME_FORFEIT -> (position.sideToMove() == Position.WHITE ? "White's time ran out! Black wins."
+                                                                      : "Black's time ran out! White wins.");
+         case TIMEOUT_DRAW -> (position.sideToMove() == Position.WHITE ? "White" : "Black")
+                              + "'s time ran out, but the opponent has only a king. The game is drawn.";
+         case TABLEBASE_WIN, TABLEBASE_LOSS -> ((position.sideToMove() == Position.WHITE) == (result == TABLEBASE_WIN)
+                                                ? "White" : "Black") + " wins with best play, by the tablebases.";
+         case TABLEBASE_DRAW -> "The game is drawn with best play, by the tablebases.";
+         default -> "The game goes on.";
+      };
+   }
+}
@@ -0,0 +1,203 @@
+package chess;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.file.Path;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hosts any number of concurrent games over TCP, one {@link GameSession}
+ * per connection, speaking its line protocol. One JVM can so serve many
+ * games at once, where {@link ChessPlayer}'s console game is one.
+ * <p>
+ * Each connection is served by a thread of its own, blocked in a read while
+ * its players think. The threads are pooled and have small stacks, as a
+ * session's calls never go deep, so tens of thousands of idle sessions fit
+ * in a modest heap; every timed game shares the server's one
+ * {@link ClockTimer}. Responses are flushed as they are written, with
+ * Nagle's algorithm off, so a move is answered in one round trip.
+ * <p>
+ * Given a {@link GameJournal}, the server saves every game as it is played,
+ * and games left unfinished, even by a crash, are resumed by number.
+ * <br>
+ * Run from the command line with
+ * {@code ChessPlayer serve [port] [address] [journal]}; load it with
+ * {@link LoadClient}.
+ * @author wcaine
+ */
+public class GameServer {
+
+   /**
+    * Port served by default.
+    */
+   public static final int DEFAULT_PORT = 7878;
+
+   private static final long STACK_BYTES = 256 * 1024; // per session thread
+   private static final int BACKLOG = 4096; // connections waiting to be accepted
+
+   private final ServerSocket socket;
+   private final ClockTimer timer = new ClockTimer();
+   private final AtomicInteger threadCount = new AtomicInteger();
+   private final ExecutorService sessions = Executors.newCachedThreadPool(
+         task -> new Thread(null, task, "session-" + threadCount.incrementAndGet(), STACK_BYTES));
+   private final AtomicInteger open = new AtomicInteger();
+   private final AtomicLong served = new AtomicLong();
+   private GameJournal journal; // where games are saved, if anywhere
+
+
+   /**
+    * Binds the server, without accepting connections yet.
+    *
+    * @param address address to listen on, e.g. the loopback address for local use only
+    * @param port port to listen on, or 0 for any free port
+    * @throws IOException if the port cannot be bound
+    */
+   public GameServer(InetAddress address, int port) throws IOException {
+      this.socket = new ServerSocket(port, BACKLOG, address);
+   }
+
+   /**
+    * Starts a server and accepts connections until the process ends.
+    *
+    * @param args optional port (default {@value #DEFAULT_PORT}), then
+    *             optional address to listen on (default loopback), then
+    *             optional journal file to save games in
+    */
+   public static void main(String[] args) {
+      try {
+         int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+         InetAddress address = args.length > 1 ? InetAddress.getByName(args[1]) : InetAddress.getLoopbackAddress();
+         GameServer server = new GameServer(address, port);
+         if (args.length > 2) {
+            long start = System.nanoTime();
+            server.setJournal(GameJournal.open(Path.of(args[2])));
+            System.out.printf("%d unfinished games loaded from %s in %.3f s%n",
+                              server.journal.openGames(), args[2], (System.nanoTime() - start) / 1e9);
+         }
+         System.out.println("Serving games on " + address.getHostAddress() + ":" + server.port());
+         server.serve();
+      } catch (NumberFormatException e) {
+         System.out.println("Usage: serve [port] [address] [journal]");
+      } catch (IOException e) {
+         System.out.println("Could not serve games: " + e.getMessage());
+      }
+   }
+
+   /**
+    * Saves every game in a journal from now on, and lets its unfinished
+    * games be resumed.
+    *
+    * @param journal journal to save games in; null to save none
+    */
+   public void setJournal(GameJournal journal) {
+      this.journal = journal;
+   }
+
+   /**
+    * Accepts connections, each served on its own thread, until {@link #close()}.
+    */
+   public void serve() {
+      while (!socket.isClosed()) {
+         try {
+            Socket connection = socket.accept();
+            connection.setTcpNoDelay(true);
+            sessions.execute(() -> session(connection));
+         } catch (SocketException e) {
+            // closed
+         } catch (IOException e) {
+            System.out.println("Could not accept a connection: " + e.getMessage());
+         }
+      }
+   }
+
+   /**
+    * Stops accepting connections, ends every session and closes the journal.
+    */
+   public void close() {
+      try {
+         socket.close();
+      } catch (IOException e) {
+         // closing anyway
+      }
+      sessions.shutdownNow();
+      timer.shutdown();
+      if (journal == null) return;
+      try {
+         journal.close();
+      } catch (IOException e) {
+         System.out.println("Could not close the journal: " + e.getMessage());
+      }
+   }
+
+   /**
+    * @return the port listened on
+    */
+   public int port() {
+      return socket.getLocalPort();
+   }
+
+   /**
+    * @return sessions connected now
+    */
+   public int openSessions() {
+      return open.get();
+   }
+
+   /**
+    * @return commands answered since the server started
+    */
+   public long commandsServed() {
+      return served.get();
+   }
+
+   private void session(Socket connection) {
+      open.incrementAndGet();
+      try (connection;
+           BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8), 512);
+           Writer out = new BufferedWriter(new OutputStreamWriter(connection.getOutputStream(), StandardCharsets.UTF_8), 512)) {
+         GameSession session = new GameSession(message -> send(out, message), timer, journal);
+         send(out, "ok chess server; commands: new, resume, id, clock, move, moves, fen, board, time, pgn, quit");
+
+         try {
+            String line;
+            while (session.isOpen() && (line = in.readLine()) != null) {
+               line = line.trim();
+               if (line.isEmpty()) continue;
+               send(out, session.handle(line));
+               served.incrementAndGet();
+            }
+         } finally {
+            session.close(); // a game left by a dropped connection can be resumed
+         }
+      } catch (IOException e) {
+         // the client has gone
+      } finally {
+         open.decrementAndGet();
+      }
+   }
+
+   // one line, flushed; the session's thread and the timer's may both write
+   private static void send(Writer out, String line) {
+      synchronized (out) {
+         try {
+            out.write(line);
+            out.write('\n');
+            out.flush();
+         } catch (IOException e) {
+            // the client has gone; its read fails next
+         }
+      }
+   }
+}
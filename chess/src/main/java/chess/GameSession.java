@@ -0,0 +1,370 @@
+package chess;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * One game hosted by a {@link GameServer}: its own {@link ChessBoard},
+ * record and optional {@link Clock}, driven by a line protocol that any
+ * transport can feed. Sessions share nothing but the server's
+ * {@link ClockTimer}, so any number run side by side.
+ * <p>
+ * Each command is one line and gets one response line, {@code ok ...} or
+ * {@code error <reason>}:
+ * <ul>
+ *    <li>{@code new [FEN]}: starts a game, from the standard position by default; answers its FEN</li>
+ *    <li>{@code resume <number>}: takes up an unfinished saved game; answers its position's FEN</li>
+ *    <li>{@code id}: the number the game is saved under</li>
+ *    <li>{@code clock <control>}: times the game (see {@link Clock#parse}), starting the clock of the color to move</li>
+ *    <li>{@code move <move>}: plays a move in any {@link Notation}; answers it in SAN, and the result if it ended the game</li>
+ *    <li>{@code moves}: the legal moves, in UCI notation</li>
+ *    <li>{@code fen}: the position</li>
+ *    <li>{@code board [unicode|ascii|ansi|svg]}: the board drawn by a {@link BoardRenderer}; {@code ok <n>} and then n lines</li>
+ *    <li>{@code time}: both players' time left, in milliseconds</li>
+ *    <li>{@code pgn}: the game so far; {@code ok <n>} and then n lines of PGN</li>
+ *    <li>{@code quit}: ends the session</li>
+ * </ul>
+ * A flag that falls while a player is thinking is announced at once, out of
+ * turn, as {@code flag <white|black> <result>}.
+ * <p>
+ * If the server keeps a {@link GameJournal}, every game is saved in it as
+ * it is played. A game left unfinished, by a new game, a {@code quit} or
+ * the connection closing, has its clock stopped and can be resumed by its
+ * number from any session, even after the server restarts.
+ * @see GameServer
+ * @author wcaine
+ */
+public class GameSession {
+
+   private final Consumer<String> notifier; // for messages out of turn
+   private final ClockTimer timer;
+   private final int[] moves = new int[MoveGenerator.MAX_MOVES];
+   private final StringBuilder response = new StringBuilder(128);
+
+   // board formats, and renderers whose caches every session shares
+   private static final String[] FORMATS = {"unicode", "ascii", "ansi", "svg"};
+   private static final BoardRenderer[] SHARED = {new BoardRenderer(BoardRenderer.UNICODE, 4096),
+                                                  new BoardRenderer(BoardRenderer.ASCII, 4096),
+                                                  new BoardRenderer(BoardRenderer.ANSI, 4096),
+                                                  new BoardRenderer(BoardRenderer.SVG, 4096)};
+   private final BoardRenderer[] renderers = new BoardRenderer[FORMATS.length]; // this session's, made on first use
+
+   private ChessBoard board; // made on first use, so idle sessions stay small
+   private final PGN.Game record = new PGN.Game();
+   private Clock clock; // null for an untimed game
+   private boolean open = true;
+
+   private final GameJournal journal; // where games are saved, if anywhere
+   private GameSnapshot snapshot; // the game as saved
+   private long id; // its number in the journal, 0 if not saved
+
+
+   /**
+    * Starts a session, whose game is from the standard position until a
+    * {@code new} command says otherwise.
+    *
+    * @param notifier receiver of messages sent out of turn, from the timer's thread
+    * @param timer timer watching the flags of timed games
+    */
+   public GameSession(Consumer<String> notifier, ClockTimer timer) {
+      this(notifier, timer, null);
+   }
+
+   /**
+    * Starts a session whose games are saved as they are played.
+    *
+    * @param notifier receiver of messages sent out of turn, from the timer's thread
+    * @param timer timer watching the flags of timed games
+    * @param journal journal to save games in; null to save none
+    */
+   public GameSession(Consumer<String> notifier, ClockTimer timer, GameJournal journal) {
+      this.notifier = notifier;
+      this.timer = timer;
+      this.journal = journal;
+   }
+
+   /**
+    * Carries out a command.
+    *
+    * @param line command line
+    *
+    * @return the response line
+    */
+   public synchronized String handle(String line) {
+      int space = line.indexOf(' ');
+      String command = space < 0 ? line : line.substring(0, space);
+      String args = space < 0 ? "" : line.substring(space + 1).trim();
+      response.setLength(0);
+      if (board == null && !command.equals("new") && !command.equals("resume") && !command.equals("quit")) {
+         newGame(Position.fromFEN(PGN.STANDARD_FEN));
+      }
+      switch (command) {
+         case "new" -> {
+            Position position = new Position();
+            int result = FEN.parse(args.isEmpty() ? PGN.STANDARD_FEN : args, position);
+            if (result != FEN.VALID) return error(FEN.errorReason(result));
+            newGame(position);
+            return ok().append(position.toFEN()).toString();
+         }
+         case "resume" -> {
+            return resume(args);
+         }
+         case "id" -> {
+            if (journal == null) return error("Games are not saved on this server");
+            if (id == 0) return error("The game is not saved");
+            return ok().append(id).toString();
+         }
+         case "clock" -> {
+            if (record.moveCount() > 0 || clock != null) return error("The clock can only be set before the first move");
+            try {
+               clock = Clock.parse(args);
+            } catch (IllegalArgumentException e) {
+               return error(e.getMessage());
+            }
+            record.tag("TimeControl", clock.timeControl());
+            startClock();
+            if (id != 0) {
+               snapshot.setClock(clock, System.nanoTime());
+               try {
+                  journal.save(id, snapshot);
+               } catch (IOException e) {
+                  unsaved(e);
+               }
+            }
+            return ok().append(args).toString();
+         }
+         case "move" -> {
+            return move(args);
+         }
+         case "moves" -> {
+            ok();
+            int count = MoveGenerator.generate(board.getPosition(), moves);
+            for (int i = 0; i < count; i++) {
+               Notation.appendUCI(moves[i], response).append(' ');
+            }
+            response.setLength(response.length() - 1);
+            return response.toString();
+         }
+         case "fen" -> {
+            return ok().append(board.getPosition().toFEN()).toString();
+         }
+         case "board" -> {
+            return board(args.isEmpty() ? FORMATS[0] : args);
+         }
+         case "time" -> {
+            if (clock == null) return error("The game is not timed");
+            long now = System.nanoTime();
+            return ok().append(clock.remaining(Position.WHITE, now) / 1_000_000).append(' ')
+                       .append(clock.remaining(Position.BLACK, now) / 1_000_000).toString();
+         }
+         case "pgn" -> {
+            String pgn = PGN.write(resultTagged(), new StringBuilder(256)).toString().stripTrailing();
+            return ok().append(pgn.lines().count()).append('\n').append(pgn).toString();
+         }
+         case "quit" -> {
+            close();
+            return "ok bye";
+         }
+         default -> {
+            return error("Unknown command " + command + "; use new, resume, id, clock, move, moves, fen, board, time, pgn or quit");
+         }
+      }
+   }
+
+   /**
+    * @return false once the session has been quit
+    */
+   public synchronized boolean isOpen() {
+      return open;
+   }
+
+   /**
+    * Ends the session, as {@code quit} does: stops the clock and leaves an
+    * unfinished saved game to be resumed.
+    */
+   public synchronized void close() {
+      if (!open) return;
+      open = false;
+      leave();
+   }
+
+   private String move(String text) {
+      if (!board.isGameState()) return error("The game is over: " + PGN.result(board.getResult(), board.getPosition()));
+      Position position = board.getPosition();
+      int move = Notation.parse(text, position, moves);
+      if (!Notation.isMove(move)) return error(Notation.errorReason(move));
+
+      long now = System.nanoTime();
+      if (clock != null && !clock.punch(now)) {
+         board.timeForfeit();
+         ended();
+         return error("Time ran out; " + PGN.result(board.getResult(), position));
+      }
+      ok();
+      Notation.appendSAN(move, position, moves, response);
+      if (id != 0) {
+         long millisLeft = clock != null ? clock.remaining(position.sideToMove(), now) / 1_000_000 : 0;
+         snapshot.addMove(move, millisLeft);
+         try {
+            journal.move(id, move, millisLeft);
+         } catch (IOException e) {
+            unsaved(e);
+         }
+      }
+      record.addMove(move);
+      board.doMove(move);
+      if (!board.isGameState()) {
+         if (clock != null) clock.stop(System.nanoTime());
+         ended();
+         response.append(' ').append(PGN.result(board.getResult(), position));
+      }
+      return response.toString();
+   }
+
+   private String board(String name) {
+      int format = 0;
+      while (format < FORMATS.length && !FORMATS[format].equalsIgnoreCase(name)) format++;
+      if (format == FORMATS.length) return error("Unknown board format " + name + "; use unicode, ascii, ansi or svg");
+      if (renderers[format] == null) renderers[format] = new BoardRenderer(SHARED[format]);
+      String drawn = renderers[format].render(board.getPosition()).strip();
+      return ok().append(drawn.lines().count()).append('\n').append(drawn).toString();
+   }
+
+   private String resume(String number) {
+      if (journal == null) return error("Games are not saved on this server");
+      long resumed;
+      try {
+         resumed = Long.parseLong(number);
+      } catch (NumberFormatException e) {
+         return error("Give the number of the game to resume");
+      }
+      GameSnapshot saved = journal.claim(resumed);
+      if (saved == null) return error("No unfinished game " + resumed + " to resume");
+
+      // a saved game that does not replay cannot be resumed, now or later
+      ChessBoard replayed;
+      Position start;
+      try {
+         start = saved.startPosition(new Position());
+         replayed = saved.replay(new Position(), null);
+      } catch (IllegalArgumentException e) {
+         try {
+            journal.end(resumed);
+         } catch (IOException ignored) {
+            // it is not offered again until the server restarts
+         }
+         return error(e.getMessage());
+      }
+
+      leave();
+      setUp(replayed, start);
+      for (int ply = 0; ply < saved.moveCount(); ply++) {
+         record.addMove(saved.move(ply));
+      }
+      snapshot = saved;
+      id = resumed;
+      clock = saved.clock();
+      if (clock != null) {
+         record.tag("TimeControl", clock.timeControl());
+         startClock();
+      }
+      return ok().append(board.getPosition().toFEN()).toString();
+   }
+
+   private void newGame(Position position) {
+      leave();
+      setUp(new ChessBoard(position), position);
+      if (journal != null) {
+         snapshot = new GameSnapshot(position);
+         try {
+            id = journal.begin(snapshot);
+         } catch (IOException e) {
+            unsaved(e);
+         }
+      }
+   }
+
+   // a new board, and a record starting from its position
+   private void setUp(ChessBoard newBoard, Position start) {
+      clock = null;
+      board = newBoard;
+      record.clear();
+      String fen = start.toFEN();
+      if (!fen.equals(PGN.STANDARD_FEN)) {
+         record.tag("SetUp", "1");
+         record.tag("FEN", fen);
+      }
+   }
+
+   private void startClock() {
+      Clock timed = clock;
+      timer.watch(clock, () -> flagFell(timed));
+      clock.start(board.getPosition().sideToMove(), System.nanoTime());
+   }
+
+   // stops the clock and, if the game is saved and unfinished, leaves it to be resumed
+   private void leave() {
+      if (board == null) return;
+      long now = System.nanoTime();
+      if (clock != null) {
+         clock.stop(now);
+         if (clock.flagged(now) != Position.NONE && board.isGameState()) {
+            board.timeForfeit();
+            ended();
+         }
+      }
+      if (id == 0) return;
+      if (clock != null) snapshot.setClock(clock, now);
+      try {
+         journal.release(id, snapshot);
+      } catch (IOException e) {
+         unsaved(e);
+      }
+      id = 0;
+   }
+
+   // the saved game is over, so is not resumed
+   private void ended() {
+      if (id == 0) return;
+      try {
+         journal.end(id);
+      } catch (IOException e) {
+         unsaved(e);
+      }
+      id = 0;
+   }
+
+   // a save failed; the game goes on, unsaved
+   private void unsaved(IOException e) {
+      System.out.println("Could not save game " + id + ": " + e.getMessage());
+      id = 0;
+   }
+
+   // on the timer's thread
+   private void flagFell(Clock timed) {
+      String message;
+      synchronized (this) {
+         // the flag of a game since replaced is of no interest
+         if (clock != timed || board.getResult() != GameResult.ONGOING) return;
+         board.timeForfeit();
+         ended();
+         Position position = board.getPosition();
+         message = "flag " + (position.sideToMove() == Position.WHITE ? "white " : "black ")
+                 + PGN.result(board.getResult(), position);
+      }
+      notifier.accept(message);
+   }
+
+   private PGN.Game resultTagged() {
+      record.tag("Result", PGN.result(board.getResult(), board.getPosition()));
+      return record;
+   }
+
+   private StringBuilder ok() {
+      return response.append("ok ");
+   }
+
+   private String error(String reason) {
+      return "error " + reason;
+   }
+}
@@ -0,0 +1,444 @@
+package chess;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * A game in progress saved compactly, to be resumed later: its starting
+ * position, its moves and, for a timed game, its time control and each
+ * player's time left after every move and as of the save.
+ * <p>
+ * Snapshots are read from and written to a {@link ByteBuffer} in place, so
+ * a heap, direct or memory-mapped buffer serves alike; a {@link GameJournal}
+ * keeps any number of them in a file, and {@link #encode} turns one into
+ * text that a player can copy and enter again instead of a FEN.
+ * <br>
+ * Encoded, a snapshot is a flags byte (bit 0 for a timed game), the starting
+ * position, the number of moves and, if timed, the base time, increment and
+ * delay in milliseconds, moves per period and both players' time left, all
+ * as variable-length integers; then each move as a 16-bit {@link Move},
+ * followed in a timed game by the mover's time left after it. The position
+ * takes 27 bytes for the standard one and at most 35:
+ * <ul>
+ *    <li>the occupied squares as a 64-bit set</li>
+ *    <li>a 4-bit piece code for each occupied square, from a1 up, two to a
+ *        byte; codes 12 and 13 are a white or black pawn that has just moved
+ *        two squares and may be taken en passant</li>
+ *    <li>the color to move and castling ability in one byte</li>
+ *    <li>the halfmove clock and move number, as variable-length integers</li>
+ * </ul>
+ * Reading checks only the form of a snapshot, so many load quickly;
+ * {@link #replay} checks the position and every move before it is played on.
+ * @see GameJournal
+ * @author wcaine
+ */
+public final class GameSnapshot {
+   /**
+    * Most bytes a position takes when encoded.
+    */
+   public static final int MAX_POSITION_BYTES = 35;
+
+   private static final int TIMED = 1;
+   private static final int EN_PASSANT_PAWN = 12; // piece code of a pawn capturable en passant, plus its color
+   private static final long MILLI = 1_000_000L;
+
+   private static final ThreadLocal<int[]> MOVES = ThreadLocal.withInitial(() -> new int[MoveGenerator.MAX_MOVES]);
+
+   private byte[] start; // encoded starting position
+   private int[] moves = new int[16];
+   private int[] millis; // mover's time left after each move, if timed
+   private int moveCount;
+
+   // time control and both players' time left, in milliseconds, if timed
+   private long base, increment, delay;
+   private int movesPerPeriod;
+   private final long[] left = new long[2];
+
+
+   /**
+    * Starts a snapshot of an untimed game with no moves yet.
+    *
+    * @param start starting position
+    */
+   public GameSnapshot(Position start) {
+      ByteBuffer out = ByteBuffer.allocate(MAX_POSITION_BYTES);
+      writePosition(start, out);
+      this.start = Arrays.copyOf(out.array(), out.position());
+   }
+
+   private GameSnapshot() {
+   }
+
+   /**
+    * Makes the game timed from here on, by a clock not yet started, or
+    * records the time left on the clock of a game already timed.
+    *
+    * @param clock the game's clock
+    * @param now current {@link System#nanoTime()}
+    */
+   public void setClock(Clock clock, long now) {
+      if (millis == null) millis = new int[moves.length];
+      base = clock.base() / MILLI;
+      increment = clock.increment() / MILLI;
+      delay = clock.delay() / MILLI;
+      movesPerPeriod = clock.movesPerPeriod();
+      setTimes(clock.remaining(Position.WHITE, now) / MILLI, clock.remaining(Position.BLACK, now) / MILLI);
+   }
+
+   /**
+    * Records both players' time left, as when the clock stops.
+    *
+    * @param whiteMillis white's time left, in milliseconds
+    * @param blackMillis black's time left, in milliseconds
+    */
+   public void setTimes(long whiteMillis, long blackMillis) {
+      left[Position.WHITE] = whiteMillis;
+      left[Position.BLACK] = blackMillis;
+   }
+
+   /**
+    * Adds a move.
+    *
+    * @param move move played, legal after the moves before it
+    * @param millisLeft the mover's time left after it, in milliseconds;
+    *                   ignored if the game is not timed
+    */
+   public void addMove(int move, long millisLeft) {
+      if (moveCount == moves.length) {
+         moves = Arrays.copyOf(moves, moveCount * 2);
+         if (millis != null) millis = Arrays.copyOf(millis, moveCount * 2);
+      }
+      if (millis != null) {
+         millisLeft = Math.max(0, Math.min(millisLeft, Integer.MAX_VALUE));
+         millis[moveCount] = (int) millisLeft;
+         left[moverOf(moveCount)] = millisLeft;
+      }
+      moves[moveCount++] = move;
+   }
+
+   /**
+    * @return moves played
+    */
+   public int moveCount() {
+      return moveCount;
+   }
+
+   /**
+    * @param ply index of the move, from 0
+    * @return the move
+    */
+   public int move(int ply) {
+      return moves[ply];
+   }
+
+   /**
+    * @return if the game is timed
+    */
+   public boolean isTimed() {
+      return millis != null;
+   }
+
+   /**
+    * @param ply index of the move, from 0, <b>in a timed game</b>
+    * @return the mover's time left after it, in milliseconds
+    */
+   public long millisAfter(int ply) {
+      return millis[ply];
+   }
+
+   /**
+    * @param color color to read the time of, <b>in a timed game</b>
+    * @return its time left as of the last move or save, in milliseconds
+    */
+   public long millisLeft(int color) {
+      return left[color];
+   }
+
+   /**
+    * @param position position to set to the starting position, reused between calls
+    *
+    * @return the position
+    * @throws IllegalArgumentException if the starting position is not valid
+    */
+   public Position startPosition(Position position) {
+      readPosition(ByteBuffer.wrap(start), position);
+      return position;
+   }
+
+   /**
+    * Sets up the starting position and plays the moves on it, checking each
+    * is legal first.
+    *
+    * @param position position to play on, owned by the board returned
+    * @param record game to add the moves to as they are played, or null
+    *
+    * @return a board at the position reached
+    * @throws IllegalArgumentException if the starting position is not valid
+    *         or a move is not legal
+    */
+   public ChessBoard replay(Position position, PGN.Game record) {
+      startPosition(position);
+      ChessBoard board = new ChessBoard(position);
+      int[] legal = MOVES.get();
+      for (int ply = 0; ply < moveCount; ply++) {
+         int move = moves[ply], count = MoveGenerator.generate(position, legal);
+         int i = 0;
+         while (i < count && legal[i] != move) i++;
+         if (i == count || !board.isGameState()) {
+            throw new IllegalArgumentException("Move " + (ply + 1) + " of the saved game, " + Move.toString(move) + ", is not legal");
+         }
+         if (record != null) record.addMove(move);
+         board.doMove(move);
+      }
+      return board;
+   }
+
+   /**
+    * @return a clock set to the time control and both players' time left,
+    *         not yet started; null if the game is not timed
+    */
+   public Clock clock() {
+      if (millis == null) return null;
+      Clock clock = new Clock(base * MILLI, increment * MILLI, delay * MILLI, movesPerPeriod);
+      int firstMover = moverOf(0), moved = moveCount / 2, odd = moveCount % 2;
+      clock.resume(left[Position.WHITE] * MILLI, left[Position.BLACK] * MILLI,
+                   moved + (firstMover == Position.WHITE ? odd : 0), moved + (firstMover == Position.BLACK ? odd : 0));
+      return clock;
+   }
+
+   // Encoding
+   /**
+    * @return most bytes {@link #write} may take
+    */
+   public int maxBytes() {
+      return 1 + start.length + 5 + (millis != null ? 4 * 10 + 5 : 0) + moveCount * (millis != null ? 7 : 2);
+   }
+
+   /**
+    * Writes this snapshot at a buffer's position.
+    *
+    * @param out buffer with at least {@link #maxBytes} remaining
+    *
+    * @return the buffer
+    */
+   public ByteBuffer write(ByteBuffer out) {
+      out.put((byte) (millis != null ? TIMED : 0)).put(start);
+      putVarLong(out, moveCount);
+      if (millis != null) {
+         putVarLong(out, base);
+         putVarLong(out, increment);
+         putVarLong(out, delay);
+         putVarLong(out, movesPerPeriod);
+         putVarLong(out, left[Position.WHITE]);
+         putVarLong(out, left[Position.BLACK]);
+      }
+      for (int ply = 0; ply < moveCount; ply++) {
+         out.putShort((short) moves[ply]);
+         if (millis != null) putVarLong(out, millis[ply]);
+      }
+      return out;
+   }
+
+   /**
+    * Reads a snapshot at a buffer's position, leaving the buffer just past it.
+    *
+    * @param in buffer to read
+    *
+    * @return the snapshot
+    * @throws IllegalArgumentException if the bytes are not a snapshot
+    */
+   public static GameSnapshot read(ByteBuffer in) {
+      try {
+         GameSnapshot game = new GameSnapshot();
+         int flags = in.get();
+         if ((flags & ~TIMED) != 0) throw new IllegalArgumentException("Not a saved game");
+         int startAt = in.position();
+         skipPosition(in);
+         game.start = new byte[in.position() - startAt];
+         in.get(startAt, game.start);
+
+         int count = count(in.remaining(), getVarLong(in));
+         if ((flags & TIMED) != 0) {
+            game.base = getVarLong(in);
+            game.increment = getVarLong(in);
+            game.delay = getVarLong(in);
+            game.movesPerPeriod = count(Integer.MAX_VALUE, getVarLong(in));
+            game.setTimes(getVarLong(in), getVarLong(in));
+            if (game.base <= 0) throw new IllegalArgumentException("Saved game has no time");
+            game.millis = new int[Math.max(count, 16)];
+         }
+         game.moves = new int[Math.max(count, 16)];
+         for (int ply = 0; ply < count; ply++) {
+            game.moves[ply] = in.getShort() & 0xFFFF;
+            if (game.millis != null) game.millis[ply] = count(Integer.MAX_VALUE, getVarLong(in));
+         }
+         game.moveCount = count;
+         return game;
+      } catch (BufferUnderflowException e) {
+         throw new IllegalArgumentException("Saved game is cut short");
+      }
+   }
+
+   /**
+    * @return this snapshot as text to copy: URL-safe Base64, which has no
+    *         '/' or space and so is never taken for a FEN
+    */
+   public String encode() {
+      ByteBuffer out = write(ByteBuffer.allocate(maxBytes()));
+      return Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(out.array(), out.position()));
+   }
+
+   /**
+    * @param text text from {@link #encode}
+    *
+    * @return the snapshot
+    * @throws IllegalArgumentException if the text is not a saved game
+    */
+   public static GameSnapshot decode(String text) {
+      ByteBuffer in;
+      try {
+         in = ByteBuffer.wrap(Base64.getUrlDecoder().decode(text.trim()));
+      } catch (IllegalArgumentException e) {
+         throw new IllegalArgumentException("Not a saved game");
+      }
+      GameSnapshot game = read(in);
+      if (in.hasRemaining()) throw new IllegalArgumentException("Saved game has bytes to spare");
+      return game;
+   }
+
+   // color making a move of this game, from the color to move at the start
+   private int moverOf(int ply) {
+      return (positionState() & 1) ^ (ply & 1);
+   }
+
+   // the byte holding the starting color to move and castling ability
+   private int positionState() {
+      int pieces = Long.bitCount(ByteBuffer.wrap(start).getLong());
+      return start[8 + (pieces + 1) / 2];
+   }
+
+   /**
+    * Writes a position at a buffer's position.
+    *
+    * @param position position to write
+    * @param out buffer with at least {@link #MAX_POSITION_BYTES} remaining
+    */
+   static void writePosition(Position position, ByteBuffer out) {
+      out.putLong(position.occupied);
+      int epSquare = position.epSquare();
+      int epPawn = epSquare == Position.NONE ? Position.NONE : position.sideToMove() == Position.WHITE ? epSquare - 8 : epSquare + 8;
+      int pending = -1; // high half of a byte not yet written
+      for (long squares = position.occupied; squares != 0; squares &= squares - 1) {
+         int sq = Long.numberOfTrailingZeros(squares);
+         int code = sq == epPawn ? EN_PASSANT_PAWN + position.board[sq] / 6 : position.board[sq];
+         if (pending < 0) {
+            pending = code << 4;
+         } else {
+            out.put((byte) (pending | code));
+            pending = -1;
+         }
+      }
+      if (pending >= 0) out.put((byte) pending);
+      out.put((byte) (position.sideToMove() | position.castling() << 1));
+      putVarLong(out, position.halfmove());
+      putVarLong(out, position.fullmove());
+   }
+
+   /**
+    * Reads a position at a buffer's position and checks it, as a FEN would
+    * be.
+    *
+    * @param in buffer to read
+    * @param position position to fill, reused between calls
+    *
+    * @throws IllegalArgumentException if the bytes are not a valid position
+    */
+   static void readPosition(ByteBuffer in, Position position) {
+      position.clear();
+      long occupied = in.getLong();
+      if (Long.bitCount(occupied) > 32) throw new IllegalArgumentException("Saved position has too many pieces");
+      int epPawn = Position.NONE, bits = 0, index = 0;
+      for (long squares = occupied; squares != 0; squares &= squares - 1, index++) {
+         int sq = Long.numberOfTrailingZeros(squares);
+         if ((index & 1) == 0) bits = in.get() & 0xFF;
+         int code = (index & 1) == 0 ? bits >>> 4 : bits & 0xF;
+         if (code >= EN_PASSANT_PAWN) {
+            if (code > EN_PASSANT_PAWN + 1 || epPawn != Position.NONE) throw new IllegalArgumentException("Saved position has a bad piece");
+            code = (code - EN_PASSANT_PAWN) * 6 + Position.PAWN;
+            epPawn = sq;
+         }
+         if (code % 6 == Position.PAWN && (sq < 8 || sq >= 56)) {
+            throw new IllegalArgumentException("Saved position has a pawn on the first or last rank");
+         }
+         position.put(code, sq);
+      }
+      int state = in.get() & 0xFF;
+      if (state > 31) throw new IllegalArgumentException("Saved position has a bad color to move or castling ability");
+      position.sideToMove = state & 1;
+      position.castling = state >>> 1;
+      if (epPawn != Position.NONE) {
+         // the pawn just moved is the other color's, on its fourth rank
+         boolean black = position.sideToMove == Position.WHITE;
+         if (position.board[epPawn] != (black ? 6 : 0) || epPawn >>> 3 != (black ? 4 : 3)) {
+            throw new IllegalArgumentException("The en passant square is invalid for this situation in saved position");
+         }
+         position.epSquare = black ? epPawn + 8 : epPawn - 8;
+      }
+      position.halfmove = count(Integer.MAX_VALUE, getVarLong(in));
+      position.fullmove = count(Integer.MAX_VALUE, getVarLong(in));
+      if (Long.bitCount(position.pieces[Position.KING]) > 1 || Long.bitCount(position.pieces[6 + Position.KING]) > 1) {
+         throw new IllegalArgumentException("Saved position has more than one king of a color");
+      }
+      int result = FEN.check(position);
+      if (result != FEN.VALID) throw new IllegalArgumentException(FEN.errorReason(result) + " in saved position");
+   }
+
+   // moves past an encoded position, checking only its form
+   private static void skipPosition(ByteBuffer in) {
+      int pieces = Long.bitCount(in.getLong());
+      if (pieces > 32) throw new IllegalArgumentException("Saved position has too many pieces");
+      for (int i = 0; i < (pieces + 1) / 2; i++) {
+         int bits = in.get() & 0xFF;
+         if (bits >>> 4 > EN_PASSANT_PAWN + 1 || (bits & 0xF) > EN_PASSANT_PAWN + 1) {
+            throw new IllegalArgumentException("Saved position has a bad piece");
+         }
+      }
+      if ((in.get() & 0xFF) > 31) throw new IllegalArgumentException("Saved position has a bad color to move or castling ability");
+      getVarLong(in);
+      getVarLong(in);
+   }
+
+   // a count read from untrusted bytes, which cannot exceed a limit
+   private static int count(long limit, long value) {
+      if (value < 0 || value > limit) throw new IllegalArgumentException("Saved game has a number out of range");
+      return (int) value;
+   }
+
+   // Variable-length integers, 7 bits to a byte, low bits first
+   static void putVarLong(ByteBuffer out, long value) {
+      for (; (value & ~0x7FL) != 0; value >>>= 7) {
+         out.put((byte) (value & 0x7F | 0x80));
+      }
+      out.put((byte) value);
+   }
+
+   static long getVarLong(ByteBuffer in) {
+      long value = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+         int b = in.get();
+         value |= (long) (b & 0x7F) << shift;
+         if (b >= 0) return value;
+      }
+      throw new IllegalArgumentException("Saved game has a number out of range");
+   }
+
+   /**
+    * @param value number to write
+    * @return bytes it takes as a variable-length integer
+    */
+   static int varLongBytes(long value) {
+      return value == 0 ? 1 : (64 - Long.numberOfLeadingZeros(value) + 6) / 7;
+   }
+}
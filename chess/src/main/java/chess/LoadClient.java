@@ -0,0 +1,207 @@
+package chess;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Load generator for a {@link GameServer}: holds a number of idle sessions
+ * open while others play scripted games as fast as the server answers, then
+ * reports moves per second and the latency of a move (sending it and
+ * reading the answer) at the 50th, 90th, 99th and 99.9th percentiles.
+ * <p>
+ * Each playing session follows a script of moves chosen at random, from a
+ * seed of its own, among the legal moves of a position it keeps in step
+ * with the server's; so every run plays the same games.
+ * <br>
+ * Run from the command line with
+ * {@code ChessPlayer load [host:port] [sessions] [games per session] [idle sessions]}.
+ * @author wcaine
+ */
+public final class LoadClient {
+
+   private static final int MAX_PLIES = 400; // a game that runs longer is abandoned for a new one
+   private static final int HISTORY_KEPT = 256; // moves kept when trimming the undo stack
+
+   private LoadClient() {
+   }
+
+   /**
+    * Runs the load and reports on it.
+    *
+    * @param args optional server address (default localhost and
+    *             {@value GameServer#DEFAULT_PORT}), sessions playing
+    *             (default 8), games per session (default 10) and idle
+    *             sessions (default 0)
+    */
+   public static void main(String[] args) {
+      String host = "localhost";
+      int port = GameServer.DEFAULT_PORT, sessions = 8, games = 10, idle = 0;
+      try {
+         if (args.length > 0) {
+            int colon = args[0].lastIndexOf(':');
+            host = colon < 0 ? args[0] : args[0].substring(0, colon);
+            if (colon >= 0) port = Integer.parseInt(args[0].substring(colon + 1));
+         }
+         if (args.length > 1) sessions = Integer.parseInt(args[1]);
+         if (args.length > 2) games = Integer.parseInt(args[2]);
+         if (args.length > 3) idle = Integer.parseInt(args[3]);
+      } catch (NumberFormatException e) {
+         System.out.println("Usage: load [host:port] [sessions] [games per session] [idle sessions]");
+         return;
+      }
+
+      List<Socket> idleSockets = new ArrayList<>();
+      try {
+         // idle sessions only connect and read the greeting
+         long start = System.nanoTime();
+         for (int i = 0; i < idle; i++) {
+            Socket socket = new Socket(host, port);
+            idleSockets.add(socket);
+            new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8), 128).readLine();
+         }
+         if (idle > 0) System.out.printf("%d idle sessions open in %.3f s%n", idle, (System.nanoTime() - start) / 1e9);
+
+         Player[] players = new Player[sessions];
+         Thread[] threads = new Thread[sessions];
+         start = System.nanoTime();
+         for (int i = 0; i < sessions; i++) {
+            players[i] = new Player(host, port, games, i + 1);
+            threads[i] = new Thread(players[i], "load-" + i);
+            threads[i].start();
+         }
+         for (Thread thread : threads) {
+            thread.join();
+         }
+         long nanos = System.nanoTime() - start;
+         report(players, nanos);
+      } catch (IOException e) {
+         System.out.println("Could not connect to " + host + ":" + port + ": " + e.getMessage());
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      } finally {
+         for (Socket socket : idleSockets) {
+            try {
+               socket.close();
+            } catch (IOException e) {
+               // closing anyway
+            }
+         }
+      }
+   }
+
+   private static void report(Player[] players, long nanos) {
+      int count = 0;
+      long games = 0, errors = 0;
+      for (Player player : players) {
+         count += player.latencyCount;
+         games += player.gamesPlayed;
+         errors += player.errors;
+      }
+      long[] latencies = new long[count];
+      int at = 0;
+      for (Player player : players) {
+         System.arraycopy(player.latencies, 0, latencies, at, player.latencyCount);
+         at += player.latencyCount;
+      }
+      Arrays.sort(latencies);
+
+      System.out.printf("%d sessions, %d games, %d moves (%d errors) in %.3f s, %d moves/s%n",
+                        players.length, games, count, errors, nanos / 1e9, count * 1_000_000_000L / Math.max(nanos, 1));
+      if (count == 0) return;
+      System.out.printf("move latency: p50 %.1f us, p90 %.1f us, p99 %.1f us, p99.9 %.1f us, max %.1f us%n",
+                        percentile(latencies, 0.50), percentile(latencies, 0.90), percentile(latencies, 0.99),
+                        percentile(latencies, 0.999), latencies[count - 1] / 1e3);
+   }
+
+   // in microseconds, from sorted nanoseconds
+   private static double percentile(long[] sorted, double fraction) {
+      return sorted[Math.min(sorted.length - 1, (int) (sorted.length * fraction))] / 1e3;
+   }
+
+   /**
+    * One session playing its games, and the latency of each of its moves.
+    */
+   private static final class Player implements Runnable {
+      private final String host;
+      private final int port, games;
+      private final SplittableRandom random;
+      private final Position position = new Position();
+      private final int[] moves = new int[MoveGenerator.MAX_MOVES];
+      private final StringBuilder command = new StringBuilder(16);
+
+      long[] latencies = new long[4096]; // nanoseconds
+      int latencyCount;
+      int gamesPlayed;
+      int errors;
+
+      Player(String host, int port, int games, long seed) {
+         this.host = host;
+         this.port = port;
+         this.games = games;
+         this.random = new SplittableRandom(seed);
+      }
+
+      @Override
+      public void run() {
+         try (Socket socket = new Socket(host, port);
+              BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8), 512);
+              Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), 512)) {
+            socket.setTcpNoDelay(true);
+            in.readLine(); // greeting
+            for (int game = 0; game < games; game++) {
+               play(in, out);
+               gamesPlayed++;
+            }
+            send(out, "quit");
+            in.readLine();
+         } catch (IOException e) {
+            System.out.println("Session failed: " + e.getMessage());
+         }
+      }
+
+      private void play(BufferedReader in, Writer out) throws IOException {
+         send(out, "new");
+         in.readLine();
+         FEN.parse(PGN.STANDARD_FEN, position);
+
+         for (int ply = 0; ply < MAX_PLIES; ply++) {
+            int count = MoveGenerator.generate(position, moves);
+            int move = moves[random.nextInt(count)];
+            command.setLength(0);
+            Notation.appendUCI(move, command.append("move "));
+
+            long start = System.nanoTime();
+            send(out, command);
+            String response = in.readLine();
+            long latency = System.nanoTime() - start;
+            if (response == null) throw new IOException("Server closed the session");
+            if (latencyCount == latencies.length) latencies = Arrays.copyOf(latencies, latencyCount * 2);
+            latencies[latencyCount++] = latency;
+            if (!response.startsWith("ok")) {
+               errors++;
+               return;
+            }
+
+            position.makeMove(move);
+            if (position.halfmove() == 0) position.clearHistory();
+            if (position.historyLength() > Position.MAX_HISTORY - 1) position.trimHistory(HISTORY_KEPT);
+            if (GameResult.of(position, moves) != GameResult.ONGOING) return;
+         }
+      }
+
+      private static void send(Writer out, CharSequence line) throws IOException {
+         out.append(line).append('\n');
+         out.flush();
+      }
+   }
+}
@@ -0,0 +1,462 @@
+package chess;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Plays a match between two {@link UCI} engines, to tell whether a change
+ * to the engine makes it stronger. Each engine is a command that starts it,
+ * such as this program's {@code uci} mode under other options
+ * ({@code --eval} weights, say) or another build of it.
+ * <p>
+ * Games start from the positions of an opening file, one FEN per line,
+ * each played twice with the engines swapping colors, and run side by side
+ * on as many workers as asked for, each worker with its own pair of engine
+ * processes. Every game has its own {@link Clock}, whose times are sent
+ * with each {@code go}; an engine that overruns its time, answers with an
+ * illegal move or dies loses the game. Games end by the rules, as
+ * {@link GameResult} decides after every move, or by adjudication when
+ * endgame {@link Tablebases} are given.
+ * <br>
+ * Each finished game is appended to a PGN file, and the {@link SPRT}
+ * statistics are updated; once the test accepts either hypothesis no more
+ * games are started, and a summary is printed when the games in progress
+ * finish, and written next to the PGN file, with {@value #SUMMARY_SUFFIX}
+ * added to its name.
+ * <br>
+ * Run from the command line with
+ * {@code ChessPlayer match <openings> <output PGN> <engine A> <engine B> [games] [time control] [concurrency] [elo0 elo1]},
+ * each engine command quoted as one argument.
+ * @author wcaine
+ */
+public final class Match {
+
+   /**
+    * Games played unless the test stops the match sooner.
+    */
+   public static final int DEFAULT_GAMES = 1000;
+   /**
+    * Added to the output PGN file's name to name the file the match's summary
+    * is written to, replacing the summary of any match before.
+    */
+   public static final String SUMMARY_SUFFIX = ".summary";
+   /**
+    * Time control of each game, see {@link Clock#parse}.
+    */
+   public static final String DEFAULT_TIME_CONTROL = "0.5+0.05";
+
+   private static final double ELO0 = 0, ELO1 = 5, ALPHA = 0.05, BETA = 0.05;
+   private static final int REPORT_EVERY = 20; // games between progress lines
+   private static final long GRACE = 1_000_000_000L; // nanoseconds an engine may run over before it is given up on
+   private static final long HANDSHAKE = 10_000_000_000L; // nanoseconds to answer uci or isready
+
+   private final String[] openings;
+   private final String[] commands; // engine A, engine B
+   private final int games;
+   private final String timeControl;
+   private final Tablebases tablebases; // null to play every game out
+   private final SPRT sprt;
+   private final Writer pgn;
+
+   private final AtomicInteger nextGame = new AtomicInteger();
+   private volatile boolean stopped;
+   private final String date = LocalDate.now().format(DateTimeFormatter.ofPattern("yyyy.MM.dd"));
+
+
+   private Match(String[] openings, String[] commands, int games, String timeControl, Tablebases tablebases, SPRT sprt, Writer pgn) {
+      this.openings = openings;
+      this.commands = commands;
+      this.games = games;
+      this.timeControl = timeControl;
+      this.tablebases = tablebases;
+      this.sprt = sprt;
+      this.pgn = pgn;
+   }
+
+   /**
+    * Plays a match and reports on it.
+    *
+    * @param args opening file, output PGN file, engine A's command, engine
+    *             B's command, then optional games (default
+    *             {@value #DEFAULT_GAMES}), time control (default
+    *             {@value #DEFAULT_TIME_CONTROL}), concurrent games (default
+    *             one per processor) and the Elo differences of the SPRT
+    *             hypotheses (default 0 and 5)
+    * @param tablebases endgame tablebases to adjudicate with, or null
+    */
+   public static void main(String[] args, Tablebases tablebases) {
+      if (args.length < 4) {
+         System.out.println("Usage: match <openings> <output PGN> <engine A> <engine B> [games] [time control] [concurrency] [elo0 elo1]");
+         return;
+      }
+      SPRT sprt;
+      int games, concurrency;
+      String timeControl = args.length > 5 ? args[5] : DEFAULT_TIME_CONTROL;
+      try {
+         games = args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_GAMES;
+         concurrency = args.length > 6 ? Integer.parseInt(args[6]) : Runtime.getRuntime().availableProcessors();
+         sprt = args.length > 8 ? new SPRT(Double.parseDouble(args[7]), Double.parseDouble(args[8]), ALPHA, BETA)
+                                : new SPRT(ELO0, ELO1, ALPHA, BETA);
+         Clock.parse(timeControl);
+      } catch (IllegalArgumentException e) { // NumberFormatException among them
+         System.out.println("Bad match settings: " + e.getMessage());
+         return;
+      }
+
+      String[] openings;
+      try {
+         openings = readOpenings(Path.of(args[0]));
+      } catch (IOException e) {
+         System.out.println("Could not read the openings " + args[0] + ": " + e.getMessage());
+         return;
+      }
+      if (openings.length == 0) {
+         System.out.println("No valid opening in " + args[0]);
+         return;
+      }
+
+      try (Writer pgn = Files.newBufferedWriter(Path.of(args[1]), StandardCharsets.UTF_8,
+                                                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+         Match match = new Match(openings, new String[] {args[2], args[3]}, games, timeControl, tablebases, sprt, pgn);
+         long start = System.nanoTime();
+         match.run(Math.max(1, Math.min(concurrency, games)));
+         String summary = String.format("%d games in %.1f s%n", sprt.games(), (System.nanoTime() - start) / 1e9)
+                        + sprt.summary() + System.lineSeparator()
+                        + switch (sprt.status()) {
+                             case SPRT.ACCEPT_H1 -> "H1 accepted: engine A is stronger.";
+                             case SPRT.ACCEPT_H0 -> "H0 accepted: engine A is not stronger.";
+                             default -> "No conclusion yet; play more games.";
+                          } + System.lineSeparator();
+         System.out.print(summary);
+         writeSummary(Path.of(args[1] + SUMMARY_SUFFIX), args, timeControl, summary);
+      } catch (IOException e) {
+         System.out.println("Match stopped: " + e.getMessage());
+      }
+   }
+
+   // the engines and settings of the match, then its summary
+   private static void writeSummary(Path file, String[] args, String timeControl, String summary) {
+      try {
+         Files.writeString(file, "Engine A: " + args[2] + System.lineSeparator()
+                                 + "Engine B: " + args[3] + System.lineSeparator()
+                                 + "Openings: " + args[0] + System.lineSeparator()
+                                 + "Time control: " + timeControl + System.lineSeparator()
+                                 + summary, StandardCharsets.UTF_8);
+      } catch (IOException e) {
+         System.out.println("Could not write the summary " + file + ": " + e.getMessage());
+      }
+   }
+
+   // the valid FENs of a file, one per line; blank lines and those starting with '#' are skipped
+   private static String[] readOpenings(Path file) throws IOException {
+      List<String> openings = new ArrayList<>();
+      Position position = new Position();
+      int invalid = 0;
+      for (String line : Files.readAllLines(file)) {
+         String fen = line.trim();
+         if (fen.isEmpty() || fen.startsWith("#")) continue;
+         if (FEN.parse(fen, position) != FEN.VALID || GameResult.of(position) != GameResult.ONGOING) {
+            invalid++;
+            continue;
+         }
+         openings.add(position.toFEN());
+      }
+      if (invalid > 0) System.out.println(invalid + " invalid or finished openings skipped");
+      return openings.toArray(new String[0]);
+   }
+
+   private void run(int concurrency) throws IOException {
+      ExecutorService workers = Executors.newFixedThreadPool(concurrency, task -> {
+         Thread thread = new Thread(task, "match-worker");
+         thread.setDaemon(true);
+         return thread;
+      });
+      try {
+         List<Future<?>> futures = new ArrayList<>();
+         for (int i = 0; i < concurrency; i++) {
+            futures.add(workers.submit(() -> {
+               work();
+               return null;
+            }));
+         }
+         for (Future<?> future : futures) {
+            future.get();
+         }
+      } catch (ExecutionException e) {
+         stopped = true;
+         if (e.getCause() instanceof IOException io) throw io;
+         throw new IllegalStateException(e.getCause());
+      } catch (InterruptedException e) {
+         stopped = true;
+         Thread.currentThread().interrupt();
+      } finally {
+         workers.shutdownNow();
+      }
+   }
+
+   // a worker's loop: takes games until they run out or the test is decided
+   private void work() throws IOException {
+      Engine[] engines = new Engine[2];
+      try {
+         Position position = new Position();
+         int[] moves = new int[MoveGenerator.MAX_MOVES];
+         for (int game = nextGame.getAndIncrement(); game < games && !stopped; game = nextGame.getAndIncrement()) {
+            for (int i = 0; i < 2; i++) {
+               if (engines[i] == null || !engines[i].isAlive()) {
+                  if (engines[i] != null) engines[i].close();
+                  engines[i] = new Engine(commands[i]);
+               }
+            }
+            int points = play(game, engines, position, moves);
+            sprt.add(points);
+            long played = sprt.games();
+            if (sprt.status() != SPRT.CONTINUE) stopped = true;
+            if (played % REPORT_EVERY == 0 || stopped) System.out.println("Game " + played + ": " + sprt.summary());
+         }
+      } finally {
+         for (Engine engine : engines) {
+            if (engine != null) engine.close();
+         }
+      }
+   }
+
+   // plays one game, appends it to the PGN file and returns engine A's half points
+   private int play(int game, Engine[] engines, Position position, int[] moves) throws IOException {
+      String fen = openings[game / 2 % openings.length];
+      int engineAColor = game % 2 == 0 ? Position.WHITE : Position.BLACK;
+      FEN.parse(fen, position);
+      ChessBoard board = new ChessBoard(position);
+      Clock clock = Clock.parse(timeControl);
+
+      PGN.Game record = new PGN.Game();
+      record.tag("Event", "Match");
+      record.tag("Site", "?");
+      record.tag("Date", date);
+      record.tag("Round", Integer.toString(game + 1));
+      record.tag("White", engines[engineAColor].name() + (engineAColor == Position.WHITE ? " (A)" : " (B)"));
+      record.tag("Black", engines[engineAColor ^ 1].name() + (engineAColor == Position.BLACK ? " (A)" : " (B)"));
+      if (!fen.equals(PGN.STANDARD_FEN)) {
+         record.tag("SetUp", "1");
+         record.tag("FEN", fen);
+      }
+      record.tag("TimeControl", clock.timeControl());
+
+      for (Engine engine : engines) {
+         engine.newGame();
+      }
+      StringBuilder moveList = new StringBuilder(1024);
+      String result = null, termination = "normal";
+      clock.start(position.sideToMove(), System.nanoTime());
+      while (board.isGameState()) {
+         int mover = position.sideToMove();
+         Engine engine = engines[mover == engineAColor ? 0 : 1];
+         long now = System.nanoTime();
+         String answer = engine.bestMove(fen, moveList, clock, now);
+         if (answer == null) {
+            System.out.println("Game " + (game + 1) + ": " + engine.name() + " stopped answering");
+            result = mover == Position.WHITE ? "0-1" : "1-0";
+            termination = "rules infraction";
+            break;
+         }
+         if (answer == Engine.OUT_OF_TIME || !clock.punch(System.nanoTime())) {
+            board.timeForfeit();
+            termination = "time forfeit";
+            break;
+         }
+
+         int move = Notation.parse(answer, position, moves);
+         if (!Notation.isMove(move)) {
+            System.out.println("Game " + (game + 1) + ": " + engine.name() + " played the illegal move " + answer + " in " + position.toFEN());
+            result = mover == Position.WHITE ? "0-1" : "1-0";
+            termination = "rules infraction";
+            break;
+         }
+         record.addMove(move);
+         board.doMove(move);
+         moveList.append(' ').append(answer);
+
+         if (tablebases != null && board.isGameState()) {
+            int verdict = GameResult.adjudicate(position, tablebases);
+            if (verdict != GameResult.ONGOING) {
+               result = PGN.result(verdict, position);
+               termination = "adjudication";
+               break;
+            }
+         }
+      }
+      clock.stop(System.nanoTime());
+      if (result == null) result = PGN.result(board.getResult(), position);
+      record.tag("Result", result);
+      record.tag("Termination", termination);
+
+      String text = PGN.write(record, new StringBuilder(256 + record.moveCount() * 8)).toString();
+      synchronized (pgn) {
+         pgn.write(text);
+         pgn.flush();
+      }
+
+      int whitePoints = switch (result) {
+         case "1-0" -> 2;
+         case "0-1" -> 0;
+         default -> 1;
+      };
+      return engineAColor == Position.WHITE ? whitePoints : 2 - whitePoints;
+   }
+
+   /**
+    * An engine process spoken to over UCI. A thread of its own reads the
+    * engine's output into a queue, so every wait for an answer can time out.
+    */
+   private static final class Engine implements Closeable {
+      /**
+       * Answer of {@link #bestMove} when the engine runs out of time; compared by identity.
+       */
+      static final String OUT_OF_TIME = new String("out of time");
+      private static final String END = new String("end of output"); // queued when the process closes its output; compared by identity
+
+      private final Process process;
+      private final Writer in;
+      private final BlockingQueue<String> lines = new LinkedBlockingQueue<>();
+      private final StringBuilder command = new StringBuilder(1024);
+      private String name;
+
+      Engine(String commandLine) throws IOException {
+         process = new ProcessBuilder(commandLine.trim().split("\\s+"))
+                       .redirectError(ProcessBuilder.Redirect.DISCARD)
+                       .start();
+         in = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+         Thread reader = new Thread(() -> {
+            try (BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+               for (String line = out.readLine(); line != null; line = out.readLine()) {
+                  lines.add(line);
+               }
+            } catch (IOException e) {
+               // the process is gone
+            }
+            lines.add(END);
+         }, "match-engine");
+         reader.setDaemon(true);
+         reader.start();
+
+         name = commandLine;
+         send("uci");
+         for (String line = next(HANDSHAKE); ; line = next(HANDSHAKE)) {
+            if (line == null) {
+               close();
+               throw new IOException("Engine did not answer uci: " + commandLine);
+            }
+            if (line.startsWith("id name ")) name = line.substring(8).trim();
+            if (line.equals("uciok")) break;
+         }
+      }
+
+      String name() {
+         return name;
+      }
+
+      boolean isAlive() {
+         return process.isAlive();
+      }
+
+      void newGame() throws IOException {
+         send("ucinewgame");
+         send("isready");
+         for (String line = next(HANDSHAKE); !"readyok".equals(line); line = next(HANDSHAKE)) {
+            if (line == null) throw new IOException(name + " did not answer isready");
+         }
+      }
+
+      /**
+       * Asks for a move with the clock's times.
+       *
+       * @return the move in UCI notation, {@link #OUT_OF_TIME} if the engine
+       *         did not answer in its time plus a grace period, or null if it
+       *         died
+       */
+      String bestMove(String fen, CharSequence moveList, Clock clock, long now) throws IOException {
+         command.setLength(0);
+         command.append("position fen ").append(fen);
+         if (moveList.length() > 0) command.append(" moves").append(moveList);
+         send(command);
+
+         long wtime = clock.remaining(Position.WHITE, now), btime = clock.remaining(Position.BLACK, now);
+         long increment = clock.increment() / 1_000_000;
+         command.setLength(0);
+         command.append("go wtime ").append(wtime / 1_000_000).append(" btime ").append(btime / 1_000_000)
+                .append(" winc ").append(increment).append(" binc ").append(increment);
+         int movesToGo = clock.movesToGo(clock.running());
+         if (movesToGo > 0) command.append(" movestogo ").append(movesToGo);
+         send(command);
+
+         long deadline = now + clock.remaining(clock.running(), now) + GRACE;
+         for (String line = next(deadline - System.nanoTime()); line != null; line = next(deadline - System.nanoTime())) {
+            if (line.startsWith("bestmove")) {
+               String[] tokens = line.split("\\s+");
+               return tokens.length > 1 ? tokens[1] : "(none)";
+            }
+         }
+         if (!process.isAlive()) return null;
+         // the engine is started afresh for the next game, so no late answer is taken for a move
+         process.destroy();
+         return OUT_OF_TIME;
+      }
+
+      // the next line of output; null on timeout or at the end of output
+      private String next(long nanos) {
+         try {
+            String line = lines.poll(Math.max(nanos, 0), TimeUnit.NANOSECONDS);
+            if (line == END) {
+               lines.add(END); // every later wait ends at once too
+               return null;
+            }
+            return line;
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+         }
+      }
+
+      private void send(CharSequence line) throws IOException {
+         try {
+            in.append(line).append('\n');
+            in.flush();
+         } catch (IOException e) {
+            if (process.isAlive()) throw e; // else the next wait finds the end of output
+         }
+      }
+
+      @Override
+      public void close() {
+         try {
+            send("quit");
+            if (!process.waitFor(1, TimeUnit.SECONDS)) process.destroyForcibly();
+         } catch (IOException e) {
+            process.destroyForcibly();
+         } catch (InterruptedException e) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+         }
+      }
+   }
+}
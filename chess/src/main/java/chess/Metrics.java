@@ -0,0 +1,379 @@
+package chess;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of the engine's hot paths: FEN parsing and
+ * validation, with invalid FENs counted by reason, moves made in games, move
+ * generation and search.
+ * <p>
+ * Metrics are off until {@linkplain #enable enabled}, at startup, before
+ * any thread that records them starts; until then each instrumented call
+ * costs the read of one static field and a branch. Once on, counters are
+ * {@link LongAdder}s, striped so that threads adding at once do not contend,
+ * and latencies are recorded in nanoseconds into histograms bucketed as
+ * HdrHistogram does: {@value Histogram#SUB_BUCKETS} equal buckets for each
+ * power of two, so any value is known to within 1/{@value Histogram#SUB_BUCKETS},
+ * in one fixed array per stripe of threads. Move generation runs millions of
+ * times a second in a search, too often to read the clock around each, so
+ * every generation is counted but only those of positions whose key ends in
+ * six zero bits, one in 64 and a fair sample, are timed.
+ * <br>
+ * {@link #report} sums everything up in one line for a log, and
+ * {@link #prometheus} in the text format Prometheus scrapes, which
+ * {@link #writePrometheus} writes to a file for a node exporter's textfile
+ * collector. {@link #startReporting} does both periodically and once more
+ * as the program exits.
+ * <br>
+ * Turned on from the command line with {@code --metrics <seconds>} or
+ * {@code --metrics-file <file>}, see {@link ChessPlayer#main}.
+ * @author wcaine
+ */
+public final class Metrics {
+
+   // read on every instrumented call; written once, before the threads that read it start
+   private static boolean enabled;
+
+   static final Histogram FEN_PARSE = new Histogram("chess_fen_parse_seconds", "FENs parsed and validated");
+   static final Histogram MOVE = new Histogram("chess_move_seconds", "Moves made in games, with the game's adjudication");
+   static final Histogram MOVE_GENERATION = new Histogram("chess_movegen_seconds",
+                                                          "Move generations, timed for one position in 64");
+   static final Histogram SEARCH = new Histogram("chess_search_seconds", "Searches for a move, on all threads together");
+   static final Counter GENERATIONS = new Counter("chess_movegen_total", "Move generations");
+   static final Counter NODES = new Counter("chess_search_nodes_total", "Positions searched");
+
+   // invalid FENs, by the error kind in the low byte of a parse result
+   private static final Counter[] FEN_ERRORS = new Counter[FEN.ERROR_KINDS];
+   static {
+      for (int kind = 1; kind < FEN_ERRORS.length; kind++) {
+         FEN_ERRORS[kind] = new Counter("chess_fen_errors_total", "Invalid FENs, by reason");
+      }
+   }
+
+   private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+
+   private Metrics() {
+   }
+
+   /**
+    * Starts recording. Call before starting the threads to be measured.
+    */
+   public static void enable() {
+      enabled = true;
+   }
+
+   /**
+    * @return if metrics are recorded
+    */
+   public static boolean isEnabled() {
+      return enabled;
+   }
+
+   /**
+    * Starts timing a call, to be ended with {@link Histogram#stop}.
+    *
+    * @return the time now in nanoseconds, or 0 if metrics are off
+    */
+   static long start() {
+      return enabled ? System.nanoTime() : 0;
+   }
+
+   /**
+    * Counts a move generation and starts timing it if it is sampled, to be
+    * ended with {@link Histogram#stop} on {@link #MOVE_GENERATION}.
+    *
+    * @param key {@link Zobrist} key of the position generated for
+    *
+    * @return the time now in nanoseconds, or 0 if metrics are off or the
+    *         generation is not sampled
+    */
+   static long startGeneration(long key) {
+      if (!enabled) return 0;
+      GENERATIONS.adder.increment();
+      return (key & 63) == 0 ? System.nanoTime() : 0;
+   }
+
+   /**
+    * Counts an invalid FEN by its reason.
+    *
+    * @param result result of {@link FEN#parse}, other than {@link FEN#VALID}
+    */
+   static void fenError(int result) {
+      if (!enabled) return;
+      int kind = result & 0xFF;
+      if (kind > 0 && kind < FEN_ERRORS.length) FEN_ERRORS[kind].adder.increment();
+   }
+
+   /**
+    * Sums up every metric in one line: for each histogram its count and
+    * median, 99th percentile and greatest latency, then the counters and
+    * each reason FENs were invalid for.
+    *
+    * @return the line, without a line separator
+    */
+   public static String report() {
+      StringBuilder line = new StringBuilder("metrics:");
+      summary(line, "fen", FEN_PARSE);
+      line.append(", ").append(fenErrors()).append(" invalid");
+      String separator = " (";
+      for (int kind = 1; kind < FEN_ERRORS.length; kind++) {
+         long count = FEN_ERRORS[kind].sum();
+         if (count == 0) continue;
+         line.append(separator).append(FEN.errorKind(kind)).append(' ').append(count);
+         separator = ", ";
+      }
+      if (!separator.equals(" (")) line.append(')');
+      line.append(';');
+      summary(line, "moves", MOVE);
+      line.append(';');
+      summary(line, "movegen", MOVE_GENERATION);
+      line.append(" timed of ").append(GENERATIONS.sum()).append(';');
+      summary(line, "search", SEARCH);
+      line.append(", ").append(NODES.sum()).append(" nodes");
+      return line.toString();
+   }
+
+   private static void summary(StringBuilder line, String name, Histogram histogram) {
+      Snapshot snapshot = histogram.snapshot();
+      line.append(' ').append(name).append(' ').append(snapshot.count);
+      if (snapshot.count == 0) return;
+      line.append(" p50 ").append(duration(snapshot.quantile(0.5)))
+          .append(" p99 ").append(duration(snapshot.quantile(0.99)))
+          .append(" max ").append(duration(snapshot.max));
+   }
+
+   private static long fenErrors() {
+      long total = 0;
+      for (int kind = 1; kind < FEN_ERRORS.length; kind++) {
+         total += FEN_ERRORS[kind].sum();
+      }
+      return total;
+   }
+
+   // nanoseconds in the largest unit they make at least one of
+   private static String duration(long nanos) {
+      if (nanos < 1_000) return nanos + " ns";
+      if (nanos < 1_000_000) return String.format(Locale.ROOT, "%.1f us", nanos / 1e3);
+      if (nanos < 1_000_000_000) return String.format(Locale.ROOT, "%.1f ms", nanos / 1e6);
+      return String.format(Locale.ROOT, "%.2f s", nanos / 1e9);
+   }
+
+   /**
+    * Writes every metric in the Prometheus text exposition format: each
+    * histogram as a summary in seconds, with quantiles, sum and count, and
+    * each counter as a counter.
+    *
+    * @return the text
+    */
+   public static String prometheus() {
+      StringBuilder text = new StringBuilder(2048);
+      for (Histogram histogram : new Histogram[] {FEN_PARSE, MOVE, MOVE_GENERATION, SEARCH}) {
+         Snapshot snapshot = histogram.snapshot();
+         header(text, histogram.name, histogram.help, "summary");
+         for (double quantile : QUANTILES) {
+            text.append(histogram.name).append("{quantile=\"").append(quantile).append("\"} ")
+                .append(snapshot.count > 0 ? Double.toString(snapshot.quantile(quantile) / 1e9) : "NaN").append('\n');
+         }
+         text.append(histogram.name).append("_sum ").append(snapshot.sum / 1e9).append('\n');
+         text.append(histogram.name).append("_count ").append(snapshot.count).append('\n');
+      }
+      for (Counter counter : new Counter[] {GENERATIONS, NODES}) {
+         header(text, counter.name, counter.help, "counter");
+         text.append(counter.name).append(' ').append(counter.sum()).append('\n');
+      }
+      header(text, FEN_ERRORS[1].name, FEN_ERRORS[1].help, "counter");
+      for (int kind = 1; kind < FEN_ERRORS.length; kind++) {
+         text.append(FEN_ERRORS[kind].name).append("{reason=\"").append(FEN.errorKind(kind)).append("\"} ")
+             .append(FEN_ERRORS[kind].sum()).append('\n');
+      }
+      return text.toString();
+   }
+
+   private static void header(StringBuilder text, String name, String help, String type) {
+      text.append("# HELP ").append(name).append(' ').append(help).append(".\n");
+      text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+   }
+
+   /**
+    * Writes {@link #prometheus} to a file, by way of a new file that replaces
+    * it in one move, so a collector never reads it half written.
+    *
+    * @param file file to write
+    * @throws IOException if the file cannot be written
+    */
+   public static void writePrometheus(Path file) throws IOException {
+      Path temporary = Files.createTempFile(file.toAbsolutePath().getParent(), "metrics", ".tmp");
+      try {
+         Files.writeString(temporary, prometheus(), StandardCharsets.UTF_8);
+         Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+         Files.deleteIfExists(temporary);
+      }
+   }
+
+   /**
+    * Reports the metrics every so often on a daemon thread, and once more as
+    * the program exits.
+    *
+    * @param seconds time between reports; 0 to report only at exit
+    * @param log stream to print a {@link #report} line to each time, or null for none
+    * @param file file to {@linkplain #writePrometheus write} each time, or null for none
+    */
+   public static void startReporting(long seconds, PrintStream log, Path file) {
+      Runnable export = () -> {
+         if (log != null) log.println(report());
+         if (file != null) {
+            try {
+               writePrometheus(file);
+            } catch (IOException e) {
+               System.err.println("Could not write the metrics to " + file + ": " + e.getMessage());
+            }
+         }
+      };
+      if (seconds > 0) {
+         ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "metrics-reporter");
+            thread.setDaemon(true);
+            return thread;
+         });
+         reporter.scheduleAtFixedRate(export, seconds, seconds, TimeUnit.SECONDS);
+      }
+      Runtime.getRuntime().addShutdownHook(new Thread(export, "metrics-exit"));
+   }
+
+   /**
+    * A count, added to from any thread.
+    */
+   static final class Counter {
+      final String name, help;
+      private final LongAdder adder = new LongAdder();
+
+      private Counter(String name, String help) {
+         this.name = name;
+         this.help = help;
+      }
+
+      /**
+       * @param count amount to add, if metrics are on
+       */
+      void add(long count) {
+         if (enabled) adder.add(count);
+      }
+
+      long sum() {
+         return adder.sum();
+      }
+   }
+
+   /**
+    * Latencies in nanoseconds, recorded from any thread. Values below
+    * {@value #SUB_BUCKETS} have a bucket each; above, each power of two is
+    * split into {@value #SUB_BUCKETS} buckets by the bits after its highest,
+    * so buckets are as wide as a sixteenth of the values in them at most.
+    */
+   static final class Histogram {
+      static final int SUB_BUCKETS = 16;
+      private static final int SUB_BITS = 4;
+      private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS; // up to Long.MAX_VALUE
+      // a power of two at least the processors, so each thread mostly has its stripe to itself
+      private static final int STRIPES =
+            Integer.highestOneBit(Math.min(Runtime.getRuntime().availableProcessors(), 16) * 2 - 1);
+
+      final String name, help;
+      private final AtomicLongArray counts = new AtomicLongArray(STRIPES * BUCKETS); // by stripe, then bucket
+      private final LongAdder sum = new LongAdder();
+      private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+      private Histogram(String name, String help) {
+         this.name = name;
+         this.help = help;
+      }
+
+      /**
+       * Records the time since a call was started, unless it was not timed.
+       *
+       * @param start result of {@link Metrics#start} or {@link Metrics#startGeneration}
+       */
+      void stop(long start) {
+         if (start != 0) record(System.nanoTime() - start);
+      }
+
+      /**
+       * @param nanos latency to record
+       */
+      void record(long nanos) {
+         nanos = Math.max(nanos, 0);
+         int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+         counts.getAndIncrement(stripe * BUCKETS + bucket(nanos));
+         sum.add(nanos);
+         max.accumulate(nanos);
+      }
+
+      Snapshot snapshot() {
+         long[] merged = new long[BUCKETS];
+         long count = 0;
+         for (int stripe = 0; stripe < STRIPES; stripe++) {
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+               long n = counts.get(stripe * BUCKETS + bucket);
+               merged[bucket] += n;
+               count += n;
+            }
+         }
+         return new Snapshot(merged, count, sum.sum(), max.get());
+      }
+
+      static int bucket(long value) {
+         if (value < SUB_BUCKETS) return (int) value;
+         int exponent = 63 - Long.numberOfLeadingZeros(value);
+         return ((exponent - SUB_BITS + 1) << SUB_BITS) + (int) ((value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1));
+      }
+
+      // the greatest value in a bucket
+      static long highest(int bucket) {
+         if (bucket < SUB_BUCKETS) return bucket;
+         int shift = (bucket >>> SUB_BITS) - 1;
+         long lowest = (long) (SUB_BUCKETS + (bucket & (SUB_BUCKETS - 1))) << shift;
+         return lowest + (1L << shift) - 1;
+      }
+   }
+
+   /**
+    * A histogram's buckets merged across stripes at one moment.
+    */
+   private static final class Snapshot {
+      final long[] counts;
+      final long count, sum, max;
+
+      Snapshot(long[] counts, long count, long sum, long max) {
+         this.counts = counts;
+         this.count = count;
+         this.sum = sum;
+         this.max = max;
+      }
+
+      // the greatest value of the bucket holding the quantile, no more than the greatest recorded
+      long quantile(double quantile) {
+         if (count == 0) return 0;
+         long rank = Math.max(1, (long) Math.ceil(quantile * count));
+         long seen = 0;
+         for (int bucket = 0; bucket < counts.length; bucket++) {
+            seen += counts[bucket];
+            if (seen >= rank) return Math.min(Histogram.highest(bucket), max);
+         }
+         return max;
+      }
+   }
+}
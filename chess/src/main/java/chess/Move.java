@@ -0,0 +1,91 @@
+package chess;
+
+/**
+ * Moves encoded as plain ints so move lists can live in primitive arrays.
+ * <p>
+ * Bits, from least significant:
+ * <ol start="0">
+ *    <li>bits 0-5: start square</li>
+ *    <li>bits 6-11: end square</li>
+ *    <li>bits 12-15: flags (see {@link #QUIET} through {@link #QUEEN_PROMOTION_CAPTURE})</li>
+ * </ol>
+ * Squares are numbered as in {@link Position}.
+ * @see MoveGenerator
+ * @author wcaine
+ */
+public final class Move {
+   /**
+    * No move; never produced by the {@link MoveGenerator}.
+    */
+   public static final int NONE = 0;
+
+   /**
+    * Move flags. Bit 2 marks captures and bit 3 marks promotions, whose
+    * lower two bits give the promoted piece (knight, bishop, rook, queen).
+    */
+   public static final int QUIET = 0, DOUBLE_PUSH = 1, KING_CASTLE = 2, QUEEN_CASTLE = 3,
+                           CAPTURE = 4, EP_CAPTURE = 5,
+                           KNIGHT_PROMOTION = 8, BISHOP_PROMOTION = 9, ROOK_PROMOTION = 10, QUEEN_PROMOTION = 11,
+                           KNIGHT_PROMOTION_CAPTURE = 12, BISHOP_PROMOTION_CAPTURE = 13,
+                           ROOK_PROMOTION_CAPTURE = 14, QUEEN_PROMOTION_CAPTURE = 15;
+
+   private Move() {
+   }
+
+   /**
+    * @param from start square
+    * @param to end square
+    * @param flags one of the move flags
+    * @return encoded move
+    */
+   public static int of(int from, int to, int flags) {
+      return from | (to << 6) | (flags << 12);
+   }
+
+   public static int from(int move) {
+      return move & 0x3F;
+   }
+
+   public static int to(int move) {
+      return (move >>> 6) & 0x3F;
+   }
+
+   public static int flags(int move) {
+      return (move >>> 12) & 0xF;
+   }
+
+   public static boolean isCapture(int move) {
+      return (move & (CAPTURE << 12)) != 0;
+   }
+
+   public static boolean isPromotion(int move) {
+      return (move & (KNIGHT_PROMOTION << 12)) != 0;
+   }
+
+   public static boolean isCastle(int move) {
+      int flags = flags(move);
+      return flags == KING_CASTLE || flags == QUEEN_CASTLE;
+   }
+
+   /**
+    * @param move encoded move, <b>must be a promotion</b>
+    * @return piece type promoted to, {@link Position#KNIGHT} through {@link Position#QUEEN}
+    */
+   public static int promotion(int move) {
+      return Position.KNIGHT + (flags(move) & 3);
+   }
+
+   /**
+    * Formats a move in coordinate notation, e.g. "e2e4" or "e7e8q".
+    *
+    * @param move encoded move
+    * @return move as a string
+    */
+   public static String toString(int move) {
+      if (move == NONE) return "0000";
+
+      String text = Position.squareName(from(move)) + Position.squareName(to(move));
+      if (isPromotion(move)) text += "nbrq".charAt(promotion(move) - Position.KNIGHT);
+      return text;
+   }
+}
@@ -0,0 +1,251 @@
+package chess;
+
+/**
+ * Generates the legal moves of a {@link Position} into a caller-supplied int
+ * array, using the precomputed {@link Attacks} tables. Moves are legal as
+ * generated: check evasions are restricted to the checking ray, pinned pieces
+ * to their pin line and king moves to unattacked squares, so no move has to be
+ * played and taken back to be tested.
+ * <br>
+ * Castling, en passant and promotion (to each of knight, bishop, rook and
+ * queen) are covered.
+ * @see Move
+ * @see Perft
+ * @author wcaine
+ */
+public final class MoveGenerator {
+   /**
+    * Enough room for the legal moves of any position (at most 218 are possible).
+    */
+   public static final int MAX_MOVES = 256;
+
+   private static final long RANK_1 = 0xFFL, RANK_8 = 0xFFL << 56;
+
+   private MoveGenerator() {
+   }
+
+   /**
+    * Writes every legal move of the position into {@code moves}, from index 0.
+    *
+    * @param position position to generate for
+    * @param moves array of at least {@link #MAX_MOVES} elements
+    *
+    * @return number of moves written
+    */
+   public static int generate(Position position, int[] moves) {
+      long start = Metrics.startGeneration(position.key);
+      int count = generate(position, moves, true);
+      Metrics.MOVE_GENERATION.stop(start);
+      return count;
+   }
+
+   /**
+    * Writes the legal captures and promotions of the position into
+    * {@code moves}, from index 0, for searches that only resolve exchanges.
+    *
+    * @param position position to generate for
+    * @param moves array of at least {@link #MAX_MOVES} elements
+    *
+    * @return number of moves written
+    */
+   public static int generateCaptures(Position position, int[] moves) {
+      long start = Metrics.startGeneration(position.key);
+      int count = generate(position, moves, false);
+      Metrics.MOVE_GENERATION.stop(start);
+      return count;
+   }
+
+   private static int generate(Position position, int[] moves, boolean quiets) {
+      int us = position.sideToMove, them = us ^ 1;
+      long own = position.colors[us], enemy = position.colors[them], occupied = position.occupied;
+      int kingSquare = position.kingSquare(us);
+      long checkers = position.checkers;
+      long targetMask = quiets ? ~own : enemy;
+      int count = 0;
+
+      count = addMoves(kingSquare, kingTargets(position) & targetMask, enemy, moves, count);
+
+      // in double check only the king can move
+      if (Long.bitCount(checkers) > 1) return count;
+
+      // in check, other pieces must capture the checker or block its ray
+      long checkMask = checkers == 0 ? ~0L : checkers | Attacks.between(kingSquare, Long.numberOfTrailingZeros(checkers));
+      long pieceMask = checkMask & targetMask;
+      long pinned = position.pinned;
+      int offset = us * 6;
+
+      for (long knights = position.pieces[offset + Position.KNIGHT] & ~pinned; knights != 0; knights &= knights - 1) {
+         int from = Long.numberOfTrailingZeros(knights);
+         count = addMoves(from, Attacks.knight(from) & pieceMask, enemy, moves, count);
+      }
+
+      long diagonal = position.pieces[offset + Position.BISHOP] | position.pieces[offset + Position.QUEEN];
+      for (long sliders = diagonal; sliders != 0; sliders &= sliders - 1) {
+         int from = Long.numberOfTrailingZeros(sliders);
+         long targets = Attacks.bishop(from, occupied) & pieceMask;
+         if ((pinned & (1L << from)) != 0) targets &= Attacks.line(kingSquare, from);
+         count = addMoves(from, targets, enemy, moves, count);
+      }
+
+      long straight = position.pieces[offset + Position.ROOK] | position.pieces[offset + Position.QUEEN];
+      for (long sliders = straight; sliders != 0; sliders &= sliders - 1) {
+         int from = Long.numberOfTrailingZeros(sliders);
+         long targets = Attacks.rook(from, occupied) & pieceMask;
+         if ((pinned & (1L << from)) != 0) targets &= Attacks.line(kingSquare, from);
+         count = addMoves(from, targets, enemy, moves, count);
+      }
+
+      count = pawnMoves(position, us, kingSquare, checkMask, pinned, quiets, moves, count);
+
+      if (checkers == 0 && quiets) count = castlingMoves(position, us, moves, count);
+
+      return count;
+   }
+
+   /**
+    * Finds the squares the king of the color to move can legally move to,
+    * without castling, in constant time.
+    *
+    * @param position position to search
+    *
+    * @return the squares
+    */
+   static long kingTargets(Position position) {
+      int us = position.sideToMove, them = us ^ 1;
+      int kingSquare = position.kingSquare(us);
+
+      // squares not attacked; nor back along the ray of a sliding checker,
+      // which the king itself blocks
+      long targets = Attacks.king(kingSquare) & ~position.colors[us] & ~position.attacks[them];
+      long sliderCheckers = position.checkers & ~(position.pieces[them * 6 + Position.PAWN] | position.pieces[them * 6 + Position.KNIGHT]);
+      for (; sliderCheckers != 0; sliderCheckers &= sliderCheckers - 1) {
+         int checker = Long.numberOfTrailingZeros(sliderCheckers);
+         targets &= ~Attacks.line(kingSquare, checker) | (1L << checker);
+      }
+      return targets;
+   }
+
+   /**
+    * Finds the pieces of a color that are pinned to their own king. For the
+    * color to move, {@link Position#pinned()} gives the same without a search.
+    *
+    * @param position position to search
+    * @param color color of the king
+    *
+    * @return squares of the pinned pieces
+    */
+   public static long pinned(Position position, int color) {
+      int kingSquare = position.kingSquare(color);
+      int enemyOffset = (color ^ 1) * 6;
+      long enemy = position.colors[color ^ 1];
+      long queens = position.pieces[enemyOffset + Position.QUEEN];
+
+      // enemy sliders that would attack the king if only enemy pieces blocked them
+      long snipers = (Attacks.rook(kingSquare, enemy) & (position.pieces[enemyOffset + Position.ROOK] | queens))
+                   | (Attacks.bishop(kingSquare, enemy) & (position.pieces[enemyOffset + Position.BISHOP] | queens));
+
+      long pinned = 0L;
+      for (; snipers != 0; snipers &= snipers - 1) {
+         long blockers = Attacks.between(kingSquare, Long.numberOfTrailingZeros(snipers)) & position.occupied;
+         // exactly one blocker, and it is our own
+         if (blockers != 0 && (blockers & (blockers - 1)) == 0) pinned |= blockers & position.colors[color];
+      }
+      return pinned;
+   }
+
+   private static int addMoves(int from, long targets, long enemy, int[] moves, int count) {
+      for (; targets != 0; targets &= targets - 1) {
+         int to = Long.numberOfTrailingZeros(targets);
+         moves[count++] = Move.of(from, to, (enemy & (1L << to)) != 0 ? Move.CAPTURE : Move.QUIET);
+      }
+      return count;
+   }
+
+   private static int pawnMoves(Position position, int us, int kingSquare, long checkMask, long pinned, boolean quiets,
+                                int[] moves, int count) {
+      long enemy = position.colors[us ^ 1], occupied = position.occupied;
+      int forward = us == Position.WHITE ? 8 : -8;
+      long lastRank = us == Position.WHITE ? RANK_8 : RANK_1;
+      long doublePushRank = us == Position.WHITE ? RANK_1 << 16 : RANK_8 >>> 16; // rank reached by the first step
+
+      for (long pawns = position.pieces[us * 6 + Position.PAWN]; pawns != 0; pawns &= pawns - 1) {
+         int from = Long.numberOfTrailingZeros(pawns);
+         long allowed = (pinned & (1L << from)) != 0 ? Attacks.line(kingSquare, from) & checkMask : checkMask;
+
+         // pushes (only promotions when quiet moves are left out)
+         int to = from + forward;
+         long toBit = 1L << to;
+         if ((occupied & toBit) == 0) {
+            if ((allowed & toBit) != 0 && (quiets || (lastRank & toBit) != 0)) {
+               count = (lastRank & toBit) != 0
+                     ? addPromotions(from, to, 0, moves, count)
+                     : add(Move.of(from, to, Move.QUIET), moves, count);
+            }
+            int twoSteps = to + forward;
+            if (quiets && (doublePushRank & toBit) != 0 && (occupied & (1L << twoSteps)) == 0 && (allowed & (1L << twoSteps)) != 0) {
+               moves[count++] = Move.of(from, twoSteps, Move.DOUBLE_PUSH);
+            }
+         }
+
+         // captures
+         for (long targets = Attacks.pawn(us, from) & enemy & allowed; targets != 0; targets &= targets - 1) {
+            to = Long.numberOfTrailingZeros(targets);
+            count = ((lastRank & (1L << to)) != 0)
+                  ? addPromotions(from, to, Move.CAPTURE, moves, count)
+                  : add(Move.of(from, to, Move.CAPTURE), moves, count);
+         }
+
+         // en passant
+         int ep = position.epSquare;
+         if (ep != Position.NONE && (Attacks.pawn(us, from) & (1L << ep)) != 0 && epIsLegal(position, us, kingSquare, from, ep)) {
+            moves[count++] = Move.of(from, ep, Move.EP_CAPTURE);
+         }
+      }
+
+      return count;
+   }
+
+   // en passant removes two pieces from a rank at once, so test the resulting occupancy directly
+   private static boolean epIsLegal(Position position, int us, int kingSquare, int from, int ep) {
+      long captured = 1L << (ep ^ 8);
+      long occupied = (position.occupied ^ (1L << from) ^ captured) | (1L << ep);
+      long enemy = position.colors[us ^ 1] ^ captured;
+      return (position.attackersTo(kingSquare, occupied) & enemy) == 0;
+   }
+
+   private static int add(int move, int[] moves, int count) {
+      moves[count] = move;
+      return count + 1;
+   }
+
+   private static int addPromotions(int from, int to, int capture, int[] moves, int count) {
+      for (int flags = Move.QUEEN_PROMOTION; flags >= Move.KNIGHT_PROMOTION; flags--) {
+         moves[count++] = Move.of(from, to, flags | capture);
+      }
+      return count;
+   }
+
+   private static int castlingMoves(Position position, int us, int[] moves, int count) {
+      long attacked = position.attacks[us ^ 1];
+      int home = us == Position.WHITE ? 4 : 60; // e1 or e8
+      long occupied = position.occupied, rooks = position.pieces[us * 6 + Position.ROOK];
+      // rights from a FEN are not proof that the king is still at home
+      if ((position.pieces[us * 6 + Position.KING] & (1L << home)) == 0) return count;
+      int kingside = us == Position.WHITE ? Position.WHITE_KINGSIDE : Position.BLACK_KINGSIDE;
+      int queenside = us == Position.WHITE ? Position.WHITE_QUEENSIDE : Position.BLACK_QUEENSIDE;
+
+      // squares between king and rook must be empty; the king must not pass through attack
+      if ((position.castling & kingside) != 0 && (rooks & (1L << (home + 3))) != 0
+              && (occupied & (3L << (home + 1))) == 0
+              && (attacked & (3L << (home + 1))) == 0) {
+         moves[count++] = Move.of(home, home + 2, Move.KING_CASTLE);
+      }
+      if ((position.castling & queenside) != 0 && (rooks & (1L << (home - 4))) != 0
+              && (occupied & (7L << (home - 3))) == 0
+              && (attacked & (3L << (home - 2))) == 0) {
+         moves[count++] = Move.of(home, home - 2, Move.QUEEN_CASTLE);
+      }
+
+      return count;
+   }
+}
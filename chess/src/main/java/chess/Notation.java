@@ -0,0 +1,356 @@
+package chess;
+
+/**
+ * Reads and writes moves in the notations players and files use, by matching
+ * them against the legal moves from the {@link MoveGenerator} rather than
+ * with regular expressions:
+ * <ul>
+ *    <li>standard algebraic notation (SAN), as in PGN: {@code Nf3}, {@code exd5},
+ *        {@code Nbd7}, {@code e8=Q+}, {@code O-O}</li>
+ *    <li>long (expanded) algebraic notation: {@code Ng1f3}, {@code e4xd5},
+ *        {@code e2-e4}, {@code e7e8=Q}</li>
+ *    <li>coordinate notation, as in UCI: {@code g1f3}, {@code e7e8q}</li>
+ * </ul>
+ * Castling may be written {@code O-O} or {@code 0-0}, and queenside
+ * {@code O-O-O} or {@code 0-0-0}, or as the king's move. Check and mate
+ * marks ({@code +}, {@code #}) and annotations ({@code !}, {@code ?}) are
+ * ignored when reading and added when writing SAN and long algebraic
+ * notation.
+ * <p>
+ * Every method can take a move array of the caller's to generate into, so
+ * whole games can be read and written without allocation.
+ * @see Move
+ * @author wcaine
+ */
+public final class Notation {
+
+   // error kinds returned (negated) by parse
+   private static final int BAD_NOTATION = 1, NO_PIECE = 2, MISSING_CAPTURE = 3, FALSE_CAPTURE = 4,
+                            MISSING_PROMOTION = 5, ILLEGAL = 6, AMBIGUOUS = 7;
+
+   private static final String PIECE_LETTERS = "PNBRQK";
+
+   private static final ThreadLocal<int[]> MOVES = ThreadLocal.withInitial(() -> new int[MoveGenerator.MAX_MOVES]);
+
+   private Notation() {
+   }
+
+   /**
+    * Finds the legal move named in any of the supported notations.
+    *
+    * @param text move as written
+    * @param position position the move is to be made in
+    *
+    * @return the move, or a negative error for {@link #errorReason}
+    */
+   public static int parse(CharSequence text, Position position) {
+      return parse(text, position, MOVES.get());
+   }
+
+   /**
+    * Finds the legal move named, as in {@link #parse(CharSequence, Position)},
+    * generating moves into an array of the caller's.
+    *
+    * @param text move as written
+    * @param position position the move is to be made in
+    * @param moves array of at least {@link MoveGenerator#MAX_MOVES} elements
+    *
+    * @return the move, or a negative error for {@link #errorReason}
+    */
+   public static int parse(CharSequence text, Position position, int[] moves) {
+      return parse(text, 0, text.length(), position, moves);
+   }
+
+   /**
+    * Finds the legal move named by part of a text, such as a token of PGN
+    * movetext, as in {@link #parse(CharSequence, Position)}.
+    *
+    * @param text text holding the move
+    * @param start index of the move's first character
+    * @param end index just past the move's last character
+    * @param position position the move is to be made in
+    * @param moves array of at least {@link MoveGenerator#MAX_MOVES} elements
+    *
+    * @return the move, or a negative error for {@link #errorReason}
+    */
+   public static int parse(CharSequence text, int start, int end, Position position, int[] moves) {
+      while (start < end && text.charAt(start) == ' ') start++;
+      end = markEnd(text, start, end);
+      if (end - start >= 4 && text.charAt(end - 1) == '.' && text.charAt(end - 4) == 'e'
+              && text.charAt(end - 3) == '.' && text.charAt(end - 2) == 'p') {
+         // "e.p." after an en passant capture
+         end -= 4;
+         while (end > start && text.charAt(end - 1) == ' ') end--;
+      }
+      if (end - start < 2) return -BAD_NOTATION;
+
+      int castle = castling(text, start, end);
+      if (castle != Move.NONE) return castle == -1 ? -BAD_NOTATION : findCastle(castle, position, moves);
+
+      // promotion piece, after the end square: "=Q", "Q" or (coordinate notation) "q"
+      int promotion = promotionType(text.charAt(end - 1));
+      if (promotion != Position.NONE && text.charAt(end - 2) == '=') {
+         end -= 2;
+      } else if (promotion != Position.NONE && isRank(text.charAt(end - 2))) {
+         end--;
+      } else {
+         promotion = Position.NONE;
+      }
+
+      // end square
+      if (end - start < 2 || !isFile(text.charAt(end - 2)) || !isRank(text.charAt(end - 1))) return -BAD_NOTATION;
+      int to = Position.square(text.charAt(end - 2), text.charAt(end - 1));
+      end -= 2;
+
+      // [piece][start file][start rank][x or -]
+      int i = start;
+      int type = Position.NONE;
+      if (i < end && PIECE_LETTERS.indexOf(text.charAt(i)) >= 0) type = PIECE_LETTERS.indexOf(text.charAt(i++));
+      int fromFile = -1, fromRank = -1;
+      if (i < end && isFile(text.charAt(i))) fromFile = text.charAt(i++) - 'a';
+      if (i < end && isRank(text.charAt(i))) fromRank = text.charAt(i++) - '1';
+      boolean capture = false, separated = false;
+      if (i < end && (text.charAt(i) == 'x' || text.charAt(i) == ':')) {
+         capture = true;
+         i++;
+      } else if (i < end && text.charAt(i) == '-') {
+         separated = true;
+         i++;
+      }
+      if (i != end) return -BAD_NOTATION;
+
+      // bare coordinates (UCI) name any piece and never mark captures
+      boolean coordinates = type == Position.NONE && fromFile >= 0 && fromRank >= 0 && !capture && !separated;
+      if (type == Position.NONE && !coordinates) type = Position.PAWN;
+
+      // with a full start square, it must hold a piece of ours (of the type given)
+      if (fromFile >= 0 && fromRank >= 0) {
+         int piece = position.pieceAt(fromRank * 8 + fromFile);
+         if (piece == Position.NONE || piece / 6 != position.sideToMove() || (type != Position.NONE && piece % 6 != type)) {
+            return -NO_PIECE;
+         }
+      }
+
+      int count = MoveGenerator.generate(position, moves);
+      int found = Move.NONE;
+      boolean needsPromotion = false;
+      for (int m = 0; m < count; m++) {
+         int move = moves[m];
+         int from = Move.from(move);
+         if (Move.to(move) != to) continue;
+         if (fromFile >= 0 && (from & 7) != fromFile) continue;
+         if (fromRank >= 0 && (from >>> 3) != fromRank) continue;
+         if (type != Position.NONE && position.board[from] % 6 != type) continue;
+         if (Move.isPromotion(move) != (promotion != Position.NONE)) {
+            needsPromotion |= Move.isPromotion(move);
+            continue;
+         }
+         if (promotion != Position.NONE && Move.promotion(move) != promotion) continue;
+
+         if (found != Move.NONE) return -AMBIGUOUS;
+         found = move;
+      }
+
+      if (found == Move.NONE) return needsPromotion ? -MISSING_PROMOTION : -ILLEGAL;
+      if (!coordinates && Move.isCapture(found) != capture) return capture ? -FALSE_CAPTURE : -MISSING_CAPTURE;
+      return found;
+   }
+
+   /**
+    * @param result result of {@link #parse}, a move if positive
+    * @return if the result is a move rather than an error
+    */
+   public static boolean isMove(int result) {
+      return result > 0;
+   }
+
+   /**
+    * @param result result of {@link #parse} that is not a move
+    * @return message describing the error
+    */
+   public static String errorReason(int result) {
+      return switch (-result) {
+         case BAD_NOTATION -> "Either illegal characters entered or expanded algebraic notation formatted incorrectly";
+         case NO_PIECE -> "You have no piece of that type on the start square of your move";
+         case MISSING_CAPTURE -> "There is a piece on the end position of your move, but no \"x\" in your notation to mark a capture";
+         case FALSE_CAPTURE -> "You marked a capture in your notation but there is no piece on the end square";
+         case MISSING_PROMOTION -> "Pawn promotions must name the promoted piece with \"=X\"";
+         case ILLEGAL -> "That move is not legal in this position";
+         case AMBIGUOUS -> "More than one piece can make that move; name its start file or rank";
+         default -> "Unknown error";
+      };
+   }
+
+   // end of the move proper, before check, mate and annotation marks
+   private static int markEnd(CharSequence text, int start, int end) {
+      while (end > start) {
+         char c = text.charAt(end - 1);
+         if (c != '+' && c != '#' && c != '!' && c != '?' && c != ' ') break;
+         end--;
+      }
+      return end;
+   }
+
+   // Move.KING_CASTLE or Move.QUEEN_CASTLE for "O-O" or "O-O-O" (or with zeros),
+   // -1 for something else made of those characters, or Move.NONE for no castling
+   private static int castling(CharSequence text, int start, int end) {
+      char first = text.charAt(start);
+      if (first != 'O' && first != '0') return Move.NONE;
+      if (end - start == 3 && text.charAt(start + 1) == '-' && text.charAt(start + 2) == first) return Move.KING_CASTLE;
+      if (end - start == 5 && text.charAt(start + 1) == '-' && text.charAt(start + 2) == first
+              && text.charAt(start + 3) == '-' && text.charAt(start + 4) == first) {
+         return Move.QUEEN_CASTLE;
+      }
+      return -1;
+   }
+
+   private static int findCastle(int flags, Position position, int[] moves) {
+      int count = MoveGenerator.generate(position, moves);
+      for (int m = 0; m < count; m++) {
+         if (Move.flags(moves[m]) == flags) return moves[m];
+      }
+      return -ILLEGAL;
+   }
+
+   private static int promotionType(char c) {
+      return switch (c) {
+         case 'N', 'n' -> Position.KNIGHT;
+         case 'B', 'b' -> Position.BISHOP;
+         case 'R', 'r' -> Position.ROOK;
+         case 'Q', 'q' -> Position.QUEEN;
+         default -> Position.NONE;
+      };
+   }
+
+   private static boolean isFile(char c) {
+      return c >= 'a' && c <= 'h';
+   }
+
+   private static boolean isRank(char c) {
+      return c >= '1' && c <= '8';
+   }
+
+   // Formatting
+   /**
+    * @param move legal move in the position
+    * @param position position before the move
+    * @return the move in standard algebraic notation, e.g. "Nbd7" or "exd8=Q#"
+    */
+   public static String toSAN(int move, Position position) {
+      return appendSAN(move, position, MOVES.get(), new StringBuilder(8)).toString();
+   }
+
+   /**
+    * Writes a move in standard algebraic notation: the piece letter (none for
+    * pawns), the start file or rank (or both) only where another piece of the
+    * same type could also reach the end square, "x" for captures, the end
+    * square, "=X" for promotions, and "+" or "#" for check or mate.
+    *
+    * @param move legal move in the position
+    * @param position position before the move; left unchanged
+    * @param moves array of at least {@link MoveGenerator#MAX_MOVES} elements
+    * @param out builder to append to
+    *
+    * @return the builder
+    */
+   public static StringBuilder appendSAN(int move, Position position, int[] moves, StringBuilder out) {
+      int from = Move.from(move), to = Move.to(move), flags = Move.flags(move);
+      if (flags == Move.KING_CASTLE || flags == Move.QUEEN_CASTLE) {
+         out.append(flags == Move.KING_CASTLE ? "O-O" : "O-O-O");
+         return appendCheck(move, position, moves, out);
+      }
+
+      int type = position.board[from] % 6;
+      if (type == Position.PAWN) {
+         if (Move.isCapture(move)) out.append((char) ('a' + (from & 7)));
+      } else {
+         out.append(PIECE_LETTERS.charAt(type));
+
+         // name the start file if it tells the pieces apart, else the rank, else both
+         boolean ambiguous = false, sameFile = false, sameRank = false;
+         int count = MoveGenerator.generate(position, moves);
+         for (int m = 0; m < count; m++) {
+            int other = Move.from(moves[m]);
+            if (Move.to(moves[m]) != to || other == from || position.board[other] % 6 != type) continue;
+            ambiguous = true;
+            sameFile |= (other & 7) == (from & 7);
+            sameRank |= (other >>> 3) == (from >>> 3);
+         }
+         if (ambiguous && (!sameFile || sameRank)) out.append((char) ('a' + (from & 7)));
+         if (ambiguous && sameFile) out.append((char) ('1' + (from >>> 3)));
+      }
+
+      if (Move.isCapture(move)) out.append('x');
+      appendSquare(to, out);
+      if (Move.isPromotion(move)) out.append('=').append(PIECE_LETTERS.charAt(Move.promotion(move)));
+      return appendCheck(move, position, moves, out);
+   }
+
+   /**
+    * @param move legal move in the position
+    * @param position position before the move
+    * @return the move in long algebraic notation, e.g. "Nb8d7" or "e7xd8=Q#"
+    */
+   public static String toLong(int move, Position position) {
+      return appendLong(move, position, MOVES.get(), new StringBuilder(10)).toString();
+   }
+
+   /**
+    * Writes a move in long (expanded) algebraic notation, as players enter
+    * it: the piece letter (none for pawns), start square, "x" for captures,
+    * end square, "=X" for promotions, and "+" or "#" for check or mate.
+    * Castling is written "O-O" or "O-O-O".
+    *
+    * @param move legal move in the position
+    * @param position position before the move; left unchanged
+    * @param moves array of at least {@link MoveGenerator#MAX_MOVES} elements
+    * @param out builder to append to
+    *
+    * @return the builder
+    */
+   public static StringBuilder appendLong(int move, Position position, int[] moves, StringBuilder out) {
+      int from = Move.from(move), flags = Move.flags(move);
+      if (flags == Move.KING_CASTLE || flags == Move.QUEEN_CASTLE) {
+         out.append(flags == Move.KING_CASTLE ? "O-O" : "O-O-O");
+         return appendCheck(move, position, moves, out);
+      }
+
+      int type = position.board[from] % 6;
+      if (type != Position.PAWN) out.append(PIECE_LETTERS.charAt(type));
+      appendSquare(from, out);
+      if (Move.isCapture(move)) out.append('x');
+      appendSquare(Move.to(move), out);
+      if (Move.isPromotion(move)) out.append('=').append(PIECE_LETTERS.charAt(Move.promotion(move)));
+      return appendCheck(move, position, moves, out);
+   }
+
+   /**
+    * Writes a move in coordinate notation, as UCI does: start and end
+    * squares, and a lowercase promotion piece, e.g. "e7e8q".
+    * @see Move#toString(int move)
+    *
+    * @param move encoded move
+    * @param out builder to append to
+    *
+    * @return the builder
+    */
+   public static StringBuilder appendUCI(int move, StringBuilder out) {
+      if (move == Move.NONE) return out.append("0000");
+      appendSquare(Move.from(move), out);
+      appendSquare(Move.to(move), out);
+      if (Move.isPromotion(move)) out.append("nbrq".charAt(Move.promotion(move) - Position.KNIGHT));
+      return out;
+   }
+
+   private static void appendSquare(int sq, StringBuilder out) {
+      out.append((char) ('a' + (sq & 7))).append((char) ('1' + (sq >>> 3)));
+   }
+
+   // "+" if the move gives check, "#" if mate; the move is made and taken back to see
+   private static StringBuilder appendCheck(int move, Position position, int[] moves, StringBuilder out) {
+      position.makeMove(move);
+      if (position.isInCheck()) out.append(GameResult.hasLegalMove(position, moves) ? '+' : '#');
+      position.unmakeMove(move);
+      return out;
+   }
+}
@@ -0,0 +1,183 @@
+package chess;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * An opening book on disk, memory-mapped and binary-searched in place, so
+ * opening one costs no time however large it is and probing allocates
+ * nothing.
+ * <p>
+ * The file has the layout of a
+ * <a href="http://hgm.nubati.net/book_format.html">Polyglot book</a>: 16-byte
+ * big-endian entries of key (8 bytes), move (2), weight (2) and learn data
+ * (4, unused), sorted by key as an unsigned number, with a position's
+ * moves next to each other. Moves are encoded as Polyglot does (end square
+ * in bits 0-5, start square in bits 6-11, promotion piece in bits 12-14,
+ * castling as the king taking its own rook). The keys, though, are this
+ * engine's {@link Zobrist} keys rather than Polyglot's, so books are built
+ * for it by {@link BookBuilder} and books made by other tools do not match.
+ * <br>
+ * Files over 2 GB are mapped in several segments.
+ * @see BookBuilder
+ * @author wcaine
+ */
+public final class OpeningBook {
+
+   /**
+    * Bytes per entry.
+    */
+   public static final int ENTRY_BYTES = 16;
+
+   private static final int SEGMENT_SHIFT = 26; // entries per mapped segment, as a power of two (1 GB)
+   private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+   private static final ThreadLocal<int[]> MOVES = ThreadLocal.withInitial(() -> new int[MoveGenerator.MAX_MOVES]);
+
+   private final ByteBuffer[] segments; // read with absolute gets only, so shared by every thread
+   private final long entries;
+
+
+   private OpeningBook(ByteBuffer[] segments, long entries) {
+      this.segments = segments;
+      this.entries = entries;
+   }
+
+   /**
+    * Maps a book file; the mapping lasts as long as the book is reachable.
+    *
+    * @param file book file
+    *
+    * @return the book
+    * @throws IOException if the file cannot be read, or its size is not a
+    *                     whole number of entries
+    */
+   public static OpeningBook open(Path file) throws IOException {
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+         long size = channel.size();
+         if (size % ENTRY_BYTES != 0) throw new IOException(file + " is not a book: its size is not a multiple of 16 bytes");
+         long entries = size / ENTRY_BYTES;
+         ByteBuffer[] segments = new ByteBuffer[(int) ((entries + SEGMENT_MASK) >>> SEGMENT_SHIFT)];
+         for (int i = 0; i < segments.length; i++) {
+            long start = ((long) i << SEGMENT_SHIFT) * ENTRY_BYTES;
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(size - start, (SEGMENT_MASK + 1) * ENTRY_BYTES));
+         }
+         return new OpeningBook(segments, entries);
+      }
+   }
+
+   /**
+    * @return number of entries
+    */
+   public long entries() {
+      return entries;
+   }
+
+   /**
+    * Finds the book moves of a position.
+    *
+    * @param position position to look up
+    * @param bookMoves array to receive the moves, legal in the position
+    * @param weights array to receive their weights, 1 to 65535
+    *
+    * @return number of moves found, up to the arrays' length
+    */
+   public int probe(Position position, int[] bookMoves, int[] weights) {
+      long key = position.key();
+      long entry = first(key);
+      if (entry == entries || key(entry) != key) return 0;
+
+      int[] legal = MOVES.get();
+      int legalCount = MoveGenerator.generate(position, legal);
+      int count = 0;
+      for (; entry < entries && key(entry) == key && count < bookMoves.length; entry++) {
+         int move = toMove(moveData(entry), legal, legalCount);
+         int weight = weight(entry);
+         if (move == Move.NONE || weight == 0) continue;
+         bookMoves[count] = move;
+         weights[count++] = weight;
+      }
+      return count;
+   }
+
+   /**
+    * Picks a book move at random, in proportion to the moves' weights.
+    *
+    * @param position position to look up
+    *
+    * @return the move, or {@link Move#NONE} if the position is not in the book
+    */
+   public int choose(Position position) {
+      long key = position.key();
+      long first = first(key);
+      long total = 0;
+      for (long entry = first; entry < entries && key(entry) == key; entry++) {
+         total += weight(entry);
+      }
+      if (total == 0) return Move.NONE;
+
+      long pick = ThreadLocalRandom.current().nextLong(total);
+      for (long entry = first; entry < entries && key(entry) == key; entry++) {
+         pick -= weight(entry);
+         if (pick < 0) {
+            int[] legal = MOVES.get();
+            return toMove(moveData(entry), legal, MoveGenerator.generate(position, legal));
+         }
+      }
+      return Move.NONE;
+   }
+
+   // index of the first entry whose key is not below the key given
+   private long first(long key) {
+      long low = 0, high = entries;
+      while (low < high) {
+         long middle = (low + high) >>> 1;
+         if (Long.compareUnsigned(key(middle), key) < 0) {
+            low = middle + 1;
+         } else {
+            high = middle;
+         }
+      }
+      return low;
+   }
+
+   private long key(long entry) {
+      return segments[(int) (entry >>> SEGMENT_SHIFT)].getLong((int) (entry & SEGMENT_MASK) * ENTRY_BYTES);
+   }
+
+   private int moveData(long entry) {
+      return segments[(int) (entry >>> SEGMENT_SHIFT)].getShort((int) (entry & SEGMENT_MASK) * ENTRY_BYTES + 8) & 0xFFFF;
+   }
+
+   private int weight(long entry) {
+      return segments[(int) (entry >>> SEGMENT_SHIFT)].getShort((int) (entry & SEGMENT_MASK) * ENTRY_BYTES + 10) & 0xFFFF;
+   }
+
+   // the legal move a book move stands for, or Move.NONE (after a key collision, say)
+   private static int toMove(int data, int[] legal, int count) {
+      for (int i = 0; i < count; i++) {
+         if (encode(legal[i]) == (data & 0x7FFF)) return legal[i];
+      }
+      return Move.NONE;
+   }
+
+   /**
+    * Encodes a move as a Polyglot book move.
+    *
+    * @param move encoded move, see {@link Move}
+    *
+    * @return the book move: end square, start square and promotion piece,
+    *         with castling as the king's move onto its rook
+    */
+   public static int encode(int move) {
+      int from = Move.from(move), to = Move.to(move);
+      if (Move.flags(move) == Move.KING_CASTLE) to = from + 3;
+      if (Move.flags(move) == Move.QUEEN_CASTLE) to = from - 4;
+      int promotion = Move.isPromotion(move) ? Move.promotion(move) : 0; // knight 1 to queen 4, as in Polyglot
+      return to | from << 6 | promotion << 12;
+   }
+}
@@ -0,0 +1,567 @@
+package chess;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Reads and writes games in
+ * <a href="https://en.wikipedia.org/wiki/Portable_Game_Notation">Portable Game Notation</a>.
+ * <p>
+ * A {@link Reader} pulls one game at a time out of a stream of any size,
+ * through a fixed buffer, into a {@link Game} that is cleared and reused
+ * for the next one; only the tag pairs and movetext of the game being read
+ * are ever held. {@link #replay} then plays the movetext through a
+ * {@link Position} with {@link Notation#parse}, validating every move, and
+ * {@link #write} turns a game back into PGN, its moves in standard algebraic
+ * notation.
+ * <br>
+ * Replay errors follow the convention of {@link FEN#parse}: {@link #VALID},
+ * or a code that {@link #errorReason} describes.
+ * @see PGNBatch
+ * @author wcaine
+ */
+public final class PGN {
+
+   /**
+    * Result of {@link #replay} for a valid game; any other result is an error
+    * whose message is given by {@link #errorReason}.
+    */
+   public static final int VALID = 0;
+
+   /**
+    * Starting position of games without a FEN tag.
+    */
+   public static final String STANDARD_FEN = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+
+   // error kinds, in the low 4 bits of a replay result; a bad move also holds
+   // its Notation error above them and its ply above that
+   private static final int BAD_TAG = 1, BAD_FEN = 2, BAD_MOVE = 3, UNTERMINATED = 4, WRONG_RESULT = 5;
+
+   // the Seven Tag Roster, written first and in this order, with the value used when missing
+   private static final String[] ROSTER = {"Event", "Site", "Date", "Round", "White", "Black", "Result"};
+   private static final String[] ROSTER_DEFAULTS = {"?", "?", "????.??.??", "?", "?", "?", "*"};
+
+   private static final int LINE_LENGTH = 79;
+   private static final int HISTORY_KEPT = 256; // moves kept when trimming the undo stack
+
+   private static final ThreadLocal<Position> SCRATCH = ThreadLocal.withInitial(Position::new);
+   private static final ThreadLocal<int[]> MOVES = ThreadLocal.withInitial(() -> new int[MoveGenerator.MAX_MOVES]);
+
+   private PGN() {
+   }
+
+   /**
+    * One game: its tag pairs, its movetext as read, and the moves it was
+    * found to contain by {@link #replay} (or was given with {@link #addMove}).
+    * Cleared and refilled rather than replaced, so reading any number of games
+    * allocates only as much as the largest needs.
+    */
+   public static final class Game {
+      private String[] names = new String[16], values = new String[16];
+      private int tagCount;
+      private final StringBuilder movetext = new StringBuilder(1024);
+      private int[] moves = new int[256];
+      private int moveCount;
+      private String termination; // result token ending the movetext, if any
+      private long line; // line of the file the game starts on
+      private int syntaxError; // error found while reading
+
+      /**
+       * Empties the game, for reuse.
+       */
+      public void clear() {
+         java.util.Arrays.fill(names, 0, tagCount, null);
+         java.util.Arrays.fill(values, 0, tagCount, null);
+         tagCount = 0;
+         movetext.setLength(0);
+         moveCount = 0;
+         termination = null;
+         line = 0;
+         syntaxError = VALID;
+      }
+
+      /**
+       * @param name tag name, e.g. "White"
+       * @return the tag's value, or null if the game has no such tag
+       */
+      public String tag(String name) {
+         for (int i = 0; i < tagCount; i++) {
+            if (names[i].equals(name)) return values[i];
+         }
+         return null;
+      }
+
+      /**
+       * Sets a tag, replacing its value if the game already has it.
+       *
+       * @param name tag name, e.g. "White"
+       * @param value tag value
+       */
+      public void tag(String name, String value) {
+         for (int i = 0; i < tagCount; i++) {
+            if (names[i].equals(name)) {
+               values[i] = value;
+               return;
+            }
+         }
+         if (tagCount == names.length) {
+            names = java.util.Arrays.copyOf(names, tagCount * 2);
+            values = java.util.Arrays.copyOf(values, tagCount * 2);
+         }
+         names[tagCount] = name;
+         values[tagCount++] = value;
+      }
+
+      /**
+       * @return number of tag pairs, in the order read or set
+       */
+      public int tagCount() {
+         return tagCount;
+      }
+
+      /**
+       * @param index tag pair, below {@link #tagCount()}
+       * @return its name
+       */
+      public String tagName(int index) {
+         return names[index];
+      }
+
+      /**
+       * @param index tag pair, below {@link #tagCount()}
+       * @return its value
+       */
+      public String tagValue(int index) {
+         return values[index];
+      }
+
+      /**
+       * @return movetext as read, with comments and variations
+       */
+      public CharSequence movetext() {
+         return movetext;
+      }
+
+      /**
+       * @return number of moves (plies) in the game
+       */
+      public int moveCount() {
+         return moveCount;
+      }
+
+      /**
+       * @param ply index of the move, from 0
+       * @return the move, see {@link Move}
+       */
+      public int move(int ply) {
+         return moves[ply];
+      }
+
+      /**
+       * Adds a move after the last.
+       *
+       * @param move legal move in the position reached so far
+       */
+      public void addMove(int move) {
+         if (moveCount == moves.length) moves = java.util.Arrays.copyOf(moves, moveCount * 2);
+         moves[moveCount++] = move;
+      }
+
+      /**
+       * @return the Result tag, or else the result ending the movetext, or else "*"
+       */
+      public String result() {
+         String result = tag("Result");
+         if (result != null) return result;
+         return termination != null ? termination : "*";
+      }
+
+      /**
+       * @return line of the file the game starts on, from 1; 0 if not read from a file
+       */
+      public long line() {
+         return line;
+      }
+   }
+
+   /**
+    * Pull parser reading games from a character stream through a fixed
+    * buffer, however large the stream. Each game ends where the next one's
+    * tag pairs begin, at a result in its movetext, or at the end of the
+    * stream. Lines starting with {@code %} are skipped, as PGN requires.
+    */
+   public static final class Reader implements Closeable {
+      private final java.io.Reader in;
+      private final char[] buffer = new char[1 << 16];
+      private int next, limit;
+      private long line = 1;
+      private boolean lineStart = true; // if the next character starts a line
+      private final StringBuilder name = new StringBuilder(16), value = new StringBuilder(64);
+
+      /**
+       * @param in stream of PGN text; needs no buffering of its own
+       */
+      public Reader(java.io.Reader in) {
+         this.in = in;
+      }
+
+      /**
+       * Reads the next game.
+       *
+       * @param game game to clear and fill
+       *
+       * @return false if the stream has no more games
+       * @throws IOException if the stream cannot be read
+       */
+      public boolean next(Game game) throws IOException {
+         game.clear();
+         int c = skipSpace();
+         if (c == -1) return false;
+
+         game.line = line;
+         while (c == '[') {
+            read();
+            long tagLine = line;
+            if (!readTag(game) && game.syntaxError == VALID) {
+               game.syntaxError = BAD_TAG | (int) Math.min(tagLine - game.line + 1, 0x7FFFFF) << 8;
+            }
+            c = skipSpace();
+         }
+         readMovetext(game);
+         return true;
+      }
+
+      @Override
+      public void close() throws IOException {
+         in.close();
+      }
+
+      // [name "value"], after the '['; false (with the rest of the line skipped) if malformed
+      private boolean readTag(Game game) throws IOException {
+         name.setLength(0);
+         value.setLength(0);
+         skipBlanks();
+         int c;
+         while ((c = peek()) != -1 && (Character.isLetterOrDigit(c) || c == '_')) {
+            name.append((char) read());
+         }
+         skipBlanks();
+         if (name.length() == 0 || read() != '"') return skipLine();
+         while ((c = read()) != '"') {
+            if (c == '\\') c = read();
+            if (c == -1 || c == '\n') return false;
+            value.append((char) c);
+         }
+         skipBlanks();
+         if (read() != ']') return skipLine();
+
+         game.tag(name.toString(), value.toString());
+         return true;
+      }
+
+      private void readMovetext(Game game) throws IOException {
+         StringBuilder text = game.movetext;
+         int tokenStart = -1, depth = 0;
+         while (true) {
+            int c = peek();
+            if (c == -1) break;
+            if (lineStart && c == '%') {
+               skipLine();
+               continue;
+            }
+            // the next game's tags
+            if (lineStart && c == '[' && depth == 0) break;
+
+            read();
+            boolean delimiter = c <= ' ' || c == '{' || c == ';' || c == '(' || c == ')';
+            if (!delimiter) {
+               if (tokenStart < 0) tokenStart = text.length();
+               text.append((char) c);
+               continue;
+            }
+
+            if (tokenStart >= 0 && depth == 0) {
+               game.termination = resultToken(text, tokenStart, text.length());
+               if (game.termination != null) return;
+            }
+            tokenStart = -1;
+
+            text.append((char) c);
+            if (c == '{') {
+               // comments run to the closing brace, across lines
+               while ((c = read()) != -1) {
+                  text.append((char) c);
+                  if (c == '}') break;
+               }
+            } else if (c == ';') {
+               // and to the end of the line
+               while ((c = read()) != -1) {
+                  text.append((char) c);
+                  if (c == '\n') break;
+               }
+            } else if (c == '(') {
+               depth++;
+            } else if (c == ')') {
+               depth--;
+            }
+         }
+         if (tokenStart >= 0 && depth == 0) game.termination = resultToken(text, tokenStart, text.length());
+      }
+
+      // skips whitespace and escaped lines, returning the character after them
+      private int skipSpace() throws IOException {
+         while (true) {
+            int c = peek();
+            if (lineStart && c == '%') {
+               skipLine();
+            } else if (c != -1 && c <= ' ') {
+               read();
+            } else {
+               return c;
+            }
+         }
+      }
+
+      private void skipBlanks() throws IOException {
+         while (peek() == ' ' || peek() == '\t') read();
+      }
+
+      private boolean skipLine() throws IOException {
+         int c;
+         while ((c = read()) != -1 && c != '\n') {
+            // skip
+         }
+         return false;
+      }
+
+      private int peek() throws IOException {
+         if (next == limit) {
+            limit = in.read(buffer, 0, buffer.length);
+            next = 0;
+            if (limit <= 0) {
+               limit = 0;
+               return -1;
+            }
+         }
+         return buffer[next];
+      }
+
+      private int read() throws IOException {
+         int c = peek();
+         if (c != -1) {
+            next++;
+            lineStart = c == '\n';
+            if (lineStart) line++;
+         }
+         return c;
+      }
+   }
+
+   // Replay
+   /**
+    * Plays a game's movetext through a position, from its FEN tag if it has
+    * one, filling its moves. Move numbers, comments, variations and numeric
+    * annotation glyphs are skipped. The game must be legal to its end, and a
+    * checkmate or stalemate there must agree with its result.
+    *
+    * @param game game read by a {@link Reader}
+    * @param position position to play it on, left at the game's end
+    * @param moves array of at least {@link MoveGenerator#MAX_MOVES} elements
+    *
+    * @return {@link #VALID}, or an error for {@link #errorReason}
+    */
+   public static int replay(Game game, Position position, int[] moves) {
+      if (game.syntaxError != VALID) return game.syntaxError;
+      String fen = game.tag("FEN");
+      if (FEN.parse(fen != null ? fen : STANDARD_FEN, position) != FEN.VALID) return BAD_FEN;
+      game.moveCount = 0;
+
+      StringBuilder text = game.movetext;
+      int depth = 0; // variations are skipped
+      for (int i = 0, length = text.length(); i < length; ) {
+         char c = text.charAt(i);
+         if (c == '{') {
+            while (i < length && text.charAt(i) != '}') i++;
+            if (i == length) return UNTERMINATED;
+            i++;
+            continue;
+         }
+         if (c == ';') {
+            while (i < length && text.charAt(i) != '\n') i++;
+            continue;
+         }
+         if (c == '(' || c == ')') {
+            depth += c == '(' ? 1 : -1;
+            if (depth < 0) return UNTERMINATED;
+            i++;
+            continue;
+         }
+         if (c <= ' ') {
+            i++;
+            continue;
+         }
+
+         int end = i;
+         while (end < length && !isDelimiter(text.charAt(end))) end++;
+         int start = i;
+         i = end;
+         if (depth > 0 || c == '$' || resultToken(text, start, end) != null) continue;
+
+         // move numbers, possibly run into the move: "12.", "12...", "12.Nf3"
+         if (c >= '1' && c <= '9') {
+            while (start < end && Character.isDigit(text.charAt(start))) start++;
+            while (start < end && text.charAt(start) == '.') start++;
+            if (start == end) continue;
+         }
+
+         int move = Notation.parse(text, start, end, position, moves);
+         if (!Notation.isMove(move)) return BAD_MOVE | -move << 4 | Math.min(game.moveCount + 1, 0x7FFFFF) << 8;
+         position.makeMove(move);
+         trimHistory(position);
+         game.addMove(move);
+      }
+      if (depth != 0) return UNTERMINATED;
+
+      // a game cannot claim to have gone on past mate or stalemate, or to have ended otherwise
+      String result = game.result();
+      if (game.termination != null && !game.termination.equals("*") && !game.termination.equals(result)) {
+         return WRONG_RESULT;
+      }
+      if (!result.equals("*") && !GameResult.hasLegalMove(position, moves)) {
+         int outcome = position.isInCheck() ? GameResult.CHECKMATE : GameResult.STALEMATE;
+         if (!result.equals(result(outcome, position))) return WRONG_RESULT;
+      }
+      return VALID;
+   }
+
+   /**
+    * @param error result of {@link #replay} that is not {@link #VALID}
+    * @return message describing the error
+    */
+   public static String errorReason(int error) {
+      int detail = error >>> 8;
+      return switch (error & 0xF) {
+         case BAD_TAG -> "Tag pair formatted incorrectly on line " + detail + " of the game";
+         case BAD_FEN -> "FEN tag does not hold a valid position";
+         case BAD_MOVE -> "Ply " + detail + ": " + Notation.errorReason(-(error >>> 4 & 0xF));
+         case UNTERMINATED -> "Comment or variation left open";
+         case WRONG_RESULT -> "Result does not match the end of the game";
+         default -> "Unknown error";
+      };
+   }
+
+   /**
+    * @param gameResult result of {@link GameResult#of} or {@link GameResult#adjudicate}
+    * @param position position the result was decided on
+    * @return the PGN result: "1-0", "0-1", "1/2-1/2", or "*" for a game not over
+    */
+   public static String result(int gameResult, Position position) {
+      return switch (gameResult) {
+         case GameResult.ONGOING -> "*";
+         case GameResult.CHECKMATE, GameResult.TIME_FORFEIT, GameResult.TABLEBASE_LOSS ->
+               position.sideToMove() == Position.WHITE ? "0-1" : "1-0";
+         case GameResult.TABLEBASE_WIN -> position.sideToMove() == Position.WHITE ? "1-0" : "0-1";
+         default -> "1/2-1/2";
+      };
+   }
+
+   private static boolean isDelimiter(char c) {
+      return c <= ' ' || c == '{' || c == ';' || c == '(' || c == ')';
+   }
+
+   // the result a token spells, or null
+   private static String resultToken(CharSequence text, int start, int end) {
+      return switch (end - start) {
+         case 1 -> text.charAt(start) == '*' ? "*" : null;
+         case 3 -> {
+            if (text.charAt(start + 1) != '-') yield null;
+            char white = text.charAt(start), black = text.charAt(start + 2);
+            if (white == '1' && black == '0') yield "1-0";
+            yield white == '0' && black == '1' ? "0-1" : null;
+         }
+         case 7 -> {
+            for (int i = 0; i < 7; i++) {
+               if (text.charAt(start + i) != "1/2-1/2".charAt(i)) yield null;
+            }
+            yield "1/2-1/2";
+         }
+         default -> null;
+      };
+   }
+
+   private static void trimHistory(Position position) {
+      // as in ChessBoard: no position before a capture or pawn move can repeat
+      if (position.halfmove() == 0) position.clearHistory();
+      if (position.historyLength() > Position.MAX_HISTORY - 1) position.trimHistory(HISTORY_KEPT);
+   }
+
+   // Writing
+   /**
+    * Writes a game as PGN: the Seven Tag Roster (with "?" for missing tags),
+    * the game's other tags, then its moves in standard algebraic notation
+    * with move numbers, wrapped at 79 characters, and its result.
+    *
+    * @param game game whose moves are legal from its FEN tag, or the standard position
+    * @param out builder to append to
+    *
+    * @return the builder
+    */
+   public static StringBuilder write(Game game, StringBuilder out) {
+      for (int i = 0; i < ROSTER.length; i++) {
+         String value = i == ROSTER.length - 1 ? game.result() : game.tag(ROSTER[i]);
+         appendTag(ROSTER[i], value != null ? value : ROSTER_DEFAULTS[i], out);
+      }
+      for (int i = 0; i < game.tagCount; i++) {
+         if (!isRoster(game.names[i])) appendTag(game.names[i], game.values[i], out);
+      }
+      out.append('\n');
+
+      Position position = SCRATCH.get();
+      int[] moves = MOVES.get();
+      String fen = game.tag("FEN");
+      FEN.parse(fen != null ? fen : STANDARD_FEN, position);
+
+      int lineStart = out.length();
+      for (int ply = 0; ply < game.moveCount; ply++) {
+         int move = game.moves[ply];
+         int tokenStart = out.length();
+         if (position.sideToMove() == Position.WHITE || ply == 0) {
+            out.append(position.fullmove()).append(position.sideToMove() == Position.WHITE ? "." : "...");
+            out.append(' ');
+         }
+         Notation.appendSAN(move, position, moves, out);
+         lineStart = wrap(out, lineStart, tokenStart);
+         out.append(' ');
+         position.makeMove(move);
+         trimHistory(position);
+      }
+      int tokenStart = out.length();
+      out.append(game.result());
+      wrap(out, lineStart, tokenStart);
+      return out.append("\n\n");
+   }
+
+   // moves a token just appended onto a new line if it overran this one; the new line's start
+   private static int wrap(StringBuilder out, int lineStart, int tokenStart) {
+      if (out.length() - lineStart <= LINE_LENGTH || tokenStart == lineStart) return lineStart;
+      out.setCharAt(tokenStart - 1, '\n');
+      return tokenStart;
+   }
+
+   private static void appendTag(String name, String value, StringBuilder out) {
+      out.append('[').append(name).append(" \"");
+      for (int i = 0; i < value.length(); i++) {
+         char c = value.charAt(i);
+         if (c == '"' || c == '\\') out.append('\\');
+         out.append(c);
+      }
+      out.append("\"]\n");
+   }
+
+   private static boolean isRoster(String name) {
+      for (String tag : ROSTER) {
+         if (tag.equals(name)) return true;
+      }
+      return false;
+   }
+}
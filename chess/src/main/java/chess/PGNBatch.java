@@ -0,0 +1,179 @@
+package chess;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Validates a PGN file of any number of games by replaying every game
+ * through a {@link Position}, and rewrites the valid ones as normalized PGN.
+ * <p>
+ * Games are pulled from the file by a {@link PGN.Reader} a batch at a time
+ * and replayed in parallel on a {@link ForkJoinPool}; while one batch is
+ * replayed the next is read, and batches are written in file order. The two
+ * batches of games are reused for the whole file, so memory use stays flat
+ * however large it is:
+ * <ul>
+ *    <li>valid games go to the valid file, with moves in standard algebraic
+ *        notation and comments and variations left out</li>
+ *    <li>invalid games go to the error file as {@code line number<TAB>game number<TAB>reason}</li>
+ * </ul>
+ * Run from the command line with
+ * {@code ChessPlayer pgn <input> [valid output] [error output]}.
+ * @see FENBatch
+ * @author wcaine
+ */
+public final class PGNBatch {
+
+   private static final int GAMES_PER_THREAD = 64; // per batch
+
+   private static final ThreadLocal<Position> POSITION = ThreadLocal.withInitial(Position::new);
+   private static final ThreadLocal<int[]> MOVES = ThreadLocal.withInitial(() -> new int[MoveGenerator.MAX_MOVES]);
+
+   private PGNBatch() {
+   }
+
+   /**
+    * Runs the validation and reports games per second.
+    *
+    * @param args input file, then optional valid and error output files
+    *             (default to the input's name with ".valid" and ".errors" added)
+    */
+   public static void main(String[] args) {
+      if (args.length < 1) {
+         System.out.println("Usage: pgn <input> [valid output] [error output]");
+         return;
+      }
+      Path input = Path.of(args[0]);
+      Path validOutput = Path.of(args.length > 1 ? args[1] : args[0] + ".valid");
+      Path errorOutput = Path.of(args.length > 2 ? args[2] : args[0] + ".errors");
+
+      try {
+         long start = System.nanoTime();
+         long[] counts = replay(input, validOutput, errorOutput);
+         long nanos = System.nanoTime() - start;
+         System.out.printf("%d games (%d valid, %d invalid), %d moves in %.3f s, %d games/s, %d moves/s%n",
+                           counts[0], counts[1], counts[2], counts[3], nanos / 1e9,
+                           counts[0] * 1_000_000_000L / Math.max(nanos, 1), counts[3] * 1_000_000_000L / Math.max(nanos, 1));
+      } catch (IOException e) {
+         System.out.println("Could not replay " + input + ": " + e.getMessage());
+      }
+   }
+
+   /**
+    * Replays every game of a file, writing valid games and errors.
+    *
+    * @param input PGN file
+    * @param validOutput file to write valid games to, as normalized PGN
+    * @param errorOutput file to write the position and reason of invalid games to
+    *
+    * @return counts of games, valid games, invalid games and moves of valid games
+    * @throws IOException if a file cannot be read or written
+    */
+   public static long[] replay(Path input, Path validOutput, Path errorOutput) throws IOException {
+      ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+      long games = 0, valid = 0, invalid = 0, moves = 0;
+      try (PGN.Reader in = new PGN.Reader(new InputStreamReader(Files.newInputStream(input), StandardCharsets.UTF_8));
+           BufferedWriter validOut = Files.newBufferedWriter(validOutput);
+           BufferedWriter errorOut = Files.newBufferedWriter(errorOutput)) {
+         int batchSize = pool.getParallelism() * GAMES_PER_THREAD;
+         Slot[] current = slots(batchSize), next = slots(batchSize);
+
+         int count = read(in, current);
+         while (count > 0) {
+            // read the next batch while this one is replayed
+            ForkJoinTask<Void> replay = pool.submit(new Replay(current, 0, count));
+            int nextCount = read(in, next);
+            replay.join();
+
+            for (int i = 0; i < count; i++) {
+               Slot slot = current[i];
+               games++;
+               if (slot.error == PGN.VALID) {
+                  validOut.append(slot.pgn);
+                  valid++;
+                  moves += slot.game.moveCount();
+               } else {
+                  errorOut.append(Long.toString(slot.game.line())).append('\t')
+                          .append(Long.toString(games)).append('\t')
+                          .append(PGN.errorReason(slot.error)).append('\n');
+                  invalid++;
+               }
+            }
+
+            Slot[] swap = current;
+            current = next;
+            next = swap;
+            count = nextCount;
+         }
+      } finally {
+         pool.shutdown();
+      }
+      return new long[] {games, valid, invalid, moves};
+   }
+
+   private static Slot[] slots(int count) {
+      Slot[] slots = new Slot[count];
+      for (int i = 0; i < count; i++) {
+         slots[i] = new Slot();
+      }
+      return slots;
+   }
+
+   // fills slots with the next games; the number read
+   private static int read(PGN.Reader in, Slot[] slots) throws IOException {
+      int count = 0;
+      while (count < slots.length && in.next(slots[count].game)) count++;
+      return count;
+   }
+
+   /**
+    * A game of a batch, its result and its normalized PGN.
+    */
+   private static final class Slot {
+      final PGN.Game game = new PGN.Game();
+      final StringBuilder pgn = new StringBuilder(1024);
+      int error;
+
+      void replay() {
+         pgn.setLength(0);
+         error = PGN.replay(game, POSITION.get(), MOVES.get());
+         if (error == PGN.VALID) PGN.write(game, pgn);
+      }
+   }
+
+   /**
+    * Replays a range of games, splitting it in half until a few games remain.
+    */
+   private static final class Replay extends RecursiveAction {
+      private static final long serialVersionUID = 1L;
+      private static final int LEAF_GAMES = 8;
+
+      private final Slot[] slots;
+      private final int from, to;
+
+      Replay(Slot[] slots, int from, int to) {
+         this.slots = slots;
+         this.from = from;
+         this.to = to;
+      }
+
+      @Override
+      protected void compute() {
+         if (to - from <= LEAF_GAMES) {
+            for (int i = from; i < to; i++) {
+               slots[i].replay();
+            }
+            return;
+         }
+         int middle = (from + to) >>> 1;
+         invokeAll(new Replay(slots, from, middle), new Replay(slots, middle, to));
+      }
+   }
+}
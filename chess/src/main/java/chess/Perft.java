@@ -0,0 +1,126 @@
+package chess;
+
+/**
+ * Counts the leaf nodes of the legal move tree to a fixed depth
+ * (<a href="https://www.chessprogramming.org/Perft">perft</a>), both to verify
+ * the {@link MoveGenerator} against known totals and to measure its throughput.
+ * <br>
+ * Run from the command line with {@code ChessPlayer perft [depth] [FEN]}.
+ * @see ChessBoard#perft(int depth)
+ * @author wcaine
+ */
+public final class Perft {
+
+   // standard perft positions with their known node counts from depth 1 up
+   static final String[] SUITE = {
+      "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+      "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+      "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+      "r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+      "rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8",
+      "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10"
+   };
+   static final long[][] EXPECTED = {
+      {20, 400, 8902, 197281, 4865609, 119060324},
+      {48, 2039, 97862, 4085603, 193690690},
+      {14, 191, 2812, 43238, 674624, 11030083, 178633661},
+      {6, 264, 9467, 422333, 15833292},
+      {44, 1486, 62379, 2103487, 89941194},
+      {46, 2079, 89890, 3894594, 164075551}
+   };
+   private static final int[] DEFAULT_DEPTH = {5, 4, 5, 4, 4, 4};
+
+   private Perft() {
+   }
+
+   /**
+    * Runs perft on the standard suite (or a single FEN) and reports the node
+    * count, time and nodes per second of each position.
+    *
+    * @param args optional depth, then optional FEN (in standard notation) to run
+    *             instead of the suite
+    */
+   public static void main(String[] args) {
+      int depth;
+      try {
+         depth = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+      } catch (NumberFormatException e) {
+         System.out.println("Usage: perft [depth] [FEN]");
+         return;
+      }
+
+      if (args.length > 1) {
+         String fen = String.join(" ", java.util.Arrays.copyOfRange(args, 1, args.length));
+         if (!FEN.validFEN(fen)) return;
+         run(fen, Math.max(depth, 1), -1);
+         return;
+      }
+
+      long totalNodes = 0, totalNanos = 0;
+      boolean allCorrect = true;
+      for (int i = 0; i < SUITE.length; i++) {
+         int d = depth > 0 ? depth : DEFAULT_DEPTH[i];
+         long expected = d <= EXPECTED[i].length ? EXPECTED[i][d - 1] : -1;
+
+         long start = System.nanoTime();
+         long nodes = run(SUITE[i], d, expected);
+         totalNanos += System.nanoTime() - start;
+         totalNodes += nodes;
+         if (expected >= 0 && nodes != expected) allCorrect = false;
+      }
+
+      System.out.printf("Total: %d nodes in %.3f s, %d nodes/s%n",
+                        totalNodes, totalNanos / 1e9, nodesPerSecond(totalNodes, totalNanos));
+      if (!allCorrect) System.out.println("PERFT MISMATCH: move generation is incorrect.");
+   }
+
+   private static long run(String fen, int depth, long expected) {
+      Position position = Position.fromFEN(fen);
+
+      long start = System.nanoTime();
+      long nodes = perft(position, depth);
+      long nanos = System.nanoTime() - start;
+
+      String check = expected < 0 ? "" : nodes == expected ? "  ok" : "  EXPECTED " + expected;
+      System.out.printf("%s%n   depth %d: %d nodes in %.3f s, %d nodes/s%s%n",
+                        fen, depth, nodes, nanos / 1e9, nodesPerSecond(nodes, nanos), check);
+      return nodes;
+   }
+
+   private static long nodesPerSecond(long nodes, long nanos) {
+      return nanos == 0 ? 0 : nodes * 1_000_000_000L / nanos;
+   }
+
+   /**
+    * Counts the leaf nodes of the legal move tree from a position. The
+    * position is left unchanged.
+    *
+    * @param position position to start from
+    * @param depth number of plies to search
+    *
+    * @return number of leaf nodes at the depth
+    */
+   public static long perft(Position position, int depth) {
+      if (depth <= 0) return 1;
+
+      // one move list per ply, reused for every node
+      int[][] moves = new int[depth][MoveGenerator.MAX_MOVES];
+      return perft(position, moves, 0, depth);
+   }
+
+   private static long perft(Position position, int[][] moves, int ply, int depth) {
+      int[] plyMoves = moves[ply];
+      int count = MoveGenerator.generate(position, plyMoves);
+
+      // moves are legal as generated, so the last ply only needs counting
+      if (depth == 1) return count;
+
+      long nodes = 0;
+      for (int i = 0; i < count; i++) {
+         position.makeMove(plyMoves[i]);
+         nodes += perft(position, moves, ply + 1, depth - 1);
+         position.unmakeMove(plyMoves[i]);
+      }
+      return nodes;
+   }
+}
@@ -0,0 +1,747 @@
+package chess;
+
+/**
+ * Bitboard representation of a chess position. Each of the twelve piece kinds
+ * (by color and type) is held as a 64-bit set of squares, alongside a
+ * square-indexed piece array for O(1) lookups; side to move, castling ability,
+ * en passant square and the move clocks are held as plain ints.
+ * <p>
+ * Squares are numbered 0 to 63 from a1 to h8 going file by file and then rank
+ * by rank (a1 = 0, h1 = 7, a2 = 8, ..., h8 = 63). Pieces are coded as
+ * {@code color * 6 + type}, e.g. {@link #WHITE} {@link #PAWN} is 0 and
+ * {@link #BLACK} {@link #KING} is 11.
+ * <br>
+ * Converts losslessly to and from a {@linkplain FEN#getFEN6 FEN6} and standard
+ * FEN.
+ * <p>
+ * Moves are made and unmade in place: {@link #makeMove} pushes what it cannot
+ * recompute onto a fixed-size undo stack, and keeps a {@link Zobrist} key
+ * updated incrementally, so neither direction allocates. The material and
+ * piece-square part of the {@link Evaluation} and a key of the pawns alone
+ * are kept up to date the same way, as pieces are put and removed.
+ * @see FEN
+ * @author wcaine
+ */
+public class Position {
+   /**
+    * Piece types, in FEN letter order P, N, B, R, Q, K.
+    */
+   public static final int PAWN = 0, KNIGHT = 1, BISHOP = 2, ROOK = 3, QUEEN = 4, KING = 5;
+   /**
+    * Colors; the color to move in a FEN6 is 'w' or 'b'.
+    */
+   public static final int WHITE = 0, BLACK = 1;
+   /**
+    * Empty square in {@link #pieceAt}, or no en passant square.
+    */
+   public static final int NONE = -1;
+   /**
+    * Castling ability bits, matching the FEN castling letters K, Q, k, q.
+    */
+   public static final int WHITE_KINGSIDE = 1, WHITE_QUEENSIDE = 2, BLACK_KINGSIDE = 4, BLACK_QUEENSIDE = 8;
+
+   // FEN characters by piece code, and '_' for an empty square as in an ezFEN
+   static final String PIECE_CHARS = "PNBRQKpnbrqk";
+   static final char EMPTY_CHAR = '_';
+
+   final long[] pieces = new long[12]; // squares occupied by each piece code
+   final long[] colors = new long[2]; // squares occupied by each color
+   long occupied; // all occupied squares
+   final byte[] board = new byte[64]; // piece code on each square, NONE if empty
+
+   int sideToMove; // WHITE or BLACK
+   int castling; // castling ability bits
+   int epSquare; // en passant square, NONE if there is none
+   int halfmove; // halfmove clock
+   int fullmove; // (full) move number
+   long key; // Zobrist key
+   long pawnKey; // Zobrist key of the pawns alone
+   int psq; // material and piece-square score, packed, see Evaluation#PSQ
+
+   // squares attacked by each color, the pieces giving check to the color to
+   // move and its pieces pinned to its king; kept up to date as moves are made
+   final long[] attacks = new long[2];
+   long checkers;
+   long pinned;
+
+   /**
+    * Most moves that can be made before {@link #unmakeMove} or
+    * {@link #clearHistory} (the undo stack size).
+    */
+   public static final int MAX_HISTORY = 1024;
+
+   // undo stack: key before each move, and the captured piece, castling
+   // ability, en passant square and halfmove clock packed into an int
+   private final long[] keyHistory = new long[MAX_HISTORY];
+   private final int[] undoHistory = new int[MAX_HISTORY];
+   private final long[] attackHistory = new long[MAX_HISTORY * 4]; // attacks, checkers and pinned before each move
+   private int historyLength;
+
+   private static final long FILE_A = 0x0101010101010101L, FILE_H = FILE_A << 7;
+
+   /**
+    * Creates an empty position (no pieces, white to move, move number 1).
+    */
+   public Position() {
+      clear();
+   }
+
+   /**
+    * Creates a position from a FEN6.
+    * @see #set(String[] FEN6)
+    *
+    * @param FEN6 see {@link FEN#getFEN6}
+    */
+   public Position(String[] FEN6) {
+      set(FEN6);
+   }
+
+   /**
+    * Creates a position from a FEN in standard notation.
+    * <br>
+    * {@link smallText() NOTE:} Passed FEN should already be passed through
+    * {@link FEN#validFEN } for validation {@link smallText() (and be valid)}.
+    * @see FEN#parse(CharSequence fen, Position position)
+    *
+    * @param stdFEN FEN in standard notation
+    *
+    * @return the position
+    * @throws IllegalArgumentException if the FEN is invalid
+    */
+   public static Position fromFEN(String stdFEN) {
+      Position position = new Position();
+      int result = FEN.parse(stdFEN, position);
+      if (result != FEN.VALID) throw new IllegalArgumentException(FEN.errorReason(result) + ": " + stdFEN);
+      return position;
+   }
+
+   /**
+    * Removes all pieces and resets the state to white to move, no castling,
+    * no en passant square, halfmove clock 0 and move number 1.
+    */
+   public final void clear() {
+      for (int i = 0; i < pieces.length; i++) {
+         pieces[i] = 0L;
+      }
+      colors[WHITE] = colors[BLACK] = occupied = 0L;
+      for (int sq = 0; sq < 64; sq++) {
+         board[sq] = NONE;
+      }
+      sideToMove = WHITE;
+      castling = 0;
+      epSquare = NONE;
+      halfmove = 0;
+      fullmove = 1;
+      key = pawnKey = 0L;
+      psq = 0;
+      attacks[WHITE] = attacks[BLACK] = checkers = pinned = 0L;
+      historyLength = 0;
+   }
+
+   /**
+    * Sets this position from a FEN6. The position string may be an
+    * {@linkplain FEN#easyFEN ezFEN} or use standard digits for empty squares.
+    * <br>
+    * {@link smallText() NOTE:} Modules should already be passed through
+    * {@link FEN#validFEN } for validation {@link smallText() (and be valid)}.
+    *
+    * @param FEN6 see {@link FEN#getFEN6}
+    */
+   public final void set(String[] FEN6) {
+      clear();
+
+      // position string is in order of rank8/rank7/.../rank1, each from file a to h
+      String position = FEN6[0];
+      int rank = 7, file = 0;
+      for (int i = 0; i < position.length(); i++) {
+         char c = position.charAt(i);
+         if (c == '/') {
+            rank--;
+            file = 0;
+         } else if (c == EMPTY_CHAR) {
+            file++;
+         } else if (c >= '1' && c <= '8') {
+            file += c - '0';
+         } else {
+            put(PIECE_CHARS.indexOf(c), rank * 8 + file);
+            file++;
+         }
+      }
+
+      sideToMove = FEN6[1].equals("b") ? BLACK : WHITE;
+
+      for (int i = 0; i < FEN6[2].length(); i++) {
+         switch (FEN6[2].charAt(i)) {
+            case 'K' -> castling |= WHITE_KINGSIDE;
+            case 'Q' -> castling |= WHITE_QUEENSIDE;
+            case 'k' -> castling |= BLACK_KINGSIDE;
+            case 'q' -> castling |= BLACK_QUEENSIDE;
+            default -> { } // '-'
+         }
+      }
+
+      epSquare = FEN6[3].equals("-") ? NONE : square(FEN6[3].charAt(0), FEN6[3].charAt(1));
+      halfmove = Integer.parseInt(FEN6[4]);
+      fullmove = Integer.parseInt(FEN6[5]);
+
+      // pieces were hashed as they were put on the board
+      key ^= stateKey();
+      updateAttacks();
+   }
+
+   /**
+    * Copies every field of another position into this one.
+    *
+    * @param other position to copy
+    */
+   public void copyFrom(Position other) {
+      System.arraycopy(other.pieces, 0, pieces, 0, pieces.length);
+      colors[WHITE] = other.colors[WHITE];
+      colors[BLACK] = other.colors[BLACK];
+      occupied = other.occupied;
+      System.arraycopy(other.board, 0, board, 0, board.length);
+      sideToMove = other.sideToMove;
+      castling = other.castling;
+      epSquare = other.epSquare;
+      halfmove = other.halfmove;
+      fullmove = other.fullmove;
+      key = other.key;
+      pawnKey = other.pawnKey;
+      psq = other.psq;
+      attacks[WHITE] = other.attacks[WHITE];
+      attacks[BLACK] = other.attacks[BLACK];
+      checkers = other.checkers;
+      pinned = other.pinned;
+      System.arraycopy(other.keyHistory, 0, keyHistory, 0, other.historyLength);
+      System.arraycopy(other.undoHistory, 0, undoHistory, 0, other.historyLength);
+      System.arraycopy(other.attackHistory, 0, attackHistory, 0, other.historyLength * 4);
+      historyLength = other.historyLength;
+   }
+
+   /**
+    * Converts this position to a FEN6, with the position string as an
+    * {@linkplain FEN#easyFEN ezFEN}.
+    * @see FEN#getFEN6(String stdFEN)
+    *
+    * @return FEN6
+    */
+   public String[] toFEN6() {
+      StringBuilder position = new StringBuilder(71);
+      for (int rank = 7; rank >= 0; rank--) {
+         for (int file = 0; file < 8; file++) {
+            position.append(charAt(rank * 8 + file));
+         }
+         if (rank > 0) position.append('/');
+      }
+
+      return new String[] {position.toString(),
+                           sideToMove == WHITE ? "w" : "b",
+                           castlingString(),
+                           epSquare == NONE ? "-" : squareName(epSquare),
+                           Integer.toString(halfmove),
+                           Integer.toString(fullmove)};
+   }
+
+   /**
+    * Converts this position to a FEN in standard notation.
+    * @see FEN#write(Position position, StringBuilder out)
+    *
+    * @return FEN
+    */
+   public String toFEN() {
+      return FEN.write(this, new StringBuilder(90)).toString();
+   }
+
+   private String castlingString() {
+      if (castling == 0) return "-";
+
+      String castlingString = "";
+      if ((castling & WHITE_KINGSIDE) != 0) castlingString += "K";
+      if ((castling & WHITE_QUEENSIDE) != 0) castlingString += "Q";
+      if ((castling & BLACK_KINGSIDE) != 0) castlingString += "k";
+      if ((castling & BLACK_QUEENSIDE) != 0) castlingString += "q";
+      return castlingString;
+   }
+
+   /**
+    * Makes a move on this position in place, updating castling ability, the
+    * en passant square, the move clocks and the key, and pushing what
+    * {@link #unmakeMove} needs onto the undo stack.
+    * <br>
+    * {@link smallText() NOTE:} The move should come from the
+    * {@link MoveGenerator} for this position {@link smallText() (and be legal)}.
+    *
+    * @param move encoded move, see {@link Move}
+    */
+   public void makeMove(int move) {
+      int from = Move.from(move), to = Move.to(move), flags = Move.flags(move);
+      int piece = board[from];
+      int us = sideToMove;
+      int captureSquare = flags == Move.EP_CAPTURE ? to ^ 8 : to; // en passant captures the pawn behind
+      int captured = Move.isCapture(move) ? board[captureSquare] : NONE;
+
+      int saved = historyLength * 4;
+      attackHistory[saved] = attacks[WHITE];
+      attackHistory[saved + 1] = attacks[BLACK];
+      attackHistory[saved + 2] = checkers;
+      attackHistory[saved + 3] = pinned;
+      keyHistory[historyLength] = key;
+      undoHistory[historyLength++] = (captured & 0xF) | castling << 4 | (epSquare + 1) << 8 | halfmove << 15;
+      key ^= stateKey();
+
+      halfmove++;
+      if (captured != NONE) {
+         remove(captureSquare);
+         halfmove = 0;
+      }
+      if (piece % 6 == PAWN) halfmove = 0;
+
+      remove(from);
+      put(Move.isPromotion(move) ? us * 6 + Move.promotion(move) : piece, to);
+
+      // move the rook alongside the king when castling
+      if (flags == Move.KING_CASTLE) {
+         remove(to + 1);
+         put(us * 6 + ROOK, to - 1);
+      } else if (flags == Move.QUEEN_CASTLE) {
+         remove(to - 2);
+         put(us * 6 + ROOK, to + 1);
+      }
+
+      epSquare = flags == Move.DOUBLE_PUSH ? (from + to) >>> 1 : NONE;
+      castling &= CASTLING_KEPT[from] & CASTLING_KEPT[to];
+      if (us == BLACK) fullmove++;
+      sideToMove = us ^ 1;
+      key ^= stateKey();
+      updateAttacks();
+   }
+
+   /**
+    * Takes back the last move made with {@link #makeMove}, restoring this
+    * position exactly.
+    *
+    * @param move the move last made
+    */
+   public void unmakeMove(int move) {
+      int from = Move.from(move), to = Move.to(move), flags = Move.flags(move);
+      int undo = undoHistory[--historyLength];
+      int us = sideToMove ^ 1;
+
+      if (flags == Move.KING_CASTLE) {
+         remove(to - 1);
+         put(us * 6 + ROOK, to + 1);
+      } else if (flags == Move.QUEEN_CASTLE) {
+         remove(to + 1);
+         put(us * 6 + ROOK, to - 2);
+      }
+
+      int piece = board[to];
+      remove(to);
+      put(Move.isPromotion(move) ? us * 6 + PAWN : piece, from);
+
+      int captured = undo & 0xF;
+      if (captured != 0xF) put(captured, flags == Move.EP_CAPTURE ? to ^ 8 : to);
+
+      castling = (undo >>> 4) & 0xF;
+      epSquare = ((undo >>> 8) & 0x7F) - 1;
+      halfmove = undo >>> 15;
+      if (us == BLACK) fullmove--;
+      sideToMove = us;
+      key = keyHistory[historyLength];
+      int saved = historyLength * 4;
+      attacks[WHITE] = attackHistory[saved];
+      attacks[BLACK] = attackHistory[saved + 1];
+      checkers = attackHistory[saved + 2];
+      pinned = attackHistory[saved + 3];
+   }
+
+   /**
+    * Forgets the moves made so far, so that they can no longer be unmade;
+    * games that never take moves back can call this after each capture or
+    * pawn move to keep the undo stack from filling.
+    */
+   public void clearHistory() {
+      historyLength = 0;
+   }
+
+   /**
+    * Forgets all but the most recent moves made, so that only they can be
+    * unmade or repeated; games that never take moves back can call this to
+    * keep the undo stack from filling when no capture or pawn move clears it.
+    *
+    * @param keep number of moves to keep
+    */
+   public void trimHistory(int keep) {
+      if (historyLength <= keep) return;
+      int from = historyLength - keep;
+      System.arraycopy(keyHistory, from, keyHistory, 0, keep);
+      System.arraycopy(undoHistory, from, undoHistory, 0, keep);
+      System.arraycopy(attackHistory, from * 4, attackHistory, 0, keep * 4);
+      historyLength = keep;
+   }
+
+   /**
+    * @return number of moves that can be unmade
+    */
+   public int historyLength() {
+      return historyLength;
+   }
+
+   /**
+    * Checks whether the current position has occurred before, looking back
+    * only as far as the last capture or pawn move (the halfmove clock), since
+    * no earlier position can repeat. At most 50 keys are compared before the
+    * fifty-move rule applies.
+    *
+    * @return true if the position is a repetition
+    */
+   public boolean isRepetition() {
+      int oldest = Math.max(historyLength - halfmove, 0);
+      for (int i = historyLength - 4; i >= oldest; i -= 2) {
+         if (keyHistory[i] == key) return true;
+      }
+      return false;
+   }
+
+   /**
+    * Counts earlier occurrences of this position in the moves that can be
+    * unmade, looking back only as far as the last capture or pawn move (at
+    * most 100 plies in a game that has not ended by the fifty-move rule).
+    *
+    * @return number of times this position occurred before
+    */
+   public int repetitions() {
+      int count = 0;
+      int oldest = Math.max(historyLength - halfmove, 0);
+      for (int i = historyLength - 4; i >= oldest; i -= 2) {
+         if (keyHistory[i] == key) count++;
+      }
+      return count;
+   }
+
+   /**
+    * @return the Zobrist key of this position
+    * @see Zobrist
+    */
+   public long key() {
+      return key;
+   }
+
+   /**
+    * Recomputes the Zobrist key from scratch rather than incrementally.
+    *
+    * @return the Zobrist key of this position
+    */
+   public long computeKey() {
+      long computed = stateKey();
+      for (int sq = 0; sq < 64; sq++) {
+         if (board[sq] != NONE) computed ^= Zobrist.piece(board[sq], sq);
+      }
+      return computed;
+   }
+
+   /**
+    * @return the Zobrist key of the pawns alone, for caching pawn structure
+    */
+   public long pawnKey() {
+      return pawnKey;
+   }
+
+   /**
+    * Recomputes the material and piece-square score from scratch rather than
+    * incrementally.
+    *
+    * @return the score, packed, see {@link Evaluation#PSQ}
+    */
+   int computePsq() {
+      int computed = 0;
+      for (int sq = 0; sq < 64; sq++) {
+         if (board[sq] != NONE) computed += Evaluation.PSQ[board[sq] << 6 | sq];
+      }
+      return computed;
+   }
+
+   // key of everything but the pieces; the en passant file only counts if a pawn can capture there
+   long stateKey() {
+      long stateKey = Zobrist.castling(castling);
+      if (sideToMove == BLACK) stateKey ^= Zobrist.side();
+      if (epSquare != NONE && (Attacks.pawn(sideToMove ^ 1, epSquare) & pieces[sideToMove * 6 + PAWN]) != 0) {
+         stateKey ^= Zobrist.enPassant(epSquare);
+      }
+      return stateKey;
+   }
+
+   // castling ability kept after a move touches a square (king and rook home squares lose theirs)
+   private static final int[] CASTLING_KEPT = new int[64];
+   static {
+      for (int sq = 0; sq < 64; sq++) {
+         CASTLING_KEPT[sq] = WHITE_KINGSIDE | WHITE_QUEENSIDE | BLACK_KINGSIDE | BLACK_QUEENSIDE;
+      }
+      CASTLING_KEPT[0] &= ~WHITE_QUEENSIDE; // a1
+      CASTLING_KEPT[4] &= ~(WHITE_KINGSIDE | WHITE_QUEENSIDE); // e1
+      CASTLING_KEPT[7] &= ~WHITE_KINGSIDE; // h1
+      CASTLING_KEPT[56] &= ~BLACK_QUEENSIDE; // a8
+      CASTLING_KEPT[60] &= ~(BLACK_KINGSIDE | BLACK_QUEENSIDE); // e8
+      CASTLING_KEPT[63] &= ~BLACK_KINGSIDE; // h8
+   }
+
+   /**
+    * @param color {@link #WHITE} or {@link #BLACK}
+    * @return square of the color's king
+    */
+   public int kingSquare(int color) {
+      return Long.numberOfTrailingZeros(pieces[color * 6 + KING]);
+   }
+
+   /**
+    * Finds every piece, of either color, attacking a square given an occupancy.
+    *
+    * @param sq square index
+    * @param occupied occupied squares to block sliding pieces with
+    * @return squares of the attacking pieces
+    */
+   public long attackersTo(int sq, long occupied) {
+      return (Attacks.pawn(BLACK, sq) & pieces[PAWN])
+           | (Attacks.pawn(WHITE, sq) & pieces[6 + PAWN])
+           | (Attacks.knight(sq) & (pieces[KNIGHT] | pieces[6 + KNIGHT]))
+           | (Attacks.king(sq) & (pieces[KING] | pieces[6 + KING]))
+           | (Attacks.bishop(sq, occupied) & (pieces[BISHOP] | pieces[6 + BISHOP] | pieces[QUEEN] | pieces[6 + QUEEN]))
+           | (Attacks.rook(sq, occupied) & (pieces[ROOK] | pieces[6 + ROOK] | pieces[QUEEN] | pieces[6 + QUEEN]));
+   }
+
+   /**
+    * @param sq square index
+    * @param color attacking color
+    * @param occupied occupied squares to block sliding pieces with
+    * @return true if any piece of the color attacks the square
+    */
+   public boolean isAttacked(int sq, int color, long occupied) {
+      int offset = color * 6;
+      return (Attacks.pawn(color ^ 1, sq) & pieces[offset + PAWN]) != 0
+          || (Attacks.knight(sq) & pieces[offset + KNIGHT]) != 0
+          || (Attacks.king(sq) & pieces[offset + KING]) != 0
+          || (Attacks.bishop(sq, occupied) & (pieces[offset + BISHOP] | pieces[offset + QUEEN])) != 0
+          || (Attacks.rook(sq, occupied) & (pieces[offset + ROOK] | pieces[offset + QUEEN])) != 0;
+   }
+
+   /**
+    * @return if the color to move is in check, in constant time
+    */
+   public boolean isInCheck() {
+      return checkers != 0;
+   }
+
+   /**
+    * Tells if a square is attacked by a color, in constant time.
+    *
+    * @param sq square index
+    * @param color color of the attackers
+    *
+    * @return if any piece of the color attacks the square
+    */
+   public boolean isSquareAttacked(int sq, int color) {
+      return (attacks[color] & (1L << sq)) != 0;
+   }
+
+   /**
+    * @param color color of the attackers
+    * @return every square attacked by a piece of the color
+    */
+   public long attacks(int color) {
+      return attacks[color];
+   }
+
+   /**
+    * @return the pieces giving check to the color to move
+    */
+   public long checkers() {
+      return checkers;
+   }
+
+   /**
+    * @return the pieces of the color to move that are pinned to its king
+    * @see MoveGenerator#pinned(Position position, int color)
+    */
+   public long pinned() {
+      return pinned;
+   }
+
+   /**
+    * Recomputes the attack maps, checkers and pinned pieces from the pieces;
+    * done after each move, and after pieces are placed by anything other
+    * than a move.
+    * <br>
+    * A rebuild takes one table lookup per piece other than a pawn, and pawns
+    * are shifted in whole. Updating only the squares a move touches was
+    * tried: each piece's attacks kept, and the sliders whose rays reach
+    * those squares found and refreshed. It was slower. Finding the sliders
+    * costs two lookups a square, and each move must save the entries it
+    * changes for {@link #unmakeMove}. Make and unmake took 103 ns instead
+    * of 77 in the start position, perft 12% longer and search 12% fewer
+    * nodes a second.
+    */
+   void updateAttacks() {
+      attacks[WHITE] = attacksBy(WHITE);
+      attacks[BLACK] = attacksBy(BLACK);
+
+      // a position is only without a king while a FEN is being validated
+      long king = pieces[sideToMove * 6 + KING];
+      if (king == 0) {
+         checkers = pinned = 0L;
+         return;
+      }
+      checkers = attackersTo(Long.numberOfTrailingZeros(king), occupied) & colors[sideToMove ^ 1];
+      pinned = MoveGenerator.pinned(this, sideToMove);
+   }
+
+   private long attacksBy(int color) {
+      int offset = color * 6;
+      long pawns = pieces[offset + PAWN];
+      long attacked = color == WHITE ? (pawns << 7 & ~FILE_H) | (pawns << 9 & ~FILE_A)
+                                     : (pawns >>> 9 & ~FILE_H) | (pawns >>> 7 & ~FILE_A);
+      for (long knights = pieces[offset + KNIGHT]; knights != 0; knights &= knights - 1) {
+         attacked |= Attacks.knight(Long.numberOfTrailingZeros(knights));
+      }
+      for (long diagonal = pieces[offset + BISHOP] | pieces[offset + QUEEN]; diagonal != 0; diagonal &= diagonal - 1) {
+         attacked |= Attacks.bishop(Long.numberOfTrailingZeros(diagonal), occupied);
+      }
+      for (long straight = pieces[offset + ROOK] | pieces[offset + QUEEN]; straight != 0; straight &= straight - 1) {
+         attacked |= Attacks.rook(Long.numberOfTrailingZeros(straight), occupied);
+      }
+      long king = pieces[offset + KING];
+      if (king != 0) attacked |= Attacks.king(Long.numberOfTrailingZeros(king));
+      return attacked;
+   }
+
+   /**
+    * Places a piece on an empty square.
+    *
+    * @param piece piece code ({@code color * 6 + type})
+    * @param sq square index
+    */
+   final void put(int piece, int sq) {
+      long bit = 1L << sq;
+      pieces[piece] |= bit;
+      colors[piece / 6] |= bit;
+      occupied |= bit;
+      board[sq] = (byte) piece;
+      key ^= Zobrist.piece(piece, sq);
+      pawnKey ^= Zobrist.pawn(piece, sq);
+      psq += Evaluation.PSQ[piece << 6 | sq];
+   }
+
+   /**
+    * Removes the piece on a square.
+    *
+    * @param sq square index, <b>must be occupied</b>
+    */
+   final void remove(int sq) {
+      int piece = board[sq];
+      long bit = ~(1L << sq);
+      pieces[piece] &= bit;
+      colors[piece / 6] &= bit;
+      occupied &= bit;
+      board[sq] = NONE;
+      key ^= Zobrist.piece(piece, sq);
+      pawnKey ^= Zobrist.pawn(piece, sq);
+      psq -= Evaluation.PSQ[piece << 6 | sq];
+   }
+
+   /**
+    * @param sq square index
+    * @return piece code on the square, or {@link #NONE} if empty
+    */
+   public int pieceAt(int sq) {
+      return board[sq];
+   }
+
+   /**
+    * @param sq square index
+    * @return FEN character of the piece on the square, or '_' if empty (as in an ezFEN)
+    */
+   public char charAt(int sq) {
+      int piece = board[sq];
+      return piece == NONE ? EMPTY_CHAR : PIECE_CHARS.charAt(piece);
+   }
+
+   /**
+    * @param color {@link #WHITE} or {@link #BLACK}
+    * @param type {@link #PAWN} through {@link #KING}
+    * @return squares occupied by pieces of the color and type
+    */
+   public long bitboard(int color, int type) {
+      return pieces[color * 6 + type];
+   }
+
+   /**
+    * @param color {@link #WHITE} or {@link #BLACK}
+    * @return squares occupied by pieces of the color
+    */
+   public long occupancy(int color) {
+      return colors[color];
+   }
+
+   /**
+    * @return squares occupied by any piece
+    */
+   public long occupancy() {
+      return occupied;
+   }
+
+   /**
+    * @return {@link #WHITE} or {@link #BLACK}
+    */
+   public int sideToMove() {
+      return sideToMove;
+   }
+
+   /**
+    * @return castling ability bits
+    */
+   public int castling() {
+      return castling;
+   }
+
+   /**
+    * @return en passant square, or {@link #NONE}
+    */
+   public int epSquare() {
+      return epSquare;
+   }
+
+   /**
+    * @return the halfmove clock
+    */
+   public int halfmove() {
+      return halfmove;
+   }
+
+   /**
+    * @return the (full) move number
+    */
+   public int fullmove() {
+      return fullmove;
+   }
+
+   /**
+    * @param file 'a' through 'h'
+    * @param rank '1' through '8'
+    * @return square index
+    */
+   public static int square(char file, char rank) {
+      return (rank - '1') * 8 + (file - 'a');
+   }
+
+   /**
+    * @param sq square index
+    * @return algebraic name of the square, e.g. "e4"
+    */
+   public static String squareName(int sq) {
+      return new String(new char[] {(char) ('a' + (sq & 7)), (char) ('1' + (sq >>> 3))});
+   }
+
+   @Override
+   public String toString() {
+      return toFEN();
+   }
+}
@@ -0,0 +1,385 @@
+package chess;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An index of the positions and material balances reached in collections
+ * of games, memory-mapped so that finding every game that reached a
+ * position takes a binary search and the decoding of one list, well under
+ * a millisecond however many games are indexed.
+ * <p>
+ * Games are numbered from 1 in the order they were indexed, across every
+ * PGN file given to the {@link PositionIndexBuilder}. A position is looked
+ * up by its {@link Zobrist} key, so side to move, castling ability and a
+ * possible en passant capture all count; a material balance by
+ * {@linkplain #material its signature}, the count of each kind of piece.
+ * <br>
+ * The file is laid out as:
+ * <ul>
+ *    <li>a 64-byte header: magic number, version, games, then the number of
+ *        keys and the start of each of the two directories and of the
+ *        posting lists</li>
+ *    <li>the position directory and the material directory: 16-byte
+ *        entries of key (8 bytes) and value (8), sorted by key as an
+ *        unsigned number</li>
+ *    <li>the posting lists: each the number of games, then the first game
+ *        and the gap to each next one, as
+ *        <a href="https://en.wikipedia.org/wiki/LEB128">variable-length
+ *        integers</a>; a list is usually a byte or two per game</li>
+ * </ul>
+ * An entry's value is the list's offset from the start of the lists,
+ * shifted left one bit; or, for a key reached in a single game (most of
+ * them), that game shifted left one bit and with the low bit set, with no
+ * list at all.
+ * <br>
+ * Every 1024th key of each directory is also kept in memory when the index
+ * is opened, so a search touches only one 16 KB block of the directory on
+ * disk. Files over 2 GB are mapped in several segments. Searching is
+ * thread-safe.
+ * @see PositionIndexBuilder
+ * @author wcaine
+ */
+public final class PositionIndex {
+
+   static final int MAGIC = 0x43484958; // "CHIX"
+   static final int VERSION = 1;
+   static final int HEADER_BYTES = 64;
+   static final int ENTRY_BYTES = 16;
+   static final int FENCE_SHIFT = 10; // one key in memory per 1024 in the directory
+
+   private static final int SEGMENT_SHIFT = 30; // bytes per mapped segment, as a power of two (1 GB)
+   private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+   private static final String TYPE_LETTERS = "PNBRQ";
+
+   private final ByteBuffer[] segments; // read with absolute gets only, so shared by every thread
+   private final long games;
+   private final Directory positions, materials;
+   private final long postings; // start of the posting lists
+
+
+   private PositionIndex(ByteBuffer[] segments, long games, Directory positions, Directory materials, long postings) {
+      this.segments = segments;
+      this.games = games;
+      this.positions = positions;
+      this.materials = materials;
+      this.postings = postings;
+   }
+
+   /**
+    * A directory of keys: where it starts, how many keys it has, and every
+    * 1024th of them.
+    */
+   private static final class Directory {
+      final long start, keys;
+      final long[] fences;
+
+      Directory(long start, long keys, long[] fences) {
+         this.start = start;
+         this.keys = keys;
+         this.fences = fences;
+      }
+   }
+
+   /**
+    * Maps an index file; the mapping lasts as long as the index is reachable.
+    *
+    * @param file index file
+    *
+    * @return the index
+    * @throws IOException if the file cannot be read or is not an index
+    */
+   public static PositionIndex open(Path file) throws IOException {
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+         long size = channel.size();
+         if (size < HEADER_BYTES) throw new IOException(file + " is not a position index: too short");
+         ByteBuffer[] segments = new ByteBuffer[(int) ((size + SEGMENT_MASK) >>> SEGMENT_SHIFT)];
+         for (int i = 0; i < segments.length; i++) {
+            long start = (long) i << SEGMENT_SHIFT;
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(size - start, SEGMENT_MASK + 1));
+         }
+
+         ByteBuffer header = segments[0];
+         if (header.getInt(0) != MAGIC) throw new IOException(file + " is not a position index");
+         if (header.getInt(4) != VERSION) throw new IOException(file + " is a position index of another version");
+         long games = header.getLong(8);
+         long positionKeys = header.getLong(16), positionStart = header.getLong(24);
+         long materialKeys = header.getLong(32), materialStart = header.getLong(40);
+         long postings = header.getLong(48);
+         if (positionStart + positionKeys * ENTRY_BYTES > materialStart
+                 || materialStart + materialKeys * ENTRY_BYTES > postings || postings > size) {
+            throw new IOException(file + " is not a position index: sections overrun");
+         }
+
+         return new PositionIndex(segments, games, directory(segments, positionStart, positionKeys),
+                                  directory(segments, materialStart, materialKeys), postings);
+      }
+   }
+
+   // a directory with every 1024th of its keys read into memory
+   private static Directory directory(ByteBuffer[] segments, long start, long keys) {
+      long[] fences = new long[(int) ((keys + (1 << FENCE_SHIFT) - 1) >>> FENCE_SHIFT)];
+      for (int i = 0; i < fences.length; i++) {
+         fences[i] = getLong(segments, start + ((long) i << FENCE_SHIFT) * ENTRY_BYTES);
+      }
+      return new Directory(start, keys, fences);
+   }
+
+   /**
+    * @return number of games indexed, including any skipped as invalid
+    */
+   public long games() {
+      return games;
+   }
+
+   /**
+    * @return number of distinct positions indexed
+    */
+   public long positions() {
+      return positions.keys;
+   }
+
+   /**
+    * Counts the games that reached a position.
+    *
+    * @param position position to look up
+    *
+    * @return number of games
+    */
+   public long positionCount(Position position) {
+      return count(positions, position.key());
+   }
+
+   /**
+    * Finds the games that reached a position.
+    *
+    * @param position position to look up
+    * @param ids array to receive the games' numbers, in increasing order
+    *
+    * @return number of games found, up to the array's length
+    * @see #positionCount
+    */
+   public int positionGames(Position position, int[] ids) {
+      return find(positions, position.key(), ids);
+   }
+
+   /**
+    * Counts the games that reached a material balance.
+    *
+    * @param material material signature, see {@link #material}
+    *
+    * @return number of games
+    */
+   public long materialCount(long material) {
+      return count(materials, material);
+   }
+
+   /**
+    * Finds the games that reached a material balance.
+    *
+    * @param material material signature, see {@link #material}
+    * @param ids array to receive the games' numbers, in increasing order
+    *
+    * @return number of games found, up to the array's length
+    */
+   public int materialGames(long material, int[] ids) {
+      return find(materials, material, ids);
+   }
+
+   private long count(Directory directory, long key) {
+      long entry = search(directory, key);
+      if (entry < 0) return 0;
+      long value = getLong(entry + 8);
+      if ((value & 1) != 0) return 1;
+      long[] at = {postings + (value >>> 1)};
+      return readVarLong(at);
+   }
+
+   private int find(Directory directory, long key, int[] ids) {
+      long entry = search(directory, key);
+      if (entry < 0 || ids.length == 0) return 0;
+      long value = getLong(entry + 8);
+      if ((value & 1) != 0) {
+         ids[0] = (int) (value >>> 1);
+         return 1;
+      }
+
+      long[] at = {postings + (value >>> 1)};
+      int count = (int) Math.min(readVarLong(at), ids.length);
+      int id = 0;
+      for (int i = 0; i < count; i++) {
+         id += (int) readVarLong(at);
+         ids[i] = id;
+      }
+      return count;
+   }
+
+   // the position in the file of a key's entry, or -1 if it is not indexed
+   private long search(Directory directory, long key) {
+      // the last fence not above the key marks the only block it can be in
+      long[] fences = directory.fences;
+      int low = 0, high = fences.length;
+      while (low < high) {
+         int middle = (low + high) >>> 1;
+         if (Long.compareUnsigned(fences[middle], key) <= 0) {
+            low = middle + 1;
+         } else {
+            high = middle;
+         }
+      }
+      if (low == 0) return -1;
+
+      long first = (long) (low - 1) << FENCE_SHIFT;
+      long lowEntry = first, highEntry = Math.min(first + (1 << FENCE_SHIFT), directory.keys);
+      while (lowEntry < highEntry) {
+         long middle = (lowEntry + highEntry) >>> 1;
+         int order = Long.compareUnsigned(getLong(directory.start + middle * ENTRY_BYTES), key);
+         if (order == 0) return directory.start + middle * ENTRY_BYTES;
+         if (order < 0) {
+            lowEntry = middle + 1;
+         } else {
+            highEntry = middle;
+         }
+      }
+      return -1;
+   }
+
+   private long getLong(long at) {
+      return getLong(segments, at);
+   }
+
+   // entries are 16-byte aligned in 1 GB segments, so never straddle two
+   private static long getLong(ByteBuffer[] segments, long at) {
+      return segments[(int) (at >>> SEGMENT_SHIFT)].getLong((int) (at & SEGMENT_MASK));
+   }
+
+   // reads a variable-length integer, byte by byte as lists may straddle segments, and advances past it
+   private long readVarLong(long[] at) {
+      long value = 0;
+      for (int shift = 0; ; shift += 7) {
+         long position = at[0]++;
+         int b = segments[(int) (position >>> SEGMENT_SHIFT)].get((int) (position & SEGMENT_MASK));
+         value |= (long) (b & 0x7F) << shift;
+         if (b >= 0) return value;
+      }
+   }
+
+   /**
+    * Makes the material signature of a position: the count of each kind of
+    * piece, kings aside, four bits each, white's pawns lowest and black's
+    * queens highest.
+    *
+    * @param position position to count the pieces of
+    *
+    * @return the signature
+    */
+   public static long material(Position position) {
+      long material = 0;
+      for (int piece = 0; piece < 12; piece++) {
+         if (piece % 6 == Position.KING) continue;
+         material |= (long) Long.bitCount(position.pieces[piece]) << (4 * (piece - piece / 6));
+      }
+      return material;
+   }
+
+   /**
+    * Reads a material balance written as the pieces of each side, white
+    * first, such as "KQRRBNPPPPPvKQRRBBPPPPPP".
+    *
+    * @param name material balance; the kings may be left out
+    *
+    * @return its signature, see {@link #material}
+    * @throws IllegalArgumentException if the name is malformed
+    */
+   public static long parseMaterial(String name) {
+      String[] sides = name.toUpperCase().split("V", -1);
+      if (sides.length != 2) throw new IllegalArgumentException("Material looks like KRPPvKRP: " + name);
+      long material = 0;
+      for (int color = Position.WHITE; color <= Position.BLACK; color++) {
+         String side = sides[color];
+         for (int i = side.startsWith("K") ? 1 : 0; i < side.length(); i++) {
+            int type = TYPE_LETTERS.indexOf(side.charAt(i));
+            if (type < 0) throw new IllegalArgumentException("Material looks like KRPPvKRP: " + name);
+            int shift = 4 * (5 * color + type);
+            if ((material >>> shift & 0xF) == 0xF) throw new IllegalArgumentException("Too many pieces: " + name);
+            material += 1L << shift;
+         }
+      }
+      return material;
+   }
+
+   /**
+    * @param material material signature, see {@link #material}
+    * @return the material balance, such as "KRPPvKRP"
+    */
+   public static String materialName(long material) {
+      StringBuilder name = new StringBuilder(34);
+      for (int color = Position.WHITE; color <= Position.BLACK; color++) {
+         if (color == Position.BLACK) name.append('v');
+         name.append('K');
+         for (int type = Position.QUEEN; type >= Position.PAWN; type--) {
+            for (long i = material >>> (4 * (5 * color + type)) & 0xF; i > 0; i--) {
+               name.append(TYPE_LETTERS.charAt(type));
+            }
+         }
+      }
+      return name.toString();
+   }
+
+   /**
+    * Finds the games that reached a position or a material balance, and
+    * reports how long the search took.
+    *
+    * @param args index file, then a FEN or a material balance such as
+    *             "KRPPvKRP"
+    */
+   public static void main(String[] args) {
+      if (args.length < 2) {
+         System.out.println("Usage: find <index> <FEN or material, e.g. KRPvKR>");
+         return;
+      }
+      String query = String.join(" ", java.util.Arrays.copyOfRange(args, 1, args.length));
+      try {
+         PositionIndex index = open(Path.of(args[0]));
+         int[] ids = new int[20];
+         long start, count;
+         int found;
+         if (query.indexOf('/') >= 0) {
+            Position position = new Position();
+            int result = FEN.parse(query, position);
+            if (result != FEN.VALID) {
+               FEN.errorMessage(FEN.errorReason(result));
+               return;
+            }
+            start = System.nanoTime();
+            count = index.positionCount(position);
+            found = index.positionGames(position, ids);
+         } else {
+            long material = parseMaterial(query);
+            start = System.nanoTime();
+            count = index.materialCount(material);
+            found = index.materialGames(material, ids);
+            query = materialName(material);
+         }
+         long nanos = System.nanoTime() - start;
+
+         StringBuilder line = new StringBuilder();
+         line.append(count).append(count == 1 ? " game" : " games").append(" of ").append(index.games())
+             .append(" reached ").append(query);
+         for (int i = 0; i < found; i++) {
+            line.append(i == 0 ? ": " : ", ").append(ids[i]);
+         }
+         if (count > found) line.append(", ...");
+         System.out.println(line);
+         System.out.printf("found in %.1f us%n", nanos / 1e3);
+      } catch (IllegalArgumentException e) {
+         System.out.println(e.getMessage());
+      } catch (IOException e) {
+         System.out.println("Could not open the index " + args[0] + ": " + e.getMessage());
+      }
+   }
+}
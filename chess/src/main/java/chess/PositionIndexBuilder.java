@@ -0,0 +1,345 @@
+package chess;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Builds a {@link PositionIndex} from PGN files of any size.
+ * <p>
+ * Every valid game adds the key of each position it reached, and the
+ * signature of each material balance, paired with its number. Pairs are
+ * gathered in fixed arrays, sorted and written out as a temporary run
+ * whenever the arrays fill, and the runs are merged at the end into each
+ * key's list of games, so memory use is fixed however many games there
+ * are. Games are read in order, so each list comes out of the merge
+ * already sorted, ready to be written as gaps.
+ * <br>
+ * Run from the command line with
+ * {@code ChessPlayer index <output index> <input PGN>...}.
+ * @author wcaine
+ */
+public final class PositionIndexBuilder {
+
+   private static final int RUN_ENTRIES = 1 << 22; // pairs gathered before a run is written, per kind of key (48 MB)
+
+   private final Sorter positions, materials;
+   private final Path directory; // where runs and sections are written
+   private long postingBytes; // written so far, across both kinds of key
+
+
+   private PositionIndexBuilder(Path directory) {
+      this.directory = directory;
+      this.positions = new Sorter();
+      this.materials = new Sorter();
+   }
+
+   /**
+    * Builds an index and reports its size.
+    *
+    * @param args output index file, then the PGN files to index
+    */
+   public static void main(String[] args) {
+      if (args.length < 2) {
+         System.out.println("Usage: index <output index> <input PGN>...");
+         return;
+      }
+      try {
+         List<Path> inputs = new ArrayList<>();
+         for (int i = 1; i < args.length; i++) {
+            inputs.add(Path.of(args[i]));
+         }
+         long start = System.nanoTime();
+         long[] counts = build(inputs, Path.of(args[0]));
+         System.out.printf("%d %s (%d skipped as invalid), %d %s, %d %s, %d bytes in %.3f s%n",
+                           counts[0], counts[0] == 1 ? "game" : "games", counts[1],
+                           counts[2], counts[2] == 1 ? "position" : "positions",
+                           counts[3], counts[3] == 1 ? "material balance" : "material balances",
+                           Files.size(Path.of(args[0])), (System.nanoTime() - start) / 1e9);
+      } catch (IOException e) {
+         System.out.println("Could not build the index: " + e.getMessage());
+      }
+   }
+
+   /**
+    * Builds an index of every valid game of some PGN files, numbered from 1
+    * across the files in order.
+    *
+    * @param inputs PGN files
+    * @param output index file
+    *
+    * @return counts of games, invalid games skipped, distinct positions and
+    *         distinct material balances
+    * @throws IOException if a file cannot be read or written
+    */
+   public static long[] build(List<Path> inputs, Path output) throws IOException {
+      PositionIndexBuilder builder = new PositionIndexBuilder(output.toAbsolutePath().getParent());
+      List<Path> temporary = new ArrayList<>();
+      try {
+         long games = 0, invalid = 0;
+         PGN.Game game = new PGN.Game();
+         Position position = new Position();
+         int[] moves = new int[MoveGenerator.MAX_MOVES];
+         for (Path input : inputs) {
+            try (PGN.Reader in = new PGN.Reader(new InputStreamReader(Files.newInputStream(input), StandardCharsets.UTF_8))) {
+               while (in.next(game)) {
+                  games++;
+                  if (games > Integer.MAX_VALUE) throw new IOException("Too many games to index");
+                  if (PGN.replay(game, position, moves) != PGN.VALID) {
+                     invalid++;
+                     continue;
+                  }
+                  builder.add(game, position, (int) games);
+               }
+            }
+         }
+
+         // each section is merged into files of its own, then all are joined behind the header
+         Path positionDirectory = builder.temporaryFile(temporary, ".dir");
+         Path materialDirectory = builder.temporaryFile(temporary, ".dir");
+         Path postings = builder.temporaryFile(temporary, ".postings");
+         long positionKeys, materialKeys;
+         try (DataOutputStream lists = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(postings), 1 << 16))) {
+            positionKeys = builder.positions.merge(builder, positionDirectory, lists);
+            materialKeys = builder.materials.merge(builder, materialDirectory, lists);
+         }
+
+         ByteBuffer header = ByteBuffer.allocate(PositionIndex.HEADER_BYTES);
+         long positionStart = PositionIndex.HEADER_BYTES;
+         long materialStart = positionStart + positionKeys * PositionIndex.ENTRY_BYTES;
+         header.putInt(PositionIndex.MAGIC).putInt(PositionIndex.VERSION).putLong(games)
+               .putLong(positionKeys).putLong(positionStart)
+               .putLong(materialKeys).putLong(materialStart)
+               .putLong(materialStart + materialKeys * PositionIndex.ENTRY_BYTES)
+               .rewind();
+         try (FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                 StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (header.hasRemaining()) {
+               out.write(header);
+            }
+            for (Path part : new Path[] {positionDirectory, materialDirectory, postings}) {
+               try (FileChannel in = FileChannel.open(part, StandardOpenOption.READ)) {
+                  for (long done = 0, size = in.size(); done < size; ) {
+                     done += in.transferTo(done, size - done, out);
+                  }
+               }
+            }
+         }
+         return new long[] {games, invalid, positionKeys, materialKeys};
+      } finally {
+         temporary.addAll(builder.positions.runs);
+         temporary.addAll(builder.materials.runs);
+         for (Path file : temporary) {
+            Files.deleteIfExists(file);
+         }
+      }
+   }
+
+   // adds every position of a replayed game, and every material balance it changed to
+   private void add(PGN.Game game, Position position, int id) throws IOException {
+      String fen = game.tag("FEN");
+      FEN.parse(fen != null ? fen : PGN.STANDARD_FEN, position);
+      positions.add(position.key(), id, this);
+      materials.add(PositionIndex.material(position), id, this);
+      for (int ply = 0; ply < game.moveCount(); ply++) {
+         position.makeMove(game.move(ply));
+         position.clearHistory(); // nothing is unmade, and keys need no history
+         positions.add(position.key(), id, this);
+         if (Move.isCapture(game.move(ply)) || Move.isPromotion(game.move(ply))) {
+            materials.add(PositionIndex.material(position), id, this);
+         }
+      }
+   }
+
+   private Path temporaryFile(List<Path> files, String suffix) throws IOException {
+      Path file = Files.createTempFile(directory, "index", suffix);
+      files.add(file);
+      return file;
+   }
+
+   // writes a variable-length integer; the number of bytes written
+   private static int writeVarLong(OutputStream out, long value) throws IOException {
+      int bytes = 1;
+      for (; (value & ~0x7FL) != 0; value >>>= 7, bytes++) {
+         out.write((int) (value & 0x7F) | 0x80);
+      }
+      out.write((int) value);
+      return bytes;
+   }
+
+   /**
+    * Pairs of key and game of one kind, sorted in runs and merged into
+    * directory entries and posting lists.
+    */
+   private static final class Sorter {
+      private final long[] keys = new long[RUN_ENTRIES];
+      private final int[] ids = new int[RUN_ENTRIES];
+      private int count;
+      final List<Path> runs = new ArrayList<>();
+
+      void add(long key, int id, PositionIndexBuilder builder) throws IOException {
+         if (count == RUN_ENTRIES) writeRun(builder);
+         keys[count] = key;
+         ids[count++] = id;
+      }
+
+      // sorts the pairs gathered, drops repeats and writes them as a run
+      private void writeRun(PositionIndexBuilder builder) throws IOException {
+         sort(0, count - 1);
+         Path run = Files.createTempFile(builder.directory, "index", ".run");
+         runs.add(run);
+         try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), 1 << 16))) {
+            for (int i = 0; i < count; i++) {
+               if (i > 0 && keys[i] == keys[i - 1] && ids[i] == ids[i - 1]) continue;
+               out.writeLong(keys[i]);
+               out.writeInt(ids[i]);
+            }
+         }
+         count = 0;
+      }
+
+      // merges the runs into directory entries and posting lists; the number of keys
+      long merge(PositionIndexBuilder builder, Path directory, DataOutputStream lists) throws IOException {
+         if (count > 0) writeRun(builder);
+         PriorityQueue<Run> heads = new PriorityQueue<>();
+         try (DataOutputStream entries = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(directory), 1 << 16))) {
+            for (Path path : runs) {
+               Run run = new Run(path);
+               if (run.next()) {
+                  heads.add(run);
+               } else {
+                  run.close();
+               }
+            }
+
+            long written = 0;
+            int[] games = new int[64];
+            while (!heads.isEmpty()) {
+               // gather one key's games from every run, in order, dropping repeats
+               long key = heads.peek().key;
+               int gameCount = 0;
+               while (!heads.isEmpty() && heads.peek().key == key) {
+                  Run run = heads.poll();
+                  if (gameCount == 0 || games[gameCount - 1] != run.id) {
+                     if (gameCount == games.length) games = Arrays.copyOf(games, gameCount * 2);
+                     games[gameCount++] = run.id;
+                  }
+                  if (run.next()) {
+                     heads.add(run);
+                  } else {
+                     run.close();
+                  }
+               }
+
+               entries.writeLong(key);
+               if (gameCount == 1) {
+                  entries.writeLong((long) games[0] << 1 | 1);
+               } else {
+                  entries.writeLong(builder.postingBytes << 1);
+                  builder.postingBytes += writeVarLong(lists, gameCount);
+                  for (int i = 0, previous = 0; i < gameCount; previous = games[i++]) {
+                     builder.postingBytes += writeVarLong(lists, games[i] - previous);
+                  }
+               }
+               written++;
+            }
+            return written;
+         } finally {
+            for (Run run : heads) {
+               run.close();
+            }
+         }
+      }
+
+      // quicksort of the pairs by key (unsigned) and game, with insertion sort for short ranges
+      private void sort(int low, int high) {
+         while (high - low > 16) {
+            int middle = (low + high) >>> 1;
+            long pivotKey = keys[middle];
+            int pivotId = ids[middle];
+            int i = low, j = high;
+            while (i <= j) {
+               while (compare(keys[i], ids[i], pivotKey, pivotId) < 0) i++;
+               while (compare(keys[j], ids[j], pivotKey, pivotId) > 0) j--;
+               if (i <= j) swap(i++, j--);
+            }
+            // recurse into the smaller side, loop on the larger
+            if (j - low < high - i) {
+               sort(low, j);
+               low = i;
+            } else {
+               sort(i, high);
+               high = j;
+            }
+         }
+         for (int i = low + 1; i <= high; i++) {
+            for (int j = i; j > low && compare(keys[j], ids[j], keys[j - 1], ids[j - 1]) < 0; j--) {
+               swap(j, j - 1);
+            }
+         }
+      }
+
+      private static int compare(long key, int id, long otherKey, int otherId) {
+         int byKey = Long.compareUnsigned(key, otherKey);
+         return byKey != 0 ? byKey : Integer.compare(id, otherId);
+      }
+
+      private void swap(int i, int j) {
+         long key = keys[i];
+         int id = ids[i];
+         keys[i] = keys[j];
+         ids[i] = ids[j];
+         keys[j] = key;
+         ids[j] = id;
+      }
+   }
+
+   /**
+    * A run being merged, at its current pair.
+    */
+   private static final class Run implements Comparable<Run> {
+      private final DataInputStream in;
+      long key;
+      int id;
+
+      Run(Path path) throws IOException {
+         in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16));
+      }
+
+      // moves to the next pair; false at the end of the run
+      boolean next() throws IOException {
+         try {
+            key = in.readLong();
+            id = in.readInt();
+            return true;
+         } catch (EOFException e) {
+            return false;
+         }
+      }
+
+      void close() throws IOException {
+         in.close();
+      }
+
+      @Override
+      public int compareTo(Run other) {
+         int byKey = Long.compareUnsigned(key, other.key);
+         return byKey != 0 ? byKey : Integer.compare(id, other.id);
+      }
+   }
+}
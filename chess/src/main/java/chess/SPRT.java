@@ -0,0 +1,145 @@
+package chess;
+
+/**
+ * Running statistics of a match between two engines: the Elo difference
+ * with its error margin, and a
+ * <a href="https://www.chessprogramming.org/Sequential_Probability_Ratio_Test">sequential
+ * probability ratio test</a> of whether the first engine is stronger,
+ * stopping as soon as the games played settle it either way.
+ * <p>
+ * The test weighs hypothesis H0, that the first engine is {@code elo0}
+ * stronger, against H1, that it is {@code elo1} stronger, by the log
+ * likelihood ratio (LLR) of the games' scores under each, taken as normally
+ * distributed with the variance of the wins, draws and losses seen so far.
+ * H1 is accepted once the LLR reaches {@code ln((1 - beta) / alpha)} and H0
+ * once it falls to {@code ln(beta / (1 - alpha))}; alpha and beta are the
+ * chances of accepting the wrong one.
+ * <br>
+ * Games are added from any number of threads.
+ * @see Match
+ * @author wcaine
+ */
+public final class SPRT {
+   /**
+    * States of the test: neither hypothesis accepted yet, or one of them.
+    */
+   public static final int CONTINUE = 0, ACCEPT_H0 = 1, ACCEPT_H1 = 2;
+
+   private static final double Z95 = 1.959964; // normal quantile of a 95% two-sided interval
+
+   private final double elo0, elo1;
+   private final double lower, upper; // LLR bounds
+   private long wins, draws, losses; // of the first engine
+
+
+   /**
+    * @param elo0 Elo difference of H0
+    * @param elo1 Elo difference of H1, above {@code elo0}
+    * @param alpha chance of accepting H1 when H0 holds
+    * @param beta chance of accepting H0 when H1 holds
+    */
+   public SPRT(double elo0, double elo1, double alpha, double beta) {
+      if (!(elo1 > elo0) || !(alpha > 0 && alpha < 1) || !(beta > 0 && beta < 1)) {
+         throw new IllegalArgumentException("SPRT needs elo1 above elo0, and alpha and beta between 0 and 1");
+      }
+      this.elo0 = elo0;
+      this.elo1 = elo1;
+      this.lower = Math.log(beta / (1 - alpha));
+      this.upper = Math.log((1 - beta) / alpha);
+   }
+
+   /**
+    * Adds a game's result.
+    *
+    * @param points the first engine's score in half points: 2 for a win, 1
+    *               for a draw, 0 for a loss
+    */
+   public synchronized void add(int points) {
+      switch (points) {
+         case 2 -> wins++;
+         case 1 -> draws++;
+         default -> losses++;
+      }
+   }
+
+   /**
+    * @return games added
+    */
+   public synchronized long games() {
+      return wins + draws + losses;
+   }
+
+   /**
+    * @return log likelihood ratio of H1 against H0, 0 until both a win or
+    *         draw and a loss or draw have been seen
+    */
+   public synchronized double llr() {
+      long games = wins + draws + losses;
+      if (games == 0) return 0;
+      double score = score(), variance = variance(score);
+      if (variance == 0) return 0;
+      double score0 = expectedScore(elo0), score1 = expectedScore(elo1);
+      return games * (score1 - score0) * (2 * score - score0 - score1) / (2 * variance);
+   }
+
+   /**
+    * @return {@link #CONTINUE}, {@link #ACCEPT_H0} or {@link #ACCEPT_H1}
+    */
+   public synchronized int status() {
+      double llr = llr();
+      return llr >= upper ? ACCEPT_H1 : llr <= lower ? ACCEPT_H0 : CONTINUE;
+   }
+
+   /**
+    * @return the first engine's Elo advantage, estimated from its score;
+    *         infinite if it won or lost every game
+    */
+   public synchronized double elo() {
+      return elo(score());
+   }
+
+   /**
+    * @return half the width of the 95% interval around {@link #elo}, NaN
+    *         with no games
+    */
+   public synchronized double eloMargin() {
+      long games = wins + draws + losses;
+      if (games == 0) return Double.NaN;
+      double score = score(), deviation = Math.sqrt(variance(score) / games);
+      return (elo(Math.min(score + Z95 * deviation, 1)) - elo(Math.max(score - Z95 * deviation, 0))) / 2;
+   }
+
+   /**
+    * @return the results and statistics on one line, e.g.
+    *         "W 120 D 260 L 100 | Elo 14.5 +/- 21.3 | LLR 1.12 (-2.94, 2.94) [0, 5]"
+    */
+   public synchronized String summary() {
+      return String.format("W %d D %d L %d | Elo %.1f +/- %.1f | LLR %.2f (%.2f, %.2f) [%s, %s]",
+                           wins, draws, losses, elo(), eloMargin(), llr(), lower, upper, number(elo0), number(elo1));
+   }
+
+   // the first engine's mean score per game, 0 to 1
+   private double score() {
+      long games = wins + draws + losses;
+      return games == 0 ? 0.5 : (wins + draws * 0.5) / games;
+   }
+
+   // variance of one game's score about the mean
+   private double variance(double score) {
+      long games = wins + draws + losses;
+      return (wins * (1 - score) * (1 - score) + draws * (0.5 - score) * (0.5 - score) + losses * score * score) / games;
+   }
+
+   // mean score against an opponent weaker by an Elo difference
+   private static double expectedScore(double elo) {
+      return 1 / (1 + Math.pow(10, -elo / 400));
+   }
+
+   private static double elo(double score) {
+      return -400 * Math.log10(1 / score - 1);
+   }
+
+   private static String number(double value) {
+      return value == Math.rint(value) ? Long.toString((long) value) : Double.toString(value);
+   }
+}
@@ -0,0 +1,389 @@
+package chess;
+
+/**
+ * Chooses moves for the computer player with a negamax
+ * <a href="https://www.chessprogramming.org/Alpha-Beta">alpha-beta</a> search,
+ * deepened one ply at a time until its time budget runs out, and finished with
+ * a quiescence search over captures so positions are only scored once
+ * exchanges settle.
+ * <br>
+ * Positions already searched are cached in a {@link TranspositionTable},
+ * which may be shared with other searches; its best move is tried first and
+ * its scores cut the search short where deep enough.
+ * <br>
+ * Positions covered by the endgame {@link Tablebases}, if set, are scored
+ * from them rather than searched, and at the root the tablebases choose the
+ * move outright.
+ * <br>
+ * Moves are otherwise tried in order of the previous iteration's best move, captures by
+ * most valuable victim and least valuable attacker (MVV-LVA), two killer moves
+ * per ply, then quiet moves by their history of causing cutoffs.
+ * <p>
+ * A search instance reuses its move lists and tables between moves and is
+ * not thread-safe; after each search {@link #depth}, {@link #nodes} and
+ * {@link #nodesPerSecond} describe the work done. To search on several
+ * threads, see {@link SearchPool}.
+ * @see Evaluation
+ * @author wcaine
+ */
+public class Search {
+   /**
+    * Deepest search, in plies, including quiescence.
+    */
+   public static final int MAX_PLY = 128;
+   /**
+    * Scores of mate at the root; mate in n plies scores {@code MATE - n}.
+    */
+   public static final int INFINITY = 32000, MATE = 31000;
+
+   private static final int KILLER_SCORE = 1 << 20, CAPTURE_SCORE = 1 << 24, BEST_SCORE = 1 << 28;
+
+   private final TranspositionTable table;
+   private final Evaluation evaluation = new Evaluation(); // with its own pawn cache
+   private final int[][] moves = new int[MAX_PLY][MoveGenerator.MAX_MOVES];
+   private final int[][] moveScores = new int[MAX_PLY][MoveGenerator.MAX_MOVES];
+   private final int[][] killers = new int[MAX_PLY][2];
+   private final int[][] history = new int[12][64]; // by piece code and end square
+
+   private volatile boolean stopped;
+   private long deadline;
+   private long nodes;
+   private long elapsedNanos;
+   private int depth;
+   private int score;
+   private int bestMove;
+   private int rootBest; // best move of the iteration in progress
+   private Listener listener;
+   private Tablebases tablebases; // endgames looked up rather than searched, if any
+
+   /**
+    * Receives the result of each iteration as soon as it finishes, on the
+    * searching thread; for progress reports such as UCI {@code info} lines.
+    */
+   @FunctionalInterface
+   public interface Listener {
+      /**
+       * @param depth depth of the iteration, in plies
+       * @param score its score, in centipawns for the color to move
+       * @param move its best move
+       */
+      void iterationFinished(int depth, int score, int move);
+   }
+
+
+   /**
+    * @param table cache of searched positions, which may be shared with other searches
+    */
+   public Search(TranspositionTable table) {
+      this.table = table;
+   }
+
+   /**
+    * Searches a position and returns the best move found. The position is
+    * left unchanged.
+    *
+    * @param position position to search
+    * @param millis time budget in milliseconds
+    * @param maxDepth deepest iteration to start, in plies
+    *
+    * @return best move, or {@link Move#NONE} if the position has no legal moves
+    */
+   public int think(Position position, long millis, int maxDepth) {
+      stopped = false;
+      table.newSearch();
+      return think(position, millis, maxDepth, 1);
+   }
+
+   /**
+    * Searches as in {@link #think(Position, long, int)}, starting from a given
+    * depth, without starting a new search in the table or clearing a stop
+    * requested beforehand; for searches run by a {@link SearchPool}.
+    *
+    * @param firstDepth first iteration's depth, in plies
+    */
+   int think(Position position, long millis, int maxDepth, int firstDepth) {
+      long start = System.nanoTime();
+      deadline = start + millis * 1_000_000L;
+      nodes = 0;
+      depth = 0;
+      score = 0;
+      bestMove = Move.NONE;
+      for (int[] plyKillers : killers) {
+         plyKillers[0] = plyKillers[1] = Move.NONE;
+      }
+      for (int[] pieceHistory : history) {
+         java.util.Arrays.fill(pieceHistory, 0);
+      }
+
+      // an endgame in the tablebases needs no search at all
+      if (tablebases != null && Long.bitCount(position.occupied) <= tablebases.maxPieces()) {
+         int move = tablebases.bestMove(position);
+         if (move != Move.NONE) {
+            depth = 1;
+            score = tablebases.score(position, 0);
+            bestMove = move;
+            if (listener != null) listener.iterationFinished(depth, score, bestMove);
+            elapsedNanos = System.nanoTime() - start;
+            return bestMove;
+         }
+      }
+
+      for (int d = Math.min(firstDepth, maxDepth); d <= Math.min(maxDepth, MAX_PLY - 1); d++) {
+         int iterationScore = search(position, d, -INFINITY, INFINITY, 0);
+         if (stopped) break;
+
+         depth = d;
+         score = iterationScore;
+         bestMove = rootBest;
+         if (listener != null) listener.iterationFinished(depth, score, bestMove);
+
+         // a mate found needs no deeper search, and the next iteration
+         // would likely not finish in the time left
+         if (Math.abs(score) >= MATE - MAX_PLY) break;
+         if (System.nanoTime() - start > (deadline - start) / 2) break;
+      }
+
+      // even if no iteration finished, a legal move must be played
+      if (bestMove == Move.NONE && MoveGenerator.generate(position, moves[0]) > 0) bestMove = moves[0][0];
+
+      elapsedNanos = System.nanoTime() - start;
+      Metrics.NODES.add(nodes);
+      return bestMove;
+   }
+
+   /**
+    * Stops a search in progress; {@link #think} then returns the best move of
+    * the last finished iteration.
+    */
+   public void stop() {
+      stopped = true;
+   }
+
+   /**
+    * @param listener receiver of each finished iteration, or null for none
+    */
+   public void setListener(Listener listener) {
+      this.listener = listener;
+   }
+
+   /**
+    * @param tablebases endgame tablebases to look positions up in, or null for none
+    */
+   public void setTablebases(Tablebases tablebases) {
+      this.tablebases = tablebases;
+   }
+
+   /**
+    * Clears a previous stop, before a {@link SearchPool} starts this search;
+    * see {@link SearchPool#prepare}.
+    */
+   void prepare() {
+      stopped = false;
+   }
+
+   private int search(Position position, int depth, int alpha, int beta, int ply) {
+      if (depth <= 0) return quiesce(position, alpha, beta, ply);
+      if (++nodes % 2048 == 0 && System.nanoTime() > deadline) stopped = true;
+      if (stopped) return 0;
+
+      if (ply > 0 && (position.halfmove >= 100 || position.isRepetition())) return 0;
+      if (ply >= MAX_PLY - 1) return evaluation.evaluate(position);
+
+      // a position in the tablebases has its exact score
+      if (tablebases != null && ply > 0 && Long.bitCount(position.occupied) <= tablebases.maxPieces()) {
+         int tablebaseScore = tablebases.score(position, ply);
+         if (tablebaseScore != Tablebases.NO_SCORE) return tablebaseScore;
+      }
+
+      // a stored result searched at least as deep can stand in for this search
+      long entry = table.probe(position.key);
+      int hashMove = TranspositionTable.move(entry);
+      if (entry != 0 && ply > 0 && TranspositionTable.depth(entry) >= depth) {
+         int hashScore = fromTable(TranspositionTable.score(entry), ply);
+         int bound = TranspositionTable.bound(entry);
+         if (bound == TranspositionTable.EXACT
+                 || (bound == TranspositionTable.LOWER && hashScore >= beta)
+                 || (bound == TranspositionTable.UPPER && hashScore <= alpha)) {
+            return hashScore;
+         }
+      }
+
+      boolean inCheck = position.isInCheck();
+      int[] plyMoves = moves[ply];
+      int count = MoveGenerator.generate(position, plyMoves);
+      if (count == 0) return inCheck ? -MATE + ply : 0;
+
+      // look one ply further when in check, so checks cannot push threats past the horizon
+      int searchDepth = depth;
+      if (inCheck) depth++;
+
+      scoreMoves(position, ply, count, ply == 0 && bestMove != Move.NONE ? bestMove : hashMove);
+
+      int originalAlpha = alpha;
+      int best = -INFINITY, bestHere = Move.NONE;
+      for (int i = 0; i < count; i++) {
+         int move = nextMove(ply, i, count);
+         position.makeMove(move);
+         int moveScore = -search(position, depth - 1, -beta, -alpha, ply + 1);
+         position.unmakeMove(move);
+         if (stopped) return 0;
+
+         if (moveScore > best) {
+            best = moveScore;
+            bestHere = move;
+            if (ply == 0) rootBest = move;
+         }
+         if (moveScore > alpha) alpha = moveScore;
+         if (alpha >= beta) {
+            if (!Move.isCapture(move) && !Move.isPromotion(move)) {
+               // remember quiet moves that refute, for this ply and in general
+               if (killers[ply][0] != move) {
+                  killers[ply][1] = killers[ply][0];
+                  killers[ply][0] = move;
+               }
+               history[position.board[Move.from(move)]][Move.to(move)] += depth * depth;
+            }
+            break;
+         }
+      }
+
+      int bound = best >= beta ? TranspositionTable.LOWER
+                : best > originalAlpha ? TranspositionTable.EXACT : TranspositionTable.UPPER;
+      table.store(position.key, bestHere, toTable(best, ply), searchDepth, bound);
+      return best;
+   }
+
+   // mate scores are stored relative to the position rather than the root, so
+   // they stay correct when the position is reached at another ply
+   private static int toTable(int score, int ply) {
+      return score >= MATE - MAX_PLY ? score + ply : score <= -MATE + MAX_PLY ? score - ply : score;
+   }
+
+   private static int fromTable(int score, int ply) {
+      return score >= MATE - MAX_PLY ? score - ply : score <= -MATE + MAX_PLY ? score + ply : score;
+   }
+
+   private int quiesce(Position position, int alpha, int beta, int ply) {
+      if (++nodes % 2048 == 0 && System.nanoTime() > deadline) stopped = true;
+      if (stopped) return 0;
+      if (ply >= MAX_PLY - 1) return evaluation.evaluate(position);
+
+      // when in check every evasion is searched, otherwise the side to move may
+      // stand pat rather than capture
+      boolean inCheck = position.isInCheck();
+      int best = -INFINITY;
+      if (!inCheck) {
+         best = evaluation.evaluate(position);
+         if (best >= beta) return best;
+         if (best > alpha) alpha = best;
+      }
+
+      int[] plyMoves = moves[ply];
+      int count = inCheck ? MoveGenerator.generate(position, plyMoves) : MoveGenerator.generateCaptures(position, plyMoves);
+      if (inCheck && count == 0) return -MATE + ply;
+
+      scoreMoves(position, ply, count, Move.NONE);
+
+      for (int i = 0; i < count; i++) {
+         int move = nextMove(ply, i, count);
+         position.makeMove(move);
+         int moveScore = -quiesce(position, -beta, -alpha, ply + 1);
+         position.unmakeMove(move);
+         if (stopped) return 0;
+
+         if (moveScore > best) best = moveScore;
+         if (moveScore > alpha) alpha = moveScore;
+         if (alpha >= beta) break;
+      }
+
+      return best;
+   }
+
+   private void scoreMoves(Position position, int ply, int count, int firstMove) {
+      int[] plyMoves = moves[ply], scores = moveScores[ply];
+      for (int i = 0; i < count; i++) {
+         int move = plyMoves[i];
+         int attacker = position.board[Move.from(move)];
+         if (move == firstMove) {
+            scores[i] = BEST_SCORE;
+         } else if (Move.isCapture(move) || Move.isPromotion(move)) {
+            // most valuable victim first, then least valuable attacker
+            int victim = Move.flags(move) == Move.EP_CAPTURE ? Position.PAWN : position.board[Move.to(move)] % 6;
+            scores[i] = CAPTURE_SCORE
+                      + (Move.isCapture(move) ? Evaluation.VALUE[victim] * 8 : 0)
+                      + (Move.isPromotion(move) ? Evaluation.VALUE[Move.promotion(move)] * 8 : 0)
+                      - attacker % 6;
+         } else if (move == killers[ply][0] || move == killers[ply][1]) {
+            scores[i] = KILLER_SCORE + (move == killers[ply][0] ? 1 : 0);
+         } else {
+            scores[i] = Math.min(history[attacker][Move.to(move)], KILLER_SCORE - 1);
+         }
+      }
+   }
+
+   // selection sort one step at a time; a cutoff usually comes before the list is sorted
+   private int nextMove(int ply, int index, int count) {
+      int[] plyMoves = moves[ply], scores = moveScores[ply];
+      int best = index;
+      for (int i = index + 1; i < count; i++) {
+         if (scores[i] > scores[best]) best = i;
+      }
+
+      int move = plyMoves[best], moveScore = scores[best];
+      plyMoves[best] = plyMoves[index];
+      scores[best] = scores[index];
+      plyMoves[index] = move;
+      scores[index] = moveScore;
+      return move;
+   }
+
+   /**
+    * @return deepest iteration finished by the last search
+    */
+   public int depth() {
+      return depth;
+   }
+
+   /**
+    * @return score of the last search's best move, in centipawns for the color to move
+    */
+   public int score() {
+      return score;
+   }
+
+   /**
+    * @return positions visited by the last search
+    */
+   public long nodes() {
+      return nodes;
+   }
+
+   /**
+    * @return time taken by the last search, in nanoseconds
+    */
+   public long elapsedNanos() {
+      return elapsedNanos;
+   }
+
+   /**
+    * @return positions visited per second by the last search
+    */
+   public long nodesPerSecond() {
+      return elapsedNanos == 0 ? 0 : nodes * 1_000_000_000L / elapsedNanos;
+   }
+
+   /**
+    * @return the cache of searched positions
+    */
+   public TranspositionTable table() {
+      return table;
+   }
+
+   /**
+    * @return depth, nodes and nodes per second of the last search, and the
+    *         state of its table, for display
+    */
+   public String report() {
+      return "Depth " + depth + ", " + nodes + " nodes, " + nodesPerSecond() + " nodes/s. " + table.report();
+   }
+}
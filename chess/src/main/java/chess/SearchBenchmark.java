@@ -0,0 +1,65 @@
+package chess;
+
+/**
+ * Measures how the {@link SearchPool} scales with threads: searches a fixed
+ * suite of positions to a fixed depth with 1, 2, 4, ... threads (up to the
+ * number of processors, or a given maximum) and reports nodes per second and
+ * time to depth for each thread count, with the speedup over one thread.
+ * <br>
+ * Run from the command line with {@code ChessPlayer smpbench [depth] [max threads]}.
+ * @author wcaine
+ */
+public final class SearchBenchmark {
+
+   private static final String[] SUITE = {
+      "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+      "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+      "r4rk1/1pp1qppp/p1np1n2/2b1p1B1/2B1P1b1/P1NP1N2/1PP1QPPP/R4RK1 w - - 0 10",
+      "r1bq1rk1/pp2ppbp/2np1np1/8/3NP3/2N1BP2/PPPQ2PP/R3KB1R w KQ - 3 9",
+      "r2q1rk1/pP1p2pp/Q4n2/bbp1p3/Np6/1B3NBn/pPPP1PPP/R3K2R b KQ - 0 1",
+      "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1"
+   };
+   private static final int DEFAULT_DEPTH = 8;
+   private static final int HASH_MEGABYTES = 64;
+   private static final long NO_TIME_LIMIT = 1_000_000_000L; // milliseconds
+
+   private SearchBenchmark() {
+   }
+
+   /**
+    * Runs the benchmark.
+    *
+    * @param args optional depth, then optional maximum thread count
+    */
+   public static void main(String[] args) {
+      int depth = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_DEPTH;
+      int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+      TranspositionTable table = new TranspositionTable(HASH_MEGABYTES);
+      double baseNanos = 0;
+      for (int threads = 1; threads <= maxThreads; threads = threads < maxThreads ? Math.min(threads * 2, maxThreads) : threads + 1) {
+         SearchPool pool = new SearchPool(table, threads);
+         long totalNodes = 0, totalNanos = 0;
+
+         System.out.println(threads + (threads == 1 ? " thread:" : " threads:"));
+         for (String fen : SUITE) {
+            // every position starts from an empty table, so runs are comparable
+            table.clear();
+            Position position = Position.fromFEN(fen);
+            pool.prepare();
+            int move = pool.think(position, NO_TIME_LIMIT, depth);
+
+            totalNodes += pool.nodes();
+            totalNanos += pool.elapsedNanos();
+            System.out.printf("   %-72s %-6s depth %d in %.3f s, %d nodes/s%n",
+                              fen, Move.toString(move), pool.depth(), pool.elapsedNanos() / 1e9, pool.nodesPerSecond());
+         }
+         pool.shutdown();
+
+         if (threads == 1) baseNanos = totalNanos;
+         System.out.printf("   Total: %d nodes, time to depth %.3f s, %d nodes/s, speedup %.2fx%n",
+                           totalNodes, totalNanos / 1e9, totalNodes * 1_000_000_000L / Math.max(totalNanos, 1),
+                           baseNanos / totalNanos);
+      }
+   }
+}
@@ -0,0 +1,218 @@
+package chess;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a {@link Search} on several threads at once in the
+ * <a href="https://www.chessprogramming.org/Lazy_SMP">Lazy SMP</a> style: every
+ * thread searches the same position on its own copy, and they help each other
+ * only through the {@link TranspositionTable} they share. Half of the helper
+ * threads start one ply deeper so they fill the table ahead of the main
+ * search.
+ * <br>
+ * The main search runs on the calling thread and decides the move; helpers
+ * are stopped as soon as it finishes. With a single thread no helpers exist,
+ * so a search to a fixed depth gives the same result on every run.
+ * @see SearchBenchmark
+ * @author wcaine
+ */
+public class SearchPool {
+
+   private final TranspositionTable table;
+   private final Search[] searches; // searches[0] is the main search
+   private final Position[] positions; // helper copies of the position searched
+   private final Future<?>[] futures;
+   private final ExecutorService helpers; // null with a single thread
+
+   private long nodes;
+   private long elapsedNanos;
+
+
+   /**
+    * @param table cache of searched positions, shared by every thread
+    * @param threads number of search threads, at least 1
+    */
+   public SearchPool(TranspositionTable table, int threads) {
+      threads = Math.max(threads, 1);
+      this.table = table;
+      this.searches = new Search[threads];
+      this.positions = new Position[threads];
+      this.futures = new Future<?>[threads];
+      for (int i = 0; i < threads; i++) {
+         searches[i] = new Search(table);
+         positions[i] = new Position();
+      }
+
+      this.helpers = threads == 1 ? null : Executors.newFixedThreadPool(threads - 1, task -> {
+         Thread thread = new Thread(task, "search-helper");
+         thread.setDaemon(true);
+         return thread;
+      });
+   }
+
+   /**
+    * Clears the stop of a previous search, ready for the next {@link #think}.
+    * Called on the thread that may {@linkplain #stop stop} the search, before
+    * it starts, so that a stop requested before the search threads get going
+    * is not lost.
+    */
+   public void prepare() {
+      for (Search search : searches) {
+         search.prepare();
+      }
+   }
+
+   /**
+    * Searches a position on every thread and returns the main search's best
+    * move, stopping at once if stopped since the last {@link #prepare}. The
+    * position is left unchanged.
+    * @see Search#think(Position position, long millis, int maxDepth)
+    *
+    * @param position position to search
+    * @param millis time budget in milliseconds
+    * @param maxDepth deepest iteration to start, in plies
+    *
+    * @return best move, or {@link Move#NONE} if the position has no legal moves
+    */
+   public int think(Position position, long millis, int maxDepth) {
+      long start = System.nanoTime();
+      table.newSearch();
+
+      for (int i = 1; i < searches.length; i++) {
+         Search helper = searches[i];
+         Position copy = positions[i];
+         int firstDepth = 1 + (i & 1);
+         copy.copyFrom(position);
+         futures[i] = helpers.submit(() -> helper.think(copy, millis, maxDepth, firstDepth));
+      }
+
+      int move = searches[0].think(position, millis, maxDepth, 1);
+
+      // the main search decides; helpers are only useful while it runs
+      for (int i = 1; i < searches.length; i++) {
+         searches[i].stop();
+      }
+      nodes = searches[0].nodes();
+      for (int i = 1; i < searches.length; i++) {
+         try {
+            futures[i].get();
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+         } catch (ExecutionException e) {
+            throw new IllegalStateException("Search helper failed", e.getCause());
+         }
+         nodes += searches[i].nodes();
+      }
+
+      elapsedNanos = System.nanoTime() - start;
+      if (Metrics.isEnabled()) Metrics.SEARCH.record(elapsedNanos);
+      return move;
+   }
+
+   /**
+    * Stops a search in progress on every thread.
+    */
+   public void stop() {
+      for (Search search : searches) {
+         search.stop();
+      }
+   }
+
+   /**
+    * Reports each iteration finished by the main search, which decides the move.
+    *
+    * @param listener receiver of each finished iteration, or null for none
+    */
+   public void setListener(Search.Listener listener) {
+      searches[0].setListener(listener);
+   }
+
+   /**
+    * @param tablebases endgame tablebases every thread looks positions up in, or null for none
+    */
+   public void setTablebases(Tablebases tablebases) {
+      for (Search search : searches) {
+         search.setTablebases(tablebases);
+      }
+   }
+
+   /**
+    * @return positions visited by all threads so far in the search in
+    *         progress, as last seen from the calling thread
+    */
+   public long nodesSearched() {
+      long total = 0;
+      for (Search search : searches) {
+         total += search.nodes();
+      }
+      return total;
+   }
+
+   /**
+    * Ends the helper threads; the pool cannot search on more than one thread afterwards.
+    */
+   public void shutdown() {
+      if (helpers != null) helpers.shutdownNow();
+   }
+
+   /**
+    * @return number of search threads
+    */
+   public int threads() {
+      return searches.length;
+   }
+
+   /**
+    * @return the cache of searched positions shared by every thread
+    */
+   public TranspositionTable table() {
+      return table;
+   }
+
+   /**
+    * @return deepest iteration finished by the main search
+    */
+   public int depth() {
+      return searches[0].depth();
+   }
+
+   /**
+    * @return score of the last search's best move, in centipawns for the color to move
+    */
+   public int score() {
+      return searches[0].score();
+   }
+
+   /**
+    * @return positions visited by all threads in the last search
+    */
+   public long nodes() {
+      return nodes;
+   }
+
+   /**
+    * @return time taken by the last search, in nanoseconds
+    */
+   public long elapsedNanos() {
+      return elapsedNanos;
+   }
+
+   /**
+    * @return positions visited per second by all threads in the last search
+    */
+   public long nodesPerSecond() {
+      return elapsedNanos == 0 ? 0 : nodes * 1_000_000_000L / elapsedNanos;
+   }
+
+   /**
+    * @return depth, nodes and nodes per second of the last search, and the
+    *         state of its table, for display
+    */
+   public String report() {
+      return "Depth " + depth() + ", " + nodes + " nodes, " + nodesPerSecond() + " nodes/s"
+           + (searches.length > 1 ? " on " + searches.length + " threads. " : ". ") + table.report();
+   }
+}
@@ -0,0 +1,426 @@
+package chess;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * One endgame tablebase: the result with best play, and the distance to
+ * mate, of every position with a given set of pieces, either color to move.
+ * Tables are made by {@link TablebaseGenerator} and probed through
+ * {@link Tablebases}.
+ * <p>
+ * A table is named after its pieces, the stronger side's first, as
+ * {@code KQvKR}; the same table serves positions with the colors the other
+ * way round. Positions are indexed by the white king's square, reduced by
+ * symmetry to the 10 squares of the a1-d1-d4 triangle (or, with pawns on the
+ * board, to files a to d), then every other piece's square, then the color
+ * to move. Castling is never possible in a table, and en passant captures
+ * are looked up one move further on.
+ * <br>
+ * The file holds a 16-byte header (magic number, pieces, number of
+ * positions), then a WDL section of 2 bits per position (0 draw, 1 win,
+ * 2 loss, for the color to move), compact enough to stay in memory for
+ * searching, then a DTM section of a byte per position: 0 for a draw, or
+ * the plies to mate plus one, odd plies to mate being wins for the color to
+ * move and even ones losses (0 is being mated). Both are memory-mapped.
+ * The fifty-move rule is not taken into account.
+ * @author wcaine
+ */
+public final class Tablebase {
+
+   /**
+    * Most pieces, kings included, that tables are made for.
+    */
+   public static final int MAX_PIECES = 5;
+
+   static final int MAGIC = 0x43485442; // "CHTB"
+   static final int HEADER_BYTES = 16;
+   static final int WIN = 1, LOSS = 2; // WDL section codes; 0 is a draw
+
+   private static final String TYPE_LETTERS = "PNBRQ";
+
+   // king squares by index and indexes by square: the a1-d1-d4 triangle, and files a to d
+   private static final int[] TRIANGLE_SQUARES = {0, 1, 2, 3, 9, 10, 11, 18, 19, 27};
+   private static final int[] HALF_SQUARES = new int[32];
+   private static final int[] TRIANGLE_INDEX = new int[64], HALF_INDEX = new int[64];
+   static {
+      java.util.Arrays.fill(TRIANGLE_INDEX, -1);
+      java.util.Arrays.fill(HALF_INDEX, -1);
+      for (int i = 0; i < TRIANGLE_SQUARES.length; i++) {
+         TRIANGLE_INDEX[TRIANGLE_SQUARES[i]] = i;
+      }
+      for (int i = 0; i < HALF_SQUARES.length; i++) {
+         HALF_SQUARES[i] = (i >>> 2) * 8 + (i & 3);
+         HALF_INDEX[HALF_SQUARES[i]] = i;
+      }
+   }
+
+   private final int material;
+   private final boolean pawns;
+   private final int[] order; // piece codes indexed after the kings: white's from queen to pawn, then black's
+   private final long positions;
+   private final ByteBuffer data; // the mapped file; null while the table is being generated
+
+
+   private Tablebase(int material, ByteBuffer data) {
+      this.material = material;
+      this.pawns = (material & (7 | 7 << 15)) != 0;
+      this.order = new int[pieceCount(material) - 2];
+      int at = 0;
+      for (int color = Position.WHITE; color <= Position.BLACK; color++) {
+         for (int type = Position.QUEEN; type >= Position.PAWN; type--) {
+            for (int i = 0; i < count(material, color, type); i++) {
+               order[at++] = color * 6 + type;
+            }
+         }
+      }
+      this.positions = (long) (pawns ? HALF_SQUARES.length : TRIANGLE_SQUARES.length) << (6 * order.length + 7);
+      this.data = data;
+   }
+
+   /**
+    * A table's layout, without its data, for generating it.
+    *
+    * @param material pieces of the table, see {@link #material(Position)}; must be {@linkplain #canonical canonical}
+    */
+   static Tablebase layout(int material) {
+      return new Tablebase(material, null);
+   }
+
+   /**
+    * Maps a table file; the mapping lasts as long as the table is reachable.
+    *
+    * @param file table file
+    *
+    * @return the table
+    * @throws IOException if the file cannot be read or is not a whole table
+    */
+   static Tablebase open(Path file) throws IOException {
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+         long size = channel.size();
+         if (size < HEADER_BYTES || size > Integer.MAX_VALUE) throw new IOException(file + " is not a tablebase");
+         ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+         int material = data.getInt(4);
+         if (data.getInt(0) != MAGIC || !canonical(material) || pieceCount(material) > MAX_PIECES) {
+            throw new IOException(file + " is not a tablebase");
+         }
+         Tablebase table = new Tablebase(material, data);
+         if (data.getLong(8) != table.positions || size != table.dtmOffset() + table.positions) {
+            throw new IOException(file + " is not a whole " + name(material) + " table");
+         }
+         return table;
+      }
+   }
+
+   /**
+    * Writes a generated table, replacing any file of the same name only
+    * once the new one is complete.
+    *
+    * @param file table file
+    * @param values DTM section, see the class description
+    * @throws IOException if the file cannot be written
+    */
+   void write(Path file, byte[] values) throws IOException {
+      Path partial = file.resolveSibling(file.getFileName() + ".partial");
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(partial), 1 << 16))) {
+         out.writeInt(MAGIC);
+         out.writeInt(material);
+         out.writeLong(values.length);
+         // four positions to a byte, the first in the low bits
+         for (int i = 0; i < values.length; i += 4) {
+            int packed = 0;
+            for (int j = 0; j < 4 && i + j < values.length; j++) {
+               packed |= wdl(values[i + j] & 0xFF) << (2 * j);
+            }
+            out.write(packed);
+         }
+         out.write(values);
+      }
+      Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+   }
+
+   /**
+    * @return pieces of the table, see {@link #material(Position)}
+    */
+   int material() {
+      return material;
+   }
+
+   /**
+    * @return number of positions indexed, legal or not
+    */
+   public long positions() {
+      return positions;
+   }
+
+   /**
+    * @return the table's name, e.g. "KQvKR"
+    */
+   public String name() {
+      return name(material);
+   }
+
+   /**
+    * Indexes a position with this table's pieces, either way round.
+    *
+    * @param position position to index, without castling ability
+    *
+    * @return its index
+    */
+   long index(Position position) {
+      boolean flip = material(position) != material;
+      int white = flip ? Position.BLACK : Position.WHITE; // color standing for white in the table
+      int mirror = flip ? 56 : 0;
+
+      int king = position.kingSquare(white) ^ mirror;
+      int transform = transform(king);
+      king = apply(king, transform);
+      long index = pawns ? HALF_INDEX[king] : TRIANGLE_INDEX[king];
+      index = index << 6 | apply(position.kingSquare(white ^ 1) ^ mirror, transform);
+      for (int i = 0; i < 2; i++) {
+         int color = white ^ i;
+         for (int type = Position.QUEEN; type >= Position.PAWN; type--) {
+            for (long bits = position.bitboard(color, type); bits != 0; bits &= bits - 1) {
+               index = index << 6 | apply(Long.numberOfTrailingZeros(bits) ^ mirror, transform);
+            }
+         }
+      }
+      return index << 1 | (position.sideToMove() ^ (flip ? 1 : 0));
+   }
+
+   /**
+    * Sets up the position of an index, as the inverse of {@link #index}.
+    *
+    * @param index index of the position
+    * @param position position to set up
+    * @param squares array of at least {@link #MAX_PIECES} elements, for scratch
+    *
+    * @return if the index stands for a legal position; if not, the position
+    *         may be left unchanged
+    */
+   boolean decode(long index, Position position, int[] squares) {
+      int side = (int) (index & 1);
+      index >>>= 1;
+      for (int i = order.length - 1; i >= 0; i--) {
+         squares[i + 2] = (int) (index & 63);
+         index >>>= 6;
+      }
+      squares[1] = (int) (index & 63);
+      squares[0] = pawns ? HALF_SQUARES[(int) (index >>> 6)] : TRIANGLE_SQUARES[(int) (index >>> 6)];
+
+      // no two pieces on one square, and no pawn on the first or last rank
+      long occupied = 0;
+      for (int i = 0; i < order.length + 2; i++) {
+         long bit = 1L << squares[i];
+         if ((occupied & bit) != 0) return false;
+         occupied |= bit;
+         if (i >= 2 && order[i - 2] % 6 == Position.PAWN && (squares[i] < 8 || squares[i] >= 56)) return false;
+      }
+
+      position.clear();
+      position.put(Position.KING, squares[0]);
+      position.put(6 + Position.KING, squares[1]);
+      for (int i = 0; i < order.length; i++) {
+         position.put(order[i], squares[i + 2]);
+      }
+      position.sideToMove = side;
+      position.key ^= position.stateKey();
+      position.updateAttacks();
+
+      // the color that just moved cannot be left in check
+      return !position.isAttacked(position.kingSquare(side ^ 1), side, position.occupied);
+   }
+
+   /**
+    * Finds the other index of a position in a table without pawns whose
+    * white king stands on the a1-h8 diagonal: the symmetry in that diagonal
+    * is not reduced, so such positions are indexed on both sides of it.
+    *
+    * @param index index of a position
+    *
+    * @return index of the position mirrored in the diagonal, or -1 if it
+    *         has no other index
+    */
+   long mirror(long index) {
+      if (pawns) return -1;
+      int kingIndex = (int) (index >>> (6 * (order.length + 1) + 1));
+      int king = TRIANGLE_SQUARES[kingIndex];
+      if (king >>> 3 != (king & 7)) return -1;
+      long mirrored = kingIndex;
+      for (int i = order.length; i >= 0; i--) {
+         int sq = (int) (index >>> (6 * i + 1)) & 63;
+         mirrored = mirrored << 6 | (sq & 7) << 3 | sq >>> 3;
+      }
+      return mirrored << 1 | (index & 1);
+   }
+
+   /**
+    * @param index index of a position
+    * @return its DTM entry: 0 for a draw, or plies to mate plus one
+    */
+   int value(long index) {
+      return data.get(dtmOffset() + (int) index) & 0xFF;
+   }
+
+   /**
+    * @param index index of a position
+    * @return its WDL entry: 0 for a draw, {@link #WIN} or {@link #LOSS}
+    */
+   int wdl(long index) {
+      return data.get(HEADER_BYTES + (int) (index >>> 2)) >>> (2 * (int) (index & 3)) & 3;
+   }
+
+   private int dtmOffset() {
+      return HEADER_BYTES + (int) ((positions + 3) >>> 2);
+   }
+
+   /**
+    * @param value DTM entry
+    * @return its WDL entry
+    */
+   static int wdl(int value) {
+      return value == 0 ? 0 : (value & 1) == 0 ? WIN : LOSS;
+   }
+
+   // symmetry that brings the white king into the triangle (or onto files a to d):
+   // bit 0 mirrors files, bit 1 ranks, bit 2 the a1-h8 diagonal
+   private int transform(int king) {
+      int transform = 0;
+      if ((king & 7) > 3) {
+         transform |= 1;
+         king ^= 7;
+      }
+      if (pawns) return transform;
+      if (king >>> 3 > 3) {
+         transform |= 2;
+         king ^= 56;
+      }
+      if (king >>> 3 > (king & 7)) transform |= 4;
+      return transform;
+   }
+
+   private static int apply(int sq, int transform) {
+      if ((transform & 1) != 0) sq ^= 7;
+      if ((transform & 2) != 0) sq ^= 56;
+      if ((transform & 4) != 0) sq = (sq & 7) << 3 | sq >>> 3;
+      return sq;
+   }
+
+   // Material
+   /**
+    * Counts the pieces of a position other than the kings, 3 bits for each
+    * kind: white's from pawn to queen in bits 0-14, black's in bits 15-29.
+    * Counts past 7 run into the next kind, so only positions of at most
+    * {@link #MAX_PIECES} pieces have a meaningful material.
+    *
+    * @param position position to count
+    *
+    * @return its material
+    */
+   static int material(Position position) {
+      int material = 0;
+      for (int type = Position.PAWN; type <= Position.QUEEN; type++) {
+         material |= Long.bitCount(position.pieces[type]) << (3 * type)
+                   | Long.bitCount(position.pieces[6 + type]) << (15 + 3 * type);
+      }
+      return material;
+   }
+
+   /**
+    * @param material material with the colors one way round
+    * @return the same material with the colors the other way round
+    */
+   static int flip(int material) {
+      return material >>> 15 | (material & 0x7FFF) << 15;
+   }
+
+   /**
+    * Tells if a material is the way round tables are made: with white the
+    * stronger side, comparing queens, then rooks and so on down to pawns.
+    *
+    * @param material material to test
+    *
+    * @return if white's pieces are at least as strong as black's
+    */
+   static boolean canonical(int material) {
+      return (material & 0x7FFF) >= material >>> 15;
+   }
+
+   /**
+    * @param material material
+    * @param color {@link Position#WHITE} or {@link Position#BLACK}
+    * @param type piece type other than {@link Position#KING}
+    * @return number of the color's pieces of the type
+    */
+   static int count(int material, int color, int type) {
+      return material >>> (15 * color + 3 * type) & 7;
+   }
+
+   /**
+    * @param material material
+    * @return number of pieces, kings included
+    */
+   static int pieceCount(int material) {
+      int count = 2;
+      for (int color = Position.WHITE; color <= Position.BLACK; color++) {
+         for (int type = Position.PAWN; type <= Position.QUEEN; type++) {
+            count += count(material, color, type);
+         }
+      }
+      return count;
+   }
+
+   /**
+    * @param material material
+    * @return its name, e.g. "KQvKR"
+    */
+   static String name(int material) {
+      StringBuilder name = new StringBuilder(MAX_PIECES + 1);
+      for (int color = Position.WHITE; color <= Position.BLACK; color++) {
+         if (color == Position.BLACK) name.append('v');
+         name.append('K');
+         for (int type = Position.QUEEN; type >= Position.PAWN; type--) {
+            for (int i = 0; i < count(material, color, type); i++) {
+               name.append(TYPE_LETTERS.charAt(type));
+            }
+         }
+      }
+      return name.toString();
+   }
+
+   /**
+    * Reads a table name such as "KQvKR", either side first.
+    *
+    * @param name table name
+    *
+    * @return its material, {@linkplain #canonical canonical}
+    * @throws IllegalArgumentException if the name is malformed, or has more
+    *                                  than {@link #MAX_PIECES} pieces
+    */
+   static int parse(String name) {
+      String[] sides = name.toUpperCase().split("V", -1);
+      if (sides.length != 2) throw new IllegalArgumentException("Table names look like KQvKR: " + name);
+      int material = 0;
+      for (int color = Position.WHITE; color <= Position.BLACK; color++) {
+         String side = sides[color];
+         if (side.isEmpty() || side.charAt(0) != 'K') throw new IllegalArgumentException("Table names look like KQvKR: " + name);
+         for (int i = 1; i < side.length(); i++) {
+            int type = TYPE_LETTERS.indexOf(side.charAt(i));
+            if (type < 0) throw new IllegalArgumentException("Table names look like KQvKR: " + name);
+            if (count(material, color, type) == 7) throw new IllegalArgumentException("Too many pieces: " + name);
+            material += 1 << (15 * color + 3 * type);
+         }
+      }
+      if (pieceCount(material) > MAX_PIECES) {
+         throw new IllegalArgumentException("Tables have at most " + MAX_PIECES + " pieces: " + name);
+      }
+      return canonical(material) ? material : flip(material);
+   }
+}
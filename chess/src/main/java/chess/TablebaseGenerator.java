@@ -0,0 +1,404 @@
+package chess;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates endgame {@linkplain Tablebase tablebases} by retrograde
+ * analysis, on every core.
+ * <p>
+ * A table is worked out in passes over all its positions, each split among
+ * the threads of a {@link ForkJoinPool}. Pass {@code n} settles the
+ * positions whose distance to mate is {@code n} plies: those with a move
+ * leaving the opponent mated in {@code n - 1}, and those whose every move
+ * leaves the opponent mating in at most {@code n - 1}; so each position is
+ * settled once, at its exact distance, and a position read as another is
+ * being written can only be one settled in the same pass, which decides
+ * nothing until the next. Captures and promotions lead into smaller tables,
+ * generated first if missing. Positions never settled are draws.
+ * <br>
+ * Run from the command line with
+ * {@code ChessPlayer tablebase <directory> <tables or piece count>...}, e.g.
+ * {@code tablebase tb KQvKR} or {@code tablebase tb 4} for every table of up
+ * to four pieces.
+ * @see Tablebases
+ * @author wcaine
+ */
+public final class TablebaseGenerator {
+
+   private static final int LEAF = 1 << 15; // positions per task of a pass
+   private static final int MAX_DEPTH = 8; // en passant positions worked out a move further, nested
+   private static final VarHandle MARKS = MethodHandles.arrayElementVarHandle(long[].class); // atomic marking
+
+   private final Path directory;
+   private final Tablebases tablebases;
+   private final ForkJoinPool pool;
+
+
+   /**
+    * @param directory directory to write tables to, and find smaller ones in
+    * @param threads number of threads to generate on
+    * @throws IOException if the directory cannot be created or its tables read
+    */
+   public TablebaseGenerator(Path directory, int threads) throws IOException {
+      Files.createDirectories(directory);
+      this.directory = directory;
+      this.tablebases = Tablebases.open(directory);
+      this.pool = new ForkJoinPool(threads);
+   }
+
+   /**
+    * Generates tables and reports on each.
+    *
+    * @param args directory, then table names such as {@code KQvKR} or piece
+    *             counts such as {@code 4} for every table of up to that many
+    *             pieces
+    */
+   public static void main(String[] args) {
+      if (args.length < 2) {
+         System.out.println("Usage: tablebase <directory> <tables or piece count>...");
+         return;
+      }
+      TablebaseGenerator generator = null;
+      try {
+         generator = new TablebaseGenerator(Path.of(args[0]), Runtime.getRuntime().availableProcessors());
+         long start = System.nanoTime();
+         for (int i = 1; i < args.length; i++) {
+            if (args[i].chars().allMatch(Character::isDigit)) {
+               generator.generateAll(Math.min(Integer.parseInt(args[i]), Tablebase.MAX_PIECES));
+            } else {
+               generator.generate(args[i]);
+            }
+         }
+         System.out.printf("%d tables in %s, %.3f s%n", generator.tablebases.count(), args[0], (System.nanoTime() - start) / 1e9);
+      } catch (IllegalArgumentException e) {
+         System.out.println(e.getMessage());
+      } catch (IOException e) {
+         System.out.println("Could not generate tables: " + e.getMessage());
+      } finally {
+         if (generator != null) generator.pool.shutdown();
+      }
+   }
+
+   /**
+    * Generates a table, and any smaller ones it leads into, unless present.
+    *
+    * @param name table name, e.g. "KQvKR"
+    * @throws IllegalArgumentException if the name is malformed
+    * @throws IOException if a table cannot be written
+    */
+   public void generate(String name) throws IOException {
+      generate(Tablebase.parse(name));
+   }
+
+   /**
+    * Generates every table of up to a number of pieces, unless present.
+    *
+    * @param pieces most pieces, kings included
+    * @throws IOException if a table cannot be written
+    */
+   public void generateAll(int pieces) throws IOException {
+      for (int count = 3; count <= pieces; count++) {
+         generateAll(0, 0, count - 2);
+      }
+   }
+
+   // every canonical material adding a number of pieces, of kinds from a slot on (white pawn to black queen)
+   private void generateAll(int material, int slot, int pieces) throws IOException {
+      if (pieces == 0) {
+         if (Tablebase.canonical(material)) generate(material);
+         return;
+      }
+      for (int s = slot; s < 10; s++) {
+         int color = s / 5, type = s % 5;
+         generateAll(material + (1 << (15 * color + 3 * type)), s, pieces - 1);
+      }
+   }
+
+   private void generate(int material) throws IOException {
+      if (Tablebase.pieceCount(material) == 2 || tablebases.table(material) != null) return;
+
+      // every capture, promotion and capturing promotion leads into a smaller table
+      for (int color = Position.WHITE; color <= Position.BLACK; color++) {
+         for (int type = Position.PAWN; type <= Position.QUEEN; type++) {
+            if (Tablebase.count(material, color, type) == 0) continue;
+            int less = material - (1 << (15 * color + 3 * type));
+            generateCanonical(less);
+            if (type != Position.PAWN) continue;
+            for (int promotion = Position.KNIGHT; promotion <= Position.QUEEN; promotion++) {
+               int promoted = less + (1 << (15 * color + 3 * promotion));
+               generateCanonical(promoted);
+               for (int victim = Position.KNIGHT; victim <= Position.QUEEN; victim++) {
+                  if (Tablebase.count(promoted, color ^ 1, victim) > 0) {
+                     generateCanonical(promoted - (1 << (15 * (color ^ 1) + 3 * victim)));
+                  }
+               }
+            }
+         }
+      }
+
+      long start = System.nanoTime();
+      Tablebase layout = Tablebase.layout(material);
+      byte[] values = new byte[(int) layout.positions()];
+      Generation generation = new Generation(layout, values);
+      int passes = 0;
+      for (int ply = 0; ply >= 0; passes++) {
+         ply = generation.pass(ply);
+      }
+
+      Path file = directory.resolve(layout.name() + ".tb");
+      layout.write(file, values);
+      tablebases.add(Tablebase.open(file));
+
+      int longest = 0;
+      long wins = 0, losses = 0;
+      for (byte value : values) {
+         int entry = value & 0xFF;
+         longest = Math.max(longest, entry);
+         if (entry != 0 && (entry & 1) == 0) wins++;
+         if (entry != 0 && (entry & 1) == 1) losses++;
+      }
+      System.out.printf("%s: %d positions, %d wins, %d losses, longest mate %d plies; %d passes in %.3f s%n",
+                        layout.name(), values.length, wins, losses, Math.max(longest - 1, 0),
+                        passes, (System.nanoTime() - start) / 1e9);
+   }
+
+   private void generateCanonical(int material) throws IOException {
+      generate(Tablebase.canonical(material) ? material : Tablebase.flip(material));
+   }
+
+   /**
+    * A table being generated: its entries so far, and the passes over them.
+    */
+   private final class Generation {
+      private final Tablebase layout;
+      private final byte[] values; // DTM entries, 0 while unsettled
+      private final boolean bothPawns; // if en passant captures can happen in the table
+
+      // positions to evaluate in this pass and the next, as bitsets: only
+      // those with a move into a position just settled, and those waiting on
+      // a smaller table's longer mate, can settle
+      private long[] marked, markedNext;
+      private boolean everything = true; // the first pass evaluates every position
+
+      // results of the pass in progress, gathered from every task
+      private final AtomicLong settled = new AtomicLong();
+      private final AtomicInteger nextPly = new AtomicInteger();
+
+      Generation(Tablebase layout, byte[] values) {
+         this.layout = layout;
+         this.values = values;
+         this.bothPawns = Tablebase.count(layout.material(), Position.WHITE, Position.PAWN) > 0
+                       && Tablebase.count(layout.material(), Position.BLACK, Position.PAWN) > 0;
+         this.marked = new long[(values.length + 63) >>> 6];
+         this.markedNext = new long[marked.length];
+      }
+
+      /**
+       * Settles every position mated in a number of plies.
+       *
+       * @param ply distance to mate settled by this pass
+       *
+       * @return distance to mate the next pass should settle, or -1 if none
+       *         is left to settle
+       */
+      int pass(int ply) {
+         settled.set(0);
+         nextPly.set(Integer.MAX_VALUE);
+         pool.invoke(new Pass(this, ply, 0, values.length));
+
+         long[] done = marked;
+         marked = markedNext;
+         markedNext = done;
+         java.util.Arrays.fill(markedNext, 0L);
+         everything = false;
+
+         // with nothing settled, skip ahead to the nearest distance still waiting
+         if (settled.get() > 0) return ply + 1;
+         return nextPly.get() == Integer.MAX_VALUE ? -1 : nextPly.get();
+      }
+
+      // the DTM entry of a position after a move: from this table, a smaller one, or worked out
+      int value(Position position, Worker worker, int depth) {
+         if (Tablebases.enPassant(position)) {
+            if (depth >= MAX_DEPTH) throw new IllegalStateException("En passant nested too deep");
+            return evaluate(position, worker, depth);
+         }
+         if (Tablebase.material(position) == layout.material()) return values[(int) layout.index(position)] & 0xFF;
+         int value = tablebases.value(position, 0);
+         if (value < 0) throw new IllegalStateException("No table for " + Tablebase.name(Tablebase.material(position)));
+         return value;
+      }
+
+      // the DTM entry a position would have from what is settled so far
+      int evaluate(Position position, Worker worker, int depth) {
+         int[] moves = worker.moves[depth];
+         int count = MoveGenerator.generate(position, moves);
+         for (int i = 0; i < count; i++) {
+            position.makeMove(moves[i]);
+            int value = value(position, worker, depth + 1);
+            position.unmakeMove(moves[i]);
+            moves[i] = value; // each move's entry in its place, as the move is done with
+         }
+         return Tablebases.combine(moves, count, position.isInCheck());
+      }
+
+      // marks a position for the next pass; any thread may mark any position
+      void mark(long index) {
+         MARKS.getAndBitwiseOr(markedNext, (int) (index >>> 6), 1L << index);
+      }
+
+      // marks a position under each of its indexes
+      private void markPosition(Position position) {
+         long index = layout.index(position);
+         mark(index);
+         long mirrored = layout.mirror(index);
+         if (mirrored >= 0) mark(mirrored);
+      }
+
+      /**
+       * Marks for the next pass every position of the table with a move into
+       * this one: each piece of the color that just moved, taken back to any
+       * square it could have come from without capturing. A position just
+       * after a double pawn push reaches its predecessor's successors too,
+       * through the en passant capture it allows, so those are marked as well.
+       * The position is left as it was, though its attack maps may not be.
+       */
+      void markPredecessors(Position position) {
+         int mover = position.sideToMove ^ 1;
+         position.sideToMove = mover;
+         for (long pieces = position.colors[mover]; pieces != 0; pieces &= pieces - 1) {
+            int sq = Long.numberOfTrailingZeros(pieces);
+            int piece = position.board[sq];
+            for (long origins = origins(position, piece, sq); origins != 0; origins &= origins - 1) {
+               int origin = Long.numberOfTrailingZeros(origins);
+               position.remove(sq);
+               position.put(piece, origin);
+               markPosition(position);
+               if (bothPawns) markDoublePushes(position);
+               position.remove(origin);
+               position.put(piece, sq);
+            }
+         }
+         position.sideToMove = mover ^ 1;
+      }
+
+      // marks the positions before any double pawn push that can have led to this one
+      private void markDoublePushes(Position position) {
+         int mover = position.sideToMove ^ 1;
+         int pawn = mover * 6 + Position.PAWN;
+         position.sideToMove = mover;
+         for (long pawns = position.pieces[pawn]; pawns != 0; pawns &= pawns - 1) {
+            int sq = Long.numberOfTrailingZeros(pawns);
+            int origin = mover == Position.WHITE ? sq - 16 : sq + 16;
+            if (sq >>> 3 != (mover == Position.WHITE ? 3 : 4) || (position.occupied & (1L << origin | 1L << (sq + origin) / 2)) != 0) {
+               continue;
+            }
+            position.remove(sq);
+            position.put(pawn, origin);
+            markPosition(position);
+            position.remove(origin);
+            position.put(pawn, sq);
+         }
+         position.sideToMove = mover ^ 1;
+      }
+
+      // squares a piece can have moved to a square from, without capturing
+      private static long origins(Position position, int piece, int sq) {
+         long empty = ~position.occupied;
+         return switch (piece % 6) {
+            case Position.KING -> Attacks.king(sq) & empty;
+            case Position.KNIGHT -> Attacks.knight(sq) & empty;
+            case Position.BISHOP -> Attacks.bishop(sq, position.occupied) & empty;
+            case Position.ROOK -> Attacks.rook(sq, position.occupied) & empty;
+            case Position.QUEEN -> Attacks.queen(sq, position.occupied) & empty;
+            default -> {
+               // a single push from the second rank on, or a double push from the second rank
+               boolean white = piece / 6 == Position.WHITE;
+               int back = white ? sq - 8 : sq + 8;
+               long origins = (empty & 1L << back) != 0 && (white ? back >= 8 : back < 56) ? 1L << back : 0;
+               int rank = sq >>> 3;
+               if (origins != 0 && rank == (white ? 3 : 4)) origins |= empty & 1L << (white ? sq - 16 : sq + 16);
+               yield origins;
+            }
+         };
+      }
+   }
+
+   /**
+    * Scratch space of one task.
+    */
+   private static final class Worker {
+      final Position position = new Position();
+      final int[][] moves = new int[MAX_DEPTH + 1][MoveGenerator.MAX_MOVES];
+      final int[] squares = new int[Tablebase.MAX_PIECES];
+   }
+
+   /**
+    * One pass over a range of positions, splitting it in half until it is
+    * small enough for one task.
+    */
+   private static final class Pass extends RecursiveAction {
+      private static final long serialVersionUID = 1L;
+
+      private final Generation generation;
+      private final int ply;
+      private final int from, to;
+
+      Pass(Generation generation, int ply, int from, int to) {
+         this.generation = generation;
+         this.ply = ply;
+         this.from = from;
+         this.to = to;
+      }
+
+      @Override
+      protected void compute() {
+         if (to - from > LEAF) {
+            int middle = (from + to) >>> 1;
+            invokeAll(new Pass(generation, ply, from, middle), new Pass(generation, ply, middle, to));
+            return;
+         }
+
+         Worker worker = new Worker();
+         byte[] values = generation.values;
+         long[] marked = generation.marked;
+         boolean everything = generation.everything;
+         long settled = 0;
+         int nextPly = Integer.MAX_VALUE;
+         for (int index = from; index < to; index++) {
+            if (!everything) {
+               long bits = marked[index >>> 6] >>> index;
+               if (bits == 0) {
+                  index |= 63; // nothing more marked in this word
+                  continue;
+               }
+               if ((bits & 1) == 0) continue;
+            }
+            if (values[index] != 0 || !generation.layout.decode(index, worker.position, worker.squares)) continue;
+
+            int value = generation.evaluate(worker.position, worker, 0);
+            if (value == 0) continue;
+            if (value - 1 <= ply) {
+               if (value > 0xFF) throw new IllegalStateException("Mate too long to store in " + generation.layout.name());
+               values[index] = (byte) value;
+               settled++;
+               generation.markPredecessors(worker.position);
+            } else {
+               // waiting on a longer mate found so far; evaluated again until it is due
+               nextPly = Math.min(nextPly, value - 1);
+               generation.mark(index);
+            }
+         }
+         generation.settled.addAndGet(settled);
+         generation.nextPly.accumulateAndGet(nextPly, Math::min);
+      }
+   }
+}
@@ -0,0 +1,281 @@
+package chess;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * The endgame {@linkplain Tablebase tablebases} of a directory, probed for
+ * the result with best play of a position, its distance to mate, or the
+ * move that keeps to it.
+ * <p>
+ * Every table is memory-mapped when opened, so a probe costs an index
+ * computation and a read or two of mapped memory, well under a microsecond
+ * once the pages are resident, and allocates nothing; the search can probe
+ * at every node. Positions with castling ability, or more pieces than the
+ * tables have, are not covered; a position where an en passant capture is
+ * possible is worked out from the positions after each of its moves.
+ * <br>
+ * Probing is thread-safe.
+ * @see TablebaseGenerator
+ * @author wcaine
+ */
+public final class Tablebases {
+   /**
+    * Results of {@link #wdl}, for the color to move.
+    */
+   public static final int LOSS = -1, DRAW = 0, WIN = 1, UNKNOWN = 2;
+   /**
+    * Score of {@link #score} for a position not covered.
+    */
+   public static final int NO_SCORE = Integer.MIN_VALUE;
+
+   private static final int SLOTS = 1024; // open addressing by material, far more than the 3-5 piece tables
+   private static final int MAX_DEPTH = 8; // en passant positions worked out a move further, nested
+
+   private static final ThreadLocal<int[][]> MOVES = ThreadLocal.withInitial(() -> new int[MAX_DEPTH + 1][MoveGenerator.MAX_MOVES]);
+
+   private final int[] materials = new int[SLOTS];
+   private final Tablebase[] tables = new Tablebase[SLOTS];
+   private int count;
+   private int maxPieces = 2;
+
+
+   /**
+    * Creates an empty set of tables, covering only bare kings.
+    */
+   public Tablebases() {
+   }
+
+   /**
+    * Maps every table ({@code *.tb} file) of a directory.
+    *
+    * @param directory directory of tables
+    *
+    * @return the tables
+    * @throws IOException if the directory or a table cannot be read
+    */
+   public static Tablebases open(Path directory) throws IOException {
+      Tablebases tablebases = new Tablebases();
+      try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.tb")) {
+         for (Path file : files) {
+            tablebases.add(Tablebase.open(file));
+         }
+      }
+      return tablebases;
+   }
+
+   /**
+    * Adds a table, replacing any of the same pieces. Not thread-safe: tables
+    * are added before probing starts, or between a generator's passes.
+    *
+    * @param table table to add
+    */
+   void add(Tablebase table) {
+      int slot = slot(table.material());
+      if (tables[slot] == null) {
+         if (count == SLOTS / 2) throw new IllegalStateException("Too many tables");
+         count++;
+      }
+      materials[slot] = table.material();
+      tables[slot] = table;
+      maxPieces = Math.max(maxPieces, Tablebase.pieceCount(table.material()));
+   }
+
+   /**
+    * @param material pieces, see {@link Tablebase#material(Position)}; canonical
+    * @return the table of the pieces, or null
+    */
+   Tablebase table(int material) {
+      return tables[slot(material)];
+   }
+
+   // the slot holding a material, or the empty one it would go in
+   private int slot(int material) {
+      int slot = (material * 0x9E3779B9) >>> 22;
+      while (tables[slot] != null && materials[slot] != material) {
+         slot = (slot + 1) & (SLOTS - 1);
+      }
+      return slot;
+   }
+
+   /**
+    * @return number of tables
+    */
+   public int count() {
+      return count;
+   }
+
+   /**
+    * @return most pieces, kings included, of any table (2 with none)
+    */
+   public int maxPieces() {
+      return maxPieces;
+   }
+
+   /**
+    * Finds the result of a position with best play.
+    *
+    * @param position position to probe
+    *
+    * @return {@link #WIN}, {@link #DRAW} or {@link #LOSS} for the color to
+    *         move, or {@link #UNKNOWN} if no table covers the position
+    */
+   public int wdl(Position position) {
+      if (position.castling != 0 || Long.bitCount(position.occupied) > maxPieces) return UNKNOWN;
+      if (Long.bitCount(position.occupied) == 2) return DRAW;
+      if (!enPassant(position)) {
+         // the WDL section is a quarter the size, so more of it stays cached
+         Tablebase table = find(position);
+         if (table == null) return UNKNOWN;
+         return switch (table.wdl(table.index(position))) {
+            case Tablebase.WIN -> WIN;
+            case Tablebase.LOSS -> LOSS;
+            default -> DRAW;
+         };
+      }
+      int value = value(position, 0);
+      return value < 0 ? UNKNOWN : switch (Tablebase.wdl(value)) {
+         case Tablebase.WIN -> WIN;
+         case Tablebase.LOSS -> LOSS;
+         default -> DRAW;
+      };
+   }
+
+   /**
+    * Finds the distance to mate of a position with best play: the fewest
+    * plies the winner needs, against the most the loser can hold out.
+    *
+    * @param position position to probe
+    *
+    * @return plies to mate if {@link #wdl} is a win or loss, 0 if it is a
+    *         draw, or -1 if no table covers the position
+    */
+   public int dtm(Position position) {
+      int value = value(position, 0);
+      return value <= 0 ? value : value - 1;
+   }
+
+   /**
+    * Scores a position for the search: as a mate in its distance to mate,
+    * counted from the root.
+    *
+    * @param position position to probe
+    * @param ply plies from the root of the search
+    *
+    * @return the score for the color to move, see {@link Search#MATE}, 0 for
+    *         a draw, or {@link #NO_SCORE} if no table covers the position
+    */
+   public int score(Position position, int ply) {
+      int value = value(position, 0);
+      if (value <= 0) return value == 0 ? 0 : NO_SCORE;
+      return (value & 1) == 0 ? Search.MATE - ply - (value - 1) : -Search.MATE + ply + (value - 1);
+   }
+
+   /**
+    * Finds a move that keeps to the best result: the quickest mate when
+    * winning, a move that keeps the draw when drawing, and the longest
+    * resistance when losing.
+    *
+    * @param position position to probe; left unchanged
+    *
+    * @return the move, or {@link Move#NONE} if no table covers the position
+    *         or it has no legal move
+    */
+   public int bestMove(Position position) {
+      if (value(position, 0) < 0) return Move.NONE;
+      int[] moves = MOVES.get()[0];
+      int count = MoveGenerator.generate(position, moves);
+      int best = Move.NONE, bestRank = Integer.MIN_VALUE;
+      for (int i = 0; i < count; i++) {
+         position.makeMove(moves[i]);
+         int value = value(position, 1);
+         position.unmakeMove(moves[i]);
+         if (value < 0) continue;
+
+         // leaving the opponent lost, sooner is better; leaving it winning, later
+         int rank = value == 0 ? 0 : (value & 1) == 1 ? 1000 - value : -1000 + value;
+         if (rank > bestRank) {
+            bestRank = rank;
+            best = moves[i];
+         }
+      }
+      return best;
+   }
+
+   /**
+    * Finds the DTM entry of a position, see {@link Tablebase}.
+    *
+    * @param position position to probe; left unchanged
+    * @param depth depth of en passant positions worked out before this one
+    *
+    * @return 0 for a draw, plies to mate plus one, or -1 if no table covers
+    *         the position
+    */
+   int value(Position position, int depth) {
+      if (position.castling != 0 || Long.bitCount(position.occupied) > maxPieces) return -1;
+      if (Long.bitCount(position.occupied) == 2) return 0;
+      if (enPassant(position)) return depth < MAX_DEPTH ? expand(position, depth) : -1;
+      Tablebase table = find(position);
+      return table == null ? -1 : table.value(table.index(position));
+   }
+
+   // the DTM entry of a position from those after each of its moves
+   private int expand(Position position, int depth) {
+      int[] moves = MOVES.get()[depth];
+      int count = MoveGenerator.generate(position, moves);
+      for (int i = 0; i < count; i++) {
+         position.makeMove(moves[i]);
+         int value = value(position, depth + 1);
+         position.unmakeMove(moves[i]);
+         if (value < 0) return -1;
+         moves[i] = value; // each move's entry in its place, as the move is done with
+      }
+      return combine(moves, count, position.isInCheck());
+   }
+
+   /**
+    * Works out a position's DTM entry from those of the positions after each
+    * of its moves: a win if any leaves the opponent lost, a loss if every one
+    * leaves it winning, a draw otherwise.
+    *
+    * @param values DTM entries after each move
+    * @param count number of moves
+    * @param inCheck if the color to move is in check
+    *
+    * @return the position's DTM entry, perhaps over 255
+    */
+   static int combine(int[] values, int count, boolean inCheck) {
+      if (count == 0) return inCheck ? 1 : 0;
+      int fastestLoss = Integer.MAX_VALUE, slowestWin = 0;
+      for (int i = 0; i < count; i++) {
+         int value = values[i];
+         if (value == 0) {
+            slowestWin = -1; // not every move loses
+         } else if ((value & 1) == 1) {
+            fastestLoss = Math.min(fastestLoss, value);
+         } else if (slowestWin >= 0) {
+            slowestWin = Math.max(slowestWin, value);
+         }
+      }
+      if (fastestLoss != Integer.MAX_VALUE) return fastestLoss + 1;
+      return slowestWin > 0 ? slowestWin + 1 : 0;
+   }
+
+   // the table of a position without castling or en passant, or null
+   private Tablebase find(Position position) {
+      int material = Tablebase.material(position);
+      return table(Tablebase.canonical(material) ? material : Tablebase.flip(material));
+   }
+
+   /**
+    * @param position position to test
+    * @return if the color to move has a pawn that could capture en passant
+    */
+   static boolean enPassant(Position position) {
+      int ep = position.epSquare;
+      return ep != Position.NONE
+          && (Attacks.pawn(position.sideToMove ^ 1, ep) & position.pieces[position.sideToMove * 6 + Position.PAWN]) != 0;
+   }
+}
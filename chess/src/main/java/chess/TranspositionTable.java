@@ -0,0 +1,187 @@
+package chess;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-size cache of searched positions, keyed by {@link Zobrist} key, that
+ * any number of {@link Search} threads can share without locks.
+ * <p>
+ * Each entry is two longs in one flat array: the entry data, and the position
+ * key XORed with that data. A reader accepts an entry only if XORing the two
+ * longs gives back its key, so an entry torn by two threads writing at once
+ * reads as a miss instead of returning another position's data
+ * (<a href="https://www.chessprogramming.org/Shared_Hash_Table#Lockless">lockless hashing</a>).
+ * <p>
+ * Entry data, from least significant bit:
+ * <ol start="0">
+ *    <li>bits 0-15: best move (see {@link Move})</li>
+ *    <li>bits 16-31: score, signed</li>
+ *    <li>bits 32-39: depth searched</li>
+ *    <li>bits 40-41: bound ({@link #EXACT}, {@link #LOWER} or {@link #UPPER})</li>
+ *    <li>bits 42-49: age (search number when stored)</li>
+ * </ol>
+ * @author wcaine
+ */
+public class TranspositionTable {
+   /**
+    * Bounds: the stored score is exact, at least the true score (it caused a
+    * cutoff), or at most the true score (no move raised alpha).
+    */
+   public static final int EXACT = 1, LOWER = 2, UPPER = 3;
+
+   private static final int ENTRY_LONGS = 2, ENTRY_BYTES = 16;
+
+   private final long[] table;
+   private final int mask; // entries - 1
+   private int age;
+
+   private final LongAdder probes = new LongAdder(), hits = new LongAdder();
+
+
+   /**
+    * Allocates a table of at most the given size, rounded down to a power of
+    * two number of entries.
+    *
+    * @param megabytes memory budget, at least 1
+    */
+   public TranspositionTable(int megabytes) {
+      long bytes = Math.max(megabytes, 1) * 1024L * 1024L;
+      long entries = Long.highestOneBit(Math.min(bytes / ENTRY_BYTES, Integer.MAX_VALUE / ENTRY_LONGS));
+      this.table = new long[(int) entries * ENTRY_LONGS];
+      this.mask = (int) entries - 1;
+   }
+
+   /**
+    * Looks a position up.
+    *
+    * @param key Zobrist key of the position
+    * @return entry data (decode with {@link #move}, {@link #score},
+    *         {@link #depth} and {@link #bound}), or 0 if the position is not stored
+    */
+   public long probe(long key) {
+      int index = ((int) key & mask) * ENTRY_LONGS;
+      long data = table[index + 1];
+      long check = table[index];
+      probes.increment();
+      if ((check ^ data) != key || data == 0) return 0L;
+
+      hits.increment();
+      return data;
+   }
+
+   /**
+    * Stores a search result, replacing the entry in its slot unless that
+    * entry is from the current search and was searched deeper.
+    *
+    * @param key Zobrist key of the position
+    * @param move best move found, or {@link Move#NONE}
+    * @param score score, with mate scores relative to this position
+    * @param depth depth searched, in plies
+    * @param bound {@link #EXACT}, {@link #LOWER} or {@link #UPPER}
+    */
+   public void store(long key, int move, int score, int depth, int bound) {
+      int index = ((int) key & mask) * ENTRY_LONGS;
+      long old = table[index + 1];
+      boolean sameKey = (table[index] ^ old) == key;
+      if (!sameKey && old != 0 && age(old) == (age & 0xFF) && depth(old) > depth) return;
+
+      // keep the old best move if this result found none
+      if (move == Move.NONE && sameKey) move = move(old);
+
+      long data = (move & 0xFFFFL)
+                | (score & 0xFFFFL) << 16
+                | (long) (Math.max(depth, 0) & 0xFF) << 32
+                | (long) bound << 40
+                | (long) (age & 0xFF) << 42;
+      table[index] = key ^ data;
+      table[index + 1] = data;
+   }
+
+   /**
+    * Marks the start of a new search, so entries from older searches are
+    * replaced first.
+    */
+   public void newSearch() {
+      age++;
+   }
+
+   /**
+    * Empties the table and resets its counters.
+    */
+   public void clear() {
+      java.util.Arrays.fill(table, 0L);
+      probes.reset();
+      hits.reset();
+   }
+
+   public static int move(long data) {
+      return (int) (data & 0xFFFF);
+   }
+
+   public static int score(long data) {
+      return (short) (data >>> 16);
+   }
+
+   public static int depth(long data) {
+      return (int) (data >>> 32) & 0xFF;
+   }
+
+   public static int bound(long data) {
+      return (int) (data >>> 40) & 3;
+   }
+
+   private static int age(long data) {
+      return (int) (data >>> 42) & 0xFF;
+   }
+
+   /**
+    * @return size of the table in megabytes
+    */
+   public int megabytes() {
+      return (int) ((long) table.length * Long.BYTES / (1024 * 1024));
+   }
+
+   /**
+    * @return lookups since the table was created or cleared
+    */
+   public long probes() {
+      return probes.sum();
+   }
+
+   /**
+    * @return lookups that found their position
+    */
+   public long hits() {
+      return hits.sum();
+   }
+
+   /**
+    * @return fraction of lookups that found their position, 0 to 1
+    */
+   public double hitRate() {
+      long probed = probes.sum();
+      return probed == 0 ? 0.0 : (double) hits.sum() / probed;
+   }
+
+   /**
+    * Estimates how full the table is from a sample of its first 1000 entries,
+    * counting only entries stored by the current search.
+    *
+    * @return permille of entries in use, 0 to 1000
+    */
+   public int hashfull() {
+      int sample = Math.min(1000, mask + 1), used = 0;
+      for (int i = 0; i < sample; i++) {
+         long data = table[i * ENTRY_LONGS + 1];
+         if (data != 0 && age(data) == (age & 0xFF)) used++;
+      }
+      return used * 1000 / sample;
+   }
+
+   /**
+    * @return size, hit rate and fill rate of the table, for display
+    */
+   public String report() {
+      return String.format("Hash %d MB, %.1f%% hits, %.1f%% full.", megabytes(), hitRate() * 100, hashfull() / 10.0);
+   }
+}
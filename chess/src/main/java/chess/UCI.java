@@ -0,0 +1,392 @@
+package chess;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the engine under the
+ * <a href="https://www.chessprogramming.org/UCI">Universal Chess Interface</a>,
+ * for GUIs, tournament managers and analysis farms. Supported commands:
+ * <ul>
+ *    <li>{@code uci}, {@code isready}, {@code ucinewgame}, {@code quit}</li>
+ *    <li>{@code position startpos|fen <FEN> [moves ...]}</li>
+ *    <li>{@code go [wtime] [btime] [winc] [binc] [movestogo] [movetime] [depth] [infinite]}</li>
+ *    <li>{@code stop}</li>
+ *    <li>{@code setoption name Hash|Threads value <N>}</li>
+ * </ul>
+ * Each finished iteration is reported as an {@code info} line with depth,
+ * score, nodes, nodes per second, hashfull, time and principal variation.
+ * <br>
+ * Searches run on a thread of their own, so commands are read and answered
+ * while one is in progress: {@code stop} takes effect within a couple
+ * thousand nodes and {@code isready} is answered at once. Every response is
+ * flushed as soon as it is written. A {@code position} command that only
+ * adds moves to the last one, as GUIs send during a game, plays just the new
+ * moves rather than the whole game again.
+ * @see ChessPlayer#main
+ * @author wcaine
+ */
+public class UCI {
+
+   private static final String NAME = "chess";
+   private static final String AUTHOR = "wcaine";
+   private static final int MAX_HASH = 65536, MAX_THREADS = 256;
+
+   private static final long FOREVER = Long.MAX_VALUE / 2_000_000; // milliseconds that cannot overflow a deadline
+   private static final long OVERHEAD = 30; // milliseconds kept back from the clock for communication
+   private static final int DEFAULT_MOVES_TO_GO = 30;
+   private static final int HISTORY_KEPT = 256; // moves kept when trimming the undo stack
+
+   private final BufferedReader in;
+   private final PrintWriter out;
+   private SearchPool engine;
+   private OpeningBook book; // moves answered without searching, if any
+   private Tablebases tablebases; // kept across engines replaced by setoption
+
+   // the position set by the last position command, and that command's parts
+   private final Position position = new Position();
+   private String positionBase = "";
+   private String positionMoves = "";
+   private final int[] moves = new int[MoveGenerator.MAX_MOVES];
+
+   // the search in progress, on its own thread and its own copy of the position
+   private final ExecutorService searcher = Executors.newSingleThreadExecutor(task -> {
+      Thread thread = new Thread(task, "uci-search");
+      thread.setDaemon(true);
+      return thread;
+   });
+   private final Position searchPosition = new Position();
+   private final Position pvPosition = new Position();
+   private final int[] pvMoves = new int[MoveGenerator.MAX_MOVES];
+   private Future<?> search;
+   private long searchStart;
+   private boolean infinite; // hold the best move until stopped; guarded by this
+   private boolean stopRequested; // guarded by this
+
+
+   /**
+    * @param in source of commands, read a line at a time
+    * @param out destination of responses
+    * @param engine search to start with; replaced when the Hash or Threads options are set
+    */
+   public UCI(BufferedReader in, PrintWriter out, SearchPool engine) {
+      this.in = in;
+      this.out = out;
+      this.engine = engine;
+      FEN.parse(PGN.STANDARD_FEN, position);
+   }
+
+   /**
+    * Answers {@code go} from an opening book while it has the position,
+    * except when analysing ({@code go infinite}).
+    *
+    * @param book opening book; null to always search
+    */
+   public void setBook(OpeningBook book) {
+      this.book = book;
+   }
+
+   /**
+    * Has the search look endgames up rather than search them.
+    *
+    * @param tablebases endgame tablebases; null for none
+    */
+   public void setTablebases(Tablebases tablebases) {
+      this.tablebases = tablebases;
+      engine.setTablebases(tablebases);
+   }
+
+   /**
+    * Answers commands until {@code quit} or the end of input.
+    */
+   public void run() {
+      try {
+         String line;
+         while ((line = in.readLine()) != null) {
+            if (!command(line.trim())) break;
+         }
+      } catch (IOException e) {
+         throw new UncheckedIOException(e);
+      } finally {
+         stopSearch();
+         searcher.shutdownNow();
+         engine.shutdown();
+         out.flush();
+      }
+   }
+
+   // handles one command line; false on quit
+   private boolean command(String line) {
+      int space = line.indexOf(' ');
+      String command = space < 0 ? line : line.substring(0, space);
+      String args = space < 0 ? "" : line.substring(space + 1).trim();
+      switch (command) {
+         case "uci" -> {
+            send("id name " + NAME);
+            send("id author " + AUTHOR);
+            send("option name Hash type spin default " + engine.table().megabytes() + " min 1 max " + MAX_HASH);
+            send("option name Threads type spin default " + engine.threads() + " min 1 max " + MAX_THREADS);
+            send("uciok");
+         }
+         case "isready" -> send("readyok");
+         case "ucinewgame" -> {
+            stopSearch();
+            engine.table().clear();
+         }
+         case "setoption" -> {
+            stopSearch();
+            setOption(args);
+         }
+         case "position" -> {
+            stopSearch();
+            setPosition(args);
+         }
+         case "go" -> {
+            stopSearch();
+            go(args);
+         }
+         case "stop" -> stopSearch();
+         case "quit" -> {
+            return false;
+         }
+         default -> {
+            // unknown commands, and those not supported (debug, register, ponderhit), are ignored
+         }
+      }
+      return true;
+   }
+
+   private void setOption(String args) {
+      // name <id> value <x>
+      int value = args.indexOf(" value ");
+      if (!args.startsWith("name ") || value < 0) return;
+      String name = args.substring(5, value).trim();
+      int number;
+      try {
+         number = Integer.parseInt(args.substring(value + 7).trim());
+      } catch (NumberFormatException e) {
+         send("info string Option " + name + " needs a number");
+         return;
+      }
+
+      if (name.equalsIgnoreCase("Hash")) {
+         // free the old table before allocating the new one
+         int threads = engine.threads();
+         engine.shutdown();
+         engine = null;
+         engine = new SearchPool(new TranspositionTable(Math.max(1, Math.min(number, MAX_HASH))), threads);
+         engine.setTablebases(tablebases);
+      } else if (name.equalsIgnoreCase("Threads")) {
+         TranspositionTable table = engine.table();
+         engine.shutdown();
+         engine = new SearchPool(table, Math.max(1, Math.min(number, MAX_THREADS)));
+         engine.setTablebases(tablebases);
+      } else {
+         send("info string Unknown option " + name);
+      }
+   }
+
+   private void setPosition(String args) {
+      // startpos | fen <six fields>, then optionally moves <move>...
+      int movesAt = args.indexOf("moves");
+      String base = (movesAt < 0 ? args : args.substring(0, movesAt)).trim();
+      String moveList = movesAt < 0 ? "" : args.substring(movesAt + 5).trim();
+
+      // a game continued since the last command needs only its new moves played
+      int from = 0;
+      if (base.equals(positionBase) && moveList.startsWith(positionMoves)
+              && (moveList.length() == positionMoves.length() || positionMoves.isEmpty()
+                  || moveList.charAt(positionMoves.length()) == ' ')) {
+         from = positionMoves.length();
+      } else {
+         String fen = base.equals("startpos") ? PGN.STANDARD_FEN
+                    : base.startsWith("fen ") ? base.substring(4).trim() : "";
+         int result = FEN.parse(fen, position);
+         if (result != FEN.VALID) {
+            send("info string Invalid position " + base + ": " + FEN.errorReason(result));
+            FEN.parse(PGN.STANDARD_FEN, position);
+            positionBase = "startpos";
+            positionMoves = "";
+            return;
+         }
+      }
+
+      for (int start = from, length = moveList.length(); start < length; ) {
+         while (start < length && moveList.charAt(start) == ' ') start++;
+         int end = start;
+         while (end < length && moveList.charAt(end) != ' ') end++;
+         if (start == end) break;
+
+         int move = Notation.parse(moveList, start, end, position, moves);
+         if (!Notation.isMove(move)) {
+            send("info string Illegal move " + moveList.substring(start, end) + ": " + Notation.errorReason(move));
+            moveList = moveList.substring(0, start).trim();
+            break;
+         }
+         position.makeMove(move);
+         trimHistory();
+         start = end;
+      }
+      positionBase = base;
+      positionMoves = moveList;
+   }
+
+   private void trimHistory() {
+      // as in ChessBoard: no position before a capture or pawn move can repeat,
+      // and the search needs room for its own moves
+      if (position.halfmove() == 0) position.clearHistory();
+      if (position.historyLength() > Position.MAX_HISTORY - Search.MAX_PLY) position.trimHistory(HISTORY_KEPT);
+   }
+
+   private void go(String args) {
+      long wtime = -1, btime = -1, winc = 0, binc = 0, movetime = -1;
+      int movesToGo = 0, depth = Search.MAX_PLY;
+      boolean infinite = false;
+
+      String[] tokens = args.split(" ");
+      for (int i = 0; i < tokens.length; i++) {
+         String value = i + 1 < tokens.length ? tokens[i + 1] : "";
+         try {
+            switch (tokens[i]) {
+               case "wtime" -> wtime = Long.parseLong(value);
+               case "btime" -> btime = Long.parseLong(value);
+               case "winc" -> winc = Long.parseLong(value);
+               case "binc" -> binc = Long.parseLong(value);
+               case "movestogo" -> movesToGo = Integer.parseInt(value);
+               case "movetime" -> movetime = Long.parseLong(value);
+               case "depth" -> depth = Math.max(1, Integer.parseInt(value));
+               case "infinite", "ponder" -> {
+                  infinite = true;
+                  continue;
+               }
+               default -> {
+                  continue;
+               }
+            }
+            i++;
+         } catch (NumberFormatException e) {
+            send("info string Bad value for " + tokens[i]);
+         }
+      }
+
+      // a book move is answered at once, unless the GUI wants analysis
+      if (book != null && !infinite) {
+         int move = book.choose(position);
+         if (move != Move.NONE) {
+            send("info string book move");
+            send(Notation.appendUCI(move, new StringBuilder("bestmove ")).toString());
+            return;
+         }
+      }
+
+      boolean white = position.sideToMove() == Position.WHITE;
+      long millis = budget(white ? wtime : btime, white ? winc : binc, movesToGo, movetime, infinite);
+      int maxDepth = depth;
+
+      searchPosition.copyFrom(position);
+      synchronized (this) {
+         this.infinite = infinite;
+         stopRequested = false;
+      }
+      SearchPool pool = engine;
+      pool.setListener(this::info);
+      // cleared here rather than on the search thread, where it could undo a stop sent at once
+      pool.prepare();
+      searchStart = System.nanoTime();
+      search = searcher.submit(() -> {
+         int move = pool.think(searchPosition, millis, maxDepth);
+
+         // under "go infinite" the best move is only given once stopped
+         synchronized (this) {
+            while (this.infinite && !stopRequested) {
+               try {
+                  wait();
+               } catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+                  break;
+               }
+            }
+         }
+         send(Notation.appendUCI(move, new StringBuilder("bestmove ")).toString());
+      });
+   }
+
+   // milliseconds to search: the movetime, or a share of the clock, or as long as it takes
+   private static long budget(long time, long increment, int movesToGo, long movetime, boolean infinite) {
+      if (infinite) return FOREVER;
+      if (movetime >= 0) return Math.max(1, movetime - OVERHEAD);
+      if (time < 0) return FOREVER;
+      long share = time / (movesToGo > 0 ? movesToGo : DEFAULT_MOVES_TO_GO) + increment * 3 / 4;
+      return Math.max(1, Math.min(share, time - OVERHEAD));
+   }
+
+   // stops the search in progress, if any, and waits for its best move to be sent
+   private void stopSearch() {
+      if (search == null) return;
+      synchronized (this) {
+         stopRequested = true;
+         notifyAll();
+      }
+      engine.stop();
+      try {
+         search.get();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      } catch (ExecutionException e) {
+         throw new IllegalStateException("Search failed", e.getCause());
+      }
+      search = null;
+   }
+
+   // one info line per finished iteration, on the search thread
+   private void info(int depth, int score, int move) {
+      long nanos = Math.max(System.nanoTime() - searchStart, 1);
+      long nodes = engine.nodesSearched();
+      StringBuilder line = new StringBuilder(128).append("info depth ").append(depth).append(" score ");
+      if (score >= Search.MATE - Search.MAX_PLY) {
+         line.append("mate ").append((Search.MATE - score + 1) / 2);
+      } else if (score <= -Search.MATE + Search.MAX_PLY) {
+         line.append("mate ").append(-(Search.MATE + score) / 2);
+      } else {
+         line.append("cp ").append(score);
+      }
+      line.append(" nodes ").append(nodes)
+          .append(" nps ").append(nodes * 1_000_000_000L / nanos)
+          .append(" hashfull ").append(engine.table().hashfull())
+          .append(" time ").append(nanos / 1_000_000)
+          .append(" pv");
+      appendPV(move, depth, line);
+      send(line.toString());
+   }
+
+   // the best move, then the best moves stored in the table after it, as long as they are legal
+   private void appendPV(int move, int depth, StringBuilder line) {
+      pvPosition.copyFrom(searchPosition);
+      for (int ply = 0; ply < depth && move != Move.NONE; ply++) {
+         if (!isLegal(move)) break;
+         Notation.appendUCI(move, line.append(' '));
+         pvPosition.makeMove(move);
+         if (pvPosition.isRepetition()) break;
+         move = TranspositionTable.move(engine.table().probe(pvPosition.key()));
+      }
+   }
+
+   private boolean isLegal(int move) {
+      int count = MoveGenerator.generate(pvPosition, pvMoves);
+      for (int i = 0; i < count; i++) {
+         if (pvMoves[i] == move) return true;
+      }
+      return false;
+   }
+
+   private synchronized void send(String response) {
+      out.println(response);
+      out.flush();
+   }
+}
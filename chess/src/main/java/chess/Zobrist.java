@@ -0,0 +1,101 @@
+package chess;
+
+/**
+ * Random keys for <a href="https://www.chessprogramming.org/Zobrist_Hashing">Zobrist hashing</a>.
+ * A position's key is the XOR of the key of every piece on its square, the
+ * castling ability, the en passant file (only when a pawn can actually make
+ * the capture) and, if black is to move, the side key. Each move then updates
+ * the key with a few XORs.
+ * <br>
+ * The keys come from a fixed seed, so they are the same on every run.
+ * @see Position#key()
+ * @author wcaine
+ */
+public final class Zobrist {
+
+   private static final long[] PIECE_SQUARE = new long[12 * 64];
+   private static final long[] PAWN_SQUARE = new long[12 * 64]; // PIECE_SQUARE for pawns, 0 for other pieces
+   private static final long[] CASTLING = new long[16];
+   private static final long[] EP_FILE = new long[8];
+   private static final long SIDE;
+
+   private static final long GAMMA = 0x9E3779B97F4A7C15L;
+
+   static {
+      long seed = 0x2C1B3C6D4E5F6071L;
+      for (int i = 0; i < PIECE_SQUARE.length; i++) {
+         PIECE_SQUARE[i] = mix(seed += GAMMA);
+         if ((i >>> 6) % 6 == Position.PAWN) PAWN_SQUARE[i] = PIECE_SQUARE[i];
+      }
+
+      // combinations of castling rights are the XOR of their single rights
+      long[] rights = new long[4];
+      for (int i = 0; i < rights.length; i++) {
+         rights[i] = mix(seed += GAMMA);
+      }
+      for (int castling = 0; castling < CASTLING.length; castling++) {
+         for (int i = 0; i < rights.length; i++) {
+            if ((castling & (1 << i)) != 0) CASTLING[castling] ^= rights[i];
+         }
+      }
+
+      for (int file = 0; file < EP_FILE.length; file++) {
+         EP_FILE[file] = mix(seed += GAMMA);
+      }
+      SIDE = mix(seed += GAMMA);
+   }
+
+   private Zobrist() {
+   }
+
+   /**
+    * @param piece piece code, see {@link Position}
+    * @param sq square index
+    * @return key of the piece standing on the square
+    */
+   public static long piece(int piece, int sq) {
+      return PIECE_SQUARE[(piece << 6) | sq];
+   }
+
+   /**
+    * Keys of pawns for a key of the pawns alone, without a branch on the
+    * piece.
+    *
+    * @param piece piece code, see {@link Position}
+    * @param sq square index
+    * @return key of the piece standing on the square if it is a pawn, else 0
+    */
+   public static long pawn(int piece, int sq) {
+      return PAWN_SQUARE[(piece << 6) | sq];
+   }
+
+   /**
+    * @param castling castling ability bits
+    * @return key of the castling ability
+    */
+   public static long castling(int castling) {
+      return CASTLING[castling];
+   }
+
+   /**
+    * @param epSquare en passant square
+    * @return key of the en passant file
+    */
+   public static long enPassant(int epSquare) {
+      return EP_FILE[epSquare & 7];
+   }
+
+   /**
+    * @return key XORed in when black is to move
+    */
+   public static long side() {
+      return SIDE;
+   }
+
+   // splitmix64 output function; the seed advances by GAMMA before each key
+   private static long mix(long z) {
+      z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+      z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+      return z ^ (z >>> 31);
+   }
+}
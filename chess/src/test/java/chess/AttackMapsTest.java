@@ -0,0 +1,80 @@
+package chess;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that the attack maps, checkers and pinned pieces a {@link Position}
+ * keeps through {@link Position#makeMove} and {@link Position#unmakeMove}
+ * match those rebuilt from scratch.
+ * @author wcaine
+ */
+class AttackMapsTest {
+
+   private final Position rebuilt = new Position();
+   private final int[][] moves = new int[4][MoveGenerator.MAX_MOVES];
+
+   @Test
+   void makeAndUnmakeMatchRebuild() {
+      for (String fen : Perft.SUITE) {
+         walk(Position.fromFEN(fen), 3);
+      }
+   }
+
+   @Test
+   void longGamesMatchRebuildAcrossTrimmedHistory() {
+      Random random = new Random(1);
+      int[] legal = new int[MoveGenerator.MAX_MOVES];
+      int[] played = new int[4096];
+      for (String fen : Perft.SUITE) {
+         Position position = Position.fromFEN(fen);
+         int count = 0;
+         while (count < played.length) {
+            int n = MoveGenerator.generate(position, legal);
+            if (n == 0 || position.halfmove() >= 100) break;
+            played[count] = legal[random.nextInt(n)];
+            position.makeMove(played[count++]);
+            assertMatches(position);
+            if (position.historyLength() > 200) {
+               // the moves kept can still be taken back and made again
+               position.trimHistory(50);
+               for (int ply = 1; ply <= 50; ply++) {
+                  position.unmakeMove(played[count - ply]);
+                  assertMatches(position);
+               }
+               for (int ply = 50; ply >= 1; ply--) {
+                  position.makeMove(played[count - ply]);
+                  assertMatches(position);
+               }
+            }
+         }
+      }
+   }
+
+   private void walk(Position position, int depth) {
+      assertMatches(position);
+      if (depth == 0) return;
+      int[] plyMoves = moves[depth];
+      int count = MoveGenerator.generate(position, plyMoves);
+      for (int i = 0; i < count; i++) {
+         long key = position.key();
+         position.makeMove(plyMoves[i]);
+         walk(position, depth - 1);
+         position.unmakeMove(plyMoves[i]);
+         assertEquals(key, position.key());
+         assertMatches(position);
+      }
+   }
+
+   private void assertMatches(Position position) {
+      rebuilt.copyFrom(position);
+      rebuilt.updateAttacks();
+      String fen = position.toFEN();
+      assertEquals(rebuilt.attacks(Position.WHITE), position.attacks(Position.WHITE), fen);
+      assertEquals(rebuilt.attacks(Position.BLACK), position.attacks(Position.BLACK), fen);
+      assertEquals(rebuilt.checkers(), position.checkers(), fen);
+      assertEquals(rebuilt.pinned(), position.pinned(), fen);
+   }
+}
@@ -0,0 +1,39 @@
+package chess;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.ByteBuffer;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that {@link FEN#parse} keeps only the castling rights the pieces
+ * still allow, so that no right without its king and rook reaches move
+ * generation, from a FEN or from a saved position.
+ * @author wcaine
+ */
+class FENTest {
+
+   @Test
+   void rightsWithoutKingOrRookAtHomeAreDropped() {
+      assertRights("KQkq", "r3k2r/8/8/8/8/8/8/R3K2R w KQkq - 0 1");
+      assertRights("-", "4k3/8/8/8/8/8/8/R2K3R w K - 0 1");
+      assertRights("Kq", "r3k1r1/8/8/8/8/8/8/1R2K2R w KQkq - 0 1");
+      assertRights("-", "r3k2r/8/8/8/8/8/8/R4K1R b KQ - 0 1");
+   }
+
+   @Test
+   void savedPositionDropsThemToo() {
+      Position position = Position.fromFEN("4k3/8/8/8/8/8/8/R2K3R w - - 0 1");
+      position.castling = Position.WHITE_KINGSIDE | Position.WHITE_QUEENSIDE;
+      GameSnapshot snapshot = new GameSnapshot(position);
+      ByteBuffer buffer = snapshot.write(ByteBuffer.allocate(snapshot.maxBytes()));
+      Position start = GameSnapshot.read(buffer.flip()).startPosition(new Position());
+      assertEquals(0, start.castling());
+   }
+
+   private static void assertRights(String rights, String fen) {
+      Position position = new Position();
+      assertEquals(FEN.VALID, FEN.parse(fen, position), fen);
+      assertEquals(rights, position.toFEN().split(" ")[2], fen);
+   }
+}
@@ -0,0 +1,122 @@
+package chess;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Reloads {@link GameJournal}s, whole and cut short as a crash mid-write
+ * would leave them.
+ * @author wcaine
+ */
+class GameJournalTest {
+
+   private static final String[] OPENING = {"e2e4", "e7e5", "g1f3", "b8c6", "f1b5", "a7a6"};
+
+   @TempDir
+   Path directory;
+
+   @Test
+   void unfinishedGamesSurviveReopening() throws IOException {
+      Path file = directory.resolve("games.journal");
+      long kept, ended;
+      try (GameJournal journal = GameJournal.open(file)) {
+         kept = begin(journal, 4);
+         ended = begin(journal, 2);
+         journal.end(ended);
+      }
+
+      try (GameJournal journal = GameJournal.open(file)) {
+         assertEquals(1, journal.openGames());
+         assertNull(journal.claim(ended));
+         GameSnapshot game = journal.claim(kept);
+         assertNotNull(game);
+         assertEquals(4, game.moveCount());
+         assertNull(journal.claim(kept), "a claimed game cannot be claimed twice");
+         assertTrue(journal.begin(new GameSnapshot(Position.fromFEN(PGN.STANDARD_FEN))) > ended,
+                    "games are numbered on from the last");
+      }
+   }
+
+   @Test
+   void tornTailIsDropped() throws IOException {
+      Path file = directory.resolve("games.journal");
+      long id, whole;
+      try (GameJournal journal = GameJournal.open(file)) {
+         id = begin(journal, 5);
+      }
+      GameJournal.open(file).close(); // rewritten as one snapshot
+      whole = Files.size(file);
+      try (GameJournal journal = GameJournal.open(file)) {
+         GameSnapshot game = journal.claim(id);
+         Position position = game.replay(new Position(), null).getPosition();
+         int move = move(position, OPENING[5]);
+         journal.move(id, move, 0);
+      }
+
+      // the last move's record loses its final byte, as if the write was torn
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+         channel.truncate(channel.size() - 1);
+      }
+      try (GameJournal journal = GameJournal.open(file)) {
+         GameSnapshot game = journal.claim(id);
+         assertNotNull(game);
+         assertEquals(5, game.moveCount(), "the torn move is dropped, the rest kept");
+      }
+      assertEquals(whole, Files.size(file), "reopening rewrites the journal without the torn record");
+
+      // a record that fails its check ends the journal just the same
+      try (GameJournal journal = GameJournal.open(file)) {
+         GameSnapshot game = journal.claim(id);
+         journal.move(id, move(game.replay(new Position(), null).getPosition(), OPENING[5]), 0);
+      }
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+         ByteBuffer last = ByteBuffer.allocate(1);
+         channel.read(last, channel.size() - 1);
+         last.put(0, (byte) (last.get(0) ^ 0x5A)).rewind();
+         channel.write(last, channel.size() - 1);
+      }
+      try (GameJournal journal = GameJournal.open(file)) {
+         assertEquals(5, journal.claim(id).moveCount());
+      }
+   }
+
+   @Test
+   void notAJournalIsRefused() throws IOException {
+      Path file = directory.resolve("other");
+      Files.writeString(file, "not a journal at all");
+      assertThrows(IOException.class, () -> GameJournal.open(file).close());
+   }
+
+   // saves a game from the standard position with the first moves of the opening
+   private static long begin(GameJournal journal, int moves) throws IOException {
+      Position position = Position.fromFEN(PGN.STANDARD_FEN);
+      long id = journal.begin(new GameSnapshot(position));
+      for (int ply = 0; ply < moves; ply++) {
+         int move = move(position, OPENING[ply]);
+         position.makeMove(move);
+         journal.move(id, move, 0);
+      }
+      return id;
+   }
+
+   private static int move(Position position, String uci) {
+      int[] moves = new int[MoveGenerator.MAX_MOVES];
+      int count = MoveGenerator.generate(position, moves);
+      for (int i = 0; i < count; i++) {
+         if (Move.toString(moves[i]).equals(uci)) return moves[i];
+      }
+      throw new AssertionError(uci + " is not legal in " + position.toFEN());
+   }
+}
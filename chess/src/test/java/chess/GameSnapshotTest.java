@@ -0,0 +1,90 @@
+package chess;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Round-trips {@link GameSnapshot}s through their binary and text forms,
+ * and replays them to the position the game reached.
+ * @author wcaine
+ */
+class GameSnapshotTest {
+
+   @Test
+   void untimedGameRoundTrips() {
+      Random random = new Random(7);
+      for (String fen : Perft.SUITE) {
+         Position position = Position.fromFEN(fen);
+         GameSnapshot snapshot = new GameSnapshot(position);
+         play(position, snapshot, random, 120, false);
+
+         assertSame(snapshot, position, read(snapshot));
+         assertSame(snapshot, position, GameSnapshot.decode(snapshot.encode()));
+      }
+   }
+
+   @Test
+   void timedGameRoundTrips() {
+      Random random = new Random(11);
+      Position position = Position.fromFEN(Perft.SUITE[1]);
+      GameSnapshot snapshot = new GameSnapshot(position);
+      snapshot.setClock(new Clock(300_000_000_000L, 2_000_000_000L, 0, 40), System.nanoTime());
+      play(position, snapshot, random, 90, true);
+      snapshot.setTimes(123_456, 7_890);
+
+      GameSnapshot copy = read(snapshot);
+      assertSame(snapshot, position, copy);
+      assertTrue(copy.isTimed());
+      for (int ply = 0; ply < snapshot.moveCount(); ply++) {
+         assertEquals(snapshot.millisAfter(ply), copy.millisAfter(ply));
+      }
+      assertEquals(123_456, copy.millisLeft(Position.WHITE));
+      assertEquals(7_890, copy.millisLeft(Position.BLACK));
+      Clock clock = copy.clock();
+      assertEquals(300_000_000_000L, clock.base());
+      assertEquals(123_456_000_000L, clock.remaining(Position.WHITE, System.nanoTime()));
+   }
+
+   @Test
+   void startingPositionKeepsItsState() {
+      // en passant square, castling rights and both move clocks
+      Position position = Position.fromFEN("rnbqkb1r/pp1p1ppp/5n2/2pPp3/8/8/PPP1PPPP/RNBQKBNR w KQkq e6 3 4");
+      GameSnapshot copy = read(new GameSnapshot(position));
+      assertFalse(copy.isTimed());
+      assertEquals(position.toFEN(), copy.startPosition(new Position()).toFEN());
+   }
+
+   // plays random legal moves, recording each with a time left that counts down
+   private static void play(Position position, GameSnapshot snapshot, Random random, int plies, boolean timed) {
+      int[] moves = new int[MoveGenerator.MAX_MOVES];
+      for (int ply = 0; ply < plies; ply++) {
+         int count = MoveGenerator.generate(position, moves);
+         if (count == 0 || position.halfmove() >= 100) break;
+         int move = moves[random.nextInt(count)];
+         position.makeMove(move);
+         snapshot.addMove(move, timed ? 300_000 - ply * 1_000L : 0);
+      }
+   }
+
+   private static GameSnapshot read(GameSnapshot snapshot) {
+      ByteBuffer buffer = snapshot.write(ByteBuffer.allocate(snapshot.maxBytes()));
+      assertTrue(buffer.position() <= snapshot.maxBytes());
+      return GameSnapshot.read(buffer.flip());
+   }
+
+   private static void assertSame(GameSnapshot expected, Position reached, GameSnapshot actual) {
+      assertEquals(expected.moveCount(), actual.moveCount());
+      for (int ply = 0; ply < expected.moveCount(); ply++) {
+         assertEquals(expected.move(ply), actual.move(ply));
+      }
+      Position replayed = new Position();
+      actual.replay(replayed, null);
+      assertEquals(reached.toFEN(), replayed.toFEN());
+      assertEquals(reached.key(), replayed.key());
+   }
+}
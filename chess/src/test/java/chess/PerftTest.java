@@ -0,0 +1,40 @@
+package chess;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks the {@link MoveGenerator} against the known perft totals of the
+ * {@link Perft} suite, up to a few million leaves a position.
+ * @author wcaine
+ */
+class PerftTest {
+
+   private static final long MAX_LEAVES = 20_000_000;
+
+   @Test
+   void suiteMatchesKnownCounts() {
+      for (int i = 0; i < Perft.SUITE.length; i++) {
+         for (int depth = 1; depth <= Perft.EXPECTED[i].length && Perft.EXPECTED[i][depth - 1] <= MAX_LEAVES; depth++) {
+            assertPerft(Perft.SUITE[i], depth, Perft.EXPECTED[i][depth - 1]);
+         }
+      }
+   }
+
+   @Test
+   void noCastlingWithoutKingAtHome() {
+      // the right is there, and the rook, but the king has left e1
+      long[] expected = {24, 107, 2979, 16696};
+      for (int depth = 1; depth <= expected.length; depth++) {
+         assertPerft("4k3/8/8/8/8/8/8/R2K3R w K - 0 1", depth, expected[depth - 1]);
+      }
+   }
+
+   private static void assertPerft(String fen, int depth, long expected) {
+      Position position = Position.fromFEN(fen);
+      String before = position.toFEN();
+      assertEquals(expected, Perft.perft(position, depth), fen + " at depth " + depth);
+      assertEquals(before, position.toFEN(), "perft must leave the position as it was");
+   }
+}
@@ -0,0 +1,41 @@
+package chess;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Generates the basic endgame tables and checks their longest mates against
+ * the known values.
+ * @author wcaine
+ */
+class TablebaseTest {
+
+   @TempDir
+   Path directory;
+
+   @Test
+   void longestMatesAreKnownValues() throws IOException {
+      TablebaseGenerator generator = new TablebaseGenerator(directory, Runtime.getRuntime().availableProcessors());
+      for (String name : new String[] {"KQvK", "KRvK", "KPvK", "KBNvK"}) {
+         generator.generate(name);
+      }
+      assertEquals(20, longestMate("KQvK"));
+      assertEquals(32, longestMate("KRvK"));
+      assertEquals(56, longestMate("KPvK"));
+      assertEquals(66, longestMate("KBNvK"));
+   }
+
+   // in plies, over every position of the table
+   private int longestMate(String name) throws IOException {
+      Tablebase table = Tablebase.open(directory.resolve(name + ".tb"));
+      int longest = 0;
+      for (long index = 0; index < table.positions(); index++) {
+         longest = Math.max(longest, table.value(index));
+      }
+      return Math.max(longest - 1, 0);
+   }
+}
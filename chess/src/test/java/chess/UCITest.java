@@ -0,0 +1,35 @@
+package chess;
+
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.time.Duration;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Drives the {@link UCI} front end with scripted commands, as a GUI would.
+ * @author wcaine
+ */
+class UCITest {
+
+   @Test
+   void stopRightAfterGoInfiniteIsNotLost() {
+      // the stop arrives before the search thread has started searching, most runs
+      String commands = "uci\nisready\nposition startpos\ngo infinite\nstop\nquit\n";
+      for (int run = 0; run < 20; run++) {
+         String output = assertTimeoutPreemptively(Duration.ofSeconds(10), () -> run(commands, 2));
+         assertTrue(output.contains("bestmove "), output);
+      }
+   }
+
+   private static String run(String commands, int threads) {
+      StringWriter out = new StringWriter();
+      SearchPool engine = new SearchPool(new TranspositionTable(1), threads);
+      new UCI(new BufferedReader(new StringReader(commands)), new PrintWriter(out), engine).run();
+      return out.toString();
+   }
+}